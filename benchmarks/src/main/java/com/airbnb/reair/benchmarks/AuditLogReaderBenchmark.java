@@ -0,0 +1,156 @@
+package com.airbnb.reair.benchmarks;
+
+import com.airbnb.reair.db.EmbeddedMySqlDb;
+import com.airbnb.reair.db.StaticDbConnectionFactory;
+import com.airbnb.reair.hive.hooks.AuditLogHookUtils;
+import com.airbnb.reair.hive.hooks.HiveOperation;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntry;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntryException;
+import com.airbnb.reair.incremental.auditlog.AuditLogReader;
+import com.airbnb.reair.utils.ReplicationTestUtils;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes the audit log reader to read entries from an embedded MySQL DB and
+ * group the joined rows for each query into audit log entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AuditLogReaderBenchmark {
+
+  private static final String AUDIT_LOG_DB_NAME = "audit_log_db";
+  private static final String AUDIT_LOG_TABLE_NAME = "audit_log";
+  private static final String AUDIT_LOG_OBJECTS_TABLE_NAME = "audit_objects";
+  private static final String AUDIT_LOG_MAP_RED_STATS_TABLE_NAME = "mapred_stats";
+
+  // Number of entries to read with each call to the reader, like the replication server
+  private static final int READ_BATCH_SIZE = 128;
+
+  @Param({"2000"})
+  public int entryCount;
+
+  // Number of partitions written by each query. Each partition is a row in the objects table.
+  @Param({"1", "10"})
+  public int partitionsPerEntry;
+
+  private EmbeddedMySqlDb embeddedMySqlDb;
+  private StaticDbConnectionFactory dbConnectionFactory;
+
+  /**
+   * Starts the embedded DB and fills the audit log tables.
+   *
+   * @throws SQLException if there's an error setting up the DB
+   */
+  @Setup
+  public void setUp() throws SQLException {
+    embeddedMySqlDb = new EmbeddedMySqlDb();
+    embeddedMySqlDb.startDb();
+
+    AuditLogHookUtils.setupAuditLogTables(
+        new StaticDbConnectionFactory(
+            ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb),
+            embeddedMySqlDb.getUsername(),
+            embeddedMySqlDb.getPassword()),
+        AUDIT_LOG_DB_NAME,
+        AUDIT_LOG_TABLE_NAME,
+        AUDIT_LOG_OBJECTS_TABLE_NAME,
+        AUDIT_LOG_MAP_RED_STATS_TABLE_NAME);
+
+    dbConnectionFactory = new StaticDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb, AUDIT_LOG_DB_NAME),
+        embeddedMySqlDb.getUsername(),
+        embeddedMySqlDb.getPassword());
+
+    insertEntries();
+  }
+
+  private void insertEntries() throws SQLException {
+    Connection connection = dbConnectionFactory.getConnection();
+    String auditLogSql = String.format(
+        "INSERT INTO %s (id, query_id, command_type, command) VALUES (?, ?, ?, ?)",
+        AUDIT_LOG_TABLE_NAME);
+    String objectsSql = String.format(
+        "INSERT INTO %s (audit_log_id, category, type, name, serialized_object) "
+            + "VALUES (?, ?, ?, ?, ?)",
+        AUDIT_LOG_OBJECTS_TABLE_NAME);
+
+    try (PreparedStatement auditLogPs = connection.prepareStatement(auditLogSql);
+        PreparedStatement objectsPs = connection.prepareStatement(objectsSql)) {
+      for (int id = 1; id <= entryCount; id++) {
+        Table table = BenchmarkObjects.makeTable("benchmark_db", "table_" + (id % 100));
+        String tableName = table.getDbName() + "." + table.getTableName();
+
+        auditLogPs.setLong(1, id);
+        auditLogPs.setString(2, "query_" + id);
+        auditLogPs.setString(3, HiveOperation.QUERY.name());
+        auditLogPs.setString(4, "INSERT OVERWRITE TABLE " + tableName);
+        auditLogPs.addBatch();
+
+        for (int i = 0; i < partitionsPerEntry; i++) {
+          String ds = String.format("2016-06-%02d-%d", i % 28 + 1, id);
+          objectsPs.setLong(1, id);
+          objectsPs.setString(2, "OUTPUT");
+          objectsPs.setString(3, "PARTITION");
+          objectsPs.setString(4, tableName + "/ds=" + ds);
+          objectsPs.setString(5,
+              BenchmarkObjects.toJson(BenchmarkObjects.makePartition(table, ds)));
+          objectsPs.addBatch();
+        }
+      }
+      auditLogPs.executeBatch();
+      objectsPs.executeBatch();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    dbConnectionFactory.close();
+    embeddedMySqlDb.stopDb();
+  }
+
+  /**
+   * Reads all the entries in the log.
+   *
+   * @return the number of entries read
+   *
+   * @throws AuditLogEntryException if there's an error reading an entry
+   * @throws SQLException if there's an error querying the DB
+   */
+  @Benchmark
+  public int readAll() throws AuditLogEntryException, SQLException {
+    AuditLogReader reader = new AuditLogReader(new Configuration(), dbConnectionFactory,
+        AUDIT_LOG_TABLE_NAME, AUDIT_LOG_OBJECTS_TABLE_NAME, AUDIT_LOG_MAP_RED_STATS_TABLE_NAME, 0);
+    int entriesRead = 0;
+    while (true) {
+      List<AuditLogEntry> entries = reader.resilientNext(READ_BATCH_SIZE);
+      if (entries.isEmpty()) {
+        return entriesRead;
+      }
+      entriesRead += entries.size();
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.airbnb.reair.benchmarks;
+
+import org.apache.hadoop.hive.metastore.TableType;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.SerDeInfo;
+import org.apache.hadoop.hive.metastore.api.StorageDescriptor;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TJSONProtocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates Hive objects that look like the ones seen in production for use in benchmarks.
+ */
+class BenchmarkObjects {
+
+  private static final int COLUMN_COUNT = 20;
+
+  private static StorageDescriptor makeStorageDescriptor(String location, int columnCount) {
+    List<FieldSchema> columns = new ArrayList<>();
+    for (int i = 0; i < columnCount; i++) {
+      columns.add(new FieldSchema("column_" + i, i % 2 == 0 ? "string" : "bigint",
+          "Comment for column " + i));
+    }
+
+    SerDeInfo serDeInfo = new SerDeInfo();
+    serDeInfo.setSerializationLib("org.apache.hadoop.hive.ql.io.orc.OrcSerde");
+    serDeInfo.setParameters(Collections.singletonMap("serialization.format", "1"));
+
+    StorageDescriptor sd = new StorageDescriptor();
+    sd.setCols(columns);
+    sd.setLocation(location);
+    sd.setInputFormat("org.apache.hadoop.hive.ql.io.orc.OrcInputFormat");
+    sd.setOutputFormat("org.apache.hadoop.hive.ql.io.orc.OrcOutputFormat");
+    sd.setSerdeInfo(serDeInfo);
+    sd.setParameters(new HashMap<>());
+    return sd;
+  }
+
+  private static Map<String, String> makeParameters() {
+    Map<String, String> parameters = new HashMap<>();
+    parameters.put("transient_lastDdlTime", "1466121600");
+    parameters.put("numFiles", "32");
+    parameters.put("totalSize", "1073741824");
+    return parameters;
+  }
+
+  static Table makeTable(String dbName, String tableName) {
+    return makeTable(dbName, tableName, COLUMN_COUNT);
+  }
+
+  static Table makeTable(String dbName, String tableName, int columnCount) {
+    Table table = new Table();
+    table.setDbName(dbName);
+    table.setTableName(tableName);
+    table.setOwner("benchmark");
+    table.setTableType(TableType.MANAGED_TABLE.name());
+    table.setPartitionKeys(Collections.singletonList(new FieldSchema("ds", "string", null)));
+    table.setSd(makeStorageDescriptor(
+        String.format("hdfs://warehouse/%s.db/%s", dbName, tableName), columnCount));
+    table.setParameters(makeParameters());
+    return table;
+  }
+
+  static Partition makePartition(Table table, String ds) {
+    Partition partition = new Partition();
+    partition.setDbName(table.getDbName());
+    partition.setTableName(table.getTableName());
+    partition.setValues(Collections.singletonList(ds));
+    partition.setSd(makeStorageDescriptor(table.getSd().getLocation() + "/ds=" + ds,
+        table.getSd().getColsSize()));
+    partition.setParameters(makeParameters());
+    return partition;
+  }
+
+  /**
+   * Serialize the object in the same way as the audit log hooks.
+   */
+  static String toJson(TBase<?, ?> object) {
+    try {
+      TSerializer serializer = new TSerializer(new TJSONProtocol.Factory());
+      return serializer.toString(object, "UTF-8");
+    } catch (TException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
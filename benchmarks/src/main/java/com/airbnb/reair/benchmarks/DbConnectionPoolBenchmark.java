@@ -0,0 +1,268 @@
+package com.airbnb.reair.benchmarks;
+
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.db.DbKeyValueStore;
+import com.airbnb.reair.db.EmbeddedMySqlDb;
+import com.airbnb.reair.db.PooledDbConnectionFactory;
+import com.airbnb.reair.db.StaticDbConnectionFactory;
+import com.airbnb.reair.hive.hooks.AuditLogHookUtils;
+import com.airbnb.reair.hive.hooks.HiveOperation;
+import com.airbnb.reair.incremental.ReplicationOperation;
+import com.airbnb.reair.incremental.ReplicationStatus;
+import com.airbnb.reair.incremental.StateUpdateException;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntry;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntryException;
+import com.airbnb.reair.incremental.auditlog.AuditLogReader;
+import com.airbnb.reair.incremental.db.PersistedJobInfo;
+import com.airbnb.reair.incremental.db.PersistedJobInfoStore;
+import com.airbnb.reair.utils.ReplicationTestUtils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput of the audit log reader, the job info store, and the key/value store
+ * when they run at the same time against an embedded MySQL DB, like in the replication server. A
+ * pool size of 1 serializes all of the traffic on one connection, like StaticDbConnectionFactory
+ * did before the DB connections could be pooled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DbConnectionPoolBenchmark {
+
+  private static final Log LOG = LogFactory.getLog(DbConnectionPoolBenchmark.class);
+
+  private static final String DB_NAME = "replication_db";
+  private static final String AUDIT_LOG_TABLE_NAME = "audit_log";
+  private static final String AUDIT_LOG_OBJECTS_TABLE_NAME = "audit_objects";
+  private static final String AUDIT_LOG_MAP_RED_STATS_TABLE_NAME = "mapred_stats";
+  private static final String STATE_TABLE_NAME = "replication_jobs";
+  private static final String KEY_VALUE_TABLE_NAME = "key_value";
+
+  private static final int AUDIT_LOG_ENTRY_COUNT = 2000;
+  private static final int PARTITIONS_PER_ENTRY = 10;
+  private static final int READ_BATCH_SIZE = 128;
+  private static final int JOB_COUNT = 1000;
+  private static final int KEY_COUNT = 100;
+
+  @Param({"1", "8"})
+  public int poolSize;
+
+  private EmbeddedMySqlDb embeddedMySqlDb;
+  private PooledDbConnectionFactory dbConnectionFactory;
+  private PersistedJobInfoStore jobStore;
+  private DbKeyValueStore kvStore;
+  private List<PersistedJobInfo> jobs;
+
+  private final AtomicInteger nextJobIndex = new AtomicInteger();
+  private final AtomicInteger nextKeyIndex = new AtomicInteger();
+
+  /**
+   * A reader for each reading thread, since readers keep track of their position in the log.
+   */
+  @State(Scope.Thread)
+  public static class ReaderState {
+    private AuditLogReader reader;
+
+    /**
+     * Creates the reader.
+     *
+     * @param benchmark the state with the connection pool to read with
+     *
+     * @throws SQLException if there's an error querying the DB
+     */
+    @Setup
+    public void setUp(DbConnectionPoolBenchmark benchmark) throws SQLException {
+      reader = new AuditLogReader(new Configuration(), benchmark.dbConnectionFactory,
+          AUDIT_LOG_TABLE_NAME, AUDIT_LOG_OBJECTS_TABLE_NAME, AUDIT_LOG_MAP_RED_STATS_TABLE_NAME,
+          0);
+    }
+  }
+
+  /**
+   * Starts the embedded DB, creates the tables, and fills the audit log and state tables.
+   *
+   * @throws SQLException if there's an error setting up the DB
+   * @throws StateUpdateException if there's an error creating the jobs
+   */
+  @Setup
+  public void setUp() throws SQLException, StateUpdateException {
+    embeddedMySqlDb = new EmbeddedMySqlDb();
+    embeddedMySqlDb.startDb();
+
+    AuditLogHookUtils.setupAuditLogTables(
+        new StaticDbConnectionFactory(
+            ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb),
+            embeddedMySqlDb.getUsername(),
+            embeddedMySqlDb.getPassword()),
+        DB_NAME,
+        AUDIT_LOG_TABLE_NAME,
+        AUDIT_LOG_OBJECTS_TABLE_NAME,
+        AUDIT_LOG_MAP_RED_STATS_TABLE_NAME);
+
+    dbConnectionFactory = new PooledDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb, DB_NAME),
+        embeddedMySqlDb.getUsername(),
+        embeddedMySqlDb.getPassword(),
+        poolSize);
+
+    try (Connection connection = dbConnectionFactory.getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute(PersistedJobInfoStore.getCreateTableSql(STATE_TABLE_NAME));
+      statement.execute(DbKeyValueStore.getCreateTableSql(KEY_VALUE_TABLE_NAME));
+    }
+    insertAuditLogEntries();
+
+    jobStore = new PersistedJobInfoStore(new Configuration(), dbConnectionFactory,
+        STATE_TABLE_NAME);
+    jobs = new ArrayList<>();
+    for (int i = 0; i < JOB_COUNT; i++) {
+      jobs.add(PersistedJobInfo.createDeferred(
+          ReplicationOperation.COPY_PARTITION,
+          ReplicationStatus.PENDING,
+          Optional.of(new Path("hdfs://cluster/benchmark_db/table_" + i)),
+          "src_cluster",
+          new HiveObjectSpec("benchmark_db", "table_" + i, "ds=2016-06-17"),
+          new ArrayList<>(),
+          Optional.of("1"),
+          Optional.empty(),
+          Optional.empty(),
+          new HashMap<>()));
+    }
+    jobStore.createMany(jobs);
+
+    kvStore = new DbKeyValueStore(dbConnectionFactory, KEY_VALUE_TABLE_NAME);
+  }
+
+  private void insertAuditLogEntries() throws SQLException {
+    String auditLogSql = String.format(
+        "INSERT INTO %s (id, query_id, command_type, command) VALUES (?, ?, ?, ?)",
+        AUDIT_LOG_TABLE_NAME);
+    String objectsSql = String.format(
+        "INSERT INTO %s (audit_log_id, category, type, name, serialized_object) "
+            + "VALUES (?, ?, ?, ?, ?)",
+        AUDIT_LOG_OBJECTS_TABLE_NAME);
+
+    try (Connection connection = dbConnectionFactory.getConnection();
+        PreparedStatement auditLogPs = connection.prepareStatement(auditLogSql);
+        PreparedStatement objectsPs = connection.prepareStatement(objectsSql)) {
+      for (int id = 1; id <= AUDIT_LOG_ENTRY_COUNT; id++) {
+        Table table = BenchmarkObjects.makeTable("benchmark_db", "table_" + (id % 100));
+        String tableName = table.getDbName() + "." + table.getTableName();
+
+        auditLogPs.setLong(1, id);
+        auditLogPs.setString(2, "query_" + id);
+        auditLogPs.setString(3, HiveOperation.QUERY.name());
+        auditLogPs.setString(4, "INSERT OVERWRITE TABLE " + tableName);
+        auditLogPs.addBatch();
+
+        for (int i = 0; i < PARTITIONS_PER_ENTRY; i++) {
+          String ds = String.format("2016-06-%02d-%d", i % 28 + 1, id);
+          objectsPs.setLong(1, id);
+          objectsPs.setString(2, "OUTPUT");
+          objectsPs.setString(3, "PARTITION");
+          objectsPs.setString(4, tableName + "/ds=" + ds);
+          objectsPs.setString(5,
+              BenchmarkObjects.toJson(BenchmarkObjects.makePartition(table, ds)));
+          objectsPs.addBatch();
+        }
+      }
+      auditLogPs.executeBatch();
+      objectsPs.executeBatch();
+    }
+  }
+
+  /**
+   * Logs the statement cache statistics and stops the DB.
+   */
+  @TearDown
+  public void tearDown() {
+    LOG.info(String.format("Pool size %d: %d statement cache hits, %d misses",
+        poolSize, dbConnectionFactory.getStatementCacheHits(),
+        dbConnectionFactory.getStatementCacheMisses()));
+    dbConnectionFactory.close();
+    embeddedMySqlDb.stopDb();
+  }
+
+  /**
+   * Reads the next batch of entries from the audit log, starting over at the end of the log.
+   *
+   * @param state the reader for this thread
+   * @return the number of entries read
+   *
+   * @throws AuditLogEntryException if there's an error reading an entry
+   * @throws SQLException if there's an error querying the DB
+   */
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(4)
+  public int readAuditLog(ReaderState state) throws AuditLogEntryException, SQLException {
+    List<AuditLogEntry> entries = state.reader.resilientNext(READ_BATCH_SIZE);
+    if (entries.isEmpty()) {
+      state.reader.setReadAfterId(0);
+    }
+    return entries.size();
+  }
+
+  /**
+   * Writes a status change for a job, like a worker does when it starts a job.
+   *
+   * @throws StateUpdateException if there's an error writing the job
+   */
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(2)
+  public void persistJob() throws StateUpdateException {
+    PersistedJobInfo job = jobs.get(Math.floorMod(nextJobIndex.getAndIncrement(), JOB_COUNT));
+    jobStore.changeStatusAndPersist(ReplicationStatus.RUNNING, job);
+  }
+
+  /**
+   * Sets a key and reads it back, like the server does when it checkpoints its position in the
+   * audit log.
+   *
+   * @return the value that was read
+   *
+   * @throws SQLException if there's an error querying the DB
+   */
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(2)
+  public Optional<String> setAndGetKey() throws SQLException {
+    String key = "key_" + Math.floorMod(nextKeyIndex.getAndIncrement(), KEY_COUNT);
+    kvStore.set(key, "value");
+    return kvStore.get(key);
+  }
+}
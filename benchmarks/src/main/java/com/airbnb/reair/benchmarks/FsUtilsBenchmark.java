@@ -0,0 +1,99 @@
+package com.airbnb.reair.benchmarks;
+
+import com.airbnb.reair.common.DirectoryLister;
+import com.airbnb.reair.common.FsUtils;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures comparing two identical directory trees on the local filesystem, as is done to check
+ * whether data needs to be copied.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FsUtilsBenchmark {
+
+  private static final int FILES_PER_DIRECTORY = 50;
+
+  @Param({"100"})
+  public int directoryCount;
+
+  @Param({"1", "8"})
+  public int listingParallelism;
+
+  private File tmpDir;
+  private Configuration conf;
+  private Path srcPath;
+  private Path destPath;
+
+  private static void createTree(File root, int directoryCount) throws IOException {
+    for (int i = 0; i < directoryCount; i++) {
+      File directory = new File(root, String.format("ds=%04d", i));
+      if (!directory.mkdirs()) {
+        throw new IOException("Unable to create " + directory);
+      }
+      for (int j = 0; j < FILES_PER_DIRECTORY; j++) {
+        try (OutputStream out = new FileOutputStream(new File(directory, "part-" + j))) {
+          out.write(new byte[j]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates the directory trees to compare.
+   *
+   * @throws IOException if there's an error creating the files
+   */
+  @Setup
+  public void setUp() throws IOException {
+    tmpDir = Files.createTempDirectory("reair_benchmark").toFile();
+    File srcDir = new File(tmpDir, "src");
+    File destDir = new File(tmpDir, "dest");
+    createTree(srcDir, directoryCount);
+    createTree(destDir, directoryCount);
+
+    conf = new Configuration();
+    conf.setClass("fs.file.impl", RawLocalFileSystem.class, FileSystem.class);
+    conf.setInt(DirectoryLister.PARALLELISM_KEY, listingParallelism);
+    srcPath = new Path("file://" + srcDir.getAbsolutePath());
+    destPath = new Path("file://" + destDir.getAbsolutePath());
+  }
+
+  @TearDown
+  public void tearDown() {
+    FileUtil.fullyDelete(tmpDir);
+  }
+
+  @Benchmark
+  public boolean equalDirs() throws IOException {
+    return FsUtils.equalDirs(conf, srcPath, destPath);
+  }
+}
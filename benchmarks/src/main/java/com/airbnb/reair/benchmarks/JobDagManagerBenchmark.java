@@ -0,0 +1,131 @@
+package com.airbnb.reair.benchmarks;
+
+import com.airbnb.reair.multiprocessing.Job;
+import com.airbnb.reair.multiprocessing.JobDagManager;
+import com.airbnb.reair.multiprocessing.Lock;
+import com.airbnb.reair.multiprocessing.LockSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures adding and removing jobs from a JobDagManager that is shared by multiple threads, like
+ * the one in the replication server that is used by the job creation thread and the workers.
+ *
+ * <p>Each thread submits jobs that need a shared lock on a common DB and an exclusive lock on one
+ * of the thread's own tables. Each operation adds one job and removes the oldest job that is
+ * allowed to run, so the number of jobs in the DAG stays roughly constant.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class JobDagManagerBenchmark {
+
+  private static final String DB_LOCK = "benchmark_db";
+
+  private static class BenchmarkJob extends Job {
+    private final LockSet lockSet;
+
+    BenchmarkJob(LockSet lockSet) {
+      this.lockSet = lockSet;
+    }
+
+    @Override
+    public int run() {
+      return 0;
+    }
+
+    @Override
+    public LockSet getRequiredLocks() {
+      return lockSet;
+    }
+  }
+
+  /**
+   * The DAG shared by all threads.
+   */
+  @State(Scope.Benchmark)
+  public static class SharedState {
+    JobDagManager dagManager;
+    final AtomicInteger nextThreadId = new AtomicInteger();
+
+    @Setup
+    public void setUp() {
+      dagManager = new JobDagManager();
+    }
+  }
+
+  /**
+   * Jobs submitted by a single thread.
+   */
+  @State(Scope.Thread)
+  public static class ThreadState {
+    // With fewer tables, more jobs have to wait for an earlier job on the same table
+    @Param({"1", "16"})
+    public int tablesPerThread;
+
+    int threadId;
+    Random random;
+    // Jobs from this thread that have all their locks, oldest first
+    final Deque<Job> runnableJobs = new ArrayDeque<>();
+
+    @Setup
+    public void setUp(SharedState sharedState) {
+      threadId = sharedState.nextThreadId.getAndIncrement();
+      random = new Random(threadId);
+    }
+
+    Job makeJob() {
+      LockSet lockSet = new LockSet();
+      lockSet.add(new Lock(Lock.Type.SHARED, DB_LOCK));
+      lockSet.add(new Lock(Lock.Type.EXCLUSIVE, String.format("%s.thread_%d_table_%d", DB_LOCK,
+          threadId, random.nextInt(tablesPerThread))));
+      return new BenchmarkJob(lockSet);
+    }
+  }
+
+  /**
+   * Adds a job, and removes the oldest runnable job.
+   *
+   * @return the number of jobs that became runnable
+   */
+  @Benchmark
+  @Threads(8)
+  public int addAndRemoveJob(SharedState sharedState, ThreadState threadState) {
+    Job job = threadState.makeJob();
+    if (sharedState.dagManager.addJob(job)) {
+      threadState.runnableJobs.add(job);
+    }
+
+    Job finishedJob = threadState.runnableJobs.poll();
+    if (finishedJob == null) {
+      return 0;
+    }
+    // Only jobs from this thread share this thread's exclusive locks, so only they can become
+    // runnable when this job is removed.
+    int newlyRunnable = 0;
+    for (Job runnableJob : sharedState.dagManager.removeJob(finishedJob)) {
+      threadState.runnableJobs.add(runnableJob);
+      newlyRunnable++;
+    }
+    return newlyRunnable;
+  }
+}
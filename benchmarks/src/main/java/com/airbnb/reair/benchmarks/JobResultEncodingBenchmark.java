@@ -0,0 +1,96 @@
+package com.airbnb.reair.benchmarks;
+
+import com.airbnb.reair.batch.hive.JobResultWritable;
+import com.airbnb.reair.batch.hive.MetastoreReplicationJob;
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.incremental.ReplicationUtils;
+import com.airbnb.reair.incremental.primitives.TaskEstimate;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the tab-separated text and binary encodings that the batch replication MR jobs use to
+ * pass task estimates and object specs between stages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class JobResultEncodingBenchmark {
+
+  private TaskEstimate estimate;
+  private HiveObjectSpec spec;
+  private String serializedJobResult;
+  private JobResultWritable jobResult;
+  private DataOutputBuffer outputBuffer = new DataOutputBuffer();
+  private DataInputBuffer inputBuffer = new DataInputBuffer();
+  private byte[] writtenJobResult;
+
+  /**
+   * Creates the values to encode and decode.
+   */
+  @Setup
+  public void setUp() throws IOException {
+    estimate = new TaskEstimate(TaskEstimate.TaskType.COPY_PARTITION,
+        true,
+        true,
+        Optional.of(new Path("hdfs://src-cluster/warehouse/benchmark_db.db/table/ds=2016-06-17")),
+        Optional.of(new Path("hdfs://dest-cluster/warehouse/benchmark_db.db/table/ds=2016-06-17")));
+    spec = new HiveObjectSpec("benchmark_db", "table", "ds=2016-06-17");
+    serializedJobResult = MetastoreReplicationJob.serializeJobResult(estimate, spec);
+    jobResult = new JobResultWritable(estimate, spec);
+    jobResult.write(outputBuffer);
+    writtenJobResult = new byte[outputBuffer.getLength()];
+    System.arraycopy(outputBuffer.getData(), 0, writtenJobResult, 0, writtenJobResult.length);
+  }
+
+  @Benchmark
+  public String genValue() {
+    return ReplicationUtils.genValue("hdfs://src-cluster/warehouse/benchmark_db.db/table",
+        "hdfs://dest-cluster/warehouse/benchmark_db.db/table", "1073741824", null);
+  }
+
+  @Benchmark
+  public String serializeJobResult() {
+    return MetastoreReplicationJob.serializeJobResult(estimate, spec);
+  }
+
+  @Benchmark
+  public Pair<TaskEstimate, HiveObjectSpec> deserializeJobResult() {
+    return MetastoreReplicationJob.deseralizeJobResult(serializedJobResult);
+  }
+
+  @Benchmark
+  public int writeJobResult() throws IOException {
+    outputBuffer.reset();
+    jobResult.write(outputBuffer);
+    return outputBuffer.getLength();
+  }
+
+  @Benchmark
+  public JobResultWritable readJobResult() throws IOException {
+    inputBuffer.reset(writtenJobResult, writtenJobResult.length);
+    JobResultWritable result = new JobResultWritable();
+    result.readFields(inputBuffer);
+    return result;
+  }
+}
@@ -0,0 +1,80 @@
+package com.airbnb.reair.benchmarks;
+
+import com.airbnb.reair.hive.hooks.ObjectSerializationFormat;
+import com.airbnb.reair.hive.hooks.SerializationException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the formats that the hooks can use for objects in the audit log objects table. The
+ * sizes of the serialized objects are logged during setup since JMH only reports times.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ObjectSerializationFormatBenchmark {
+
+  private static final Log LOG = LogFactory.getLog(ObjectSerializationFormatBenchmark.class);
+
+  @Param({"JSON", "COMPACT", "COMPACT_DEFLATE"})
+  private ObjectSerializationFormat format;
+
+  @Param({"20", "300"})
+  private int columnCount;
+
+  private Table table;
+  private byte[] serializedTable;
+  private byte[] serializedPartition;
+
+  /**
+   * Creates and serializes the objects to convert.
+   */
+  @Setup
+  public void setUp() throws SerializationException {
+    table = BenchmarkObjects.makeTable("benchmark_db", "benchmark_table", columnCount);
+    Partition partition = BenchmarkObjects.makePartition(table, "2016-06-17");
+    serializedTable = format.serialize(table);
+    serializedPartition = format.serialize(partition);
+    LOG.info(String.format("%s with %d columns: %d bytes per table, "
+        + "%d bytes per partition", format, columnCount, serializedTable.length,
+        serializedPartition.length));
+  }
+
+  @Benchmark
+  public byte[] serializeTable() throws SerializationException {
+    return format.serialize(table);
+  }
+
+  @Benchmark
+  public Table deserializeTable() throws SerializationException {
+    Table deserializedTable = new Table();
+    format.deserialize(serializedTable, deserializedTable);
+    return deserializedTable;
+  }
+
+  @Benchmark
+  public Partition deserializePartition() throws SerializationException {
+    Partition deserializedPartition = new Partition();
+    format.deserialize(serializedPartition, deserializedPartition);
+    return deserializedPartition;
+  }
+}
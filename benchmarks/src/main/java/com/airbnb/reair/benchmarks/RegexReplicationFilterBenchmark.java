@@ -0,0 +1,81 @@
+package com.airbnb.reair.benchmarks;
+
+import com.airbnb.reair.common.NamedPartition;
+import com.airbnb.reair.incremental.filter.RegexReplicationFilter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures filtering tables and partitions with a whitelist and blacklist of the kind used in
+ * production configurations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class RegexReplicationFilterBenchmark {
+
+  // Number of distinct objects to filter, so that the results aren't all from the same input
+  private static final int OBJECT_COUNT = 1024;
+
+  private static final String WHITELIST_REGEX = "(core_data|search|payments|db_\\d+)\\..*";
+  private static final String BLACKLIST_REGEX =
+      ".*\\.(tmp_.*|.*_staging)(/.*)?|.*/ds=19[0-9]{2}-.*|search\\.scratch_.*";
+
+  private RegexReplicationFilter filter;
+  private Table[] tables;
+  private NamedPartition[] partitions;
+  private int index = 0;
+
+  /**
+   * Creates the filter and the objects to filter.
+   */
+  @Setup
+  public void setUp() {
+    Configuration conf = new Configuration();
+    conf.set(RegexReplicationFilter.WHITELIST_REGEX_KEY, WHITELIST_REGEX);
+    conf.set(RegexReplicationFilter.BLACKLIST_REGEX_KEY, BLACKLIST_REGEX);
+    filter = new RegexReplicationFilter();
+    filter.setConf(conf);
+
+    String[] dbNames = {"core_data", "search", "payments", "db_7", "adhoc"};
+    String[] tablePrefixes = {"fact_", "dim_", "tmp_", "scratch_"};
+    tables = new Table[OBJECT_COUNT];
+    partitions = new NamedPartition[OBJECT_COUNT];
+    for (int i = 0; i < OBJECT_COUNT; i++) {
+      String tableName = tablePrefixes[i % tablePrefixes.length] + "table_" + i
+          + (i % 7 == 0 ? "_staging" : "");
+      Table table = BenchmarkObjects.makeTable(dbNames[i % dbNames.length], tableName);
+      String ds = String.format("%d-06-17", i % 10 == 0 ? 1970 : 2016);
+      tables[i] = table;
+      partitions[i] = new NamedPartition("ds=" + ds, BenchmarkObjects.makePartition(table, ds));
+    }
+  }
+
+  @Benchmark
+  public boolean acceptTable() {
+    index = (index + 1) % OBJECT_COUNT;
+    return filter.accept(tables[index]);
+  }
+
+  @Benchmark
+  public boolean acceptPartition() {
+    index = (index + 1) % OBJECT_COUNT;
+    return filter.accept(tables[index], partitions[index]);
+  }
+}
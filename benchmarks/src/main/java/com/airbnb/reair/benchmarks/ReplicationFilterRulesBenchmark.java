@@ -0,0 +1,118 @@
+package com.airbnb.reair.benchmarks;
+
+import com.airbnb.reair.common.NamedPartition;
+import com.airbnb.reair.incremental.filter.CompiledRegexReplicationFilter;
+import com.airbnb.reair.incremental.filter.RegexReplicationFilter;
+import com.airbnb.reair.incremental.filter.ReplicationFilter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares filters on a whitelist with 10k rules, which is what the whitelist looks like when
+ * tables are added to replication one by one. Lookups cycle through 1M partitions (10k tables with
+ * 100 partitions each), visiting the partitions of a table one after another like the audit log
+ * does for a query that writes many partitions.
+ *
+ * <p>RegexReplicationFilter compiles the whitelist for every lookup, so it completes far fewer
+ * operations per iteration than the compiled filter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ReplicationFilterRulesBenchmark {
+
+  private static final int RULE_COUNT = 10000;
+  private static final int TABLE_COUNT = 10000;
+  private static final int PARTITIONS_PER_TABLE = 100;
+  // One in this many rules is a regex instead of a table name
+  private static final int REGEX_RULE_INTERVAL = 100;
+
+  private static final String BLACKLIST_REGEX =
+      ".*\\.(tmp_.*|.*_staging)(/.*)?|.*/ds=19[0-9]{2}-.*|search\\.scratch_.*";
+
+  @Param({"RegexReplicationFilter", "CompiledRegexReplicationFilter"})
+  public String filterClass;
+
+  private ReplicationFilter filter;
+  private Table[] tables;
+  private NamedPartition[] partitions;
+  private int index = 0;
+
+  private static String makeWhitelistRegex() {
+    StringBuilder regex = new StringBuilder();
+    for (int i = 0; i < RULE_COUNT; i++) {
+      if (i > 0) {
+        regex.append("|");
+      }
+      if (i % REGEX_RULE_INTERVAL == 0) {
+        regex.append(String.format("db_%d\\.events_\\d+(/.*)?", i % 10));
+      } else {
+        // Every other table is whitelisted
+        regex.append(String.format("^db_%d\\.table_%d$|^db_%d\\.table_%d/.*",
+            i % 10, 2 * i, i % 10, 2 * i));
+      }
+    }
+    return regex.toString();
+  }
+
+  /**
+   * Creates the filter and the objects to filter.
+   */
+  @Setup
+  public void setUp() {
+    Configuration conf = new Configuration();
+    conf.set(RegexReplicationFilter.WHITELIST_REGEX_KEY, makeWhitelistRegex());
+    conf.set(RegexReplicationFilter.BLACKLIST_REGEX_KEY, BLACKLIST_REGEX);
+    if (filterClass.equals("RegexReplicationFilter")) {
+      filter = new RegexReplicationFilter();
+    } else {
+      filter = new CompiledRegexReplicationFilter();
+    }
+    filter.setConf(conf);
+
+    tables = new Table[TABLE_COUNT];
+    for (int i = 0; i < TABLE_COUNT; i++) {
+      Table table = new Table();
+      table.setDbName("db_" + (i % 10));
+      table.setTableName((i % 50 == 0 ? "events_" : "table_") + i);
+      tables[i] = table;
+    }
+    partitions = new NamedPartition[PARTITIONS_PER_TABLE];
+    for (int i = 0; i < PARTITIONS_PER_TABLE; i++) {
+      // The filter only looks at the partition name
+      partitions[i] = new NamedPartition(
+          String.format("ds=%d-01-%02d/hr=%02d", i % 10 == 0 ? 1970 : 2016, i % 28 + 1, i % 24),
+          null);
+    }
+  }
+
+  @Benchmark
+  public boolean acceptTable() {
+    index = (index + 1) % TABLE_COUNT;
+    return filter.accept(tables[index]);
+  }
+
+  @Benchmark
+  public boolean acceptPartition() {
+    index = (index + 1) % (TABLE_COUNT * PARTITIONS_PER_TABLE);
+    return filter.accept(tables[index / PARTITIONS_PER_TABLE],
+        partitions[index % PARTITIONS_PER_TABLE]);
+  }
+}
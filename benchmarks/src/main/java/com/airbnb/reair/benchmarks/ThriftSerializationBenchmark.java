@@ -0,0 +1,77 @@
+package com.airbnb.reair.benchmarks;
+
+import com.airbnb.reair.incremental.MetadataException;
+import com.airbnb.reair.incremental.ReplicationUtils;
+
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of Hive Thrift objects to and from JSON. The hooks serialize every
+ * output object of a query, and the audit log reader deserializes them again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ThriftSerializationBenchmark {
+
+  private Table table;
+  private Partition partition;
+  private String serializedTable;
+  private String serializedPartition;
+
+  /**
+   * Creates the objects to convert.
+   */
+  @Setup
+  public void setUp() {
+    table = BenchmarkObjects.makeTable("benchmark_db", "benchmark_table");
+    partition = BenchmarkObjects.makePartition(table, "2016-06-17");
+    serializedTable = BenchmarkObjects.toJson(table);
+    serializedPartition = BenchmarkObjects.toJson(partition);
+  }
+
+  @Benchmark
+  public String serializeTable() throws TException {
+    TSerializer serializer = new TSerializer(new TJSONProtocol.Factory());
+    return serializer.toString(table, "UTF-8");
+  }
+
+  @Benchmark
+  public String serializePartition() throws TException {
+    TSerializer serializer = new TSerializer(new TJSONProtocol.Factory());
+    return serializer.toString(partition, "UTF-8");
+  }
+
+  @Benchmark
+  public Table deserializeTable() throws MetadataException {
+    Table deserializedTable = new Table();
+    ReplicationUtils.deserializeObject(serializedTable, deserializedTable);
+    return deserializedTable;
+  }
+
+  @Benchmark
+  public Partition deserializePartition() throws MetadataException {
+    Partition deserializedPartition = new Partition();
+    ReplicationUtils.deserializeObject(serializedPartition, deserializedPartition);
+    return deserializedPartition;
+  }
+}
@@ -0,0 +1,456 @@
+package com.airbnb.reair.hive.hooks;
+
+import com.airbnb.reair.db.DbCredentials;
+import com.airbnb.reair.utils.RetryingTaskRunner;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes audit log records to the DB from a background thread, so that queries don't wait on the
+ * DB to finish. Records are added to a bounded queue, and a daemon thread writes the queued records
+ * in batches using a connection that is kept open between batches. The records in a batch are
+ * written in a single transaction.
+ *
+ * <p>When the JVM shuts down, a shutdown hook waits for queued records to be written, up to a
+ * configurable deadline. Records that haven't been written by then are lost.
+ */
+public class AsyncAuditLogWriter {
+
+  public static Logger LOG = Logger.getLogger(AsyncAuditLogWriter.class);
+
+  // Number of attempts to make when writing a batch
+  private static final int NUM_ATTEMPTS = 10;
+  // Will wait BASE_SLEEP * 2 ^ (attempt no.) between attempts
+  private static final int BASE_SLEEP = 1;
+  // How often the writer thread checks if it has been closed when the queue is empty
+  private static final long POLL_INTERVAL_MS = 100;
+  // When records are dropped because the queue is full, log a warning for every this many
+  private static final long DROP_LOG_INTERVAL = 1000;
+
+  public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+  public static final int DEFAULT_BATCH_SIZE = 100;
+  public static final long DEFAULT_SHUTDOWN_FLUSH_TIMEOUT_MS = 10000;
+
+  /**
+   * What to do when a record is added while the queue is full.
+   */
+  public enum FullQueuePolicy {
+    // Wait for space in the queue, delaying the query
+    BLOCK,
+    // Discard the record
+    DROP
+  }
+
+  // Hive creates a hook object for every query, so writers are shared by all the hooks in the JVM
+  // that write to the same tables.
+  private static final Map<String, AsyncAuditLogWriter> writers = new ConcurrentHashMap<>();
+
+  private final String jdbcUrl;
+  private final DbCredentials dbCreds;
+  private final String coreTableName;
+  private final String objectsTableName;
+  private final String mapRedStatsTableName;
+  private final FullQueuePolicy fullQueuePolicy;
+  private final int batchSize;
+  private final int maxObjectRowsPerStatement;
+  private final long maxObjectStatementChars;
+
+  private final BlockingQueue<AuditLogRecord> queue;
+  private final Thread writerThread;
+  private volatile boolean closed = false;
+
+  // Only used by the writer thread
+  private Connection connection;
+
+  // Every added record is eventually processed by being written, dropped, or failing to be written.
+  // Waiters for processedCount synchronize on this.
+  private final AtomicLong addedCount = new AtomicLong();
+  private final AtomicLong processedCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  /**
+   * Constructor that starts the writer thread and registers the shutdown hook.
+   *
+   * @param jdbcUrl the JDBC URL for the audit log DB
+   * @param dbCreds the credentials for the audit log DB
+   * @param coreTableName the name of the core audit log table
+   * @param objectsTableName the name of the table for the serialized objects
+   * @param mapRedStatsTableName the name of the table for the map-reduce stats
+   * @param queueCapacity the maximum number of records that can be waiting to be written
+   * @param fullQueuePolicy what to do when a record is added while the queue is full
+   * @param batchSize the maximum number of records to write in a single transaction
+   * @param shutdownFlushTimeoutMs on shutdown, how long to wait for queued records to be written
+   * @param maxObjectRowsPerStatement the maximum number of rows to insert into the objects table
+   *                                  in a single statement
+   * @param maxObjectStatementChars the maximum number of characters in the rows inserted into the
+   *                                objects table in a single statement
+   */
+  public AsyncAuditLogWriter(
+      String jdbcUrl,
+      DbCredentials dbCreds,
+      String coreTableName,
+      String objectsTableName,
+      String mapRedStatsTableName,
+      int queueCapacity,
+      FullQueuePolicy fullQueuePolicy,
+      int batchSize,
+      long shutdownFlushTimeoutMs,
+      int maxObjectRowsPerStatement,
+      long maxObjectStatementChars) {
+    this.jdbcUrl = jdbcUrl;
+    this.dbCreds = dbCreds;
+    this.coreTableName = coreTableName;
+    this.objectsTableName = objectsTableName;
+    this.mapRedStatsTableName = mapRedStatsTableName;
+    this.fullQueuePolicy = fullQueuePolicy;
+    this.batchSize = batchSize;
+    this.maxObjectRowsPerStatement = maxObjectRowsPerStatement;
+    this.maxObjectStatementChars = maxObjectStatementChars;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+    writerThread = new Thread(this::runWriter, "AsyncAuditLogWriter");
+    writerThread.setDaemon(true);
+    writerThread.start();
+
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          close(shutdownFlushTimeoutMs);
+        } catch (InterruptedException e) {
+          LOG.error("Interrupted while writing queued audit log records", e);
+        }
+      }));
+  }
+
+  /**
+   * Get the writer for the DB and tables specified in the configuration, creating it if
+   * necessary.
+   *
+   * @param conf the configuration containing the table names and the writer settings
+   * @param jdbcUrl the JDBC URL for the audit log DB
+   * @param dbCreds the credentials for the audit log DB
+   * @return the writer shared by hooks that write to the same tables
+   *
+   * @throws ConfigurationException if a setting is missing or invalid
+   */
+  public static AsyncAuditLogWriter getWriter(
+      Configuration conf,
+      String jdbcUrl,
+      DbCredentials dbCreds) throws ConfigurationException {
+    String coreTableName = getRequired(conf, AuditCoreLogModule.TABLE_NAME_KEY);
+    String objectsTableName = getRequired(conf, ObjectLogModule.TABLE_NAME_KEY);
+    String mapRedStatsTableName = getRequired(conf, MapRedStatsLogModule.TABLE_NAME_KEY);
+    String key = String.join(",", jdbcUrl, coreTableName, objectsTableName, mapRedStatsTableName);
+
+    AsyncAuditLogWriter writer = writers.get(key);
+    if (writer != null) {
+      return writer;
+    }
+
+    FullQueuePolicy fullQueuePolicy;
+    String policyName = conf.get(CliAuditLogHook.ASYNC_FULL_QUEUE_POLICY_KEY,
+        FullQueuePolicy.BLOCK.toString());
+    try {
+      fullQueuePolicy = FullQueuePolicy.valueOf(policyName.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new ConfigurationException(String.format("Invalid value for %s: %s",
+          CliAuditLogHook.ASYNC_FULL_QUEUE_POLICY_KEY, policyName), e);
+    }
+
+    synchronized (writers) {
+      writer = writers.get(key);
+      if (writer == null) {
+        writer = new AsyncAuditLogWriter(
+            jdbcUrl,
+            dbCreds,
+            coreTableName,
+            objectsTableName,
+            mapRedStatsTableName,
+            conf.getInt(CliAuditLogHook.ASYNC_QUEUE_CAPACITY_KEY, DEFAULT_QUEUE_CAPACITY),
+            fullQueuePolicy,
+            conf.getInt(CliAuditLogHook.ASYNC_BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE),
+            conf.getLong(CliAuditLogHook.ASYNC_SHUTDOWN_FLUSH_TIMEOUT_MS_KEY,
+                DEFAULT_SHUTDOWN_FLUSH_TIMEOUT_MS),
+            conf.getInt(ObjectLogModule.MAX_ROWS_PER_STATEMENT_KEY,
+                ObjectLogModule.DEFAULT_MAX_ROWS_PER_STATEMENT),
+            conf.getLong(ObjectLogModule.MAX_STATEMENT_CHARS_KEY,
+                ObjectLogModule.DEFAULT_MAX_STATEMENT_CHARS));
+        writers.put(key, writer);
+      }
+      return writer;
+    }
+  }
+
+  private static String getRequired(Configuration conf, String key) throws ConfigurationException {
+    String value = conf.get(key);
+    if (value == null) {
+      throw new ConfigurationException(String.format("%s is not defined in the conf!", key));
+    }
+    return value;
+  }
+
+  /**
+   * Queue a record to be written to the DB. If the queue is full, this either waits for space or
+   * drops the record, depending on the policy.
+   *
+   * @param record the record to write
+   * @return false if the writer has been closed, in which case the record should be written
+   *         directly
+   *
+   * @throws InterruptedException if interrupted while waiting for space in the queue
+   */
+  boolean add(AuditLogRecord record) throws InterruptedException {
+    if (closed) {
+      return false;
+    }
+    addedCount.incrementAndGet();
+    switch (fullQueuePolicy) {
+      case BLOCK:
+        try {
+          queue.put(record);
+        } catch (InterruptedException e) {
+          markProcessed(1);
+          throw e;
+        }
+        break;
+      case DROP:
+        if (!queue.offer(record)) {
+          long dropped = droppedCount.incrementAndGet();
+          if (dropped % DROP_LOG_INTERVAL == 1) {
+            LOG.warn(String.format("Audit log queue is full - %d records have been dropped",
+                dropped));
+          }
+          markProcessed(1);
+        }
+        break;
+      default:
+        throw new RuntimeException("Unhandled policy: " + fullQueuePolicy);
+    }
+    return true;
+  }
+
+  /**
+   * Wait for the records that were added before this call to be processed.
+   *
+   * @param timeoutMs the maximum amount of time to wait
+   * @return whether the records were processed before the timeout
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean flush(long timeoutMs) throws InterruptedException {
+    long targetCount = addedCount.get();
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    synchronized (this) {
+      while (processedCount.get() < targetCount) {
+        long remainingTime = deadline - System.currentTimeMillis();
+        if (remainingTime <= 0) {
+          return false;
+        }
+        wait(remainingTime);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stop accepting records and wait for the queued records to be written. If they can't be written
+   * in time, the writer thread is interrupted and the remaining records are lost.
+   *
+   * @param timeoutMs the maximum amount of time to wait for the records to be written
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void close(long timeoutMs) throws InterruptedException {
+    closed = true;
+    writerThread.join(timeoutMs);
+    if (writerThread.isAlive()) {
+      LOG.error(String.format("Timed out after %d ms writing the audit log - %d queued records "
+          + "will not be written", timeoutMs, queue.size()));
+      writerThread.interrupt();
+    }
+  }
+
+  /**
+   * Get the number of records that were not written because the queue was full or because of
+   * errors writing to the DB.
+   *
+   * @return the number of records that were not written
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Get the number of records waiting to be written.
+   *
+   * @return the number of queued records
+   */
+  public int getQueueSize() {
+    return queue.size();
+  }
+
+  private void markProcessed(int count) {
+    processedCount.addAndGet(count);
+    synchronized (this) {
+      notifyAll();
+    }
+  }
+
+  private void runWriter() {
+    List<AuditLogRecord> batch = new ArrayList<>();
+    try {
+      while (true) {
+        AuditLogRecord record = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (record == null) {
+          if (closed) {
+            break;
+          }
+          continue;
+        }
+        batch.add(record);
+        queue.drainTo(batch, batchSize - 1);
+        try {
+          writeWithRetries(batch);
+        } finally {
+          markProcessed(batch.size());
+          batch.clear();
+        }
+      }
+    } catch (InterruptedException e) {
+      LOG.error(String.format("Audit log writer interrupted with %d queued records",
+          queue.size()));
+    } finally {
+      closeConnection();
+    }
+  }
+
+  private void writeWithRetries(List<AuditLogRecord> batch) throws InterruptedException {
+    long startTime = System.currentTimeMillis();
+    RetryingTaskRunner runner = new RetryingTaskRunner(NUM_ATTEMPTS, BASE_SLEEP);
+    try {
+      runner.runWithRetries(() -> write(batch));
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      droppedCount.addAndGet(batch.size());
+      LOG.error(String.format("Giving up on writing %d audit log records", batch.size()), e);
+      return;
+    }
+    LOG.debug(String.format("Writing %d audit log records took %d ms",
+        batch.size(), System.currentTimeMillis() - startTime));
+  }
+
+  /**
+   * Write the records in a single transaction.
+   */
+  private void write(List<AuditLogRecord> batch) throws IOException, SQLException {
+    try {
+      if (connection == null) {
+        connection = DriverManager.getConnection(jdbcUrl,
+            dbCreds.getReadWriteUsername(),
+            dbCreds.getReadWritePassword());
+        connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        connection.setAutoCommit(false);
+      }
+
+      insertRecords(
+          connection,
+          coreTableName,
+          objectsTableName,
+          mapRedStatsTableName,
+          maxObjectRowsPerStatement,
+          maxObjectStatementChars,
+          batch);
+      connection.commit();
+    } catch (SQLException e) {
+      // The connection might be broken, so use a new one for the next attempt. Closing the
+      // connection rolls back the uncommitted rows.
+      closeConnection();
+      throw e;
+    }
+  }
+
+  /**
+   * Insert the rows for the records. This does not commit, so that the caller can write the records
+   * in a single transaction.
+   *
+   * @param connection the connection to use for inserting the rows
+   * @param coreTableName the name of the core audit log table
+   * @param objectsTableName the name of the table for the serialized objects
+   * @param mapRedStatsTableName the name of the table for the map-reduce stats. Can be null if the
+   *                             records don't have map-reduce stats.
+   * @param maxObjectRowsPerStatement the maximum number of rows to insert into the objects table
+   *                                  in a single statement
+   * @param maxObjectStatementChars the maximum number of characters in the rows inserted into the
+   *                                objects table in a single statement
+   * @param records the records to insert
+   *
+   * @throws SQLException if there's an error inserting the rows
+   */
+  static void insertRecords(
+      Connection connection,
+      String coreTableName,
+      String objectsTableName,
+      String mapRedStatsTableName,
+      int maxObjectRowsPerStatement,
+      long maxObjectStatementChars,
+      List<AuditLogRecord> records) throws SQLException {
+    PreparedStatement mapRedStatsPs = null;
+    try (ObjectRowInserter objectRowInserter = new ObjectRowInserter(
+        connection,
+        objectsTableName,
+        maxObjectRowsPerStatement,
+        maxObjectStatementChars)) {
+      for (AuditLogRecord record : records) {
+        // The ID of the core row is needed for the other rows, so it's inserted on its own
+        long auditLogId =
+            AuditCoreLogModule.insertRow(connection, coreTableName, record.getCoreRow());
+        for (AuditLogRecord.ObjectRow row : record.getObjectRows()) {
+          objectRowInserter.add(auditLogId, row);
+        }
+        for (AuditLogRecord.MapRedStatsRow row : record.getMapRedStatsRows()) {
+          if (mapRedStatsPs == null) {
+            mapRedStatsPs = connection.prepareStatement(
+                MapRedStatsLogModule.getInsertQuery(mapRedStatsTableName));
+          }
+          MapRedStatsLogModule.setValues(mapRedStatsPs, auditLogId, row);
+          mapRedStatsPs.addBatch();
+        }
+      }
+      objectRowInserter.flush();
+      if (mapRedStatsPs != null) {
+        mapRedStatsPs.executeBatch();
+      }
+    } finally {
+      if (mapRedStatsPs != null) {
+        mapRedStatsPs.close();
+      }
+    }
+  }
+
+  private void closeConnection() {
+    if (connection == null) {
+      return;
+    }
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      LOG.warn("Error closing connection to the audit log DB", e);
+    }
+    connection = null;
+  }
+}
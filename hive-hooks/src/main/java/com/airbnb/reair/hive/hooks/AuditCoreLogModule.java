@@ -77,6 +77,42 @@ public class AuditCoreLogModule extends BaseLogModule {
    */
   public long run()
       throws EntityException, SerializationException, SQLException, UnknownHostException {
+    return insertRow(connection, tableName, getRow());
+  }
+
+  /**
+   * Generates the core audit log row for the query without writing it to the DB.
+   *
+   * @return the row to insert into the core audit log table
+   *
+   * @throws EntityException if there's an error processing the entities associated with this query
+   * @throws SerializationException if there's an error serializing the entities
+   * @throws UnknownHostException if there's an error getting the IP of this host
+   */
+  AuditLogRecord.CoreRow getRow()
+      throws EntityException, SerializationException, UnknownHostException {
+    return new AuditLogRecord.CoreRow(
+        sessionStateLite.getQueryId(),
+        sessionStateLite.getCommandType(),
+        sessionStateLite.getCmd(),
+        toJson(readEntities, true),
+        toJson(writeEntities, true),
+        userGroupInformation == null ? null : userGroupInformation.getUserName(),
+        InetAddress.getLocalHost().getHostAddress());
+  }
+
+  /**
+   * Inserts a core audit log row into the DB.
+   *
+   * @param connection the connection to use for inserting the row
+   * @param tableName the name of the core audit log table
+   * @param row the row to insert
+   * @return the id for the inserted core audit log entry
+   *
+   * @throws SQLException if there's an error querying the DB
+   */
+  static long insertRow(Connection connection, String tableName, AuditLogRecord.CoreRow row)
+      throws SQLException {
     final String query = String.format("INSERT INTO %s ("
         + "query_id, "
         + "command_type, "
@@ -92,14 +128,13 @@ public class AuditCoreLogModule extends BaseLogModule {
     int psIndex = 1;
     PreparedStatement ps = connection.prepareStatement(query,
                                Statement.RETURN_GENERATED_KEYS);
-    ps.setString(psIndex++, sessionStateLite.getQueryId());
-    ps.setString(psIndex++, sessionStateLite.getCommandType());
-    ps.setString(psIndex++, sessionStateLite.getCmd());
-    ps.setString(psIndex++, toJson(readEntities, true));
-    ps.setString(psIndex++, toJson(writeEntities, true));
-    ps.setString(psIndex++, userGroupInformation == null ? null :
-                            userGroupInformation.getUserName());
-    ps.setString(psIndex++, InetAddress.getLocalHost().getHostAddress());
+    ps.setString(psIndex++, row.queryId);
+    ps.setString(psIndex++, row.commandType);
+    ps.setString(psIndex++, row.command);
+    ps.setString(psIndex++, row.inputs);
+    ps.setString(psIndex++, row.outputs);
+    ps.setString(psIndex++, row.username);
+    ps.setString(psIndex++, row.ip);
     ps.executeUpdate();
 
     ResultSet rs = ps.getGeneratedKeys();
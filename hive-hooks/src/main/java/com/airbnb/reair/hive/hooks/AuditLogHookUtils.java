@@ -84,6 +84,8 @@ public class AuditLogHookUtils {
             + "`type` varchar(64) DEFAULT NULL, "
             + "`name` varchar(4000) DEFAULT NULL, "
             + "`serialized_object` mediumtext, "
+            + "`serialization_format` varchar(64) DEFAULT NULL, "
+            + "`serialized_object_binary` mediumblob, "
             + "PRIMARY KEY (`id`), "
             + "KEY `create_time_index` (`create_time`) "
             + ") ENGINE=InnoDB", objectsTableName);
@@ -124,6 +126,38 @@ public class AuditLogHookUtils {
     }
   }
 
+  /**
+   * In an existing MySQL DB, create the table that tracks the records that have been forwarded from
+   * audit log spools.
+   *
+   * @param connectionFactory a factory for creating connections to the DB that should contain the
+   *                          table
+   * @param dbName the name of the MySQL DB
+   * @param offsetsTableName the name of the table for the spool offsets
+   *
+   * @throws SQLException if there's an error creating the table on the DB
+   */
+  public static void setupSpoolOffsetsTable(
+      DbConnectionFactory connectionFactory,
+      String dbName,
+      String offsetsTableName) throws SQLException {
+    String createOffsetsTableSql = String.format(
+        "CREATE TABLE `%s` ("
+            + "`spool_id` varchar(64) NOT NULL, "
+            + "`last_sequence` bigint(20) NOT NULL, "
+            + "`update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP "
+            + "ON UPDATE CURRENT_TIMESTAMP, "
+            + "PRIMARY KEY (`spool_id`) "
+            + ") ENGINE=InnoDB", offsetsTableName);
+
+    try (Connection connection = connectionFactory.getConnection()) {
+      connection.setCatalog(dbName);
+      try (Statement statement = connection.createStatement()) {
+        statement.execute(createOffsetsTableSql);
+      }
+    }
+  }
+
   /**
    * Insert an audit log entry that represent a query with the supplied values.
    *
@@ -149,6 +183,45 @@ public class AuditLogHookUtils {
       List<org.apache.hadoop.hive.ql.metadata.Partition> outputPartitions,
       Map<String, MapRedStats> mapRedStatsPerStage,
       HiveConf hiveConf) throws Exception {
+    HookContext hookContext = createHookContext(
+        operation,
+        command,
+        inputTables,
+        inputPartitions,
+        outputTables,
+        outputPartitions,
+        mapRedStatsPerStage,
+        hiveConf);
+
+    // Run the hook
+    cliAuditLogHook.run(hookContext);
+  }
+
+  /**
+   * Create the hook context that Hive would pass to a hook for a query with the supplied values.
+   * This also sets the current session state for the thread.
+   *
+   * @param operation the type of Hive operation (e.g. ALTER TABLE, QUERY, etc)
+   * @param command the command / query string that was run
+   * @param inputTables the tables that were read by the query
+   * @param inputPartitions the partitions that were read by the query
+   * @param outputTables the tables that were modified by the query
+   * @param outputPartitions the partitions that were modified by the query
+   * @param mapRedStatsPerStage map between the name of the stage and map-reduce job statistics
+   * @param hiveConf Hive configuration
+   * @return the hook context for the query
+   *
+   * @throws Exception if there's an error creating the query plan
+   */
+  public static HookContext createHookContext(
+      HiveOperation operation,
+      String command,
+      List<Table> inputTables,
+      List<org.apache.hadoop.hive.ql.metadata.Partition> inputPartitions,
+      List<Table> outputTables,
+      List<org.apache.hadoop.hive.ql.metadata.Partition> outputPartitions,
+      Map<String, MapRedStats> mapRedStatsPerStage,
+      HiveConf hiveConf) throws Exception {
 
     Set<ReadEntity> readEntities = new HashSet<>();
     Set<WriteEntity> writeEntities = new HashSet<>();
@@ -192,7 +265,6 @@ public class AuditLogHookUtils {
     sessionState.setMapRedStats(mapRedStatsPerStage);
     SessionState.setCurrentSessionState(sessionState);
 
-    // Run the hook
     SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer(hiveConf);
     QueryPlan queryPlan = new QueryPlan(
             command,
@@ -205,8 +277,7 @@ public class AuditLogHookUtils {
     hookContext.setInputs(readEntities);
     hookContext.setOutputs(writeEntities);
     hookContext.setConf(hiveConf);
-
-    cliAuditLogHook.run(hookContext);
+    return hookContext;
   }
 
   /**
@@ -0,0 +1,283 @@
+package com.airbnb.reair.hive.hooks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rows that the audit log modules write to the DB for a single query. The objects associated
+ * with the query are serialized when the record is created, so the record can be written to the DB
+ * later, from another thread, or spooled to disk and written by another process.
+ */
+class AuditLogRecord {
+
+  // Version of the format written by serialize(). Incremented when the format changes.
+  private static final byte SERIALIZATION_VERSION = 1;
+
+  /**
+   * A row in the core audit log table.
+   */
+  static class CoreRow {
+    final String queryId;
+    final String commandType;
+    final String command;
+    final String inputs;
+    final String outputs;
+    final String username;
+    final String ip;
+
+    CoreRow(
+        String queryId,
+        String commandType,
+        String command,
+        String inputs,
+        String outputs,
+        String username,
+        String ip) {
+      this.queryId = queryId;
+      this.commandType = commandType;
+      this.command = command;
+      this.inputs = inputs;
+      this.outputs = outputs;
+      this.username = username;
+      this.ip = ip;
+    }
+  }
+
+  /**
+   * A row in the objects table. The audit log ID is filled in when the row is inserted. The object
+   * is either serialized as text, or in a binary format.
+   */
+  static class ObjectRow {
+    final ObjectLogModule.ObjectCategory category;
+    final String type;
+    final String name;
+    final String serializedObject;
+    // Null if the object is serialized as text
+    final ObjectSerializationFormat serializationFormat;
+    final byte[] serializedObjectBinary;
+
+    ObjectRow(
+        ObjectLogModule.ObjectCategory category,
+        String type,
+        String name,
+        String serializedObject) {
+      this.category = category;
+      this.type = type;
+      this.name = name;
+      this.serializedObject = serializedObject;
+      this.serializationFormat = null;
+      this.serializedObjectBinary = null;
+    }
+
+    ObjectRow(
+        ObjectLogModule.ObjectCategory category,
+        String type,
+        String name,
+        ObjectSerializationFormat serializationFormat,
+        byte[] serializedObjectBinary) {
+      this.category = category;
+      this.type = type;
+      this.name = name;
+      this.serializedObject = null;
+      this.serializationFormat = serializationFormat;
+      this.serializedObjectBinary = serializedObjectBinary;
+    }
+
+    /**
+     * Whether the row has to be written with the serialization format columns.
+     *
+     * @return whether the object is serialized in a binary format
+     */
+    boolean isBinary() {
+      return serializationFormat != null && serializationFormat.isBinary();
+    }
+  }
+
+  /**
+   * A row in the map-reduce stats table. The audit log ID is filled in when the row is inserted.
+   */
+  static class MapRedStatsRow {
+    final String stage;
+    final long mappers;
+    final long reducers;
+    final long cpuTime;
+    final String counters;
+
+    MapRedStatsRow(String stage, long mappers, long reducers, long cpuTime, String counters) {
+      this.stage = stage;
+      this.mappers = mappers;
+      this.reducers = reducers;
+      this.cpuTime = cpuTime;
+      this.counters = counters;
+    }
+  }
+
+  private final CoreRow coreRow;
+  private final List<ObjectRow> objectRows;
+  private final List<MapRedStatsRow> mapRedStatsRows;
+
+  AuditLogRecord(
+      CoreRow coreRow,
+      List<ObjectRow> objectRows,
+      List<MapRedStatsRow> mapRedStatsRows) {
+    this.coreRow = coreRow;
+    this.objectRows = objectRows;
+    this.mapRedStatsRows = mapRedStatsRows;
+  }
+
+  CoreRow getCoreRow() {
+    return coreRow;
+  }
+
+  List<ObjectRow> getObjectRows() {
+    return objectRows;
+  }
+
+  List<MapRedStatsRow> getMapRedStatsRows() {
+    return mapRedStatsRows;
+  }
+
+  /**
+   * Serialize the record so that it can be stored on disk.
+   *
+   * @return the serialized record
+   *
+   * @throws IOException if there's an error serializing the record
+   */
+  byte[] serialize() throws IOException {
+    ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(byteStream);
+    out.writeByte(SERIALIZATION_VERSION);
+
+    writeString(out, coreRow.queryId);
+    writeString(out, coreRow.commandType);
+    writeString(out, coreRow.command);
+    writeString(out, coreRow.inputs);
+    writeString(out, coreRow.outputs);
+    writeString(out, coreRow.username);
+    writeString(out, coreRow.ip);
+
+    out.writeInt(objectRows.size());
+    for (ObjectRow row : objectRows) {
+      writeString(out, row.category.toString());
+      writeString(out, row.type);
+      writeString(out, row.name);
+      writeString(out, row.serializedObject);
+      writeString(out,
+          row.serializationFormat == null ? null : row.serializationFormat.toString());
+      writeBytes(out, row.serializedObjectBinary);
+    }
+
+    out.writeInt(mapRedStatsRows.size());
+    for (MapRedStatsRow row : mapRedStatsRows) {
+      writeString(out, row.stage);
+      out.writeLong(row.mappers);
+      out.writeLong(row.reducers);
+      out.writeLong(row.cpuTime);
+      writeString(out, row.counters);
+    }
+    out.flush();
+    return byteStream.toByteArray();
+  }
+
+  /**
+   * Deserialize a record.
+   *
+   * @param serializedRecord a record returned by {@link #serialize}
+   * @return the record
+   *
+   * @throws IOException if the record can't be deserialized
+   */
+  static AuditLogRecord deserialize(byte[] serializedRecord) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(serializedRecord));
+    byte version = in.readByte();
+    if (version != SERIALIZATION_VERSION) {
+      throw new IOException("Unknown audit log record version: " + version);
+    }
+
+    CoreRow coreRow = new CoreRow(
+        readString(in),
+        readString(in),
+        readString(in),
+        readString(in),
+        readString(in),
+        readString(in),
+        readString(in));
+
+    int objectRowCount = in.readInt();
+    List<ObjectRow> objectRows = new ArrayList<>(objectRowCount);
+    for (int i = 0; i < objectRowCount; i++) {
+      ObjectLogModule.ObjectCategory category;
+      try {
+        category = ObjectLogModule.ObjectCategory.valueOf(readString(in));
+      } catch (IllegalArgumentException | NullPointerException e) {
+        throw new IOException("Invalid object category", e);
+      }
+      String type = readString(in);
+      String name = readString(in);
+      String serializedObject = readString(in);
+      String formatName = readString(in);
+      byte[] serializedObjectBinary = readBytes(in);
+      if (formatName == null) {
+        objectRows.add(new ObjectRow(category, type, name, serializedObject));
+      } else {
+        try {
+          objectRows.add(new ObjectRow(category, type, name,
+              ObjectSerializationFormat.fromColumnValue(formatName), serializedObjectBinary));
+        } catch (SerializationException e) {
+          throw new IOException(e);
+        }
+      }
+    }
+
+    int mapRedStatsRowCount = in.readInt();
+    List<MapRedStatsRow> mapRedStatsRows = new ArrayList<>(mapRedStatsRowCount);
+    for (int i = 0; i < mapRedStatsRowCount; i++) {
+      mapRedStatsRows.add(new MapRedStatsRow(
+          readString(in),
+          in.readLong(),
+          in.readLong(),
+          in.readLong(),
+          readString(in)));
+    }
+    return new AuditLogRecord(coreRow, objectRows, mapRedStatsRows);
+  }
+
+  // Unlike DataOutput.writeUTF(), these handle nulls and strings longer than 64 KB
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = readBytes(in);
+    return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(value.length);
+    out.write(value);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length == -1) {
+      return null;
+    }
+    if (length < 0 || length > in.available()) {
+      throw new IOException("Invalid length: " + length);
+    }
+    byte[] value = new byte[length];
+    in.readFully(value);
+    return value;
+  }
+}
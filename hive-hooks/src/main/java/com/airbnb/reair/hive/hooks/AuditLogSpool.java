@@ -0,0 +1,688 @@
+package com.airbnb.reair.hive.hooks;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * A durable queue of records in a local directory. Records are appended to segment files and are
+ * assigned consecutive sequence numbers. Each record is stored with its sequence number and a
+ * CRC32 checksum, so that a record that was partially written when the process died can be
+ * detected and discarded when the spool is opened again.
+ *
+ * <p>Appends only write to the OS page cache, so they survive the process dying but not the host
+ * crashing. {@link #sync} should be called periodically to make the appended records durable - this
+ * batches the fsync calls for many records. When the current segment reaches the segment size, a
+ * new one is started. Segments are deleted once all their records have been released, i.e. written
+ * to their final destination. If the spool reaches its size limit, appends are rejected until
+ * segments are released. Consumers that record their position outside of the spool should only
+ * process records up to {@link #getSyncedSequence}, since later records can be lost.
+ *
+ * <p>Only one spool can use a directory at a time, across processes. The spool has an ID that is
+ * generated when the directory is first used, so that the consumer can track which records it has
+ * processed for this spool.
+ */
+public class AuditLogSpool implements Closeable {
+
+  public static Logger LOG = Logger.getLogger(AuditLogSpool.class);
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String LOCK_FILE_NAME = "spool.lock";
+  private static final String ID_FILE_NAME = "spool.id";
+  private static final String RENUMBER_FILE_NAME = "renumber.tmp";
+  // Every record is stored as the length of the payload, the sequence number, the payload, and a
+  // checksum of the sequence number and the payload.
+  private static final int RECORD_HEADER_SIZE = 4 + 8;
+  private static final int RECORD_OVERHEAD = RECORD_HEADER_SIZE + 4;
+
+  /**
+   * A record read from the spool.
+   */
+  public static class Entry {
+    private final long sequence;
+    private final byte[] payload;
+
+    Entry(long sequence, byte[] payload) {
+      this.sequence = sequence;
+      this.payload = payload;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    public byte[] getPayload() {
+      return payload;
+    }
+  }
+
+  private static class Segment {
+    final long firstSequence;
+    final File file;
+    // Number of bytes in the file that contain complete records
+    long size = 0;
+    long recordCount = 0;
+
+    Segment(long firstSequence, File file) {
+      this.firstSequence = firstSequence;
+      this.file = file;
+    }
+  }
+
+  private final File directory;
+  private final long maxBytes;
+  private final long maxSegmentBytes;
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+  private final String spoolId;
+
+  // Guarded by this
+  private final TreeMap<Long, Segment> segments = new TreeMap<>();
+  private Segment activeSegment;
+  private RandomAccessFile activeFile;
+  private long nextSequence;
+  private long totalBytes = 0;
+  private long releasedSequence = 0;
+  private long syncedSequence;
+  private boolean unsynced = false;
+  private boolean closed = false;
+  // The records that were in the spool when it was opened, for renumbering the records appended
+  // after that in skipPast()
+  private long recoveredSequence;
+  private Segment recoveredSegment;
+  private long recoveredSegmentSize;
+  private long recoveredSegmentRecordCount;
+  private boolean skipChecked = false;
+
+  // Held while syncing the active segment
+  private final Object syncLock = new Object();
+
+  // Guarded by readLock. The read position is kept between calls so that sequential reads don't
+  // have to scan the segment from the beginning.
+  private final Object readLock = new Object();
+  private Segment readSegment;
+  private RandomAccessFile readFile;
+  private long readPosition;
+  private long readSequence;
+
+  /**
+   * Opens the spool in the given directory, recovering the records that were appended by a previous
+   * spool. Records that were partially written are discarded.
+   *
+   * @param directory the directory for the spool files. It's created if it doesn't exist.
+   * @param maxBytes the maximum size of the records in the spool
+   * @param maxSegmentBytes the size of a segment file at which a new one is started
+   *
+   * @throws IOException if the directory is used by another spool, or there's an error reading it
+   */
+  public AuditLogSpool(File directory, long maxBytes, long maxSegmentBytes) throws IOException {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.maxSegmentBytes = maxSegmentBytes;
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create spool directory " + directory);
+    }
+    lockChannel = FileChannel.open(new File(directory, LOCK_FILE_NAME).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock acquiredLock;
+    try {
+      acquiredLock = lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // Held by another spool in this JVM
+      acquiredLock = null;
+    }
+    if (acquiredLock == null) {
+      lockChannel.close();
+      throw new IOException("Spool directory " + directory + " is in use by another process");
+    }
+    lock = acquiredLock;
+
+    try {
+      spoolId = readOrCreateId();
+      recover();
+    } catch (IOException e) {
+      lock.release();
+      lockChannel.close();
+      throw e;
+    }
+    LOG.info(String.format("Opened spool %s in %s with %d bytes in %d segments",
+        spoolId, directory, totalBytes, segments.size()));
+  }
+
+  private String readOrCreateId() throws IOException {
+    File idFile = new File(directory, ID_FILE_NAME);
+    if (idFile.exists()) {
+      String id = new String(Files.readAllBytes(idFile.toPath()), StandardCharsets.UTF_8).trim();
+      if (!id.isEmpty()) {
+        return id;
+      }
+    }
+    // Write the ID atomically so that a partially written ID is never read
+    String id = UUID.randomUUID().toString();
+    File tmpFile = new File(directory, ID_FILE_NAME + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+      out.write(id.getBytes(StandardCharsets.UTF_8));
+      out.getFD().sync();
+    }
+    Files.move(tmpFile.toPath(), idFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    return id;
+  }
+
+  private static File getSegmentFile(File directory, long firstSequence) {
+    return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence,
+        SEGMENT_SUFFIX));
+  }
+
+  private void recover() throws IOException {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      throw new IOException("Unable to list spool directory " + directory);
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+        continue;
+      }
+      try {
+        long firstSequence = Long.parseLong(
+            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        segments.put(firstSequence, new Segment(firstSequence, file));
+      } catch (NumberFormatException e) {
+        LOG.warn("Ignoring unexpected file in spool directory: " + file);
+      }
+    }
+
+    for (Segment segment : segments.values()) {
+      long fileSize = segment.file.length();
+      scan(segment);
+      if (segment.size < fileSize) {
+        // Normally a record that was being written when the process died, but could also be
+        // corruption in an older segment. Either way, the records can't be read past this point.
+        String message = String.format("Discarding %d bytes after %d records in %s",
+            fileSize - segment.size, segment.recordCount, segment.file);
+        if (segment == segments.lastEntry().getValue()) {
+          LOG.warn(message);
+        } else {
+          LOG.error(message);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segment.file, "rw")) {
+          file.setLength(segment.size);
+          file.getFD().sync();
+        }
+      }
+      totalBytes += segment.size;
+    }
+
+    if (segments.isEmpty()) {
+      nextSequence = 1;
+      startSegment();
+    } else {
+      activeSegment = segments.lastEntry().getValue();
+      nextSequence = activeSegment.firstSequence + activeSegment.recordCount;
+      activeFile = new RandomAccessFile(activeSegment.file, "rw");
+      activeFile.seek(activeSegment.size);
+      // The records could have been written by a process that died before syncing them
+      activeFile.getFD().sync();
+    }
+    syncedSequence = nextSequence - 1;
+    recoveredSequence = nextSequence - 1;
+    recoveredSegment = activeSegment;
+    recoveredSegmentSize = activeSegment.size;
+    recoveredSegmentRecordCount = activeSegment.recordCount;
+  }
+
+  /**
+   * Find the complete records at the start of the segment.
+   */
+  private static void scan(Segment segment) throws IOException {
+    long fileSize = segment.file.length();
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(segment.file)))) {
+      while (fileSize - segment.size >= RECORD_OVERHEAD) {
+        int payloadLength = in.readInt();
+        long sequence = in.readLong();
+        if (payloadLength < 0
+            || payloadLength > fileSize - segment.size - RECORD_OVERHEAD
+            || sequence != segment.firstSequence + segment.recordCount) {
+          return;
+        }
+        byte[] payload = new byte[payloadLength];
+        in.readFully(payload);
+        if (in.readInt() != getChecksum(sequence, payload)) {
+          return;
+        }
+        segment.size += RECORD_OVERHEAD + payloadLength;
+        segment.recordCount++;
+      }
+    }
+  }
+
+  private static int getChecksum(long sequence, byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(ByteBuffer.allocate(8).putLong(sequence).array());
+    crc.update(payload);
+    return (int) crc.getValue();
+  }
+
+  private static byte[] encodeRecord(long sequence, byte[] payload) {
+    ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + payload.length);
+    record.putInt(payload.length);
+    record.putLong(sequence);
+    record.put(payload);
+    record.putInt(getChecksum(sequence, payload));
+    return record.array();
+  }
+
+  private void startSegment() throws IOException {
+    Segment segment = new Segment(nextSequence, getSegmentFile(directory, nextSequence));
+    RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+    // A segment with this name could only exist if it had no complete records
+    file.setLength(0);
+    segments.put(segment.firstSequence, segment);
+    activeSegment = segment;
+    activeFile = file;
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Spool " + directory + " is closed");
+    }
+  }
+
+  /**
+   * Append a record to the spool.
+   *
+   * @param payload the contents of the record
+   * @return the sequence number assigned to the record, or -1 if the spool is full
+   *
+   * @throws IOException if there's an error writing the record
+   */
+  public synchronized long append(byte[] payload) throws IOException {
+    checkOpen();
+    long recordSize = RECORD_OVERHEAD + payload.length;
+    if (totalBytes + recordSize > maxBytes) {
+      return -1;
+    }
+    if (activeSegment.size > 0 && activeSegment.size + recordSize > maxSegmentBytes) {
+      rotate();
+    }
+
+    long sequence = nextSequence;
+    try {
+      activeFile.write(encodeRecord(sequence, payload));
+    } catch (IOException e) {
+      // Remove the partial record so that the next record starts at the right position
+      activeFile.setLength(activeSegment.size);
+      activeFile.seek(activeSegment.size);
+      throw e;
+    }
+
+    activeSegment.size += recordSize;
+    activeSegment.recordCount++;
+    totalBytes += recordSize;
+    nextSequence++;
+    unsynced = true;
+    return sequence;
+  }
+
+  private void rotate() throws IOException {
+    // Records in the other segments are always durable
+    activeFile.getFD().sync();
+    activeFile.close();
+    unsynced = false;
+    syncedSequence = nextSequence - 1;
+    startSegment();
+    deleteReleasedSegments();
+  }
+
+  /**
+   * Flush the appended records to disk.
+   *
+   * @throws IOException if there's an error syncing the current segment
+   */
+  public void sync() throws IOException {
+    // Syncs are serialized so that when this returns, the records appended before the call are
+    // synced, even if another thread was already syncing
+    synchronized (syncLock) {
+      RandomAccessFile file;
+      long sequence;
+      synchronized (this) {
+        if (closed || !unsynced) {
+          return;
+        }
+        file = activeFile;
+        sequence = nextSequence - 1;
+        unsynced = false;
+      }
+      // Appends can continue while syncing
+      try {
+        file.getFD().sync();
+      } catch (IOException e) {
+        synchronized (this) {
+          // If the segment was rotated or the spool was closed, the file has already been synced
+          if (file == activeFile && !closed) {
+            unsynced = true;
+            throw e;
+          }
+        }
+      }
+      synchronized (this) {
+        syncedSequence = Math.max(syncedSequence, sequence);
+      }
+    }
+  }
+
+  /**
+   * Get the sequence number of the last record that was synced to disk. Records after this one can
+   * be lost if the host crashes.
+   *
+   * @return the sequence number of the last durable record
+   */
+  public synchronized long getSyncedSequence() {
+    return syncedSequence;
+  }
+
+  /**
+   * Make sure that the records in the spool are numbered after the records that the consumer has
+   * already processed. The consumer can only be ahead of the spool if records that it processed
+   * were lost from the spool, e.g. if the segment files were damaged. Then, new records would be
+   * assigned the sequence numbers of the lost records, and the consumer would skip them. To
+   * prevent this, the records appended since the spool was opened are renumbered to follow the
+   * consumer's position, and the records that were recovered are treated as processed.
+   *
+   * <p>Only the first call has an effect, since the consumer's position after that is based on the
+   * records in this spool.
+   *
+   * @param consumedSequence the sequence number of the last record that the consumer processed
+   * @return the number of records that were renumbered
+   *
+   * @throws IOException if there's an error rewriting the records
+   */
+  public long skipPast(long consumedSequence) throws IOException {
+    synchronized (readLock) {
+      synchronized (this) {
+        checkOpen();
+        if (skipChecked) {
+          return 0;
+        }
+        if (consumedSequence <= recoveredSequence) {
+          skipChecked = true;
+          return 0;
+        }
+        LOG.error(String.format("Spool %s in %s ends at record %d, but records up to %d were "
+            + "already processed. Renumbering the records appended since the spool was opened.",
+            spoolId, directory, recoveredSequence, consumedSequence));
+
+        // Write the appended records with the new numbers before removing the originals. The
+        // records are only renumbered once the file is complete.
+        File renumberFile = new File(directory, RENUMBER_FILE_NAME);
+        Segment renumbered = new Segment(consumedSequence + 1,
+            getSegmentFile(directory, consumedSequence + 1));
+        try (RandomAccessFile file = new RandomAccessFile(renumberFile, "rw")) {
+          file.setLength(0);
+          long afterSequence = recoveredSequence;
+          while (true) {
+            List<Entry> entries = read(afterSequence, 1000);
+            if (entries.isEmpty()) {
+              break;
+            }
+            for (Entry entry : entries) {
+              byte[] record = encodeRecord(renumbered.firstSequence + renumbered.recordCount,
+                  entry.getPayload());
+              file.write(record);
+              renumbered.size += record.length;
+              renumbered.recordCount++;
+            }
+            afterSequence = entries.get(entries.size() - 1).getSequence();
+          }
+          file.getFD().sync();
+        }
+
+        activeFile.close();
+        closeReadFile();
+        Iterator<Segment> iterator = segments.values().iterator();
+        while (iterator.hasNext()) {
+          Segment segment = iterator.next();
+          if (segment.firstSequence < recoveredSegment.firstSequence) {
+            continue;
+          }
+          if (segment == recoveredSegment && recoveredSegmentRecordCount > 0) {
+            try (RandomAccessFile file = new RandomAccessFile(segment.file, "rw")) {
+              file.setLength(recoveredSegmentSize);
+              file.getFD().sync();
+            }
+            totalBytes -= segment.size - recoveredSegmentSize;
+            segment.size = recoveredSegmentSize;
+            segment.recordCount = recoveredSegmentRecordCount;
+            continue;
+          }
+          if (!segment.file.delete() && segment.file.exists()) {
+            throw new IOException("Unable to delete spool segment " + segment.file);
+          }
+          iterator.remove();
+          totalBytes -= segment.size;
+        }
+
+        Files.move(renumberFile.toPath(), renumbered.file.toPath(),
+            StandardCopyOption.ATOMIC_MOVE);
+        segments.put(renumbered.firstSequence, renumbered);
+        activeSegment = renumbered;
+        activeFile = new RandomAccessFile(renumbered.file, "rw");
+        activeFile.seek(renumbered.size);
+        totalBytes += renumbered.size;
+        nextSequence = renumbered.firstSequence + renumbered.recordCount;
+        syncedSequence = nextSequence - 1;
+        unsynced = false;
+        skipChecked = true;
+        return renumbered.recordCount;
+      }
+    }
+  }
+
+  /**
+   * Read records from the spool, in sequence order.
+   *
+   * @param afterSequence read records with sequence numbers after this one
+   * @param maxRecords the maximum number of records to return
+   * @return the records, or an empty list if there are no records after the sequence number
+   *
+   * @throws IOException if there's an error reading the records
+   */
+  public List<Entry> read(long afterSequence, int maxRecords) throws IOException {
+    synchronized (readLock) {
+      List<Entry> entries = new ArrayList<>();
+      long sequence = afterSequence + 1;
+      while (entries.size() < maxRecords) {
+        Segment segment;
+        long segmentSize;
+        Long nextSegmentSequence;
+        synchronized (this) {
+          checkOpen();
+          if (sequence >= nextSequence) {
+            break;
+          }
+          Map.Entry<Long, Segment> segmentEntry = segments.floorEntry(sequence);
+          if (segmentEntry == null) {
+            // Earlier records were released
+            segmentEntry = segments.firstEntry();
+            sequence = segmentEntry.getKey();
+          }
+          segment = segmentEntry.getValue();
+          segmentSize = segment.size;
+          nextSegmentSequence = segments.higherKey(segment.firstSequence);
+        }
+
+        if (segment != readSegment || sequence < readSequence) {
+          closeReadFile();
+          readFile = new RandomAccessFile(segment.file, "r");
+          readSegment = segment;
+          readPosition = 0;
+          readSequence = segment.firstSequence;
+        }
+        while (readPosition < segmentSize && entries.size() < maxRecords) {
+          Entry entry = readRecord(segmentSize);
+          if (entry.getSequence() >= sequence) {
+            entries.add(entry);
+            sequence = entry.getSequence() + 1;
+          }
+        }
+        if (readPosition >= segmentSize) {
+          if (nextSegmentSequence == null) {
+            // No more records in the active segment
+            break;
+          }
+          sequence = Math.max(sequence, nextSegmentSequence);
+        }
+      }
+      return entries;
+    }
+  }
+
+  private Entry readRecord(long segmentSize) throws IOException {
+    byte[] header = new byte[RECORD_HEADER_SIZE];
+    readFile.seek(readPosition);
+    readFile.readFully(header);
+    ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+    int payloadLength = headerBuffer.getInt();
+    long sequence = headerBuffer.getLong();
+    if (payloadLength < 0
+        || payloadLength > segmentSize - readPosition - RECORD_OVERHEAD
+        || sequence != readSequence) {
+      throw new IOException(String.format("Corrupt record at position %d of %s",
+          readPosition, readSegment.file));
+    }
+    // The payload and the checksum are read together to limit the number of reads
+    byte[] body = new byte[payloadLength + 4];
+    readFile.readFully(body);
+    byte[] payload = Arrays.copyOf(body, payloadLength);
+    if (ByteBuffer.wrap(body, payloadLength, 4).getInt() != getChecksum(sequence, payload)) {
+      throw new IOException(String.format("Checksum mismatch for record at position %d of %s",
+          readPosition, readSegment.file));
+    }
+    readPosition += RECORD_OVERHEAD + payloadLength;
+    readSequence++;
+    return new Entry(sequence, payload);
+  }
+
+  private void closeReadFile() throws IOException {
+    if (readFile != null) {
+      readFile.close();
+      readFile = null;
+      readSegment = null;
+    }
+  }
+
+  /**
+   * Release the records up to and including the given sequence number. Segments that only contain
+   * released records are deleted, except for the current segment.
+   *
+   * @param sequence the sequence number of the last record to release
+   */
+  public synchronized void release(long sequence) {
+    releasedSequence = Math.max(releasedSequence, sequence);
+    deleteReleasedSegments();
+  }
+
+  private void deleteReleasedSegments() {
+    Iterator<Segment> iterator = segments.values().iterator();
+    while (iterator.hasNext()) {
+      Segment segment = iterator.next();
+      if (segment == activeSegment
+          || segment.firstSequence + segment.recordCount - 1 > releasedSequence) {
+        return;
+      }
+      if (!segment.file.delete() && segment.file.exists()) {
+        LOG.warn("Unable to delete spool segment " + segment.file);
+        return;
+      }
+      iterator.remove();
+      totalBytes -= segment.size;
+    }
+  }
+
+  /**
+   * Get the ID of the spool, which stays the same as long as the directory is not deleted.
+   *
+   * @return the ID of the spool
+   */
+  public String getSpoolId() {
+    return spoolId;
+  }
+
+  /**
+   * Get the sequence number of the last record that was appended.
+   *
+   * @return the sequence number of the last record, or 0 if no records have been appended
+   */
+  public synchronized long getLastSequence() {
+    return nextSequence - 1;
+  }
+
+  /**
+   * Get the size of the segments in the spool.
+   *
+   * @return the number of bytes used by the spool
+   */
+  public synchronized long getSize() {
+    return totalBytes;
+  }
+
+  /**
+   * Get the number of segment files in the spool.
+   *
+   * @return the number of segments
+   */
+  public synchronized int getSegmentCount() {
+    return segments.size();
+  }
+
+  /**
+   * Sync the records to disk and release the directory for use by another spool.
+   *
+   * @throws IOException if there's an error syncing or closing the files
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (readLock) {
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        try {
+          activeFile.getFD().sync();
+          activeFile.close();
+          closeReadFile();
+        } finally {
+          lock.release();
+          lockChannel.close();
+        }
+      }
+    }
+  }
+}
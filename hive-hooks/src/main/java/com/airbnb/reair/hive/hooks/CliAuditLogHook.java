@@ -14,6 +14,7 @@ import org.apache.log4j.Logger;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -38,6 +39,21 @@ public class CliAuditLogHook implements ExecuteWithHookContext {
       "airbnb.reair.audit_log.db.password";
   // Keys for values in hive-site.xml
   public static String JDBC_URL_KEY = "airbnb.reair.audit_log.jdbc_url";
+  // Whether to write to the audit log from a background thread instead of before the query
+  // finishes. Default false.
+  public static String ASYNC_ENABLED_KEY = "airbnb.reair.audit_log.async.enabled";
+  // Maximum number of queries that can be waiting to be written to the audit log. Default 10000.
+  public static String ASYNC_QUEUE_CAPACITY_KEY =
+      "airbnb.reair.audit_log.async.queue_capacity";
+  // When the queue is full, whether to BLOCK the query until there is space, or DROP the entry.
+  // Default BLOCK.
+  public static String ASYNC_FULL_QUEUE_POLICY_KEY =
+      "airbnb.reair.audit_log.async.full_queue_policy";
+  // Maximum number of queries to write to the audit log in a single transaction. Default 100.
+  public static String ASYNC_BATCH_SIZE_KEY = "airbnb.reair.audit_log.async.batch_size";
+  // When the JVM exits, how long to wait for queued entries to be written. Default 10000.
+  public static String ASYNC_SHUTDOWN_FLUSH_TIMEOUT_MS_KEY =
+      "airbnb.reair.audit_log.async.shutdown_flush_timeout_ms";
 
   protected DbCredentials dbCreds;
 
@@ -87,10 +103,37 @@ public class CliAuditLogHook implements ExecuteWithHookContext {
           + " is not defined in the conf!");
     }
 
+    long startTime = System.currentTimeMillis();
+
+    boolean spoolEnabled = conf.getBoolean(SpoolingAuditLogWriter.ENABLED_KEY, false);
+    boolean asyncEnabled = conf.getBoolean(ASYNC_ENABLED_KEY, false);
+    if (spoolEnabled || asyncEnabled) {
+      AuditLogRecord record = createRecord(
+          sessionStateLite,
+          readEntities,
+          writeEntities,
+          userGroupInformation);
+      if (spoolEnabled && SpoolingAuditLogWriter.addToSpool(conf, jdbcUrl, dbCreds, record)) {
+        LOG.debug(String.format("Spooling audit log entry took %d ms",
+            System.currentTimeMillis() - startTime));
+        return;
+      }
+      // If the spool is full or unavailable, use the queue or write the entry directly
+      if (asyncEnabled) {
+        AsyncAuditLogWriter writer = AsyncAuditLogWriter.getWriter(conf, jdbcUrl, dbCreds);
+        if (writer.add(record)) {
+          LOG.debug(String.format("Queueing audit log entry took %d ms",
+              System.currentTimeMillis() - startTime));
+          return;
+        }
+        // The writer is closed when the JVM is shutting down, so write the entry directly
+        // instead
+      }
+    }
+
     RetryingTaskRunner runner = new RetryingTaskRunner(NUM_ATTEMPTS,
         BASE_SLEEP);
 
-    long startTime = System.currentTimeMillis();
     LOG.debug("Starting insert into audit log");
     runner.runWithRetries(new RetryableTask() {
       @Override
@@ -156,4 +199,41 @@ public class CliAuditLogHook implements ExecuteWithHookContext {
 
     return auditLogId;
   }
+
+  /**
+   * Generates the rows that the log modules would write for the query, without writing them.
+   *
+   * @param sessionStateLite the session state that contains relevant config
+   * @param readEntities the entities that were read by the query
+   * @param writeEntities the entities that were written by the query
+   * @param userGroupInformation information about the user that ran the query
+   * @return a record containing the rows to write to the audit log tables
+   *
+   * @throws Exception if there's an error generating the rows
+   */
+  AuditLogRecord createRecord(final SessionStateLite sessionStateLite,
+                              final Set<ReadEntity> readEntities,
+                              final Set<WriteEntity> writeEntities,
+                              final UserGroupInformation userGroupInformation)
+      throws Exception {
+    // The modules don't use the connection when generating rows. The audit log ID is assigned by
+    // the DB when the record is written.
+    AuditLogRecord.CoreRow coreRow = new AuditCoreLogModule(
+        null,
+        sessionStateLite,
+        readEntities,
+        writeEntities,
+        userGroupInformation).getRow();
+    List<AuditLogRecord.ObjectRow> objectRows = new ObjectLogModule(
+        null,
+        sessionStateLite,
+        readEntities,
+        writeEntities,
+        0).getRows();
+    List<AuditLogRecord.MapRedStatsRow> mapRedStatsRows = new MapRedStatsLogModule(
+        null,
+        sessionStateLite,
+        0).getRows();
+    return new AuditLogRecord(coreRow, objectRows, mapRedStatsRows);
+  }
 }
@@ -16,6 +16,8 @@ import org.apache.hadoop.mapred.Counters.Group;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -41,7 +43,21 @@ public class MapRedStatsLogModule extends BaseLogModule {
    * @throws SerializationException if there's an error serializing data.
    */
   public void run() throws SerializationException, SQLException {
-    final String query = String.format("INSERT INTO %s ("
+    PreparedStatement ps = connection.prepareStatement(getInsertQuery(tableName));
+    for (AuditLogRecord.MapRedStatsRow row : getRows()) {
+      setValues(ps, auditLogId, row);
+      ps.executeUpdate();
+    }
+  }
+
+  /**
+   * Get the query for inserting a row into the map-reduce stats table.
+   *
+   * @param tableName the name of the map-reduce stats table
+   * @return a query with parameters for the values set by {@link #setValues}
+   */
+  static String getInsertQuery(String tableName) {
+    return String.format("INSERT INTO %s ("
         + "audit_log_id, "
         + "stage, "
         + "mappers, "
@@ -50,21 +66,48 @@ public class MapRedStatsLogModule extends BaseLogModule {
         + "counters) "
         + "VALUES (?, ?, ?, ?, ?, ?)",
         tableName);
+  }
 
-    // Insert a DB row for each Hive stage
+  /**
+   * Set the parameters of the insert query to the values of the given row.
+   *
+   * @param ps the prepared statement for the query from {@link #getInsertQuery}
+   * @param auditLogId the audit log ID associated with the Hive query for this audit log entry
+   * @param row the row to insert
+   *
+   * @throws SQLException if there's an error setting the parameters
+   */
+  static void setValues(PreparedStatement ps, long auditLogId, AuditLogRecord.MapRedStatsRow row)
+      throws SQLException {
+    int psIndex = 1;
+    ps.setLong(psIndex++, auditLogId);
+    ps.setString(psIndex++, row.stage);
+    ps.setLong(psIndex++, row.mappers);
+    ps.setLong(psIndex++, row.reducers);
+    ps.setLong(psIndex++, row.cpuTime);
+    ps.setString(psIndex, row.counters);
+  }
+
+  /**
+   * Generates a row for each Hive stage without writing them to the DB.
+   *
+   * @return the rows to insert into the map-reduce stats table
+   *
+   * @throws SerializationException if there's an error serializing the counters
+   */
+  List<AuditLogRecord.MapRedStatsRow> getRows() throws SerializationException {
+    List<AuditLogRecord.MapRedStatsRow> rows = new ArrayList<>();
     Map<String, MapRedStats> statsPerStage = sessionStateLite.getMapRedStats();
     for (String stage: statsPerStage.keySet()) {
       MapRedStats stats = statsPerStage.get(stage);
-      PreparedStatement ps = connection.prepareStatement(query);
-      int psIndex = 1;
-      ps.setLong(psIndex++, auditLogId);
-      ps.setString(psIndex++, stage);
-      ps.setLong(psIndex++, stats.getNumMap());
-      ps.setLong(psIndex++, stats.getNumReduce());
-      ps.setLong(psIndex++, stats.getCpuMSec());
-      ps.setString(psIndex, toJson(stats.getCounters()));
-      ps.executeUpdate();
+      rows.add(new AuditLogRecord.MapRedStatsRow(
+          stage,
+          stats.getNumMap(),
+          stats.getNumReduce(),
+          stats.getCpuMSec(),
+          toJson(stats.getCounters())));
     }
+    return rows;
   }
 
   /**
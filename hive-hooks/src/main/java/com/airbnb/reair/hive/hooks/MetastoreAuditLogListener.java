@@ -25,6 +25,7 @@ import org.apache.log4j.Logger;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -321,12 +322,44 @@ public class MetastoreAuditLogListener extends MetaStoreEventListener {
       );
     }
 
+    long startTime = System.currentTimeMillis();
+
+    if (conf.getBoolean(SpoolingAuditLogWriter.ENABLED_KEY, false)) {
+      AuditLogRecord record = new AuditLogRecord(
+          new AuditCoreLogModule(
+              null,
+              sessionStateLite,
+              readEntities,
+              writeEntities,
+              null
+          ).getRow(),
+          new ObjectLogModule(
+              null,
+              sessionStateLite,
+              readEntities,
+              writeEntities,
+              0
+          ).getRows(),
+          Collections.emptyList()
+      );
+
+      if (SpoolingAuditLogWriter.addToSpool(conf, jdbcUrl, dbCredentials, record)) {
+        LOG.debug(
+            String.format(
+                "Spooling metastore audit log entry took %d ms",
+                System.currentTimeMillis() - startTime
+            )
+        );
+        return;
+      }
+      // The spool is full or unavailable, so write the entry directly
+    }
+
     RetryingTaskRunner runner = new RetryingTaskRunner(
         NUM_ATTEMPTS,
         BASE_SLEEP
     );
 
-    long startTime = System.currentTimeMillis();
     LOG.debug("Starting insert into metastore audit log");
 
     runner.runWithRetries(new RetryableTask() {
@@ -1,5 +1,6 @@
 package com.airbnb.reair.hive.hooks;
 
+import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.metastore.api.Database;
 import org.apache.hadoop.hive.metastore.api.Partition;
 import org.apache.hadoop.hive.metastore.api.Table;
@@ -7,6 +8,7 @@ import org.apache.hadoop.hive.ql.hooks.Entity;
 import org.apache.hadoop.hive.ql.hooks.ReadEntity;
 import org.apache.hadoop.hive.ql.hooks.WriteEntity;
 import org.apache.hadoop.hive.ql.hooks.WriteEntity.WriteType;
+import org.apache.thrift.TBase;
 import org.apache.thrift.TException;
 import org.apache.thrift.TSerializer;
 import org.apache.thrift.protocol.TJSONProtocol;
@@ -15,8 +17,10 @@ import java.net.URI;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -26,6 +30,22 @@ public class ObjectLogModule extends BaseLogModule {
 
   public static final String TABLE_NAME_KEY =
       "airbnb.reair.audit_log.objects.table_name";
+  // Maximum number of objects to insert in a single statement. Default 500.
+  public static final String MAX_ROWS_PER_STATEMENT_KEY =
+      "airbnb.reair.audit_log.objects.max_rows_per_statement";
+  // Maximum number of characters in the objects inserted in a single statement. This should be
+  // well below the max_allowed_packet setting of the DB. Default 1000000.
+  public static final String MAX_STATEMENT_CHARS_KEY =
+      "airbnb.reair.audit_log.objects.max_statement_chars";
+
+  // Format for the Table, Partition, and Database objects. One of the values in
+  // ObjectSerializationFormat. The binary formats require the serialization_format and
+  // serialized_object_binary columns in the objects table. Default JSON.
+  public static final String SERIALIZATION_FORMAT_KEY =
+      "airbnb.reair.audit_log.objects.serialization_format";
+
+  public static final int DEFAULT_MAX_ROWS_PER_STATEMENT = 500;
+  public static final long DEFAULT_MAX_STATEMENT_CHARS = 1000000;
 
   // The objects table stores serialized forms of the relevant Hive objects
   // for that query.
@@ -40,6 +60,7 @@ public class ObjectLogModule extends BaseLogModule {
 
   private final Set<ReadEntity> readEntities;
   private final Set<WriteEntity> writeEntities;
+  private final ObjectSerializationFormat serializationFormat;
 
   private final long auditLogId;
 
@@ -64,6 +85,15 @@ public class ObjectLogModule extends BaseLogModule {
     this.readEntities = readEntities;
     this.writeEntities = writeEntities;
     this.auditLogId = auditLogId;
+
+    String formatName = sessionStateLite.getConf().get(SERIALIZATION_FORMAT_KEY,
+        ObjectSerializationFormat.JSON.toString());
+    try {
+      this.serializationFormat = ObjectSerializationFormat.valueOf(formatName.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new ConfigurationException(String.format("Invalid value for %s: %s",
+          SERIALIZATION_FORMAT_KEY, formatName), e);
+    }
   }
 
   /**
@@ -74,20 +104,97 @@ public class ObjectLogModule extends BaseLogModule {
    */
   public void run() throws SQLException, EntityException {
     // Write out the serialized output objects to a separate table
-    // in separate statements. Attempting to write all the objects
+    // in multi-row statements. Attempting to write all the objects
     // in a single statement can result in MySQL packet size errors.
     // Consider a dynamic partition query that generates 10K
-    final String query = String.format("INSERT INTO %s ("
+    // partitions with Thrift object sizes of 1KB, so the size of
+    // each statement is limited.
+    HiveConf conf = sessionStateLite.getConf();
+    try (ObjectRowInserter inserter = new ObjectRowInserter(
+        connection,
+        tableName,
+        conf.getInt(MAX_ROWS_PER_STATEMENT_KEY, DEFAULT_MAX_ROWS_PER_STATEMENT),
+        conf.getLong(MAX_STATEMENT_CHARS_KEY, DEFAULT_MAX_STATEMENT_CHARS))) {
+      for (AuditLogRecord.ObjectRow row : getRows()) {
+        inserter.add(auditLogId, row);
+      }
+      inserter.flush();
+    }
+  }
+
+  /**
+   * Get the query for inserting a row into the objects table.
+   *
+   * @param tableName the name of the objects table
+   * @param includeFormatColumns whether to insert the serialization_format and
+   *                             serialized_object_binary columns, which are needed for rows with
+   *                             binary objects
+   * @return a query with parameters for the values set by {@link #setValues}
+   */
+  static String getInsertQuery(String tableName, boolean includeFormatColumns) {
+    return String.format("INSERT INTO %s ("
         + "audit_log_id, "
         + "category, "
         + "type, "
         + "name, "
-        + "serialized_object) "
-        + "VALUES (?, ?, ?, ?, ?)",
-        tableName);
+        + "serialized_object%s) "
+        + "VALUES %s",
+        tableName,
+        includeFormatColumns ? ", serialization_format, serialized_object_binary" : "",
+        getValuesPlaceholder(includeFormatColumns));
+  }
 
-    // partitions with Thrift object sizes of 1KB.
-    PreparedStatement ps = connection.prepareStatement(query);
+  /**
+   * Get the parameter placeholders for a row in the insert query.
+   *
+   * @param includeFormatColumns whether the query inserts the serialization format columns
+   * @return the placeholders for the values of a row
+   */
+  static String getValuesPlaceholder(boolean includeFormatColumns) {
+    return includeFormatColumns ? "(?, ?, ?, ?, ?, ?, ?)" : "(?, ?, ?, ?, ?)";
+  }
+
+  /**
+   * Set the parameters of the insert query to the values of the given row. The query may insert
+   * several rows, as generated by {@link ObjectRowInserter#getInsertQuery}.
+   *
+   * @param ps the prepared statement for the query
+   * @param psIndex the index of the first parameter for the row
+   * @param auditLogId the audit log ID associated with the Hive query for this audit log entry
+   * @param row the row to insert
+   * @param includeFormatColumns whether the query inserts the serialization format columns
+   * @return the index of the first parameter for the next row
+   *
+   * @throws SQLException if there's an error setting the parameters
+   */
+  static int setValues(
+      PreparedStatement ps,
+      int psIndex,
+      long auditLogId,
+      AuditLogRecord.ObjectRow row,
+      boolean includeFormatColumns) throws SQLException {
+    ps.setLong(psIndex++, auditLogId);
+    ps.setString(psIndex++, row.category.toString());
+    ps.setString(psIndex++, row.type);
+    ps.setString(psIndex++, row.name);
+    ps.setString(psIndex++, row.serializedObject);
+    if (includeFormatColumns) {
+      ps.setString(psIndex++,
+          row.serializationFormat == null ? null : row.serializationFormat.toString());
+      ps.setBytes(psIndex++, row.serializedObjectBinary);
+    }
+    return psIndex;
+  }
+
+  /**
+   * Generates the rows for the objects table without writing them to the DB.
+   *
+   * @return the rows to insert into the objects table
+   *
+   * @throws EntityException if there's an error processing the entity
+   */
+  List<AuditLogRecord.ObjectRow> getRows() throws EntityException {
+    List<AuditLogRecord.ObjectRow> rows = new ArrayList<>();
 
     // If a partition is added to a table, then the table
     // technically changed as well. Record this in the output
@@ -115,28 +222,26 @@ public class ObjectLogModule extends BaseLogModule {
       // partition as a reference.
       for (ReadEntity entity : readEntities) {
         if (entity.getType() == Entity.Type.PARTITION) {
-          addToObjectsTable(
-              ps,
-              auditLogId,
+          addToObjectRows(
+              rows,
               ObjectCategory.REFERENCE_TABLE,
               new ReadEntity(entity.getT())
           );
         }
 
-        addToObjectsTable(ps, auditLogId, ObjectCategory.INPUT, entity);
+        addToObjectRows(rows, ObjectCategory.INPUT, entity);
       }
 
       for (WriteEntity entity : writeEntities) {
         if (entity.getType() == Entity.Type.PARTITION) {
-          addToObjectsTable(
-              ps,
-              auditLogId,
+          addToObjectRows(
+              rows,
               ObjectCategory.REFERENCE_TABLE,
               new WriteEntity(entity.getT(), WriteType.INSERT)
           );
         }
 
-        addToObjectsTable(ps, auditLogId, ObjectCategory.OUTPUT, entity);
+        addToObjectRows(rows, ObjectCategory.OUTPUT, entity);
       }
     } else {
 
@@ -160,7 +265,7 @@ public class ObjectLogModule extends BaseLogModule {
           if (renamePartition && entity.getType() == Entity.Type.TABLE) {
             continue;
           }
-          addToObjectsTable(ps, auditLogId, ObjectCategory.RENAME_FROM, entity);
+          addToObjectRows(rows, ObjectCategory.RENAME_FROM, entity);
           renameFromObject = toIdentifierString(entity);
         }
       }
@@ -177,7 +282,7 @@ public class ObjectLogModule extends BaseLogModule {
         }
 
         // Otherwise add it as an output
-        addToObjectsTable(ps, auditLogId, ObjectCategory.OUTPUT, entity);
+        addToObjectRows(rows, ObjectCategory.OUTPUT, entity);
 
         // Save the table for the partitions as reference objects
         if (entity.getType() == Entity.Type.PARTITION
@@ -191,35 +296,64 @@ public class ObjectLogModule extends BaseLogModule {
         // Using DDL_NO_LOCK but the value shouldn't matter
         WriteEntity entity = new WriteEntity(t,
             WriteEntity.WriteType.DDL_NO_LOCK);
-        addToObjectsTable(ps, auditLogId,
-            ObjectCategory.REFERENCE_TABLE, entity);
+        addToObjectRows(rows, ObjectCategory.REFERENCE_TABLE, entity);
       }
     }
+    return rows;
   }
 
   /**
-   * Insert the given entity into the objects table using the given {@code ps}.
+   * Add a row for the given entity to {@code rows}.
    *
-   * @param ps the prepared statemtn to use
-   * @param auditLogId the audit log ID associated with the Hive query for this audit log entry
+   * @param rows the list of rows to add to
    * @param category the category of the object
    * @param entity the entity associated with this query
    *
    * @throws EntityException if there's an error processing this entity
-   * @throws SQLException if there's an error inserting into the DB.
    */
-  private static void addToObjectsTable(
-                          PreparedStatement ps,
-                          long auditLogId,
+  private void addToObjectRows(
+                          List<AuditLogRecord.ObjectRow> rows,
                           ObjectCategory category,
-                          Entity entity) throws SQLException, EntityException {
-    int psIndex = 1;
-    ps.setLong(psIndex++, auditLogId);
-    ps.setString(psIndex++, category.toString());
-    ps.setString(psIndex++, entity.getType().toString());
-    ps.setString(psIndex++, toIdentifierString(entity));
-    ps.setString(psIndex, toJson(entity));
-    ps.executeUpdate();
+                          Entity entity) throws EntityException {
+    TBase thriftObject = serializationFormat.isBinary() ? toThriftObject(entity) : null;
+    if (thriftObject == null) {
+      rows.add(new AuditLogRecord.ObjectRow(
+          category,
+          entity.getType().toString(),
+          toIdentifierString(entity),
+          toJson(entity)));
+      return;
+    }
+    try {
+      rows.add(new AuditLogRecord.ObjectRow(
+          category,
+          entity.getType().toString(),
+          toIdentifierString(entity),
+          serializationFormat,
+          serializationFormat.serialize(thriftObject)));
+    } catch (SerializationException e) {
+      throw new EntityException(e);
+    }
+  }
+
+  /**
+   * Get the Thrift object that the entity represents.
+   *
+   * @param entity the entity to convert
+   * @return the Thrift object, or null if the entity is not a Hive object (e.g. a directory)
+   */
+  private static TBase toThriftObject(Entity entity) {
+    switch (entity.getType()) {
+      case DATABASE:
+        return entity.getDatabase();
+      case TABLE:
+        return entity.getTable().getTTable();
+      case PARTITION:
+      case DUMMYPARTITION:
+        return entity.getPartition().getTPartition();
+      default:
+        return null;
+    }
   }
 
   /**
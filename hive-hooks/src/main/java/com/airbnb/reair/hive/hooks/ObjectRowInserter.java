@@ -0,0 +1,173 @@
+package com.airbnb.reair.hive.hooks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inserts rows into the objects table using multi-row INSERT statements. A dynamic partition query
+ * can generate 10K output objects, so inserting one row per statement results in 10K round trips
+ * to the DB. Rows are accumulated and written in statements that are limited in the number of rows
+ * and the size of the values, so that a statement doesn't exceed the MySQL packet size. The
+ * serialization format columns are only included in statements that have rows with binary
+ * objects, so that tables without those columns can still be used for text objects.
+ *
+ * <p>The inserter does not commit - callers are expected to use a transaction so that the objects
+ * appear at the same time as the core audit log entry.
+ */
+class ObjectRowInserter implements AutoCloseable {
+
+  // Rough size of a row in the statement, excluding the values of the string columns
+  private static final long ROW_OVERHEAD_CHARS = 64;
+
+  private final Connection connection;
+  private final String tableName;
+  private final int maxRowsPerStatement;
+  private final long maxStatementChars;
+
+  // Statements are cached by the number of rows, since full statements generally have the same
+  // number of rows.
+  private final Map<Integer, PreparedStatement> textStatements = new HashMap<>();
+  private final Map<Integer, PreparedStatement> binaryStatements = new HashMap<>();
+  private final List<Long> pendingAuditLogIds = new ArrayList<>();
+  private final List<AuditLogRecord.ObjectRow> pendingRows = new ArrayList<>();
+  private boolean pendingBinary = false;
+  private long pendingChars = 0;
+  private int statementCount = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param connection the connection to use for inserting the rows
+   * @param tableName the name of the objects table
+   * @param maxRowsPerStatement the maximum number of rows to insert in a single statement
+   * @param maxStatementChars the maximum number of characters in the values of the rows in a
+   *                          single statement. A row that exceeds this is inserted on its own.
+   */
+  ObjectRowInserter(
+      Connection connection,
+      String tableName,
+      int maxRowsPerStatement,
+      long maxStatementChars) {
+    this.connection = connection;
+    this.tableName = tableName;
+    this.maxRowsPerStatement = Math.max(1, maxRowsPerStatement);
+    this.maxStatementChars = maxStatementChars;
+  }
+
+  private static long getSize(AuditLogRecord.ObjectRow row) {
+    return ROW_OVERHEAD_CHARS
+        + (row.type == null ? 0 : row.type.length())
+        + (row.name == null ? 0 : row.name.length())
+        + (row.serializedObject == null ? 0 : row.serializedObject.length())
+        // Binary values are sent as hex
+        + (row.serializedObjectBinary == null ? 0 : 2L * row.serializedObjectBinary.length);
+  }
+
+  /**
+   * Add a row to insert. The pending rows are inserted first if adding the row would exceed the
+   * limits for a statement.
+   *
+   * @param auditLogId the audit log ID associated with the Hive query for the row
+   * @param row the row to insert
+   *
+   * @throws SQLException if there's an error inserting the pending rows
+   */
+  void add(long auditLogId, AuditLogRecord.ObjectRow row) throws SQLException {
+    long rowChars = getSize(row);
+    if (!pendingRows.isEmpty()
+        && (pendingRows.size() >= maxRowsPerStatement
+            || pendingChars + rowChars > maxStatementChars)) {
+      flush();
+    }
+    pendingBinary = pendingBinary || row.isBinary();
+    pendingAuditLogIds.add(auditLogId);
+    pendingRows.add(row);
+    pendingChars += rowChars;
+  }
+
+  /**
+   * Insert the pending rows.
+   *
+   * @throws SQLException if there's an error inserting the rows
+   */
+  void flush() throws SQLException {
+    if (pendingRows.isEmpty()) {
+      return;
+    }
+    Map<Integer, PreparedStatement> statements = pendingBinary ? binaryStatements : textStatements;
+    PreparedStatement ps = statements.get(pendingRows.size());
+    if (ps == null) {
+      ps = connection.prepareStatement(
+          getInsertQuery(tableName, pendingBinary, pendingRows.size()));
+      statements.put(pendingRows.size(), ps);
+    }
+    int psIndex = 1;
+    for (int i = 0; i < pendingRows.size(); i++) {
+      psIndex = ObjectLogModule.setValues(ps, psIndex, pendingAuditLogIds.get(i),
+          pendingRows.get(i), pendingBinary);
+    }
+    ps.executeUpdate();
+    statementCount++;
+
+    pendingAuditLogIds.clear();
+    pendingRows.clear();
+    pendingBinary = false;
+    pendingChars = 0;
+  }
+
+  /**
+   * Get the number of statements that have been executed.
+   *
+   * @return the number of statements executed by this inserter
+   */
+  int getStatementCount() {
+    return statementCount;
+  }
+
+  /**
+   * Get the query for inserting rows into the objects table.
+   *
+   * @param tableName the name of the objects table
+   * @param includeFormatColumns whether to insert the serialization format columns
+   * @param rowCount the number of rows to insert
+   * @return a query with parameters for the values set by {@link ObjectLogModule#setValues}
+   */
+  static String getInsertQuery(String tableName, boolean includeFormatColumns, int rowCount) {
+    StringBuilder query = new StringBuilder(
+        ObjectLogModule.getInsertQuery(tableName, includeFormatColumns));
+    for (int i = 1; i < rowCount; i++) {
+      query.append(", ").append(ObjectLogModule.getValuesPlaceholder(includeFormatColumns));
+    }
+    return query.toString();
+  }
+
+  /**
+   * Closes the cached statements. Pending rows that have not been flushed are discarded.
+   *
+   * @throws SQLException if there's an error closing a statement
+   */
+  @Override
+  public void close() throws SQLException {
+    SQLException closeException = null;
+    for (Map<Integer, PreparedStatement> statements : Arrays.asList(textStatements,
+        binaryStatements)) {
+      for (PreparedStatement ps : statements.values()) {
+        try {
+          ps.close();
+        } catch (SQLException e) {
+          closeException = e;
+        }
+      }
+      statements.clear();
+    }
+    if (closeException != null) {
+      throw closeException;
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package com.airbnb.reair.hive.hooks;
+
+import org.apache.thrift.TBase;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Formats for the Thrift objects in the objects table. The name of the format is written to the
+ * serialization_format column, so new formats must be added with a new name instead of changing
+ * an existing one.
+ *
+ * <p>JSON objects are written to the serialized_object column as text, as the hooks have always
+ * done. The other formats are written to the serialized_object_binary column. Rows written before
+ * the serialization_format column was added have a null format, which is the same as JSON.
+ */
+public enum ObjectSerializationFormat {
+  // TJSONProtocol text
+  JSON,
+  // TCompactProtocol bytes
+  COMPACT,
+  // TCompactProtocol bytes, compressed with Deflate
+  COMPACT_DEFLATE;
+
+  /**
+   * Get the format for a value in the serialization_format column.
+   *
+   * @param name the value of the column, or null for rows that don't have a format
+   * @return the format
+   *
+   * @throws SerializationException if the format is unknown, e.g. if it was written by a newer
+   *                                version of the hooks
+   */
+  public static ObjectSerializationFormat fromColumnValue(String name)
+      throws SerializationException {
+    if (name == null) {
+      return JSON;
+    }
+    try {
+      return valueOf(name);
+    } catch (IllegalArgumentException e) {
+      throw new SerializationException("Unknown serialization format: " + name, e);
+    }
+  }
+
+  /**
+   * Whether objects in this format are stored in the serialized_object_binary column.
+   *
+   * @return whether the format is binary
+   */
+  public boolean isBinary() {
+    return this != JSON;
+  }
+
+  /**
+   * Serialize a Thrift object.
+   *
+   * @param obj the object to serialize
+   * @return the serialized object. For JSON, these are the UTF-8 bytes of the JSON string.
+   *
+   * @throws SerializationException if there's an error serializing the object
+   */
+  public byte[] serialize(TBase obj) throws SerializationException {
+    try {
+      switch (this) {
+        case JSON:
+          return new TSerializer(new TJSONProtocol.Factory()).toString(obj, "UTF-8")
+              .getBytes(StandardCharsets.UTF_8);
+        case COMPACT:
+          return new TSerializer(new TCompactProtocol.Factory()).serialize(obj);
+        case COMPACT_DEFLATE:
+          return deflate(new TSerializer(new TCompactProtocol.Factory()).serialize(obj));
+        default:
+          throw new SerializationException("Unhandled format: " + this);
+      }
+    } catch (TException e) {
+      throw new SerializationException(e);
+    }
+  }
+
+  /**
+   * Deserialize a Thrift object.
+   *
+   * @param serializedObject the serialized object, as returned by {@link #serialize}
+   * @param obj the Thrift object to populate
+   *
+   * @throws SerializationException if there's an error deserializing the object
+   */
+  public void deserialize(byte[] serializedObject, TBase obj) throws SerializationException {
+    if (serializedObject == null) {
+      throw new SerializationException("Missing serialized object for format " + this);
+    }
+    try {
+      switch (this) {
+        case JSON:
+          new TDeserializer(new TJSONProtocol.Factory()).deserialize(obj, serializedObject);
+          break;
+        case COMPACT:
+          new TDeserializer(new TCompactProtocol.Factory()).deserialize(obj, serializedObject);
+          break;
+        case COMPACT_DEFLATE:
+          new TDeserializer(new TCompactProtocol.Factory()).deserialize(obj,
+              inflate(serializedObject));
+          break;
+        default:
+          throw new SerializationException("Unhandled format: " + this);
+      }
+    } catch (TException | IOException e) {
+      throw new SerializationException(e);
+    }
+  }
+
+  private static byte[] deflate(byte[] data) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+      byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] data) throws IOException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+      byte[] buffer = new byte[4096];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Truncated compressed object");
+        }
+        out.write(buffer, 0, length);
+      }
+      return out.toByteArray();
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
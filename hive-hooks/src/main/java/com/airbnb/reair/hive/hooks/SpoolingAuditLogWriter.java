@@ -0,0 +1,528 @@
+package com.airbnb.reair.hive.hooks;
+
+import com.airbnb.reair.db.DbCredentials;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes audit log records to a spool on local disk, and forwards them to the DB from a background
+ * thread. Adding a record to the spool doesn't involve the DB, so queries and metastore calls are
+ * not delayed when the DB is slow or unavailable. The forwarder writes the records to the DB in
+ * spool order, in batches, retrying until the DB is available.
+ *
+ * <p>The sequence number of the last forwarded record is written to an offsets table in the same
+ * transaction as the records, so each record is written exactly once, even if the process dies
+ * after writing a batch. Records that weren't forwarded before the process exits are forwarded by
+ * the next writer that uses the same spool directory. Each spool directory should only be used for
+ * one audit log DB. Only records that have been synced to disk are forwarded, so a record that is
+ * recorded as forwarded can't be lost from the spool if the host crashes.
+ *
+ * <p>If the spool is full or can't be opened, the caller should write the record directly.
+ */
+public class SpoolingAuditLogWriter {
+
+  public static Logger LOG = Logger.getLogger(SpoolingAuditLogWriter.class);
+
+  // Whether to write audit log records to a local spool before writing them to the DB. Default
+  // false.
+  public static final String ENABLED_KEY = "airbnb.reair.audit_log.spool.enabled";
+  // Local directory for the spool. Required if the spool is enabled.
+  public static final String DIRECTORY_KEY = "airbnb.reair.audit_log.spool.dir";
+  // Maximum size of the spool in bytes. When the spool is full, records are written directly to
+  // the DB. Default 1 GB.
+  public static final String MAX_BYTES_KEY = "airbnb.reair.audit_log.spool.max_bytes";
+  // Size of a spool segment file in bytes. Default 64 MB.
+  public static final String SEGMENT_BYTES_KEY = "airbnb.reair.audit_log.spool.segment_bytes";
+  // How often to sync the spool to disk. Records appended since the last sync can be lost if the
+  // host crashes. Default 1000.
+  public static final String FSYNC_INTERVAL_MS_KEY =
+      "airbnb.reair.audit_log.spool.fsync_interval_ms";
+  // Maximum number of records to forward to the DB in a single transaction. Default 100.
+  public static final String BATCH_SIZE_KEY = "airbnb.reair.audit_log.spool.batch_size";
+  // Name of the table that has the sequence number of the last forwarded record for each spool.
+  // Default audit_log_spool_offsets.
+  public static final String OFFSETS_TABLE_NAME_KEY =
+      "airbnb.reair.audit_log.spool.offsets_table_name";
+  // When the JVM exits, how long to wait for spooled records to be forwarded. Records that are not
+  // forwarded by then are forwarded when the spool is opened again. Default 10000.
+  public static final String SHUTDOWN_FLUSH_TIMEOUT_MS_KEY =
+      "airbnb.reair.audit_log.spool.shutdown_flush_timeout_ms";
+
+  public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+  public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+  public static final long DEFAULT_FSYNC_INTERVAL_MS = 1000;
+  public static final int DEFAULT_BATCH_SIZE = 100;
+  public static final String DEFAULT_OFFSETS_TABLE_NAME = "audit_log_spool_offsets";
+  public static final long DEFAULT_SHUTDOWN_FLUSH_TIMEOUT_MS = 10000;
+
+  // How often the forwarder checks for new records when the spool is empty
+  private static final long POLL_INTERVAL_MS = 100;
+  // Bounds for the time to wait before retrying after an error writing to the DB
+  private static final long MIN_RETRY_DELAY_MS = 100;
+  private static final long MAX_RETRY_DELAY_MS = 10000;
+  // When records are rejected because the spool is full, log a warning for every this many
+  private static final long FULL_LOG_INTERVAL = 1000;
+
+  // Writers are shared by all the hooks in the JVM that use the same spool directory
+  private static final Map<String, SpoolingAuditLogWriter> writers = new ConcurrentHashMap<>();
+
+  private final AuditLogSpool spool;
+  private final String jdbcUrl;
+  private final DbCredentials dbCreds;
+  private final String coreTableName;
+  private final String objectsTableName;
+  private final String mapRedStatsTableName;
+  private final String offsetsTableName;
+  private final int batchSize;
+  private final long fsyncIntervalMs;
+  private final int maxObjectRowsPerStatement;
+  private final long maxObjectStatementChars;
+
+  private final Thread forwarderThread;
+  private final Thread syncThread;
+  private volatile boolean closed = false;
+
+  // Only used by the forwarder thread. The offset is re-read from the DB after an error, since it's
+  // unknown whether the last transaction was committed.
+  private Connection connection;
+  private boolean offsetKnown = false;
+
+  // Sequence number of the last record that is known to be in the DB, or -1 if unknown. Waiters
+  // for this synchronize on this.
+  private volatile long forwardedSequence = -1;
+  private long rejectedCount = 0;
+
+  /**
+   * Constructor that starts the forwarder and sync threads, and registers the shutdown hook.
+   *
+   * @param spool the spool to write the records to
+   * @param jdbcUrl the JDBC URL for the audit log DB
+   * @param dbCreds the credentials for the audit log DB
+   * @param coreTableName the name of the core audit log table
+   * @param objectsTableName the name of the table for the serialized objects
+   * @param mapRedStatsTableName the name of the table for the map-reduce stats. Can be null if the
+   *                             records don't have map-reduce stats.
+   * @param offsetsTableName the name of the table for the sequence numbers of forwarded records
+   * @param batchSize the maximum number of records to write in a single transaction
+   * @param fsyncIntervalMs how often to sync the spool to disk
+   * @param shutdownFlushTimeoutMs on shutdown, how long to wait for spooled records to be written
+   * @param maxObjectRowsPerStatement the maximum number of rows to insert into the objects table
+   *                                  in a single statement
+   * @param maxObjectStatementChars the maximum number of characters in the rows inserted into the
+   *                                objects table in a single statement
+   */
+  public SpoolingAuditLogWriter(
+      AuditLogSpool spool,
+      String jdbcUrl,
+      DbCredentials dbCreds,
+      String coreTableName,
+      String objectsTableName,
+      String mapRedStatsTableName,
+      String offsetsTableName,
+      int batchSize,
+      long fsyncIntervalMs,
+      long shutdownFlushTimeoutMs,
+      int maxObjectRowsPerStatement,
+      long maxObjectStatementChars) {
+    this.spool = spool;
+    this.jdbcUrl = jdbcUrl;
+    this.dbCreds = dbCreds;
+    this.coreTableName = coreTableName;
+    this.objectsTableName = objectsTableName;
+    this.mapRedStatsTableName = mapRedStatsTableName;
+    this.offsetsTableName = offsetsTableName;
+    this.batchSize = batchSize;
+    this.fsyncIntervalMs = fsyncIntervalMs;
+    this.maxObjectRowsPerStatement = maxObjectRowsPerStatement;
+    this.maxObjectStatementChars = maxObjectStatementChars;
+
+    forwarderThread = new Thread(this::runForwarder, "SpoolingAuditLogWriter-forwarder");
+    forwarderThread.setDaemon(true);
+    forwarderThread.start();
+
+    syncThread = new Thread(this::runSync, "SpoolingAuditLogWriter-sync");
+    syncThread.setDaemon(true);
+    syncThread.start();
+
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          close(shutdownFlushTimeoutMs);
+        } catch (InterruptedException e) {
+          LOG.error("Interrupted while forwarding spooled audit log records", e);
+        }
+      }));
+  }
+
+  /**
+   * Get the writer for the spool directory specified in the configuration, creating it if
+   * necessary.
+   *
+   * @param conf the configuration containing the table names and the spool settings
+   * @param jdbcUrl the JDBC URL for the audit log DB
+   * @param dbCreds the credentials for the audit log DB
+   * @return the writer shared by hooks that use the same spool directory
+   *
+   * @throws ConfigurationException if a setting is missing or invalid
+   * @throws IOException if the spool can't be opened, e.g. if another process is using it
+   */
+  public static SpoolingAuditLogWriter getWriter(
+      Configuration conf,
+      String jdbcUrl,
+      DbCredentials dbCreds) throws ConfigurationException, IOException {
+    String directoryName = conf.get(DIRECTORY_KEY);
+    if (directoryName == null) {
+      throw new ConfigurationException(String.format("%s is not defined in the conf!",
+          DIRECTORY_KEY));
+    }
+    File directory = new File(directoryName).getAbsoluteFile();
+    String key = directory.getPath();
+
+    SpoolingAuditLogWriter writer = writers.get(key);
+    if (writer != null) {
+      return writer;
+    }
+
+    String coreTableName = getRequired(conf, AuditCoreLogModule.TABLE_NAME_KEY);
+    String objectsTableName = getRequired(conf, ObjectLogModule.TABLE_NAME_KEY);
+    synchronized (writers) {
+      writer = writers.get(key);
+      if (writer == null) {
+        AuditLogSpool spool = new AuditLogSpool(
+            directory,
+            conf.getLong(MAX_BYTES_KEY, DEFAULT_MAX_BYTES),
+            conf.getLong(SEGMENT_BYTES_KEY, DEFAULT_SEGMENT_BYTES));
+        writer = new SpoolingAuditLogWriter(
+            spool,
+            jdbcUrl,
+            dbCreds,
+            coreTableName,
+            objectsTableName,
+            // The metastore listener doesn't write map-reduce stats
+            conf.get(MapRedStatsLogModule.TABLE_NAME_KEY),
+            conf.get(OFFSETS_TABLE_NAME_KEY, DEFAULT_OFFSETS_TABLE_NAME),
+            conf.getInt(BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE),
+            conf.getLong(FSYNC_INTERVAL_MS_KEY, DEFAULT_FSYNC_INTERVAL_MS),
+            conf.getLong(SHUTDOWN_FLUSH_TIMEOUT_MS_KEY, DEFAULT_SHUTDOWN_FLUSH_TIMEOUT_MS),
+            conf.getInt(ObjectLogModule.MAX_ROWS_PER_STATEMENT_KEY,
+                ObjectLogModule.DEFAULT_MAX_ROWS_PER_STATEMENT),
+            conf.getLong(ObjectLogModule.MAX_STATEMENT_CHARS_KEY,
+                ObjectLogModule.DEFAULT_MAX_STATEMENT_CHARS));
+        writers.put(key, writer);
+      }
+      return writer;
+    }
+  }
+
+  private static String getRequired(Configuration conf, String key) throws ConfigurationException {
+    String value = conf.get(key);
+    if (value == null) {
+      throw new ConfigurationException(String.format("%s is not defined in the conf!", key));
+    }
+    return value;
+  }
+
+  /**
+   * Add a record to the spool of the writer specified in the configuration.
+   *
+   * @param conf the configuration containing the table names and the spool settings
+   * @param jdbcUrl the JDBC URL for the audit log DB
+   * @param dbCreds the credentials for the audit log DB
+   * @param record the record to write
+   * @return false if the record could not be spooled, in which case it should be written directly
+   *
+   * @throws ConfigurationException if a setting is missing or invalid
+   */
+  static boolean addToSpool(
+      Configuration conf,
+      String jdbcUrl,
+      DbCredentials dbCreds,
+      AuditLogRecord record) throws ConfigurationException {
+    SpoolingAuditLogWriter writer;
+    try {
+      writer = getWriter(conf, jdbcUrl, dbCreds);
+    } catch (IOException e) {
+      LOG.warn("Unable to open the audit log spool", e);
+      return false;
+    }
+    return writer.add(record);
+  }
+
+  /**
+   * Append a record to the spool.
+   *
+   * @param record the record to write
+   * @return false if the writer is closed, the spool is full, or there was an error writing to the
+   *         spool, in which case the record should be written directly
+   */
+  boolean add(AuditLogRecord record) {
+    if (closed) {
+      return false;
+    }
+    long sequence;
+    try {
+      sequence = spool.append(record.serialize());
+    } catch (IOException e) {
+      LOG.error("Error writing to the audit log spool", e);
+      return false;
+    }
+    if (sequence < 0) {
+      synchronized (this) {
+        rejectedCount++;
+        if (rejectedCount % FULL_LOG_INTERVAL == 1) {
+          LOG.warn(String.format("Audit log spool is full with %d bytes - %d records have been "
+              + "written directly", spool.getSize(), rejectedCount));
+        }
+      }
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Wait for the records that were added before this call to be written to the DB.
+   *
+   * @param timeoutMs the maximum amount of time to wait
+   * @return whether the records were written before the timeout
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean flush(long timeoutMs) throws InterruptedException {
+    long targetSequence = spool.getLastSequence();
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    synchronized (this) {
+      while (forwardedSequence < targetSequence) {
+        long remainingTime = deadline - System.currentTimeMillis();
+        if (remainingTime <= 0) {
+          return false;
+        }
+        wait(remainingTime);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stop accepting records and wait for the spooled records to be written to the DB. Records that
+   * can't be written in time stay in the spool, and are written by the next writer that uses the
+   * spool directory.
+   *
+   * @param timeoutMs the maximum amount of time to wait for the records to be written
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void close(long timeoutMs) throws InterruptedException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    writers.values().remove(this);
+
+    if (timeoutMs > 0) {
+      forwarderThread.join(timeoutMs);
+    }
+    if (forwarderThread.isAlive()) {
+      LOG.warn(String.format("Stopping the audit log forwarder with %d records in the spool",
+          getPendingCount()));
+      forwarderThread.interrupt();
+      forwarderThread.join(POLL_INTERVAL_MS);
+    }
+    syncThread.interrupt();
+    try {
+      spool.close();
+    } catch (IOException e) {
+      LOG.error("Error closing the audit log spool", e);
+    }
+  }
+
+  /**
+   * Get the number of records in the spool that haven't been written to the DB.
+   *
+   * @return the number of records waiting to be written, or -1 if it's unknown because the DB
+   *         hasn't been reached yet
+   */
+  public long getPendingCount() {
+    long forwarded = forwardedSequence;
+    return forwarded < 0 ? -1 : spool.getLastSequence() - forwarded;
+  }
+
+  /**
+   * Get the number of records that were not added because the spool was full.
+   *
+   * @return the number of records that were rejected
+   */
+  public synchronized long getRejectedCount() {
+    return rejectedCount;
+  }
+
+  private void setForwardedSequence(long sequence) {
+    spool.release(sequence);
+    synchronized (this) {
+      forwardedSequence = sequence;
+      notifyAll();
+    }
+  }
+
+  private void runSync() {
+    try {
+      while (!closed) {
+        Thread.sleep(fsyncIntervalMs);
+        try {
+          spool.sync();
+        } catch (IOException e) {
+          LOG.error("Error syncing the audit log spool", e);
+        }
+      }
+    } catch (InterruptedException e) {
+      // Closed - the spool is synced when it's closed
+    }
+  }
+
+  private void runForwarder() {
+    long retryDelayMs = MIN_RETRY_DELAY_MS;
+    try {
+      while (true) {
+        boolean forwarded;
+        try {
+          forwarded = forwardBatch();
+          retryDelayMs = MIN_RETRY_DELAY_MS;
+        } catch (IOException | SQLException e) {
+          LOG.warn(String.format("Error forwarding spooled audit log records - retrying in %d ms",
+              retryDelayMs), e);
+          closeConnection();
+          offsetKnown = false;
+          Thread.sleep(retryDelayMs);
+          retryDelayMs = Math.min(2 * retryDelayMs, MAX_RETRY_DELAY_MS);
+          continue;
+        }
+        if (!forwarded) {
+          // New records can't be added once the writer is closed, so the spool is drained
+          if (closed) {
+            break;
+          }
+          Thread.sleep(POLL_INTERVAL_MS);
+        }
+      }
+    } catch (InterruptedException e) {
+      LOG.warn("Audit log forwarder interrupted");
+    } finally {
+      closeConnection();
+    }
+  }
+
+  /**
+   * Write the next batch of spooled records to the DB.
+   *
+   * @return whether there were any records to write
+   */
+  private boolean forwardBatch() throws IOException, SQLException {
+    if (connection == null) {
+      connection = DriverManager.getConnection(jdbcUrl,
+          dbCreds.getReadWriteUsername(),
+          dbCreds.getReadWritePassword());
+      connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+      connection.setAutoCommit(false);
+    }
+    if (!offsetKnown) {
+      long offset = readOffset();
+      long renumberedCount = spool.skipPast(offset);
+      if (renumberedCount > 0) {
+        LOG.warn(String.format("Renumbered %d spooled audit log records to follow the forwarded "
+            + "record %d", renumberedCount, offset));
+      }
+      setForwardedSequence(offset);
+      offsetKnown = true;
+    }
+
+    List<AuditLogSpool.Entry> entries = spool.read(forwardedSequence, batchSize);
+    if (entries.isEmpty()) {
+      return false;
+    }
+    if (entries.get(entries.size() - 1).getSequence() > spool.getSyncedSequence()) {
+      spool.sync();
+    }
+    // Records that aren't synced could be lost if the host crashes. If they were recorded as
+    // forwarded, their sequence numbers would be reused for new records, which would be skipped.
+    long syncedSequence = spool.getSyncedSequence();
+    while (!entries.isEmpty() && entries.get(entries.size() - 1).getSequence() > syncedSequence) {
+      entries.remove(entries.size() - 1);
+    }
+    if (entries.isEmpty()) {
+      return false;
+    }
+    List<AuditLogRecord> records = new ArrayList<>();
+    for (AuditLogSpool.Entry entry : entries) {
+      try {
+        records.add(AuditLogRecord.deserialize(entry.getPayload()));
+      } catch (IOException e) {
+        // The record passed the checksum, so it was written by an incompatible version
+        LOG.error(String.format("Skipping spooled audit log record %d that can't be read",
+            entry.getSequence()), e);
+      }
+    }
+    long lastSequence = entries.get(entries.size() - 1).getSequence();
+
+    long startTime = System.currentTimeMillis();
+    AsyncAuditLogWriter.insertRecords(
+        connection,
+        coreTableName,
+        objectsTableName,
+        mapRedStatsTableName,
+        maxObjectRowsPerStatement,
+        maxObjectStatementChars,
+        records);
+    writeOffset(lastSequence);
+    connection.commit();
+    setForwardedSequence(lastSequence);
+    LOG.debug(String.format("Forwarding %d spooled audit log records took %d ms",
+        records.size(), System.currentTimeMillis() - startTime));
+    return true;
+  }
+
+  private long readOffset() throws SQLException {
+    String query = String.format("SELECT last_sequence FROM %s WHERE spool_id = ?",
+        offsetsTableName);
+    try (PreparedStatement ps = connection.prepareStatement(query)) {
+      ps.setString(1, spool.getSpoolId());
+      try (ResultSet rs = ps.executeQuery()) {
+        return rs.next() ? rs.getLong(1) : 0;
+      }
+    }
+  }
+
+  private void writeOffset(long sequence) throws SQLException {
+    String query = String.format("INSERT INTO %s (spool_id, last_sequence) VALUES (?, ?) "
+        + "ON DUPLICATE KEY UPDATE last_sequence = VALUES(last_sequence)", offsetsTableName);
+    try (PreparedStatement ps = connection.prepareStatement(query)) {
+      ps.setString(1, spool.getSpoolId());
+      ps.setLong(2, sequence);
+      ps.executeUpdate();
+    }
+  }
+
+  private void closeConnection() {
+    if (connection == null) {
+      return;
+    }
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      LOG.warn("Error closing connection to the audit log DB", e);
+    }
+    connection = null;
+  }
+}
@@ -0,0 +1,9 @@
+# Stores the sequence number of the last record that was forwarded from each audit log spool.
+# Only needed if airbnb.reair.audit_log.spool.enabled is set.
+
+CREATE TABLE `audit_log_spool_offsets` (
+  `spool_id` varchar(64) NOT NULL,
+  `last_sequence` bigint(20) NOT NULL,
+  `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`spool_id`)
+);
@@ -8,7 +8,15 @@ CREATE TABLE `audit_objects` (
   `type` varchar(64) DEFAULT NULL,
   `name` varchar(4000) DEFAULT NULL,
   `serialized_object` mediumtext,
+  `serialization_format` varchar(64) DEFAULT NULL,
+  `serialized_object_binary` mediumblob,
   PRIMARY KEY (`id`),
   KEY `create_time_index` (`create_time`),
   KEY `audit_log_id_index` (`audit_log_id`)
 );
+
+# To write objects in a binary format with an existing table, add the format columns first:
+#
+# ALTER TABLE `audit_objects`
+#   ADD COLUMN `serialization_format` varchar(64) DEFAULT NULL,
+#   ADD COLUMN `serialized_object_binary` mediumblob;
@@ -0,0 +1,238 @@
+package com.airbnb.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+
+import com.airbnb.reair.db.DbConnectionFactory;
+import com.airbnb.reair.db.EmbeddedMySqlDb;
+import com.airbnb.reair.db.StaticDbConnectionFactory;
+import com.airbnb.reair.db.TestDbCredentials;
+import com.airbnb.reair.hive.hooks.AsyncAuditLogWriter;
+import com.airbnb.reair.hive.hooks.AuditLogHookUtils;
+import com.airbnb.reair.hive.hooks.CliAuditLogHook;
+import com.airbnb.reair.hive.hooks.HiveOperation;
+import com.airbnb.reair.utils.ReplicationTestUtils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.ql.hooks.HookContext;
+import org.apache.hadoop.hive.ql.metadata.Partition;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class AsyncAuditLogHookTest {
+
+  private static final Log LOG = LogFactory.getLog(AsyncAuditLogHookTest.class);
+
+  private static EmbeddedMySqlDb embeddedMySqlDb;
+
+  private static final String DB_NAME = "audit_log_db";
+  private static final String AUDIT_LOG_TABLE_NAME = "audit_log";
+  private static final String OUTPUT_OBJECTS_TABLE_NAME = "audit_objects";
+  private static final String MAP_RED_STATS_TABLE_NAME = "mapred_stats";
+
+  private static final String DEFAULT_QUERY_STRING = "Example query string";
+  private static final long FLUSH_TIMEOUT_MS = 60 * 1000;
+
+  // Set this system property to run the latency benchmark
+  private static final String BENCHMARK_PROPERTY = "reair.benchmark";
+  private static final String BENCHMARK_QUERIES_PROPERTY = "reair.benchmark.audit_log_queries";
+  private static final int DEFAULT_BENCHMARK_QUERIES = 50;
+  private static final int BENCHMARK_OUTPUT_PARTITIONS = 1000;
+
+  @BeforeClass
+  public static void setupClass() {
+    embeddedMySqlDb = new EmbeddedMySqlDb();
+    embeddedMySqlDb.startDb();
+  }
+
+  private static DbConnectionFactory getDbConnectionFactory() throws SQLException {
+    TestDbCredentials testDbCredentials = new TestDbCredentials();
+    return new StaticDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb),
+        testDbCredentials.getReadWriteUsername(),
+        testDbCredentials.getReadWritePassword());
+  }
+
+  private static void resetState() throws SQLException {
+    DbConnectionFactory dbConnectionFactory = getDbConnectionFactory();
+    ReplicationTestUtils.dropDatabase(dbConnectionFactory, DB_NAME);
+    AuditLogHookUtils.setupAuditLogTables(
+        dbConnectionFactory,
+        DB_NAME,
+        AUDIT_LOG_TABLE_NAME,
+        OUTPUT_OBJECTS_TABLE_NAME,
+        MAP_RED_STATS_TABLE_NAME);
+  }
+
+  private static HiveConf getHiveConf(boolean async) {
+    HiveConf hiveConf = AuditLogHookUtils.getHiveConf(
+        embeddedMySqlDb,
+        DB_NAME,
+        AUDIT_LOG_TABLE_NAME,
+        OUTPUT_OBJECTS_TABLE_NAME,
+        MAP_RED_STATS_TABLE_NAME);
+    hiveConf.setBoolean(CliAuditLogHook.ASYNC_ENABLED_KEY, async);
+    return hiveConf;
+  }
+
+  private static AsyncAuditLogWriter getWriter(HiveConf hiveConf) throws Exception {
+    return AsyncAuditLogWriter.getWriter(
+        hiveConf,
+        hiveConf.get(CliAuditLogHook.JDBC_URL_KEY),
+        new TestDbCredentials());
+  }
+
+  private static long getRowCount(String tableName) throws Exception {
+    List<String> row = ReplicationTestUtils.getRow(
+        getDbConnectionFactory(),
+        DB_NAME,
+        tableName,
+        Lists.newArrayList("COUNT(*)"),
+        null);
+    return Long.parseLong(row.get(0));
+  }
+
+  /**
+   * Creates the output partitions for a query that writes to the given number of partitions.
+   */
+  private static List<Partition> createOutputPartitions(int partitionCount) throws Exception {
+    Table qlTable = new Table("test_db", "test_output_table");
+    List<FieldSchema> partitionCols = new ArrayList<>();
+    partitionCols.add(new FieldSchema("ds", null, null));
+    qlTable.setPartCols(partitionCols);
+    qlTable.setDataLocation(new Path("file://a/b/c"));
+    qlTable.setCreateTime(0);
+
+    List<Partition> outputPartitions = new ArrayList<>();
+    for (int i = 0; i < partitionCount; i++) {
+      Map<String, String> partitionKeyValue = new HashMap<>();
+      partitionKeyValue.put("ds", Integer.toString(i));
+      Partition outputPartition = new Partition(qlTable, partitionKeyValue, null);
+      outputPartition.setLocation("file://a/b/c/ds=" + i);
+      outputPartitions.add(outputPartition);
+    }
+    return outputPartitions;
+  }
+
+  private static HookContext createHookContext(List<Partition> outputPartitions,
+      HiveConf hiveConf) throws Exception {
+    return AuditLogHookUtils.createHookContext(
+        HiveOperation.QUERY,
+        DEFAULT_QUERY_STRING,
+        new ArrayList<>(),
+        new ArrayList<>(),
+        new ArrayList<>(),
+        outputPartitions,
+        new HashMap<>(),
+        hiveConf);
+  }
+
+  @Test
+  public void testAsyncWritesSameRows() throws Exception {
+    resetState();
+    CliAuditLogHook cliAuditLogHook = new CliAuditLogHook(new TestDbCredentials());
+    List<Partition> outputPartitions = createOutputPartitions(10);
+
+    // Write one entry synchronously and one asynchronously
+    cliAuditLogHook.run(createHookContext(outputPartitions, getHiveConf(false)));
+    HiveConf asyncConf = getHiveConf(true);
+    cliAuditLogHook.run(createHookContext(outputPartitions, asyncConf));
+    assertTrue(getWriter(asyncConf).flush(FLUSH_TIMEOUT_MS));
+
+    assertEquals(2, getRowCount(AUDIT_LOG_TABLE_NAME));
+    // Each entry has a row for each partition and a reference row for the table
+    assertEquals(2 * (10 + 1), getRowCount(OUTPUT_OBJECTS_TABLE_NAME));
+
+    List<String> columnsToCheck = Lists.newArrayList("command_type", "command", "outputs");
+    assertEquals(
+        ReplicationTestUtils.getRow(getDbConnectionFactory(), DB_NAME, AUDIT_LOG_TABLE_NAME,
+            columnsToCheck, "id = 1"),
+        ReplicationTestUtils.getRow(getDbConnectionFactory(), DB_NAME, AUDIT_LOG_TABLE_NAME,
+            columnsToCheck, "id = 2"));
+
+    columnsToCheck = Lists.newArrayList("category", "type", "serialized_object");
+    String partitionName = "name = 'test_db.test_output_table/ds=3'";
+    assertEquals(
+        ReplicationTestUtils.getRow(getDbConnectionFactory(), DB_NAME, OUTPUT_OBJECTS_TABLE_NAME,
+            columnsToCheck, partitionName + " AND audit_log_id = 1"),
+        ReplicationTestUtils.getRow(getDbConnectionFactory(), DB_NAME, OUTPUT_OBJECTS_TABLE_NAME,
+            columnsToCheck, partitionName + " AND audit_log_id = 2"));
+  }
+
+  @Test
+  public void testDropWhenQueueFull() throws Exception {
+    HiveConf hiveConf = getHiveConf(true);
+    // Nothing listens on this port, so the writer will be stuck retrying the first record
+    hiveConf.set(CliAuditLogHook.JDBC_URL_KEY, "jdbc:mysql://localhost:1/" + DB_NAME);
+    hiveConf.setInt(CliAuditLogHook.ASYNC_QUEUE_CAPACITY_KEY, 1);
+    hiveConf.set(CliAuditLogHook.ASYNC_FULL_QUEUE_POLICY_KEY, "drop");
+    CliAuditLogHook cliAuditLogHook = new CliAuditLogHook(new TestDbCredentials());
+
+    HookContext hookContext = createHookContext(createOutputPartitions(1), hiveConf);
+    for (int i = 0; i < 3; i++) {
+      cliAuditLogHook.run(hookContext);
+    }
+
+    AsyncAuditLogWriter writer = getWriter(hiveConf);
+    // One record is being written, one is queued, and the rest are dropped
+    assertTrue(writer.getDroppedCount() >= 1);
+    assertTrue(writer.getQueueSize() <= 1);
+    writer.close(1);
+  }
+
+  @Test
+  public void benchmarkHookLatency() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    int queryCount = Integer.getInteger(BENCHMARK_QUERIES_PROPERTY, DEFAULT_BENCHMARK_QUERIES);
+
+    resetState();
+    CliAuditLogHook cliAuditLogHook = new CliAuditLogHook(new TestDbCredentials());
+    List<Partition> outputPartitions = createOutputPartitions(BENCHMARK_OUTPUT_PARTITIONS);
+
+    for (boolean async : Arrays.asList(false, true)) {
+      HiveConf hiveConf = getHiveConf(async);
+      HookContext hookContext = createHookContext(outputPartitions, hiveConf);
+
+      long[] latencies = new long[queryCount];
+      long startTime = System.nanoTime();
+      for (int i = 0; i < queryCount; i++) {
+        long queryStartTime = System.nanoTime();
+        cliAuditLogHook.run(hookContext);
+        latencies[i] = System.nanoTime() - queryStartTime;
+      }
+      if (async) {
+        assertTrue(getWriter(hiveConf).flush(FLUSH_TIMEOUT_MS));
+      }
+      double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+
+      Arrays.sort(latencies);
+      LOG.info(String.format("%s mode with %d output partitions: p50 %.1f ms, p99 %.1f ms, "
+          + "%d entries written in %.2f s",
+          async ? "Async" : "Sync",
+          BENCHMARK_OUTPUT_PARTITIONS,
+          latencies[queryCount / 2] / 1e6,
+          latencies[Math.min(queryCount - 1, (int) Math.ceil(queryCount * 0.99) - 1)] / 1e6,
+          queryCount,
+          elapsedSeconds));
+    }
+
+    assertEquals(2 * queryCount, getRowCount(AUDIT_LOG_TABLE_NAME));
+    assertEquals(2 * queryCount * (BENCHMARK_OUTPUT_PARTITIONS + 1),
+        getRowCount(OUTPUT_OBJECTS_TABLE_NAME));
+  }
+}
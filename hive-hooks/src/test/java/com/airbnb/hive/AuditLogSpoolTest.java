@@ -0,0 +1,528 @@
+package com.airbnb.hive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+
+import com.airbnb.reair.db.DbConnectionFactory;
+import com.airbnb.reair.db.EmbeddedMySqlDb;
+import com.airbnb.reair.db.StaticDbConnectionFactory;
+import com.airbnb.reair.db.TestDbCredentials;
+import com.airbnb.reair.hive.hooks.AuditLogHookUtils;
+import com.airbnb.reair.hive.hooks.AuditLogSpool;
+import com.airbnb.reair.hive.hooks.CliAuditLogHook;
+import com.airbnb.reair.hive.hooks.HiveOperation;
+import com.airbnb.reair.hive.hooks.SpoolingAuditLogWriter;
+import com.airbnb.reair.utils.ReplicationTestUtils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.ql.hooks.HookContext;
+import org.apache.hadoop.hive.ql.metadata.Partition;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AuditLogSpoolTest {
+
+  private static final Log LOG = LogFactory.getLog(AuditLogSpoolTest.class);
+
+  private static EmbeddedMySqlDb embeddedMySqlDb;
+
+  private static final String DB_NAME = "audit_log_db";
+  private static final String AUDIT_LOG_TABLE_NAME = "audit_log";
+  private static final String OUTPUT_OBJECTS_TABLE_NAME = "audit_objects";
+  private static final String MAP_RED_STATS_TABLE_NAME = "mapred_stats";
+  private static final String SPOOL_OFFSETS_TABLE_NAME = "audit_log_spool_offsets";
+
+  private static final int OUTPUT_PARTITION_COUNT = 10;
+  private static final long FLUSH_TIMEOUT_MS = 60 * 1000;
+  // Spooling shouldn't depend on the DB, so this is only exceeded if something is very wrong
+  private static final long MAX_OUTAGE_LATENCY_MS = 5000;
+
+  @Rule
+  public TemporaryFolder spoolFolder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void setupClass() {
+    embeddedMySqlDb = new EmbeddedMySqlDb();
+    embeddedMySqlDb.startDb();
+  }
+
+  private static DbConnectionFactory getDbConnectionFactory() throws SQLException {
+    TestDbCredentials testDbCredentials = new TestDbCredentials();
+    return new StaticDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb),
+        testDbCredentials.getReadWriteUsername(),
+        testDbCredentials.getReadWritePassword());
+  }
+
+  private static void resetState() throws SQLException {
+    DbConnectionFactory dbConnectionFactory = getDbConnectionFactory();
+    ReplicationTestUtils.dropDatabase(dbConnectionFactory, DB_NAME);
+    AuditLogHookUtils.setupAuditLogTables(
+        dbConnectionFactory,
+        DB_NAME,
+        AUDIT_LOG_TABLE_NAME,
+        OUTPUT_OBJECTS_TABLE_NAME,
+        MAP_RED_STATS_TABLE_NAME);
+    AuditLogHookUtils.setupSpoolOffsetsTable(
+        dbConnectionFactory,
+        DB_NAME,
+        SPOOL_OFFSETS_TABLE_NAME);
+  }
+
+  private HiveConf getHiveConf() {
+    HiveConf hiveConf = AuditLogHookUtils.getHiveConf(
+        embeddedMySqlDb,
+        DB_NAME,
+        AUDIT_LOG_TABLE_NAME,
+        OUTPUT_OBJECTS_TABLE_NAME,
+        MAP_RED_STATS_TABLE_NAME);
+    hiveConf.setBoolean(SpoolingAuditLogWriter.ENABLED_KEY, true);
+    hiveConf.set(SpoolingAuditLogWriter.DIRECTORY_KEY,
+        new File(spoolFolder.getRoot(), "spool").getPath());
+    hiveConf.set(SpoolingAuditLogWriter.OFFSETS_TABLE_NAME_KEY, SPOOL_OFFSETS_TABLE_NAME);
+    // Keep the batches small so that the outage interrupts the forwarder between batches
+    hiveConf.setInt(SpoolingAuditLogWriter.BATCH_SIZE_KEY, 5);
+    return hiveConf;
+  }
+
+  private static SpoolingAuditLogWriter getWriter(HiveConf hiveConf) throws Exception {
+    return SpoolingAuditLogWriter.getWriter(
+        hiveConf,
+        hiveConf.get(CliAuditLogHook.JDBC_URL_KEY),
+        new TestDbCredentials());
+  }
+
+  private static long getLongValue(String column) throws Exception {
+    List<String> row = ReplicationTestUtils.getRow(
+        getDbConnectionFactory(),
+        DB_NAME,
+        AUDIT_LOG_TABLE_NAME,
+        Lists.newArrayList(column),
+        null);
+    return Long.parseLong(row.get(0));
+  }
+
+  private static long getObjectRowCount() throws Exception {
+    List<String> row = ReplicationTestUtils.getRow(
+        getDbConnectionFactory(),
+        DB_NAME,
+        OUTPUT_OBJECTS_TABLE_NAME,
+        Lists.newArrayList("COUNT(*)"),
+        null);
+    return Long.parseLong(row.get(0));
+  }
+
+  /**
+   * Verify that each query was written to the audit log exactly once.
+   */
+  private static void assertWrittenOnce(int queryCount) throws Exception {
+    assertEquals(queryCount, getLongValue("COUNT(*)"));
+    assertEquals(queryCount, getLongValue("COUNT(DISTINCT command)"));
+    // Each entry has a row for each partition and a reference row for the table
+    assertEquals(queryCount * (OUTPUT_PARTITION_COUNT + 1), getObjectRowCount());
+  }
+
+  private static List<Partition> createOutputPartitions() throws Exception {
+    Table qlTable = new Table("test_db", "test_output_table");
+    List<FieldSchema> partitionCols = new ArrayList<>();
+    partitionCols.add(new FieldSchema("ds", null, null));
+    qlTable.setPartCols(partitionCols);
+    qlTable.setDataLocation(new Path("file://a/b/c"));
+    qlTable.setCreateTime(0);
+
+    List<Partition> outputPartitions = new ArrayList<>();
+    for (int i = 0; i < OUTPUT_PARTITION_COUNT; i++) {
+      Map<String, String> partitionKeyValue = new HashMap<>();
+      partitionKeyValue.put("ds", Integer.toString(i));
+      Partition outputPartition = new Partition(qlTable, partitionKeyValue, null);
+      outputPartition.setLocation("file://a/b/c/ds=" + i);
+      outputPartitions.add(outputPartition);
+    }
+    return outputPartitions;
+  }
+
+  /**
+   * Runs the hook for a query with a unique query string, so that duplicate entries can be found.
+   *
+   * @return the time it took to run the hook in nanoseconds
+   */
+  private static long runQuery(CliAuditLogHook cliAuditLogHook, HiveConf hiveConf,
+      List<Partition> outputPartitions, int queryNumber) throws Exception {
+    HookContext hookContext = AuditLogHookUtils.createHookContext(
+        HiveOperation.QUERY,
+        "Example query " + queryNumber,
+        new ArrayList<>(),
+        new ArrayList<>(),
+        new ArrayList<>(),
+        outputPartitions,
+        new HashMap<>(),
+        hiveConf);
+    long startTime = System.nanoTime();
+    cliAuditLogHook.run(hookContext);
+    return System.nanoTime() - startTime;
+  }
+
+  private static String formatLatencies(List<Long> latencies) {
+    long[] sortedLatencies = new long[latencies.size()];
+    for (int i = 0; i < sortedLatencies.length; i++) {
+      sortedLatencies[i] = latencies.get(i);
+    }
+    Arrays.sort(sortedLatencies);
+    int count = sortedLatencies.length;
+    return String.format("p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+        sortedLatencies[count / 2] / 1e6,
+        sortedLatencies[Math.min(count - 1, (int) Math.ceil(count * 0.99) - 1)] / 1e6,
+        sortedLatencies[count - 1] / 1e6);
+  }
+
+  private File getSpoolDirectory() {
+    return new File(spoolFolder.getRoot(), "spool");
+  }
+
+  private static byte[] getPayload(int index) {
+    return ("record " + index).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static List<AuditLogSpool.Entry> readAll(AuditLogSpool spool, long afterSequence)
+      throws IOException {
+    List<AuditLogSpool.Entry> entries = new ArrayList<>();
+    while (true) {
+      List<AuditLogSpool.Entry> batch = spool.read(afterSequence, 7);
+      if (batch.isEmpty()) {
+        return entries;
+      }
+      entries.addAll(batch);
+      afterSequence = batch.get(batch.size() - 1).getSequence();
+    }
+  }
+
+  @Test
+  public void testAppendAndRead() throws Exception {
+    // Small segments so that the records span several segments
+    AuditLogSpool spool = new AuditLogSpool(getSpoolDirectory(), 1024 * 1024, 100);
+    try {
+      for (int i = 0; i < 50; i++) {
+        assertEquals(i + 1, spool.append(getPayload(i)));
+      }
+      assertTrue(spool.getSegmentCount() > 1);
+
+      List<AuditLogSpool.Entry> entries = readAll(spool, 0);
+      assertEquals(50, entries.size());
+      for (int i = 0; i < 50; i++) {
+        assertEquals(i + 1, entries.get(i).getSequence());
+        assertArrayEquals(getPayload(i), entries.get(i).getPayload());
+      }
+      // Reading from an earlier position
+      assertEquals(30, readAll(spool, 20).size());
+
+      // Released segments are deleted, except for the current one
+      spool.release(50);
+      assertEquals(1, spool.getSegmentCount());
+      assertEquals(0, readAll(spool, 50).size());
+      assertEquals(51, spool.append(getPayload(50)));
+      assertEquals(51, readAll(spool, 50).get(0).getSequence());
+    } finally {
+      spool.close();
+    }
+  }
+
+  @Test
+  public void testRecoverAfterPartialWrite() throws Exception {
+    AuditLogSpool spool = new AuditLogSpool(getSpoolDirectory(), 1024 * 1024, 1024 * 1024);
+    String spoolId = spool.getSpoolId();
+    for (int i = 0; i < 10; i++) {
+      spool.append(getPayload(i));
+    }
+    spool.close();
+
+    // Simulate a record that was being written when the process died
+    File[] segmentFiles = getSpoolDirectory().listFiles((dir, name) -> name.endsWith(".log"));
+    assertEquals(1, segmentFiles.length);
+    try (FileOutputStream out = new FileOutputStream(segmentFiles[0], true)) {
+      out.write(new byte[] {0, 0, 0, 100, 0, 0, 0, 0, 0, 0, 0, 11, 1, 2, 3});
+    }
+
+    spool = new AuditLogSpool(getSpoolDirectory(), 1024 * 1024, 1024 * 1024);
+    try {
+      assertEquals(spoolId, spool.getSpoolId());
+      assertEquals(10, spool.getLastSequence());
+      assertEquals(11, spool.append(getPayload(10)));
+      List<AuditLogSpool.Entry> entries = readAll(spool, 0);
+      assertEquals(11, entries.size());
+      assertArrayEquals(getPayload(10), entries.get(10).getPayload());
+    } finally {
+      spool.close();
+    }
+  }
+
+  private File getLastSegmentFile() {
+    File[] segmentFiles = getSpoolDirectory().listFiles((dir, name) -> name.endsWith(".log"));
+    Arrays.sort(segmentFiles);
+    return segmentFiles[segmentFiles.length - 1];
+  }
+
+  @Test
+  public void testSyncedSequence() throws Exception {
+    AuditLogSpool spool = new AuditLogSpool(getSpoolDirectory(), 1024 * 1024, 1024 * 1024);
+    try {
+      for (int i = 0; i < 3; i++) {
+        spool.append(getPayload(i));
+      }
+      assertEquals(0, spool.getSyncedSequence());
+      spool.sync();
+      assertEquals(3, spool.getSyncedSequence());
+    } finally {
+      spool.close();
+    }
+
+    // Recovered records are durable
+    spool = new AuditLogSpool(getSpoolDirectory(), 1024 * 1024, 1024 * 1024);
+    try {
+      assertEquals(3, spool.getSyncedSequence());
+    } finally {
+      spool.close();
+    }
+  }
+
+  @Test
+  public void testSkipPastRenumbersAppendedRecords() throws Exception {
+    AuditLogSpool spool = new AuditLogSpool(getSpoolDirectory(), 1024 * 1024, 100);
+    for (int i = 0; i < 3; i++) {
+      spool.append(getPayload(i));
+    }
+    spool.close();
+
+    // Simulate losing records that the consumer already processed
+    try (RandomAccessFile file = new RandomAccessFile(getLastSegmentFile(), "rw")) {
+      file.setLength(0);
+    }
+
+    spool = new AuditLogSpool(getSpoolDirectory(), 1024 * 1024, 100);
+    try {
+      // Enough records to start new segments
+      for (int i = 3; i < 10; i++) {
+        spool.append(getPayload(i));
+      }
+      assertTrue(spool.getSegmentCount() > 1);
+      assertEquals(7, spool.skipPast(5));
+      assertEquals(12, spool.getLastSequence());
+      assertEquals(12, spool.getSyncedSequence());
+      List<AuditLogSpool.Entry> entries = readAll(spool, 5);
+      assertEquals(7, entries.size());
+      for (int i = 0; i < 7; i++) {
+        assertEquals(i + 6, entries.get(i).getSequence());
+        assertArrayEquals(getPayload(i + 3), entries.get(i).getPayload());
+      }
+
+      // Later calls don't renumber again
+      assertEquals(0, spool.skipPast(20));
+      assertEquals(13, spool.append(getPayload(10)));
+    } finally {
+      spool.close();
+    }
+
+    spool = new AuditLogSpool(getSpoolDirectory(), 1024 * 1024, 100);
+    try {
+      assertEquals(13, spool.getLastSequence());
+      assertEquals(8, readAll(spool, 5).size());
+    } finally {
+      spool.close();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testDirectoryIsLocked() throws Exception {
+    AuditLogSpool spool = new AuditLogSpool(getSpoolDirectory(), 1024 * 1024, 1024 * 1024);
+    try {
+      new AuditLogSpool(getSpoolDirectory(), 1024 * 1024, 1024 * 1024);
+    } finally {
+      spool.close();
+    }
+  }
+
+  @Test
+  public void testFullSpoolRejectsRecords() throws Exception {
+    AuditLogSpool spool = new AuditLogSpool(getSpoolDirectory(), 1000, 200);
+    try {
+      int appended = 0;
+      while (spool.append(getPayload(appended)) > 0) {
+        appended++;
+      }
+      assertTrue(appended > 0);
+      assertTrue(spool.getSize() <= 1000);
+
+      // Releasing the records frees up space
+      spool.release(appended);
+      assertEquals(appended + 1, spool.append(getPayload(appended)));
+    } finally {
+      spool.close();
+    }
+  }
+
+  @Test
+  public void testDbOutageDuringQueries() throws Exception {
+    resetState();
+    HiveConf hiveConf = getHiveConf();
+    CliAuditLogHook cliAuditLogHook = new CliAuditLogHook(new TestDbCredentials());
+    List<Partition> outputPartitions = createOutputPartitions();
+    int queryCount = 300;
+
+    // Run queries in the background while the DB is stopped and started
+    AtomicInteger completedQueries = new AtomicInteger();
+    List<Long> latencies = new ArrayList<>();
+    List<Long> outageLatencies = new ArrayList<>();
+    AtomicBoolean dbDown = new AtomicBoolean(false);
+    Thread queryThread = new Thread(() -> {
+      try {
+        for (int i = 0; i < queryCount; i++) {
+          boolean outage = dbDown.get();
+          long latency = runQuery(cliAuditLogHook, hiveConf, outputPartitions, i);
+          (outage ? outageLatencies : latencies).add(latency);
+          completedQueries.incrementAndGet();
+          Thread.sleep(10);
+        }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    queryThread.start();
+
+    while (completedQueries.get() < queryCount / 3) {
+      Thread.sleep(10);
+    }
+    dbDown.set(true);
+    embeddedMySqlDb.stopDb();
+    long outageStart = completedQueries.get();
+    try {
+      while (completedQueries.get() < 2 * queryCount / 3) {
+        Thread.sleep(10);
+      }
+    } finally {
+      embeddedMySqlDb.startDb();
+      dbDown.set(false);
+    }
+    LOG.info(String.format("%d queries ran while the DB was down",
+        completedQueries.get() - outageStart));
+
+    queryThread.join();
+    assertEquals(queryCount, completedQueries.get());
+    SpoolingAuditLogWriter writer = getWriter(hiveConf);
+    assertTrue(writer.flush(FLUSH_TIMEOUT_MS));
+    assertEquals(0, writer.getPendingCount());
+    assertWrittenOnce(queryCount);
+
+    LOG.info("Hook latency with the DB up: " + formatLatencies(latencies));
+    LOG.info("Hook latency with the DB down: " + formatLatencies(outageLatencies));
+    for (long latency : outageLatencies) {
+      assertTrue(latency < MAX_OUTAGE_LATENCY_MS * 1000 * 1000);
+    }
+    writer.close(FLUSH_TIMEOUT_MS);
+  }
+
+  @Test
+  public void testRecordsSpooledDuringOutageAreForwardedAfterRestart() throws Exception {
+    resetState();
+    HiveConf hiveConf = getHiveConf();
+    CliAuditLogHook cliAuditLogHook = new CliAuditLogHook(new TestDbCredentials());
+    List<Partition> outputPartitions = createOutputPartitions();
+    int queriesPerPhase = 20;
+    int queryNumber = 0;
+
+    for (int i = 0; i < queriesPerPhase; i++) {
+      runQuery(cliAuditLogHook, hiveConf, outputPartitions, queryNumber++);
+    }
+    assertTrue(getWriter(hiveConf).flush(FLUSH_TIMEOUT_MS));
+    assertWrittenOnce(queriesPerPhase);
+
+    embeddedMySqlDb.stopDb();
+    try {
+      for (int i = 0; i < queriesPerPhase; i++) {
+        runQuery(cliAuditLogHook, hiveConf, outputPartitions, queryNumber++);
+      }
+      assertEquals(queriesPerPhase, getWriter(hiveConf).getPendingCount());
+      // Simulate the process exiting before the DB is back
+      getWriter(hiveConf).close(1);
+    } finally {
+      embeddedMySqlDb.startDb();
+    }
+
+    // The next writer for the spool forwards the remaining records before the new ones
+    for (int i = 0; i < queriesPerPhase; i++) {
+      runQuery(cliAuditLogHook, hiveConf, outputPartitions, queryNumber++);
+    }
+    assertTrue(getWriter(hiveConf).flush(FLUSH_TIMEOUT_MS));
+    assertWrittenOnce(queryNumber);
+    List<String> lastEntry = ReplicationTestUtils.getRow(getDbConnectionFactory(), DB_NAME,
+        AUDIT_LOG_TABLE_NAME, Lists.newArrayList("command"), "id = " + queryNumber);
+    assertEquals("Example query " + (queryNumber - 1), lastEntry.get(0));
+
+    // Forwarded records that are still in the spool are not written again
+    getWriter(hiveConf).close(FLUSH_TIMEOUT_MS);
+    SpoolingAuditLogWriter writer = getWriter(hiveConf);
+    assertTrue(writer.flush(FLUSH_TIMEOUT_MS));
+    assertEquals(0, writer.getPendingCount());
+    assertWrittenOnce(queryNumber);
+    writer.close(FLUSH_TIMEOUT_MS);
+  }
+
+  @Test
+  public void testRecordsAfterLostSpoolTailAreForwarded() throws Exception {
+    resetState();
+    HiveConf hiveConf = getHiveConf();
+    CliAuditLogHook cliAuditLogHook = new CliAuditLogHook(new TestDbCredentials());
+    List<Partition> outputPartitions = createOutputPartitions();
+    int queriesPerPhase = 20;
+    int queryNumber = 0;
+
+    for (int i = 0; i < queriesPerPhase; i++) {
+      runQuery(cliAuditLogHook, hiveConf, outputPartitions, queryNumber++);
+    }
+    assertTrue(getWriter(hiveConf).flush(FLUSH_TIMEOUT_MS));
+    getWriter(hiveConf).close(FLUSH_TIMEOUT_MS);
+    assertWrittenOnce(queriesPerPhase);
+
+    // Simulate losing the forwarded records from the spool. The sequence numbers of the new
+    // records start over, but the records should still be forwarded.
+    try (RandomAccessFile file = new RandomAccessFile(getLastSegmentFile(), "rw")) {
+      file.setLength(0);
+    }
+    for (int i = 0; i < queriesPerPhase; i++) {
+      runQuery(cliAuditLogHook, hiveConf, outputPartitions, queryNumber++);
+    }
+    SpoolingAuditLogWriter writer = getWriter(hiveConf);
+    assertTrue(writer.flush(FLUSH_TIMEOUT_MS));
+    assertEquals(0, writer.getPendingCount());
+    assertWrittenOnce(queryNumber);
+    writer.close(FLUSH_TIMEOUT_MS);
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    embeddedMySqlDb.stopDb();
+  }
+}
@@ -0,0 +1,197 @@
+package com.airbnb.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+
+import com.airbnb.reair.db.DbConnectionFactory;
+import com.airbnb.reair.db.EmbeddedMySqlDb;
+import com.airbnb.reair.db.StaticDbConnectionFactory;
+import com.airbnb.reair.db.TestDbCredentials;
+import com.airbnb.reair.hive.hooks.AuditLogHookUtils;
+import com.airbnb.reair.hive.hooks.CliAuditLogHook;
+import com.airbnb.reair.hive.hooks.HiveOperation;
+import com.airbnb.reair.hive.hooks.ObjectLogModule;
+import com.airbnb.reair.utils.ReplicationTestUtils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.ql.hooks.HookContext;
+import org.apache.hadoop.hive.ql.metadata.Partition;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ObjectLogModuleTest {
+
+  private static final Log LOG = LogFactory.getLog(ObjectLogModuleTest.class);
+
+  private static EmbeddedMySqlDb embeddedMySqlDb;
+
+  private static final String DB_NAME = "audit_log_db";
+  private static final String AUDIT_LOG_TABLE_NAME = "audit_log";
+  private static final String OUTPUT_OBJECTS_TABLE_NAME = "audit_objects";
+  private static final String MAP_RED_STATS_TABLE_NAME = "mapred_stats";
+
+  private static final String DEFAULT_QUERY_STRING = "Example query string";
+  private static final int MAX_ROWS_PER_STATEMENT = 500;
+
+  @BeforeClass
+  public static void setupClass() {
+    embeddedMySqlDb = new EmbeddedMySqlDb();
+    embeddedMySqlDb.startDb();
+  }
+
+  private static DbConnectionFactory getDbConnectionFactory() throws SQLException {
+    TestDbCredentials testDbCredentials = new TestDbCredentials();
+    return new StaticDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb),
+        testDbCredentials.getReadWriteUsername(),
+        testDbCredentials.getReadWritePassword());
+  }
+
+  private static void resetState() throws SQLException {
+    DbConnectionFactory dbConnectionFactory = getDbConnectionFactory();
+    ReplicationTestUtils.dropDatabase(dbConnectionFactory, DB_NAME);
+    AuditLogHookUtils.setupAuditLogTables(
+        dbConnectionFactory,
+        DB_NAME,
+        AUDIT_LOG_TABLE_NAME,
+        OUTPUT_OBJECTS_TABLE_NAME,
+        MAP_RED_STATS_TABLE_NAME);
+  }
+
+  private static long getRowCount(String tableName) throws Exception {
+    List<String> row = ReplicationTestUtils.getRow(
+        getDbConnectionFactory(),
+        DB_NAME,
+        tableName,
+        Lists.newArrayList("COUNT(*)"),
+        null);
+    return Long.parseLong(row.get(0));
+  }
+
+  /**
+   * Get the number of INSERT statements that the DB has executed.
+   */
+  private static long getInsertStatementCount() throws SQLException {
+    try (Connection connection = getDbConnectionFactory().getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SHOW GLOBAL STATUS LIKE 'Com_insert'")) {
+      rs.next();
+      return rs.getLong(2);
+    }
+  }
+
+  /**
+   * Creates the output partitions for a query that writes to the given number of partitions.
+   */
+  private static List<Partition> createOutputPartitions(int partitionCount) throws Exception {
+    Table qlTable = new Table("test_db", "test_output_table");
+    List<FieldSchema> partitionCols = new ArrayList<>();
+    partitionCols.add(new FieldSchema("ds", null, null));
+    qlTable.setPartCols(partitionCols);
+    qlTable.setDataLocation(new Path("file://a/b/c"));
+    qlTable.setCreateTime(0);
+
+    List<Partition> outputPartitions = new ArrayList<>();
+    for (int i = 0; i < partitionCount; i++) {
+      Map<String, String> partitionKeyValue = new HashMap<>();
+      partitionKeyValue.put("ds", Integer.toString(i));
+      Partition outputPartition = new Partition(qlTable, partitionKeyValue, null);
+      outputPartition.setLocation("file://a/b/c/ds=" + i);
+      outputPartitions.add(outputPartition);
+    }
+    return outputPartitions;
+  }
+
+  private static HookContext createHookContext(List<Partition> outputPartitions,
+      HiveConf hiveConf) throws Exception {
+    return AuditLogHookUtils.createHookContext(
+        HiveOperation.QUERY,
+        DEFAULT_QUERY_STRING,
+        new ArrayList<>(),
+        new ArrayList<>(),
+        new ArrayList<>(),
+        outputPartitions,
+        new HashMap<>(),
+        hiveConf);
+  }
+
+  /**
+   * Runs the hook for a query that writes to the given number of partitions.
+   *
+   * @return the number of INSERT statements that were executed
+   */
+  private static long runHook(int partitionCount, int maxRowsPerStatement,
+      long maxStatementChars) throws Exception {
+    HiveConf hiveConf = AuditLogHookUtils.getHiveConf(
+        embeddedMySqlDb,
+        DB_NAME,
+        AUDIT_LOG_TABLE_NAME,
+        OUTPUT_OBJECTS_TABLE_NAME,
+        MAP_RED_STATS_TABLE_NAME);
+    hiveConf.setInt(ObjectLogModule.MAX_ROWS_PER_STATEMENT_KEY, maxRowsPerStatement);
+    hiveConf.setLong(ObjectLogModule.MAX_STATEMENT_CHARS_KEY, maxStatementChars);
+    HookContext hookContext = createHookContext(createOutputPartitions(partitionCount), hiveConf);
+    CliAuditLogHook cliAuditLogHook = new CliAuditLogHook(new TestDbCredentials());
+
+    long startInsertCount = getInsertStatementCount();
+    long startTime = System.currentTimeMillis();
+    cliAuditLogHook.run(hookContext);
+    long elapsedTime = System.currentTimeMillis() - startTime;
+    long insertCount = getInsertStatementCount() - startInsertCount;
+
+    LOG.info(String.format("%d output partitions with at most %d rows per statement: "
+        + "%d INSERT statements in %d ms",
+        partitionCount, maxRowsPerStatement, insertCount, elapsedTime));
+    return insertCount;
+  }
+
+  @Test
+  public void testBatchedInserts() throws Exception {
+    resetState();
+    long expectedObjectRows = 0;
+    for (int partitionCount : new int[] {10, 1000, 10000}) {
+      // The output table is also logged as a reference for the partitions
+      long objectRows = partitionCount + 1;
+
+      // One statement per object
+      long unbatchedInserts =
+          runHook(partitionCount, 1, ObjectLogModule.DEFAULT_MAX_STATEMENT_CHARS);
+      assertEquals(1 + objectRows, unbatchedInserts);
+
+      long batchedInserts = runHook(partitionCount, MAX_ROWS_PER_STATEMENT, Long.MAX_VALUE);
+      assertEquals(1 + (objectRows + MAX_ROWS_PER_STATEMENT - 1) / MAX_ROWS_PER_STATEMENT,
+          batchedInserts);
+
+      expectedObjectRows += 2 * objectRows;
+      assertEquals(expectedObjectRows, getRowCount(OUTPUT_OBJECTS_TABLE_NAME));
+    }
+  }
+
+  @Test
+  public void testStatementSizeIsLimited() throws Exception {
+    resetState();
+    int partitionCount = 1000;
+    // Small enough that only a few of the serialized partitions fit in a statement
+    long batchedInserts = runHook(partitionCount, MAX_ROWS_PER_STATEMENT, 10000);
+    assertTrue(batchedInserts > 1 + (partitionCount + 1) / MAX_ROWS_PER_STATEMENT + 1);
+    assertTrue(batchedInserts < 1 + partitionCount + 1);
+    assertEquals(partitionCount + 1, getRowCount(OUTPUT_OBJECTS_TABLE_NAME));
+    assertEquals(1, getRowCount(AUDIT_LOG_TABLE_NAME));
+  }
+}
@@ -0,0 +1,168 @@
+package com.airbnb.hive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.hive.hooks.ObjectSerializationFormat;
+import com.airbnb.reair.hive.hooks.SerializationException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.metastore.TableType;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.SerDeInfo;
+import org.apache.hadoop.hive.metastore.api.StorageDescriptor;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ObjectSerializationFormatTest {
+  private static final Log LOG = LogFactory.getLog(ObjectSerializationFormatTest.class);
+
+  // Set this system property to run the size and throughput benchmark
+  private static final String BENCHMARK_PROPERTY = "reair.benchmark";
+  private static final int WIDE_TABLE_COLUMN_COUNT = 300;
+  private static final int BENCHMARK_ITERATIONS = 20000;
+
+  private static StorageDescriptor makeStorageDescriptor(String location, int columnCount) {
+    List<FieldSchema> columns = new ArrayList<>();
+    for (int i = 0; i < columnCount; i++) {
+      columns.add(new FieldSchema("column_" + i, i % 2 == 0 ? "string" : "bigint",
+          "Comment for column " + i));
+    }
+
+    SerDeInfo serDeInfo = new SerDeInfo();
+    serDeInfo.setSerializationLib("org.apache.hadoop.hive.ql.io.orc.OrcSerde");
+    serDeInfo.setParameters(Collections.singletonMap("serialization.format", "1"));
+
+    StorageDescriptor sd = new StorageDescriptor();
+    sd.setCols(columns);
+    sd.setLocation(location);
+    sd.setInputFormat("org.apache.hadoop.hive.ql.io.orc.OrcInputFormat");
+    sd.setOutputFormat("org.apache.hadoop.hive.ql.io.orc.OrcOutputFormat");
+    sd.setSerdeInfo(serDeInfo);
+    sd.setParameters(new HashMap<>());
+    return sd;
+  }
+
+  private static Map<String, String> makeParameters() {
+    Map<String, String> parameters = new HashMap<>();
+    parameters.put("transient_lastDdlTime", "1466121600");
+    parameters.put("numFiles", "32");
+    parameters.put("totalSize", "1073741824");
+    return parameters;
+  }
+
+  private static Table makeTable(int columnCount) {
+    Table table = new Table();
+    table.setDbName("test_db");
+    table.setTableName("test_table");
+    table.setOwner("test");
+    table.setTableType(TableType.MANAGED_TABLE.name());
+    table.setPartitionKeys(Collections.singletonList(new FieldSchema("ds", "string", null)));
+    table.setSd(makeStorageDescriptor("hdfs://warehouse/test_db.db/test_table", columnCount));
+    table.setParameters(makeParameters());
+    return table;
+  }
+
+  private static Partition makePartition(Table table, String ds) {
+    Partition partition = new Partition();
+    partition.setDbName(table.getDbName());
+    partition.setTableName(table.getTableName());
+    partition.setValues(Collections.singletonList(ds));
+    partition.setSd(makeStorageDescriptor(table.getSd().getLocation() + "/ds=" + ds,
+        table.getSd().getColsSize()));
+    partition.setParameters(makeParameters());
+    return partition;
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Table table = makeTable(WIDE_TABLE_COLUMN_COUNT);
+    Partition partition = makePartition(table, "2016-06-17");
+
+    for (ObjectSerializationFormat format : ObjectSerializationFormat.values()) {
+      Table deserializedTable = new Table();
+      format.deserialize(format.serialize(table), deserializedTable);
+      assertEquals(table, deserializedTable);
+
+      Partition deserializedPartition = new Partition();
+      format.deserialize(format.serialize(partition), deserializedPartition);
+      assertEquals(partition, deserializedPartition);
+    }
+  }
+
+  @Test
+  public void testBinaryFormatsAreSmaller() throws Exception {
+    Table table = makeTable(WIDE_TABLE_COLUMN_COUNT);
+    int jsonSize = ObjectSerializationFormat.JSON.serialize(table).length;
+    int compactSize = ObjectSerializationFormat.COMPACT.serialize(table).length;
+    int deflateSize = ObjectSerializationFormat.COMPACT_DEFLATE.serialize(table).length;
+    assertTrue(compactSize < jsonSize);
+    assertTrue(deflateSize < compactSize);
+  }
+
+  @Test
+  public void testColumnValues() throws Exception {
+    assertEquals(ObjectSerializationFormat.JSON, ObjectSerializationFormat.fromColumnValue(null));
+    for (ObjectSerializationFormat format : ObjectSerializationFormat.values()) {
+      assertEquals(format, ObjectSerializationFormat.fromColumnValue(format.name()));
+    }
+    assertFalse(ObjectSerializationFormat.JSON.isBinary());
+    assertTrue(ObjectSerializationFormat.COMPACT.isBinary());
+    assertTrue(ObjectSerializationFormat.COMPACT_DEFLATE.isBinary());
+  }
+
+  @Test(expected = SerializationException.class)
+  public void testUnknownFormat() throws Exception {
+    ObjectSerializationFormat.fromColumnValue("COMPACT_ZSTD");
+  }
+
+  @Test(expected = SerializationException.class)
+  public void testTruncatedObject() throws Exception {
+    byte[] serializedTable =
+        ObjectSerializationFormat.COMPACT_DEFLATE.serialize(makeTable(WIDE_TABLE_COLUMN_COUNT));
+    byte[] truncatedTable = new byte[serializedTable.length / 2];
+    System.arraycopy(serializedTable, 0, truncatedTable, 0, truncatedTable.length);
+    ObjectSerializationFormat.COMPACT_DEFLATE.deserialize(truncatedTable, new Table());
+  }
+
+  @Test
+  public void benchmarkWideTable() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    Table table = makeTable(WIDE_TABLE_COLUMN_COUNT);
+
+    for (ObjectSerializationFormat format : ObjectSerializationFormat.values()) {
+      byte[] serializedTable = format.serialize(table);
+      // Warm up before timing
+      for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+        format.deserialize(serializedTable, new Table());
+      }
+
+      long startTime = System.nanoTime();
+      for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+        format.deserialize(serializedTable, new Table());
+      }
+      double deserializeSeconds = (System.nanoTime() - startTime) / 1e9;
+
+      startTime = System.nanoTime();
+      for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+        format.serialize(table);
+      }
+      double serializeSeconds = (System.nanoTime() - startTime) / 1e9;
+
+      LOG.info(String.format("%s: %d bytes per %d column table, %.0f deserialized objects/s, "
+          + "%.0f serialized objects/s", format, serializedTable.length,
+          WIDE_TABLE_COLUMN_COUNT, BENCHMARK_ITERATIONS / deserializeSeconds,
+          BENCHMARK_ITERATIONS / serializeSeconds));
+    }
+  }
+}
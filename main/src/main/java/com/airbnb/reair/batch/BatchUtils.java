@@ -1,5 +1,6 @@
 package com.airbnb.reair.batch;
 
+import com.airbnb.reair.batch.hdfs.FileChunk;
 import com.airbnb.reair.common.FsUtils;
 import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 
@@ -15,6 +16,11 @@ import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Progressable;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
 
 /**
  * Utilities for batch replication.
@@ -22,6 +28,10 @@ import java.io.IOException;
 public class BatchUtils {
   private static final Log LOG = LogFactory.getLog(BatchUtils.class);
 
+  // Number of times to try copying a file, or a chunk of a file, before giving up
+  public static final String COPY_ATTEMPTS_CONF = "replication.sync.copy.attempts";
+  public static final int DEFAULT_COPY_ATTEMPTS = 3;
+
   /**
    * Executes a file copy.
    *
@@ -46,8 +56,7 @@ public class BatchUtils {
       Progressable progressable,
       boolean forceUpdate,
       String identifier) {
-    // TODO: Should be configurable
-    int retry = 3;
+    int retry = conf.getInt(COPY_ATTEMPTS_CONF, DEFAULT_COPY_ATTEMPTS);
     String lastError = null;
 
     while (retry > 0) {
@@ -130,4 +139,264 @@ public class BatchUtils {
 
     return lastError;
   }
+
+  /**
+   * Copies bytes from an input stream to an output stream.
+   *
+   * @return the CRC32 of the bytes that were copied
+   */
+  private static long copyBytesWithCrc(
+      InputStream inputStream,
+      OutputStream outputStream,
+      long length,
+      int bufferSize,
+      Progressable progressable) throws IOException {
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[bufferSize];
+    long remaining = length;
+    while (remaining > 0) {
+      int bytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (bytesRead < 0) {
+        throw new IOException(String.format("Unexpected end of file with %d bytes remaining",
+            remaining));
+      }
+      crc.update(buffer, 0, bytesRead);
+      if (outputStream != null) {
+        outputStream.write(buffer, 0, bytesRead);
+      }
+      remaining -= bytesRead;
+      progressable.progress();
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * Executes a copy of a byte range of a file into a chunk file. The chunk is written to a
+   * temporary file and then renamed, so the chunk file only exists once it's complete. If the
+   * chunk file already exists with the right length (e.g. from an earlier attempt), the copy is
+   * skipped.
+   *
+   * <p>If checksum verification is enabled, the chunk file is read back after the copy and its
+   * CRC32 is compared to the CRC32 of the bytes that were read from the source.
+   *
+   * @param conf Hadoop configuration object
+   * @param srcFileStatus Status of the source file when the copy was planned
+   * @param srcFs Source FileSystem
+   * @param offset Offset of the first byte to copy
+   * @param length Number of bytes to copy
+   * @param dstFs Destination FileSystem
+   * @param chunkPath Path to the chunk file to write
+   * @param progressable A progressable object to progress during long copies
+   * @param identifier Identifier to use in the temporary file
+   * @return An error string or null if successful
+   */
+  public static String doCopyFileChunkAction(
+      Configuration conf,
+      SimpleFileStatus srcFileStatus,
+      FileSystem srcFs,
+      long offset,
+      long length,
+      FileSystem dstFs,
+      Path chunkPath,
+      Progressable progressable,
+      String identifier) {
+    int retry = conf.getInt(COPY_ATTEMPTS_CONF, DEFAULT_COPY_ATTEMPTS);
+    String lastError = null;
+    int bufferSize = conf.getInt("io.file.buffer.size", 4096);
+
+    while (retry > 0) {
+      try {
+        Path srcPath = new Path(srcFileStatus.getFullPath());
+        if (!srcFs.exists(srcPath)) {
+          LOG.info("Src does not exist. " + srcFileStatus.getFullPath());
+          return "Src does not exist. " + srcFileStatus.getFullPath();
+        }
+        FileStatus srcStatus = srcFs.getFileStatus(srcPath);
+        // All the chunks have to come from the same version of the file
+        if (srcStatus.getLen() != srcFileStatus.getFileSize()
+            || srcStatus.getModificationTime() != srcFileStatus.getModificationTime()) {
+          LOG.info("Src changed since the copy was planned. " + srcFileStatus.getFullPath());
+          return "Src changed since the copy was planned. " + srcFileStatus.getFullPath();
+        }
+
+        if (dstFs.exists(chunkPath) && dstFs.getFileStatus(chunkPath).getLen() == length) {
+          LOG.info("Chunk already exists. " + chunkPath);
+          return null;
+        }
+
+        Path chunkDir = chunkPath.getParent();
+        if (!dstFs.exists(chunkDir) && !dstFs.mkdirs(chunkDir)) {
+          LOG.info("Could not create directory: " + chunkDir);
+          return "Could not create directory: " + chunkDir;
+        }
+
+        Path tmpChunkPath = new Path(chunkDir,
+            "__tmp__copy__chunk_" + identifier + "_" + chunkPath.getName()
+                + "." + System.currentTimeMillis());
+
+        // Keep the same replication factor and block size as the source file so that the chunks
+        // can be concatenated.
+        long srcCrc;
+        try (FSDataInputStream inputStream = srcFs.open(srcPath);
+          FSDataOutputStream outputStream = dstFs.create(
+            tmpChunkPath,
+            srcStatus.getPermission(),
+            true,
+            bufferSize,
+            srcStatus.getReplication(),
+            srcStatus.getBlockSize(),
+            progressable)) {
+          inputStream.seek(offset);
+          srcCrc = copyBytesWithCrc(inputStream, outputStream, length, bufferSize, progressable);
+        }
+
+        if (conf.getBoolean(ConfigurationKeys.BATCH_JOB_VERIFY_COPY_CHECKSUM, true)) {
+          long chunkCrc;
+          try (FSDataInputStream inputStream = dstFs.open(tmpChunkPath)) {
+            chunkCrc = copyBytesWithCrc(inputStream, null, length, bufferSize, progressable);
+          }
+          if (srcCrc != chunkCrc || dstFs.getFileStatus(tmpChunkPath).getLen() != length) {
+            dstFs.delete(tmpChunkPath, false);
+            throw new IOException(String.format("Not renaming %s to %s since checksums do not "
+                + "match for bytes %d to %d of %s",
+                tmpChunkPath,
+                chunkPath,
+                offset,
+                offset + length,
+                srcPath));
+          }
+        }
+
+        if (!dstFs.rename(tmpChunkPath, chunkPath)) {
+          throw new IOException(String.format("Could not rename %s to %s", tmpChunkPath,
+              chunkPath));
+        }
+        LOG.info(String.format("%s copied from bytes %d to %d of %s", chunkPath, offset,
+            offset + length, srcPath));
+        progressable.progress();
+        return null;
+      } catch (IOException e) {
+        LOG.info("Got an exception!", e);
+        lastError = e.getMessage();
+        --retry;
+      }
+    }
+
+    return lastError;
+  }
+
+  /**
+   * Combines the chunk files for a file into the destination file. If the file system supports
+   * it, the chunks are concatenated without copying the data. Otherwise, the chunks are copied
+   * into a new file. The chunk directory is deleted afterwards.
+   *
+   * @param conf Hadoop configuration object
+   * @param srcFileStatus Status of the source file when the copy was planned
+   * @param chunkDir Directory containing the chunk files
+   * @param chunkCount The number of chunks for the file
+   * @param dstPath Destination file
+   * @param dstFs Destination FileSystem
+   * @param progressable A progressable object to progress during long copies
+   * @return An error string or null if successful
+   */
+  public static String stitchFileChunks(
+      Configuration conf,
+      SimpleFileStatus srcFileStatus,
+      Path chunkDir,
+      int chunkCount,
+      Path dstPath,
+      FileSystem dstFs,
+      Progressable progressable) {
+    try {
+      List<Path> chunkPaths = new ArrayList<>();
+      long totalLength = 0;
+      for (int i = 0; i < chunkCount; i++) {
+        Path chunkPath = new Path(chunkDir, FileChunk.getChunkFileName(i));
+        if (!dstFs.exists(chunkPath)) {
+          return cleanUpChunks(dstFs, chunkDir, "Missing chunk " + chunkPath);
+        }
+        totalLength += dstFs.getFileStatus(chunkPath).getLen();
+        chunkPaths.add(chunkPath);
+      }
+      if (totalLength != srcFileStatus.getFileSize()) {
+        return cleanUpChunks(dstFs, chunkDir, String.format(
+            "Chunks in %s have %d bytes instead of %d", chunkDir, totalLength,
+            srcFileStatus.getFileSize()));
+      }
+
+      Path stitchedPath = chunkPaths.get(0);
+      if (chunkCount > 1) {
+        try {
+          dstFs.concat(stitchedPath,
+              chunkPaths.subList(1, chunkCount).toArray(new Path[chunkCount - 1]));
+        } catch (UnsupportedOperationException | IOException e) {
+          // Concat is only supported by some file systems, and requires the chunks to be made of
+          // full blocks.
+          LOG.info(String.format("Unable to concatenate chunks in %s. Copying them instead.",
+              chunkDir), e);
+          stitchedPath = new Path(chunkDir, "__tmp__stitched");
+          FileStatus firstChunkStatus = dstFs.getFileStatus(chunkPaths.get(0));
+          int bufferSize = conf.getInt("io.file.buffer.size", 4096);
+          try (FSDataOutputStream outputStream = dstFs.create(
+              stitchedPath,
+              firstChunkStatus.getPermission(),
+              true,
+              bufferSize,
+              firstChunkStatus.getReplication(),
+              firstChunkStatus.getBlockSize(),
+              progressable)) {
+            for (Path chunkPath : chunkPaths) {
+              try (FSDataInputStream inputStream = dstFs.open(chunkPath)) {
+                copyBytesWithCrc(inputStream, outputStream,
+                    dstFs.getFileStatus(chunkPath).getLen(), bufferSize, progressable);
+              }
+            }
+          }
+        }
+      }
+
+      if (dstFs.getFileStatus(stitchedPath).getLen() != srcFileStatus.getFileSize()) {
+        return cleanUpChunks(dstFs, chunkDir, String.format("Stitched file %s has the wrong size",
+            stitchedPath));
+      }
+
+      // If checksums exist and don't match, don't replace the destination. If checksums do not
+      // exist, rely on the checks for each chunk.
+      Path srcPath = new Path(srcFileStatus.getFullPath());
+      if (conf.getBoolean(ConfigurationKeys.BATCH_JOB_VERIFY_COPY_CHECKSUM, true)
+          && !FsUtils.checksumsMatch(conf, srcPath, stitchedPath)
+          .map(Boolean::booleanValue)
+          .orElse(true)) {
+        return cleanUpChunks(dstFs, chunkDir, String.format(
+            "Not renaming %s to %s since checksums do not match", stitchedPath, dstPath));
+      }
+
+      if (dstFs.exists(dstPath)) {
+        dstFs.delete(dstPath, false);
+      }
+      Path dstParentPath = dstPath.getParent();
+      if (!dstFs.exists(dstParentPath) && !dstFs.mkdirs(dstParentPath)) {
+        return cleanUpChunks(dstFs, chunkDir, "Could not create directory: " + dstParentPath);
+      }
+      if (!dstFs.rename(stitchedPath, dstPath)) {
+        return cleanUpChunks(dstFs, chunkDir, String.format("Could not rename %s to %s",
+            stitchedPath, dstPath));
+      }
+      dstFs.setTimes(dstPath, srcFileStatus.getModificationTime(), -1);
+      dstFs.delete(chunkDir, true);
+      LOG.info(String.format("%s stitched from %d chunks", dstPath, chunkCount));
+      progressable.progress();
+      return null;
+    } catch (IOException e) {
+      LOG.info("Got an exception!", e);
+      return e.getMessage();
+    }
+  }
+
+  private static String cleanUpChunks(FileSystem dstFs, Path chunkDir, String error)
+      throws IOException {
+    LOG.info(error);
+    dstFs.delete(chunkDir, true);
+    return error;
+  }
 }
@@ -9,11 +9,18 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 /**
- * Splits containing a path to a directory.
+ * Splits containing a path to a directory. For directories with many files, the split can be
+ * limited to a range of file names so that the directory can be divided between several splits.
  */
 public class DirInputSplit extends InputSplit implements Writable {
   private String filePath;
   private boolean leafLevel;
+  // Files with names in [startFileName, endFileName) belong to this split. Null means unbounded.
+  private String startFileName;
+  private String endFileName;
+  // Estimated number of files and bytes that will be listed for this split
+  private long fileCount;
+  private long byteCount;
 
   public String getFilePath() {
     return filePath;
@@ -23,26 +30,64 @@ public class DirInputSplit extends InputSplit implements Writable {
     return leafLevel;
   }
 
+  public long getFileCount() {
+    return fileCount;
+  }
+
+  /**
+   * Check whether a file directly under the directory belongs to this split.
+   *
+   * @param fileName the name of the file
+   * @return whether the name of the file is in the range of this split
+   */
+  public boolean includesFile(String fileName) {
+    return (startFileName == null || fileName.compareTo(startFileName) >= 0)
+        && (endFileName == null || fileName.compareTo(endFileName) < 0);
+  }
+
   @Override
   public long getLength() throws IOException, InterruptedException {
-    return 0;
+    return byteCount;
   }
 
   @Override
   public String toString() {
-    return filePath + ":" + leafLevel;
+    if (startFileName == null && endFileName == null) {
+      return filePath + ":" + leafLevel;
+    }
+    return filePath + "[" + startFileName + "," + endFileName + "):" + leafLevel;
+  }
+
+  private static void writeOptionalString(DataOutput dataOutput, String value)
+      throws IOException {
+    dataOutput.writeBoolean(value != null);
+    if (value != null) {
+      Text.writeString(dataOutput, value);
+    }
+  }
+
+  private static String readOptionalString(DataInput dataInput) throws IOException {
+    return dataInput.readBoolean() ? Text.readString(dataInput) : null;
   }
 
   @Override
   public void write(DataOutput dataOutput) throws IOException {
     Text.writeString(dataOutput, this.filePath);
     dataOutput.writeBoolean(leafLevel);
+    writeOptionalString(dataOutput, startFileName);
+    writeOptionalString(dataOutput, endFileName);
+    dataOutput.writeLong(fileCount);
+    dataOutput.writeLong(byteCount);
   }
 
   @Override
   public void readFields(DataInput dataInput) throws IOException {
     this.filePath = Text.readString(dataInput);
     this.leafLevel = dataInput.readBoolean();
+    this.startFileName = readOptionalString(dataInput);
+    this.endFileName = readOptionalString(dataInput);
+    this.fileCount = dataInput.readLong();
+    this.byteCount = dataInput.readLong();
   }
 
   @Override
@@ -53,7 +98,31 @@ public class DirInputSplit extends InputSplit implements Writable {
   public DirInputSplit() {}
 
   public DirInputSplit(String filePath, boolean leaf) {
+    this(filePath, leaf, null, null, 0, 0);
+  }
+
+  /**
+   * Constructor for a split with a range of files and an estimated size.
+   *
+   * @param filePath the path to the directory
+   * @param leaf whether the directory should be listed recursively
+   * @param startFileName the first file name in the range, inclusive, or null if unbounded
+   * @param endFileName the last file name in the range, exclusive, or null if unbounded
+   * @param fileCount the estimated number of files in the split
+   * @param byteCount the estimated number of bytes in the files of the split
+   */
+  public DirInputSplit(
+      String filePath,
+      boolean leaf,
+      String startFileName,
+      String endFileName,
+      long fileCount,
+      long byteCount) {
     this.filePath = filePath;
     this.leafLevel = leaf;
+    this.startFileName = startFileName;
+    this.endFileName = endFileName;
+    this.fileCount = fileCount;
+    this.byteCount = byteCount;
   }
 }
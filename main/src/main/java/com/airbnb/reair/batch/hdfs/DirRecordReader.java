@@ -9,9 +9,9 @@ import java.io.IOException;
 import java.util.List;
 
 /**
- * Record Reader that returns paths to directories.
+ * Record Reader that returns paths to directories, along with the split for each directory.
  */
-public class DirRecordReader extends RecordReader<Text, Boolean> {
+public class DirRecordReader extends RecordReader<Text, DirInputSplit> {
   private List<InputSplit> inputSplits;
   private int index = 0;
   private DirInputSplit cur;
@@ -48,11 +48,8 @@ public class DirRecordReader extends RecordReader<Text, Boolean> {
   }
 
   @Override
-  public Boolean getCurrentValue() throws IOException, InterruptedException {
-    if (cur == null) {
-      return null;
-    }
-    return cur.isLeafLevel();
+  public DirInputSplit getCurrentValue() throws IOException, InterruptedException {
+    return cur;
   }
 
   @Override
@@ -1,11 +1,12 @@
 package com.airbnb.reair.batch.hdfs;
 
-import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -23,21 +24,26 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
-import javax.annotation.Nullable;
 
 /**
  * InputFormat that scans directories breadth-first. It will stop at a level when it gets enough
  * splits. The InputSplit it returns will keep track if a directory needs further traversal. If it
  * does, a further recursive scan will be done in RecorderReader. The InputFormat will return the
- * file path as the key and the file size information as the value.
+ * file path as the key and the split for the directory as the value.
+ *
+ * <p>To avoid stragglers, the number of files in each directory is sampled during the scan. A
+ * directory that is too large for one mapper is divided by subdirectory, and the files directly
+ * under it are divided into ranges of file names. The directories are then packed into splits
+ * with about the same number of files.
  */
-public class DirScanInputFormat extends FileInputFormat<Text, Boolean> {
+public class DirScanInputFormat extends FileInputFormat<Text, DirInputSplit> {
   private static final Log LOG = LogFactory.getLog(DirScanInputFormat.class);
   private static final PathFilter hiddenFileFilter = new PathFilter() {
     public boolean accept(Path path) {
@@ -47,12 +53,17 @@ public class DirScanInputFormat extends FileInputFormat<Text, Boolean> {
   };
   private static final int NUMBER_OF_THREADS = 16;
   private static final int NUMBER_OF_DIRECTORIES_PER_MAPPER = 10;
+  private static final long DEFAULT_TARGET_FILES_PER_SPLIT = 10000;
   public static final String NO_HIDDEN_FILE_FILTER = "replication.inputformat.nohiddenfilefilter";
   public static final String DIRECTORY_TRAVERSE_MAX_LEVEL =
           "replication.inputformat.max.traverse.level";
+  // The number of files that each mapper should list. Directories with more files are divided
+  // into ranges of file names, and smaller directories are combined.
+  public static final String TARGET_FILES_PER_SPLIT =
+          "replication.inputformat.target.files.per.split";
 
   @Override
-  public RecordReader<Text, Boolean> createRecordReader(InputSplit inputSplit,
+  public RecordReader<Text, DirInputSplit> createRecordReader(InputSplit inputSplit,
       TaskAttemptContext taskAttemptContext) throws IOException, InterruptedException {
     return new DirRecordReader();
   }
@@ -103,41 +114,25 @@ public class DirScanInputFormat extends FileInputFormat<Text, Boolean> {
   public List<InputSplit> getSplits(JobContext context) throws IOException {
     // split into pieces, fetching the splits in parallel
     ExecutorService executor = Executors.newCachedThreadPool();
-    List<InputSplit> splits = new ArrayList<>();
+    List<DirInputSplit> splits = new ArrayList<>();
     List<FileStatus> dirToProcess = getInitialSplits(context);
     int level = 0;
-    final int numberOfMappers = context.getConfiguration().getInt("mapreduce.job.maps", 500);
-    final int max_level = context.getConfiguration().getInt(DIRECTORY_TRAVERSE_MAX_LEVEL, 3);
+    final Configuration conf = context.getConfiguration();
+    final int numberOfMappers = conf.getInt("mapreduce.job.maps", 500);
+    final int max_level = conf.getInt(DIRECTORY_TRAVERSE_MAX_LEVEL, 3);
+    final long targetFilesPerSplit =
+        conf.getLong(TARGET_FILES_PER_SPLIT, DEFAULT_TARGET_FILES_PER_SPLIT);
 
     try {
-      splits.addAll(Lists.transform(dirToProcess, new Function<FileStatus, DirInputSplit>() {
-        @Nullable
-        @Override
-        public DirInputSplit apply(FileStatus status) {
-          return new DirInputSplit(status.getPath().toString(), false);
-        }
-      }));
-
       boolean finished = false;
       while (!finished) {
-        List<Future<List<FileStatus>>> splitfutures = new ArrayList<Future<List<FileStatus>>>();
-
-        final int directoriesPerThread = Math.max(dirToProcess.size() / NUMBER_OF_THREADS, 1);
-
-        for (List<FileStatus> range : Lists.partition(dirToProcess, directoriesPerThread)) {
-          // for each range, pick a live owner and ask it to compute bite-sized splits
-          splitfutures
-              .add(executor.submit(new SplitCallable(range, context.getConfiguration(), level)));
-        }
-
+        // The files directly under each directory at this level are listed non-recursively
+        List<DirectoryListing> listings =
+            listDirectories(executor, dirToProcess, conf, level, targetFilesPerSplit);
         dirToProcess = new ArrayList<>();
-        // wait until we have all the results back
-        for (Future<List<FileStatus>> futureInputSplits : splitfutures) {
-          try {
-            dirToProcess.addAll(futureInputSplits.get());
-          } catch (Exception e) {
-            throw new IOException("Could not get input splits", e);
-          }
+        for (DirectoryListing listing : listings) {
+          splits.addAll(listing.toSplits());
+          dirToProcess.addAll(listing.subdirectories);
         }
 
         // at least explore max_level or if we can generate numberOfMappers with
@@ -148,57 +143,250 @@ public class DirScanInputFormat extends FileInputFormat<Text, Boolean> {
           finished = true;
         }
 
-        final boolean leaf = finished;
-        splits.addAll(Lists.transform(dirToProcess, new Function<FileStatus, DirInputSplit>() {
-          @Nullable
-          @Override
-          public DirInputSplit apply(FileStatus status) {
-            return new DirInputSplit(status.getPath().toString(), leaf);
-          }
-        }));
-
         LOG.info(String.format("Running: directory to process size is %d, split size is %d, ",
             dirToProcess.size(), splits.size()));
         level++;
       }
+
+      // The remaining directories are listed recursively. Sample the size of each one, and
+      // subdivide the ones that are too large for a single split.
+      while (!dirToProcess.isEmpty()) {
+        List<FileStatus> oversizedDirs = new ArrayList<>();
+        for (Pair<FileStatus, ContentSummary> summary : summarizeDirectories(executor,
+            dirToProcess, conf)) {
+          ContentSummary contentSummary = summary.getRight();
+          if (contentSummary.getFileCount() > targetFilesPerSplit) {
+            oversizedDirs.add(summary.getLeft());
+          } else {
+            splits.add(new DirInputSplit(summary.getLeft().getPath().toString(), true, null, null,
+                contentSummary.getFileCount(), contentSummary.getLength()));
+          }
+        }
+
+        dirToProcess = new ArrayList<>();
+        for (DirectoryListing listing : listDirectories(executor, oversizedDirs, conf, level,
+            targetFilesPerSplit)) {
+          splits.addAll(listing.toSplits());
+          dirToProcess.addAll(listing.subdirectories);
+        }
+        LOG.info(String.format("Subdivided %d oversized directories, split size is %d",
+            oversizedDirs.size(), splits.size()));
+        level++;
+      }
     } finally {
       executor.shutdownNow();
     }
 
     assert splits.size() > 0;
-    Collections.shuffle(splits, new Random(System.nanoTime()));
+    return packSplits(splits, numberOfMappers, targetFilesPerSplit);
+  }
+
+  /**
+   * Estimated cost of listing the files for a split. Each directory has a cost, even if it's
+   * empty, since it takes a call to the filesystem to list it.
+   */
+  private static long getCost(DirInputSplit split) {
+    return split.getFileCount() + 1;
+  }
+
+  /**
+   * Combine directory splits into splits for the mappers so that each mapper lists about the same
+   * number of files. The largest directories are placed first, each into the split with the lowest
+   * cost so far.
+   *
+   * @param splits the splits for each directory
+   * @param numberOfMappers the maximum number of splits to return
+   * @param targetFilesPerSplit the number of files to aim for in each split
+   * @return the combined splits
+   */
+  private static List<InputSplit> packSplits(
+      List<DirInputSplit> splits,
+      int numberOfMappers,
+      long targetFilesPerSplit) {
+    long totalCost = 0;
+    for (DirInputSplit split : splits) {
+      totalCost += getCost(split);
+    }
+    final int numberOfSplits = (int) Math.max(1, Math.min(numberOfMappers,
+        (totalCost + targetFilesPerSplit - 1) / targetFilesPerSplit));
+
+    // Shuffle so that directories with the same cost are spread randomly, as before
+    List<DirInputSplit> sortedSplits = new ArrayList<>(splits);
+    Collections.shuffle(sortedSplits, new Random(System.nanoTime()));
+    Collections.sort(sortedSplits, (split1, split2) ->
+        Long.compare(getCost(split2), getCost(split1)));
+
+    PriorityQueue<PackedSplit> packedSplits = new PriorityQueue<>(numberOfSplits);
+    for (int i = 0; i < numberOfSplits; i++) {
+      packedSplits.add(new PackedSplit());
+    }
+    for (DirInputSplit split : sortedSplits) {
+      PackedSplit packedSplit = packedSplits.poll();
+      packedSplit.splits.add(split);
+      packedSplit.cost += getCost(split);
+      packedSplits.add(packedSplit);
+    }
+
+    List<InputSplit> result = new ArrayList<>();
+    for (PackedSplit packedSplit : packedSplits) {
+      if (!packedSplit.splits.isEmpty()) {
+        result.add(new ListDirInputSplit(packedSplit.splits));
+      }
+    }
+    LOG.info(String.format("Packed %d directory splits with a total cost of %d into %d splits",
+        splits.size(), totalCost, result.size()));
+    return result;
+  }
 
-    final int directoriesPerSplit = Math.max(splits.size() / numberOfMappers, 1);
+  /**
+   * A group of directory splits that will be handled by one mapper.
+   */
+  private static class PackedSplit implements Comparable<PackedSplit> {
+    private final List<InputSplit> splits = new ArrayList<>();
+    private long cost = 0;
+
+    @Override
+    public int compareTo(PackedSplit other) {
+      return Long.compare(cost, other.cost);
+    }
+  }
+
+  private List<DirectoryListing> listDirectories(
+      ExecutorService executor,
+      List<FileStatus> directories,
+      Configuration conf,
+      int level,
+      long targetFilesPerSplit) throws IOException {
+    List<Future<List<DirectoryListing>>> splitfutures = new ArrayList<>();
+
+    final int directoriesPerThread = Math.max(directories.size() / NUMBER_OF_THREADS, 1);
+
+    for (List<FileStatus> range : Lists.partition(directories, directoriesPerThread)) {
+      // for each range, pick a live owner and ask it to compute bite-sized splits
+      splitfutures.add(executor.submit(
+          new SplitCallable(range, conf, level, targetFilesPerSplit)));
+    }
 
-    return Lists.transform(Lists.partition(splits, directoriesPerSplit),
-        new Function<List<InputSplit>, InputSplit>() {
-          @Override
-          public InputSplit apply(@Nullable List<InputSplit> inputSplits) {
-            return new ListDirInputSplit(inputSplits);
+    List<DirectoryListing> listings = new ArrayList<>();
+    // wait until we have all the results back
+    for (Future<List<DirectoryListing>> futureInputSplits : splitfutures) {
+      try {
+        listings.addAll(futureInputSplits.get());
+      } catch (Exception e) {
+        throw new IOException("Could not get input splits", e);
+      }
+    }
+    return listings;
+  }
+
+  private static List<Pair<FileStatus, ContentSummary>> summarizeDirectories(
+      ExecutorService executor,
+      List<FileStatus> directories,
+      final Configuration conf) throws IOException {
+    List<Future<List<Pair<FileStatus, ContentSummary>>>> summaryFutures = new ArrayList<>();
+
+    final int directoriesPerThread = Math.max(directories.size() / NUMBER_OF_THREADS, 1);
+
+    for (final List<FileStatus> range : Lists.partition(directories, directoriesPerThread)) {
+      summaryFutures.add(executor.submit(() -> {
+          List<Pair<FileStatus, ContentSummary>> summaries = new ArrayList<>();
+          for (FileStatus status : range) {
+            FileSystem fs = status.getPath().getFileSystem(conf);
+            try {
+              summaries.add(Pair.of(status, fs.getContentSummary(status.getPath())));
+            } catch (FileNotFoundException e) {
+              LOG.error(status.getPath() + " removed during operation. Skip...");
+            }
           }
-        });
+          return summaries;
+        }));
+    }
+
+    List<Pair<FileStatus, ContentSummary>> summaries = new ArrayList<>();
+    for (Future<List<Pair<FileStatus, ContentSummary>>> summaryFuture : summaryFutures) {
+      try {
+        summaries.addAll(summaryFuture.get());
+      } catch (Exception e) {
+        throw new IOException("Could not get directory sizes", e);
+      }
+    }
+    return summaries;
   }
 
   /**
-   * Get list of directories. Find next level of directories and return.
+   * The files and subdirectories directly under a directory.
    */
-  class SplitCallable implements Callable<List<FileStatus>> {
+  private static class DirectoryListing {
+    private final Path path;
+    private final List<FileStatus> subdirectories = new ArrayList<>();
+    // Names of the files where a new range of files starts, when there are too many files in the
+    // directory for one split
+    private final List<String> rangeBoundaries = new ArrayList<>();
+    private final long targetFilesPerSplit;
+    private long fileCount = 0;
+    private long byteCount = 0;
+
+    DirectoryListing(Path path, long targetFilesPerSplit) {
+      this.path = path;
+      this.targetFilesPerSplit = targetFilesPerSplit;
+    }
+
+    /**
+     * Generate non-recursive splits for the files in this directory, with at most
+     * targetFilesPerSplit files in each split.
+     */
+    List<DirInputSplit> toSplits() {
+      List<DirInputSplit> splits = new ArrayList<>();
+      String startFileName = null;
+      long remainingFiles = fileCount;
+      for (String endFileName : rangeBoundaries) {
+        splits.add(new DirInputSplit(path.toString(), false, startFileName, endFileName,
+            targetFilesPerSplit, getEstimatedBytes(targetFilesPerSplit)));
+        startFileName = endFileName;
+        remainingFiles -= targetFilesPerSplit;
+      }
+      splits.add(new DirInputSplit(path.toString(), false, startFileName, null, remainingFiles,
+          getEstimatedBytes(remainingFiles)));
+      return splits;
+    }
+
+    /**
+     * Estimate the number of bytes in the given number of files from this directory, assuming
+     * that the files are of average size. Computed in floating point, as the product of the byte
+     * and file counts can overflow a long for large directories.
+     */
+    private long getEstimatedBytes(long files) {
+      return fileCount == 0 ? 0 : (long) ((double) byteCount / fileCount * files);
+    }
+  }
+
+  /**
+   * Get list of directories. Find next level of directories and return, along with the number of
+   * files directly under each directory.
+   */
+  class SplitCallable implements Callable<List<DirectoryListing>> {
     private final Configuration conf;
     private final List<FileStatus> candidates;
     private final int level;
+    private final long targetFilesPerSplit;
     private final String directoryBlackList;
     private final boolean nofilter;
 
-    public SplitCallable(List<FileStatus> candidates, Configuration conf, int level) {
+    public SplitCallable(
+        List<FileStatus> candidates,
+        Configuration conf,
+        int level,
+        long targetFilesPerSplit) {
       this.candidates = candidates;
       this.conf = conf;
       this.level = level;
+      this.targetFilesPerSplit = targetFilesPerSplit;
       this.directoryBlackList = conf.get(ReplicationJob.DIRECTORY_BLACKLIST_REGEX);
       this.nofilter = conf.getBoolean(NO_HIDDEN_FILE_FILTER, false);
     }
 
-    public List<FileStatus> call() throws Exception {
-      ArrayList<FileStatus> nextLevel = new ArrayList<FileStatus>();
+    public List<DirectoryListing> call() throws Exception {
+      ArrayList<DirectoryListing> listings = new ArrayList<>();
 
       for (FileStatus f : candidates) {
         if (!f.isDirectory()) {
@@ -206,25 +394,41 @@ public class DirScanInputFormat extends FileInputFormat<Text, Boolean> {
           continue;
         }
         FileSystem fs = f.getPath().getFileSystem(conf);
+        DirectoryListing listing = new DirectoryListing(f.getPath(), targetFilesPerSplit);
+        List<String> fileNames = new ArrayList<>();
         try {
           for (FileStatus child : nofilter ? fs.listStatus(f.getPath())
               : fs.listStatus(f.getPath(), hiddenFileFilter)) {
             if (child.isDirectory()) {
               if (directoryBlackList == null
                   || !child.getPath().toUri().getPath().matches(directoryBlackList)) {
-                nextLevel.add(child);
+                listing.subdirectories.add(child);
               }
+            } else {
+              fileNames.add(child.getPath().getName());
+              listing.fileCount++;
+              listing.byteCount += child.getLen();
             }
           }
         } catch (FileNotFoundException e) {
           LOG.error(f.getPath() + " removed during operation. Skip...");
         }
+
+        if (fileNames.size() > targetFilesPerSplit) {
+          // Not all filesystems return the files in order
+          Collections.sort(fileNames);
+          for (int i = (int) targetFilesPerSplit; i < fileNames.size();
+              i += targetFilesPerSplit) {
+            listing.rangeBoundaries.add(fileNames.get(i));
+          }
+        }
+        listings.add(listing);
       }
 
       LOG.info("Thread " + Thread.currentThread().getId() + ", level " + level + ":processed "
           + candidates.size() + " directories");
 
-      return nextLevel;
+      return listings;
     }
   }
 }
@@ -0,0 +1,91 @@
+package com.airbnb.reair.batch.hdfs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A byte range of a file that is copied separately from the rest of the file. Large files are
+ * divided into chunks so that they can be copied by several reducers in parallel.
+ */
+public class FileChunk {
+  private final int index;
+  private final long offset;
+  private final long length;
+
+  private FileChunk(int index, long offset, long length) {
+    this.index = index;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Get the name of the file that the chunk is copied to.
+   *
+   * @param index the index of the chunk
+   * @return the name of the file for the chunk
+   */
+  public static String getChunkFileName(int index) {
+    return String.format("part-%05d", index);
+  }
+
+  /**
+   * Get the number of chunks for a file.
+   *
+   * @param fileSize the size of the file
+   * @param chunkSize the size of each chunk, except for the last one
+   * @return the number of chunks
+   */
+  public static int getChunkCount(long fileSize, long chunkSize) {
+    return (int) Math.max(1, (fileSize + chunkSize - 1) / chunkSize);
+  }
+
+  /**
+   * Get a chunk of a file.
+   *
+   * @param fileSize the size of the file
+   * @param chunkSize the size of each chunk, except for the last one
+   * @param index the index of the chunk
+   * @return the chunk
+   */
+  public static FileChunk getChunk(long fileSize, long chunkSize, int index) {
+    if (index < 0 || index >= getChunkCount(fileSize, chunkSize)) {
+      throw new IllegalArgumentException(String.format(
+          "Invalid chunk index %d for file size %d and chunk size %d",
+          index, fileSize, chunkSize));
+    }
+    long offset = index * chunkSize;
+    return new FileChunk(index, offset, Math.min(chunkSize, fileSize - offset));
+  }
+
+  /**
+   * Divide a file into chunks.
+   *
+   * @param fileSize the size of the file
+   * @param chunkSize the size of each chunk, except for the last one
+   * @return the chunks of the file, in order
+   */
+  public static List<FileChunk> getChunks(long fileSize, long chunkSize) {
+    List<FileChunk> chunks = new ArrayList<>();
+    for (int i = 0; i < getChunkCount(fileSize, chunkSize); i++) {
+      chunks.add(getChunk(fileSize, chunkSize, i));
+    }
+    return chunks;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("chunk %d [%d, %d)", index, offset, offset + length);
+  }
+}
@@ -27,9 +27,26 @@ public class ListDirInputSplit extends InputSplit implements Writable {
     return splits;
   }
 
+  /**
+   * Get the estimated number of files that will be listed for this split.
+   *
+   * @return the sum of the estimated file counts of the directories in this split
+   */
+  public long getFileCount() {
+    long fileCount = 0;
+    for (InputSplit s : splits) {
+      fileCount += ((DirInputSplit) s).getFileCount();
+    }
+    return fileCount;
+  }
+
   @Override
   public long getLength() throws IOException, InterruptedException {
-    return 0;
+    long length = 0;
+    for (InputSplit s : splits) {
+      length += s.getLength();
+    }
+    return length;
   }
 
   @Override
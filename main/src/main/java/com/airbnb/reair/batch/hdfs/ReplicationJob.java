@@ -23,14 +23,17 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.compress.GzipCodec;
 import org.apache.hadoop.mapreduce.Job;
@@ -40,6 +43,7 @@ import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
@@ -48,6 +52,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -82,6 +87,8 @@ import javax.annotation.Nullable;
  *      do an initial glob on inputs to get initial dir list,
  *      then breadth-first search on the initial dir list until it reaches max_level and get enough
  *      directories (note that the search in each level is done in a multi-threaded way).
+ *      Directories with too many files are subdivided, and the rest are packed into splits with a
+ *      similar number of files.
  *
  * <p>1.2. job.setMapperClass(ListFileMapper.class) -
  *      list the files in those dirs (and recursively on the leaf dirs)
@@ -100,6 +107,12 @@ import javax.annotation.Nullable;
  * <p>2.3. job.setReducerClass(HdfsSyncReducer.class) -
  *      Take the action.  Note that only ADD and UPDATE are supported.
  *      TODO: DELETE needs to be added.
+ *
+ * <p>3. runStitchJob (only if CHUNK_THRESHOLD_CONF is set)
+ *
+ * <p>Files larger than the threshold are divided into chunks in 2.2, and each chunk is copied by
+ * a different reducer into a part file under the temporary directory. The map-only stitch job
+ * combines the part files of each file into the destination file.
  */
 public class ReplicationJob extends Configured implements Tool {
   private static final Log LOG = LogFactory.getLog(ReplicationJob.class);
@@ -120,6 +133,15 @@ public class ReplicationJob extends Configured implements Tool {
 
   public static final String DIRECTORY_BLACKLIST_REGEX = "replication.directory.blacklist";
 
+  // Files larger than this many bytes are copied in chunks by several reducers. 0 disables
+  // chunked copies.
+  public static final String CHUNK_THRESHOLD_CONF = "replication.sync.chunk.threshold";
+  // Size of each chunk of a file that is copied in chunks. The chunks are concatenated if the
+  // destination file system supports it, which requires chunks made of full blocks, so this must
+  // be a multiple of the default block size of the destination.
+  public static final String CHUNK_SIZE_CONF = "replication.sync.chunk.size";
+  public static final long DEFAULT_CHUNK_SIZE = 1024L * 1024 * 1024;
+
   private enum Operation {
     ADD,
     DELETE,
@@ -150,23 +172,30 @@ public class ReplicationJob extends Configured implements Tool {
             .findFirst().get();
   }
 
-  public static class ListFileMapper extends Mapper<Text, Boolean, Text, FileStatus> {
+  public static class ListFileMapper extends Mapper<Text, DirInputSplit, Text, FileStatus> {
     private String directoryBlackList;
     // Store root URI for sources and destination directory
     private URI [] rootUris;
 
+    /**
+     * Write out the files in a directory.
+     *
+     * @param fileRange if not null, only the files directly under the directory that are in the
+     *                  range of this split are written
+     */
     private void enumDirectories(FileSystem fs, URI rootUri, Path directory, boolean recursive,
-        Mapper.Context context) throws IOException, InterruptedException {
+        DirInputSplit fileRange, Mapper.Context context)
+        throws IOException, InterruptedException {
       try {
         for (FileStatus status : fs.listStatus(directory, hiddenFileFilter)) {
           if (status.isDirectory()) {
             if (recursive) {
               if (directoryBlackList == null
                   || !status.getPath().getName().matches(directoryBlackList)) {
-                enumDirectories(fs,rootUri, status.getPath(), recursive, context);
+                enumDirectories(fs,rootUri, status.getPath(), recursive, null, context);
               }
             }
-          } else {
+          } else if (fileRange == null || fileRange.includesFile(status.getPath().getName())) {
             context.write(new Text(rootUri.relativize(directory.toUri()).getPath()),
                     new FileStatus(status));
           }
@@ -188,12 +217,13 @@ public class ReplicationJob extends Configured implements Tool {
     }
 
     @Override
-    protected void map(Text key, Boolean value, Context context)
+    protected void map(Text key, DirInputSplit value, Context context)
         throws IOException, InterruptedException {
       Path directory = new Path(key.toString());
       FileSystem fileSystem = directory.getFileSystem(context.getConfiguration());
 
-      enumDirectories(fileSystem, findRootUri(rootUris, directory), directory, value, context);
+      enumDirectories(fileSystem, findRootUri(rootUris, directory), directory,
+          value.isLeafLevel(), value, context);
       LOG.info(key.toString() + " processed.");
     }
   }
@@ -318,22 +348,82 @@ public class ReplicationJob extends Configured implements Tool {
     }
   }
 
+  /**
+   * Get the directory under the temporary directory where the chunks of a file are copied to.
+   *
+   * @param tmpDirPath the temporary directory for the job
+   * @param dstFile the destination of the file
+   * @param fileStatus the status of the source file
+   * @return the directory for the chunks
+   */
+  public static Path getChunkDirectory(Path tmpDirPath, Path dstFile,
+      SimpleFileStatus fileStatus) {
+    String chunkDirHash = Hashing.murmur3_128().hashString(
+        Joiner.on("\t").join(dstFile, fileStatus.getFileSize(),
+            fileStatus.getModificationTime()), StandardCharsets.UTF_8).toString();
+    return new Path(tmpDirPath, "__tmp__chunks__" + chunkDirHash);
+  }
+
   // Mapper to rebalance files need to be copied.
   public static class HdfsSyncMapper extends Mapper<LongWritable, Text, LongWritable, Text> {
-    @Override
-    protected void map(LongWritable key, Text value, Context context)
-        throws IOException, InterruptedException {
-      String[] fields = value.toString().split("\t");
+    private long chunkThreshold;
+    private long chunkSize;
+
+    /**
+     * Get the records to shuffle for a line of the stage 1 output. Files that are larger than
+     * the chunk threshold generate a record for each chunk, with the chunk index appended to the
+     * line. The keys of the chunks are consecutive so that they go to different reducers.
+     *
+     * @param line a line of the stage 1 output
+     * @param chunkThreshold files larger than this are divided into chunks, or 0 to disable
+     * @param chunkSize the size of each chunk
+     * @return the records to shuffle
+     */
+    public static List<Pair<LongWritable, Text>> getShuffleRecords(
+        String line,
+        long chunkThreshold,
+        long chunkSize) {
+      String[] fields = line.split("\t");
+      long fileSize = Long.valueOf(fields[3]);
       long hashValue = Hashing.murmur3_128()
           .hashLong(Long.valueOf(fields[3]).hashCode() * Long.valueOf(fields[4]).hashCode())
           .asLong();
-      context.write(new LongWritable(hashValue), value);
+
+      List<Pair<LongWritable, Text>> records = new ArrayList<>();
+      Operation operation = Operation.valueOf(fields[1]);
+      if (chunkThreshold <= 0 || fileSize <= chunkThreshold
+          || (operation != Operation.ADD && operation != Operation.UPDATE)) {
+        records.add(Pair.of(new LongWritable(hashValue), new Text(line)));
+        return records;
+      }
+      for (FileChunk chunk : FileChunk.getChunks(fileSize, chunkSize)) {
+        records.add(Pair.of(new LongWritable(hashValue + chunk.getIndex()),
+            new Text(line + "\t" + chunk.getIndex())));
+      }
+      return records;
+    }
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      super.setup(context);
+      this.chunkThreshold = context.getConfiguration().getLong(CHUNK_THRESHOLD_CONF, 0);
+      this.chunkSize = context.getConfiguration().getLong(CHUNK_SIZE_CONF, DEFAULT_CHUNK_SIZE);
+    }
+
+    @Override
+    protected void map(LongWritable key, Text value, Context context)
+        throws IOException, InterruptedException {
+      for (Pair<LongWritable, Text> record :
+          getShuffleRecords(value.toString(), chunkThreshold, chunkSize)) {
+        context.write(record.getLeft(), record.getRight());
+      }
     }
   }
 
   public static class HdfsSyncReducer extends Reducer<LongWritable, Text, Text, Text> {
     private String dstRoot;
     private Path tmpDirPath;
+    private long chunkSize;
     private long copiedSize = 0;
 
     enum CopyStatus {
@@ -346,6 +436,32 @@ public class ReplicationJob extends Configured implements Tool {
       super.setup(context);
       this.dstRoot = context.getConfiguration().get(DST_PATH_CONF);
       this.tmpDirPath = new Path(context.getConfiguration().get(TMP_PATH_CONF));
+      this.chunkSize = context.getConfiguration().getLong(CHUNK_SIZE_CONF, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Copy a chunk of a file into the chunk directory for the file.
+     *
+     * @return An error string or null if successful
+     */
+    private String copyChunk(SimpleFileStatus fileStatus, Path dstFile, int chunkIndex,
+        FileSystem srcFs, FileSystem dstFs, Context context) throws IOException {
+      // Same as doCopyFileAction(), don't recopy a file that was copied by an earlier run.
+      if (dstFs.exists(dstFile)
+          && dstFs.getFileStatus(dstFile).getLen() == fileStatus.getFileSize()) {
+        LOG.info("dst already exists. " + dstFile);
+        return "dst already exists. " + dstFile;
+      }
+      FileChunk chunk = FileChunk.getChunk(fileStatus.getFileSize(), chunkSize, chunkIndex);
+      Path chunkPath = new Path(getChunkDirectory(tmpDirPath, dstFile, fileStatus),
+          FileChunk.getChunkFileName(chunkIndex));
+      String copyError = BatchUtils.doCopyFileChunkAction(context.getConfiguration(), fileStatus,
+          srcFs, chunk.getOffset(), chunk.getLength(), dstFs, chunkPath, context,
+          context.getTaskAttemptID().toString());
+      if (copyError == null) {
+        copiedSize += chunk.getLength();
+      }
+      return copyError;
     }
 
     @Override
@@ -364,6 +480,18 @@ public class ReplicationJob extends Configured implements Tool {
           FileSystem srcFs = (new Path(fileStatus.getFullPath()))
                   .getFileSystem(context.getConfiguration());
           FileSystem dstFs = dstFile.getFileSystem(context.getConfiguration());
+
+          // A 6th field is present if the file is copied in chunks
+          if (fields.length > 5) {
+            int chunkIndex = Integer.valueOf(fields[5]);
+            String copyError =
+                copyChunk(fileStatus, dstFile, chunkIndex, srcFs, dstFs, context);
+            CopyStatus copyStatus = copyError == null ? CopyStatus.COPIED : CopyStatus.SKIPPED;
+            context.write(new Text(fields[0]), new Text(
+                generateValue(copyStatus.toString(), fileStatus) + "\t" + chunkIndex));
+            continue;
+          }
+
           String copyError =
               BatchUtils.doCopyFileAction(context.getConfiguration(), fileStatus,
                   srcFs, dstFile.getParent().toString(),
@@ -371,6 +499,7 @@ public class ReplicationJob extends Configured implements Tool {
                   context.getTaskAttemptID().toString());
 
           if (copyError == null) {
+            copiedSize += fileStatus.getFileSize();
             context.write(new Text(fields[0]),
                     generateValue(CopyStatus.COPIED.toString(), fileStatus));
           } else {
@@ -387,6 +516,71 @@ public class ReplicationJob extends Configured implements Tool {
     }
   }
 
+  /**
+   * Combines the chunks of the files that were copied in chunks by the sync job.
+   *
+   * @param conf Hadoop configuration object
+   * @param line a line of the sync job output
+   * @param dstRoot the destination directory
+   * @param tmpDirPath the temporary directory for the job
+   * @param progressable A progressable object to progress during long copies
+   * @return the line to write to the stitch job output, or null if the line is not for the first
+   *         chunk of a file
+   *
+   * @throws IOException if there's an error accessing the file system
+   */
+  public static Text stitchChunks(Configuration conf, String line, String dstRoot,
+      Path tmpDirPath, Progressable progressable) throws IOException {
+    String[] fields = line.split("\t");
+    // Only the line for the first chunk of a file triggers the stitch, regardless of whether
+    // that chunk was copied. Missing chunks are detected when stitching.
+    if (fields.length <= 5 || Integer.valueOf(fields[5]) != 0) {
+      return null;
+    }
+    SimpleFileStatus fileStatus =
+        new SimpleFileStatus(fields[2], Long.valueOf(fields[3]), Long.valueOf(fields[4]));
+    Path dstFile = new Path(dstRoot, fields[0]);
+    FileSystem dstFs = dstFile.getFileSystem(conf);
+    Path chunkDir = getChunkDirectory(tmpDirPath, dstFile, fileStatus);
+
+    String stitchError;
+    if (dstFs.exists(chunkDir)) {
+      stitchError = BatchUtils.stitchFileChunks(conf, fileStatus, chunkDir,
+          FileChunk.getChunkCount(fileStatus.getFileSize(),
+              conf.getLong(CHUNK_SIZE_CONF, DEFAULT_CHUNK_SIZE)),
+          dstFile, dstFs, progressable);
+    } else {
+      // Either an earlier run stitched the file, or none of the chunks were copied.
+      stitchError = "No chunks in " + chunkDir;
+    }
+    HdfsSyncReducer.CopyStatus copyStatus = stitchError == null
+        ? HdfsSyncReducer.CopyStatus.COPIED : HdfsSyncReducer.CopyStatus.SKIPPED;
+    return new Text(fields[0] + "\t" + generateValue(copyStatus.toString(), fileStatus));
+  }
+
+  // Mapper to combine the chunks of the files that were copied in chunks.
+  public static class HdfsStitchMapper extends Mapper<LongWritable, Text, Text, NullWritable> {
+    private String dstRoot;
+    private Path tmpDirPath;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      super.setup(context);
+      this.dstRoot = context.getConfiguration().get(DST_PATH_CONF);
+      this.tmpDirPath = new Path(context.getConfiguration().get(TMP_PATH_CONF));
+    }
+
+    @Override
+    protected void map(LongWritable key, Text value, Context context)
+        throws IOException, InterruptedException {
+      Text result = stitchChunks(context.getConfiguration(), value.toString(), dstRoot,
+          tmpDirPath, context);
+      if (result != null) {
+        context.write(result, NullWritable.get());
+      }
+    }
+  }
+
   /**
    * Print usage information to provided OutputStream.
    *
@@ -532,6 +726,7 @@ public class ReplicationJob extends Configured implements Tool {
 
     Path stage1LogDir = new Path(logPath, "stage1");
     Path stage2LogDir = new Path(logPath, "stage2");
+    Path stage3LogDir = new Path(logPath, "stage3");
 
     if (dryRun) {
       LOG.info("Starting stage 1 with log directory " + stage1LogDir);
@@ -542,6 +737,16 @@ public class ReplicationJob extends Configured implements Tool {
     } else {
       Path tmpDir = new Path(tmpDirStr);
 
+      if (getConf().getLong(CHUNK_THRESHOLD_CONF, 0) > 0) {
+        long chunkSize = getConf().getLong(CHUNK_SIZE_CONF, DEFAULT_CHUNK_SIZE);
+        long blockSize = destDir.getFileSystem(getConf()).getDefaultBlockSize(destDir);
+        if (chunkSize <= 0 || chunkSize % blockSize != 0) {
+          LOG.error(String.format("%s is %d, but it must be a multiple of the destination block "
+              + "size of %d", CHUNK_SIZE_CONF, chunkSize, blockSize));
+          return -1;
+        }
+      }
+
       // Verify that destination directory exists
       if (!FsUtils.dirExists(getConf(), destDir)) {
         LOG.warn("Destination directory does not exist. Creating " + destDir);
@@ -556,11 +761,20 @@ public class ReplicationJob extends Configured implements Tool {
           operationsStr) == 0) {
 
         LOG.info("Starting stage 2 with log directory " + stage2LogDir);
-        return runSyncJob(srcDir,
+        int syncResult = runSyncJob(srcDir,
                 destDir,
                 tmpDir,
                 stage1LogDir,
                 stage2LogDir);
+        if (syncResult != 0 || getConf().getLong(CHUNK_THRESHOLD_CONF, 0) <= 0) {
+          return syncResult;
+        }
+
+        LOG.info("Starting stage 3 with log directory " + stage3LogDir);
+        return runStitchJob(destDir,
+                tmpDir,
+                stage2LogDir,
+                stage3LogDir);
       } else {
         return -1;
       }
@@ -624,6 +838,33 @@ public class ReplicationJob extends Configured implements Tool {
     return success ? 0 : 1;
   }
 
+  private int runStitchJob(Path destination, Path tmpDir, Path input, Path output)
+      throws IOException, InterruptedException, ClassNotFoundException {
+    Job job = new Job(getConf(), "HDFS Stitch job");
+    job.setJarByClass(getClass());
+
+    job.setInputFormatClass(TextInputFormat.class);
+    job.setMapperClass(HdfsStitchMapper.class);
+    job.setNumReduceTasks(0);
+
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(NullWritable.class);
+
+    job.getConfiguration().set(DST_PATH_CONF, destination.toString());
+    job.getConfiguration().set(TMP_PATH_CONF, tmpDir.toString());
+
+    FileInputFormat.setInputPaths(job, input);
+    FileInputFormat.setInputDirRecursive(job, true);
+    FileInputFormat.setMaxInputSplitSize(job,
+            this.getConf().getLong(FileInputFormat.SPLIT_MAXSIZE, 60000L));
+    FileOutputFormat.setOutputPath(job, output);
+    FileOutputFormat.setOutputCompressorClass(job, GzipCodec.class);
+
+    boolean success = job.waitForCompletion(true);
+
+    return success ? 0 : 1;
+  }
+
   public static void main(String[] args) throws Exception {
     int res = ToolRunner.run(new ReplicationJob(), args);
     System.exit(res);
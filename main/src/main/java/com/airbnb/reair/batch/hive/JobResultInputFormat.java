@@ -0,0 +1,186 @@
+package com.airbnb.reair.batch.hive;
+
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.incremental.primitives.TaskEstimate;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileRecordReader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Input format for the output of the stage 1 job. The output is either a SequenceFile of
+ * JobResultWritable / Text records, or the tab-separated text that earlier versions wrote. The
+ * format is detected for each file, so the later stages of a run that was started with the text
+ * format can still read the output.
+ */
+public class JobResultInputFormat extends FileInputFormat<JobResultWritable, Text> {
+
+  private static final byte[] SEQUENCE_FILE_MAGIC = "SEQ".getBytes(StandardCharsets.US_ASCII);
+
+  // Number of fields that serializeJobResult() generates. Anything after that is the extra info.
+  private static final int JOB_RESULT_FIELD_COUNT = 8;
+
+  @Override
+  public RecordReader<JobResultWritable, Text> createRecordReader(
+      InputSplit split,
+      TaskAttemptContext context) throws IOException, InterruptedException {
+    return new DetectingRecordReader();
+  }
+
+  @Override
+  protected boolean isSplitable(JobContext context, Path file) {
+    CompressionCodec codec =
+        new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+    return codec == null || codec instanceof SplittableCompressionCodec;
+  }
+
+  /**
+   * Check whether a file is a SequenceFile by reading the header.
+   *
+   * @param conf configuration object
+   * @param file the file to check
+   * @return whether the file is a SequenceFile
+   *
+   * @throws IOException if there's an error reading the file
+   */
+  public static boolean isSequenceFile(Configuration conf, Path file) throws IOException {
+    // Text output has the extension of the compression codec, while a SequenceFile is compressed
+    // internally.
+    if (new CompressionCodecFactory(conf).getCodec(file) != null) {
+      return false;
+    }
+    FileSystem fs = file.getFileSystem(conf);
+    byte[] header = new byte[SEQUENCE_FILE_MAGIC.length];
+    try (FSDataInputStream in = fs.open(file)) {
+      in.readFully(header);
+    } catch (EOFException e) {
+      return false;
+    }
+    return Arrays.equals(SEQUENCE_FILE_MAGIC, header);
+  }
+
+  /**
+   * Parse a line of the text output of the stage 1 job.
+   *
+   * @param line a line with the serialized job result, optionally followed by a tab and the extra
+   *             info
+   * @return Pair of the job result and the extra info
+   */
+  public static Pair<JobResultWritable, Text> parseTextJobResult(String line) {
+    Pair<TaskEstimate, HiveObjectSpec> jobResult =
+        MetastoreReplicationJob.deseralizeJobResult(line);
+    String[] fields = line.split("\t", JOB_RESULT_FIELD_COUNT + 1);
+    String extra = fields.length > JOB_RESULT_FIELD_COUNT ? fields[JOB_RESULT_FIELD_COUNT] : "";
+    return Pair.of(new JobResultWritable(jobResult.getLeft(), jobResult.getRight()),
+        new Text(extra));
+  }
+
+  /**
+   * Reads a split with the record reader for the format of the file.
+   */
+  private static class DetectingRecordReader extends RecordReader<JobResultWritable, Text> {
+    private RecordReader<JobResultWritable, Text> delegate;
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context)
+        throws IOException, InterruptedException {
+      Path file = ((FileSplit) split).getPath();
+      if (isSequenceFile(context.getConfiguration(), file)) {
+        delegate = new SequenceFileRecordReader<>();
+      } else {
+        delegate = new TextRecordReader();
+      }
+      delegate.initialize(split, context);
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException {
+      return delegate.nextKeyValue();
+    }
+
+    @Override
+    public JobResultWritable getCurrentKey() throws IOException, InterruptedException {
+      return delegate.getCurrentKey();
+    }
+
+    @Override
+    public Text getCurrentValue() throws IOException, InterruptedException {
+      return delegate.getCurrentValue();
+    }
+
+    @Override
+    public float getProgress() throws IOException, InterruptedException {
+      return delegate.getProgress();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (delegate != null) {
+        delegate.close();
+      }
+    }
+  }
+
+  /**
+   * Reads the tab-separated text format.
+   */
+  private static class TextRecordReader extends RecordReader<JobResultWritable, Text> {
+    private final LineRecordReader lineReader = new LineRecordReader();
+    private Pair<JobResultWritable, Text> current;
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context)
+        throws IOException, InterruptedException {
+      lineReader.initialize(split, context);
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException {
+      if (!lineReader.nextKeyValue()) {
+        current = null;
+        return false;
+      }
+      current = parseTextJobResult(lineReader.getCurrentValue().toString());
+      return true;
+    }
+
+    @Override
+    public JobResultWritable getCurrentKey() throws IOException, InterruptedException {
+      return current == null ? null : current.getLeft();
+    }
+
+    @Override
+    public Text getCurrentValue() throws IOException, InterruptedException {
+      return current == null ? null : current.getRight();
+    }
+
+    @Override
+    public float getProgress() throws IOException, InterruptedException {
+      return lineReader.getProgress();
+    }
+
+    @Override
+    public void close() throws IOException {
+      lineReader.close();
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package com.airbnb.reair.batch.hive;
+
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.incremental.primitives.TaskEstimate;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Binary form of the TaskEstimate and HiveObjectSpec that the batch replication jobs pass between
+ * stages. The optional fields are marked in a single flags byte and the strings are written as
+ * length-prefixed UTF-8, so the record can be read back without splitting or parsing text.
+ *
+ * <p>toString() returns the same tab-separated text as
+ * {@link MetastoreReplicationJob#serializeJobResult}, so the output for this record in a text file
+ * matches the output of earlier versions.
+ */
+public class JobResultWritable implements Writable {
+
+  private static final byte VERSION = 1;
+
+  private static final int UPDATE_METADATA_FLAG = 1;
+  private static final int UPDATE_DATA_FLAG = 1 << 1;
+  private static final int SRC_PATH_FLAG = 1 << 2;
+  private static final int DEST_PATH_FLAG = 1 << 3;
+  private static final int PARTITION_FLAG = 1 << 4;
+
+  private TaskEstimate estimate;
+  private HiveObjectSpec spec;
+
+  // Needed for reflection when reading from a file
+  public JobResultWritable() {
+  }
+
+  public JobResultWritable(TaskEstimate estimate, HiveObjectSpec spec) {
+    set(estimate, spec);
+  }
+
+  public void set(TaskEstimate estimate, HiveObjectSpec spec) {
+    this.estimate = estimate;
+    this.spec = spec;
+  }
+
+  public TaskEstimate getEstimate() {
+    return estimate;
+  }
+
+  public HiveObjectSpec getSpec() {
+    return spec;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    int flags = 0;
+    if (estimate.isUpdateMetadata()) {
+      flags |= UPDATE_METADATA_FLAG;
+    }
+    if (estimate.isUpdateData()) {
+      flags |= UPDATE_DATA_FLAG;
+    }
+    if (estimate.getSrcPath().isPresent()) {
+      flags |= SRC_PATH_FLAG;
+    }
+    if (estimate.getDestPath().isPresent()) {
+      flags |= DEST_PATH_FLAG;
+    }
+    if (spec.isPartition()) {
+      flags |= PARTITION_FLAG;
+    }
+
+    out.writeByte(VERSION);
+    out.writeByte(flags);
+    WritableUtils.writeEnum(out, estimate.getTaskType());
+    if (estimate.getSrcPath().isPresent()) {
+      Text.writeString(out, estimate.getSrcPath().get().toString());
+    }
+    if (estimate.getDestPath().isPresent()) {
+      Text.writeString(out, estimate.getDestPath().get().toString());
+    }
+    Text.writeString(out, spec.getDbName());
+    Text.writeString(out, spec.getTableName());
+    if (spec.isPartition()) {
+      Text.writeString(out, spec.getPartitionName());
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    byte version = in.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported job result version: " + version);
+    }
+    int flags = in.readByte();
+    TaskEstimate.TaskType taskType = WritableUtils.readEnum(in, TaskEstimate.TaskType.class);
+    Optional<Path> srcPath = (flags & SRC_PATH_FLAG) != 0
+        ? Optional.of(new Path(Text.readString(in))) : Optional.empty();
+    Optional<Path> destPath = (flags & DEST_PATH_FLAG) != 0
+        ? Optional.of(new Path(Text.readString(in))) : Optional.empty();
+    estimate = new TaskEstimate(taskType,
+        (flags & UPDATE_METADATA_FLAG) != 0,
+        (flags & UPDATE_DATA_FLAG) != 0,
+        srcPath,
+        destPath);
+
+    String dbName = Text.readString(in);
+    String tableName = Text.readString(in);
+    if ((flags & PARTITION_FLAG) != 0) {
+      spec = new HiveObjectSpec(dbName, tableName, Text.readString(in));
+    } else {
+      spec = new HiveObjectSpec(dbName, tableName);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MetastoreReplicationJob.serializeJobResult(estimate, spec);
+  }
+}
@@ -28,7 +28,10 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FsShell;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
 import org.apache.hadoop.io.compress.GzipCodec;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.MRJobConfig;
@@ -36,6 +39,7 @@ import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.velocity.VelocityContext;
@@ -70,11 +74,13 @@ import java.util.UUID;
  * <p>1.3 job.setReducerClass(Stage1PartitionCompareReducer.class);
  * - Pass through all other tasks, except the CHECK_PARTITION tasks, which are re-analyzed to be
  * COPY_PARTITION, DROP_PARTITION, NO_OP, etc, using an equal check on the HDFS file.
+ * - The tasks are written as gzip'd tab-separated text, or as block-compressed SequenceFiles of
+ * JobResultWritable records if the sequence_file intermediate format is configured.
  *
  * <p>2. runHdfsCopyJob(new Path(step1Out, "part*"), step2Out)  (note when running end-to-end,
  * "part*" is not specified).
  *
- * <p>2.1 job.setInputFormatClass(TextInputFormat.class).
+ * <p>2.1 job.setInputFormatClass(JobResultInputFormat.class).
  * - Input of this job is the output of stage 1. It contains the actions to take for the tables and
  * partitions. In this stage, we only care about the COPY actions.
  *
@@ -92,7 +98,7 @@ import java.util.UUID;
  * <p>3. runCommitChangeJob(new Path(step1Out, "part*"), step3Out) (note when running end-to-end,
  * "part*" is not specified).
  *
- * <p>3.1 job.setInputFormatClass(TextInputFormat.class).
+ * <p>3.1 job.setInputFormatClass(JobResultInputFormat.class).
  * 
  * <p>3.2 job.setMapperClass(Stage3CommitChangeMapper.class).
  * - Takes action like COPY_PARTITION, COPY_PARTITIONED_TABLE, COPY_UNPARTITIONED_TABLE,
@@ -104,6 +110,10 @@ public class MetastoreReplicationJob extends Configured implements Tool {
   public static final String USAGE_COMMAND_STR = "Usage: hadoop jar <jar name> "
       + MetastoreReplicationJob.class.getName();
 
+  // Formats for the output of stage 1
+  public static final String TEXT_FORMAT = "text";
+  public static final String SEQUENCE_FILE_FORMAT = "sequence_file";
+
   // Context for rendering templates using velocity
   private VelocityContext velocityContext = new VelocityContext();
 
@@ -256,6 +266,12 @@ public class MetastoreReplicationJob extends Configured implements Tool {
       throw new ConfigurationException(String.format("Speculative execution must be disabled "
           + "for reducers! Please set %s appropriately.", MRJobConfig.REDUCE_SPECULATIVE));
     }
+    String intermediateFormat = getIntermediateFormat();
+    if (!TEXT_FORMAT.equals(intermediateFormat)
+        && !SEQUENCE_FILE_FORMAT.equals(intermediateFormat)) {
+      throw new ConfigurationException(String.format("Unknown intermediate format: %s",
+          intermediateFormat));
+    }
     Optional<Path> localTableListFile = Optional.empty();
     if (cl.hasOption("table-list")) {
       localTableListFile = Optional.of(new Path(cl.getOptionValue("table-list")));
@@ -374,6 +390,8 @@ public class MetastoreReplicationJob extends Configured implements Tool {
         ConfigurationKeys.SYNC_MODIFIED_TIMES_FOR_FILE_COPY,
         ConfigurationKeys.BATCH_JOB_VERIFY_COPY_CHECKSUM,
         ConfigurationKeys.BATCH_JOB_OVERWRITE_NEWER,
+        ConfigurationKeys.BATCH_JOB_INTERMEDIATE_FORMAT,
+        ConfigurationKeys.BATCH_JOB_INTERMEDIATE_CODEC,
         MRJobConfig.MAP_SPECULATIVE,
         MRJobConfig.REDUCE_SPECULATIVE
         );
@@ -386,6 +404,32 @@ public class MetastoreReplicationJob extends Configured implements Tool {
     }
   }
 
+  private String getIntermediateFormat() {
+    return getConf().get(ConfigurationKeys.BATCH_JOB_INTERMEDIATE_FORMAT, TEXT_FORMAT);
+  }
+
+  /**
+   * Configures the format of the stage 1 output. The later stages read either format.
+   *
+   * @param job the stage 1 job
+   */
+  private void setStage1OutputFormat(Job job) {
+    job.setOutputKeyClass(JobResultWritable.class);
+    job.setOutputValueClass(Text.class);
+
+    if (SEQUENCE_FILE_FORMAT.equals(getIntermediateFormat())) {
+      job.setOutputFormatClass(SequenceFileOutputFormat.class);
+      SequenceFileOutputFormat.setOutputCompressionType(job,
+          SequenceFile.CompressionType.BLOCK);
+      FileOutputFormat.setOutputCompressorClass(job, getConf().getClass(
+          ConfigurationKeys.BATCH_JOB_INTERMEDIATE_CODEC,
+          DefaultCodec.class,
+          CompressionCodec.class));
+    } else {
+      FileOutputFormat.setOutputCompressorClass(job, GzipCodec.class);
+    }
+  }
+
   private int runMetastoreCompareJob(Path output)
     throws IOException, InterruptedException, ClassNotFoundException {
     Job job = Job.getInstance(this.getConf(), "Stage1: Metastore Compare Job");
@@ -395,11 +439,11 @@ public class MetastoreReplicationJob extends Configured implements Tool {
     job.setMapperClass(Stage1ProcessTableMapper.class);
     job.setReducerClass(Stage1PartitionCompareReducer.class);
 
-    job.setOutputKeyClass(LongWritable.class);
-    job.setOutputValueClass(Text.class);
+    job.setMapOutputKeyClass(LongWritable.class);
+    job.setMapOutputValueClass(Text.class);
 
     FileOutputFormat.setOutputPath(job, output);
-    FileOutputFormat.setOutputCompressorClass(job, GzipCodec.class);
+    setStage1OutputFormat(job);
 
     boolean success = job.waitForCompletion(true);
 
@@ -423,10 +467,13 @@ public class MetastoreReplicationJob extends Configured implements Tool {
       result = runMetastoreCompareJob(outputPath);
     }
 
-    if (result == 0) {
+    if (result == 0 && TEXT_FORMAT.equals(getIntermediateFormat())) {
       LOG.info("Job for step 1 finished successfully! To view logging data, run the following "
           + "commands in Hive: \n\n"
           + VelocityUtils.renderTemplate(STEP1_HQL_TEMPLATE, velocityContext));
+    } else if (result == 0) {
+      LOG.info("Job for step 1 finished successfully! To view logging data, run "
+          + "'hadoop fs -text' on " + outputPath);
     }
 
     return result;
@@ -445,11 +492,11 @@ public class MetastoreReplicationJob extends Configured implements Tool {
     FileInputFormat.setMaxInputSplitSize(job,
         this.getConf().getLong(FileInputFormat.SPLIT_MAXSIZE, 60000L));
 
-    job.setOutputKeyClass(LongWritable.class);
-    job.setOutputValueClass(Text.class);
+    job.setMapOutputKeyClass(LongWritable.class);
+    job.setMapOutputValueClass(Text.class);
 
     FileOutputFormat.setOutputPath(job, output);
-    FileOutputFormat.setOutputCompressorClass(job, GzipCodec.class);
+    setStage1OutputFormat(job);
 
     job.setNumReduceTasks(getConf().getInt(
         ConfigurationKeys.BATCH_JOB_METASTORE_PARALLELISM,
@@ -469,7 +516,7 @@ public class MetastoreReplicationJob extends Configured implements Tool {
     Job job = Job.getInstance(this.getConf(), "Stage 2: HDFS Copy Job");
 
     job.setJarByClass(this.getClass());
-    job.setInputFormatClass(TextInputFormat.class);
+    job.setInputFormatClass(JobResultInputFormat.class);
     job.setMapperClass(Stage2DirectoryCopyMapper.class);
     job.setReducerClass(Stage2DirectoryCopyReducer.class);
 
@@ -509,7 +556,7 @@ public class MetastoreReplicationJob extends Configured implements Tool {
 
     job.setJarByClass(this.getClass());
 
-    job.setInputFormatClass(TextInputFormat.class);
+    job.setInputFormatClass(JobResultInputFormat.class);
     job.setMapperClass(Stage3CommitChangeMapper.class);
     job.setNumReduceTasks(0);
     job.setOutputKeyClass(Text.class);
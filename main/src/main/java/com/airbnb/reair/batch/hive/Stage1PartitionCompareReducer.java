@@ -28,7 +28,8 @@ import java.io.IOException;
  * entities, the reducer will figure out the action to take. For table entities, the reducer will
  * pass them through to the next stage.
  */
-public class Stage1PartitionCompareReducer extends Reducer<LongWritable, Text, Text, Text> {
+public class Stage1PartitionCompareReducer
+    extends Reducer<LongWritable, Text, JobResultWritable, Text> {
   private static final Log LOG = LogFactory.getLog(Stage1PartitionCompareReducer.class);
 
   private static final DestinationObjectFactory destinationObjectFactory =
@@ -78,15 +79,13 @@ public class Stage1PartitionCompareReducer extends Reducer<LongWritable, Text, T
           MetastoreReplicationJob.deseralizeJobResult(value.toString());
       TaskEstimate estimate = input.getLeft();
       HiveObjectSpec spec = input.getRight();
-      String result = value.toString();
+      TaskEstimate result = estimate;
       String extra = "";
 
       try {
         if (estimate.getTaskType() == TaskEstimate.TaskType.CHECK_PARTITION) {
           // Table exists in source, but not in dest. It should copy the table.
-          TaskEstimate newEstimate = estimator.analyze(spec);
-
-          result = MetastoreReplicationJob.serializeJobResult(newEstimate, spec);
+          result = estimator.analyze(spec);
         }
       } catch (HiveMetastoreException e) {
         LOG.error(String.format("Hit exception during db:%s, tbl:%s, part:%s", spec.getDbName(),
@@ -95,7 +94,7 @@ public class Stage1PartitionCompareReducer extends Reducer<LongWritable, Text, T
             context.getTaskAttemptID().toString());
       }
 
-      context.write(new Text(result), new Text(extra));
+      context.write(new JobResultWritable(result, spec), new Text(extra));
       ++this.count;
       if (this.count % 100 == 0) {
         LOG.info("Processed " + this.count + " entities");
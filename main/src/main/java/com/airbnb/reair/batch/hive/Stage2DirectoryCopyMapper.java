@@ -1,14 +1,11 @@
 package com.airbnb.reair.batch.hive;
 
-import static com.airbnb.reair.batch.hive.MetastoreReplicationJob.deseralizeJobResult;
-
 import com.google.common.hash.Hashing;
 
 import com.airbnb.reair.common.HiveObjectSpec;
 import com.airbnb.reair.incremental.ReplicationUtils;
 import com.airbnb.reair.incremental.primitives.TaskEstimate;
 
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -31,7 +28,8 @@ import java.io.IOException;
  * number of files, we shuffle again to distribute the work for copying files, which is done on the
  * reducers.
  */
-public class Stage2DirectoryCopyMapper extends Mapper<LongWritable, Text, LongWritable, Text> {
+public class Stage2DirectoryCopyMapper
+    extends Mapper<JobResultWritable, Text, LongWritable, Text> {
   private static final Log LOG = LogFactory.getLog(Stage2DirectoryCopyMapper.class);
   private static final PathFilter hiddenFileFilter = new PathFilter() {
     public boolean accept(Path path) {
@@ -46,11 +44,10 @@ public class Stage2DirectoryCopyMapper extends Mapper<LongWritable, Text, LongWr
     this.conf = context.getConfiguration();
   }
 
-  protected void map(LongWritable key, Text value, Context context)
+  protected void map(JobResultWritable key, Text value, Context context)
       throws IOException, InterruptedException {
-    Pair<TaskEstimate, HiveObjectSpec> input = deseralizeJobResult(value.toString());
-    TaskEstimate estimate = input.getLeft();
-    HiveObjectSpec spec = input.getRight();
+    TaskEstimate estimate = key.getEstimate();
+    HiveObjectSpec spec = key.getSpec();
 
     switch (estimate.getTaskType()) {
       case COPY_PARTITION:
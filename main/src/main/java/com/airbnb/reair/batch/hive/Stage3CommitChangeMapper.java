@@ -19,14 +19,12 @@ import com.airbnb.reair.incremental.primitives.DropPartitionTask;
 import com.airbnb.reair.incremental.primitives.DropTableTask;
 import com.airbnb.reair.incremental.primitives.TaskEstimate;
 
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.metastore.api.Partition;
 import org.apache.hadoop.hive.metastore.api.Table;
-import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
@@ -39,7 +37,7 @@ import java.util.Optional;
  * <p>Input of the Stage 3 job is Stage 1 job output, which is a list of actions to take for each
  * table / partition.
  */
-public class Stage3CommitChangeMapper extends Mapper<LongWritable, Text, Text, Text> {
+public class Stage3CommitChangeMapper extends Mapper<JobResultWritable, Text, Text, Text> {
   private static final Log LOG = LogFactory.getLog(Stage3CommitChangeMapper.class);
   private static final DestinationObjectFactory DESTINATION_OBJECT_FACTORY =
       new DestinationObjectFactory();
@@ -69,13 +67,13 @@ public class Stage3CommitChangeMapper extends Mapper<LongWritable, Text, Text, T
     }
   }
 
-  protected void map(LongWritable key, Text value, Context context)
+  protected void map(JobResultWritable key, Text value, Context context)
       throws IOException, InterruptedException {
+    // Log the same line as the stage 1 text output, regardless of the intermediate format
+    Text jobResult = new Text(key.toString() + "\t" + value.toString());
     try {
-      Pair<TaskEstimate, HiveObjectSpec> input =
-          MetastoreReplicationJob.deseralizeJobResult(value.toString());
-      TaskEstimate estimate = input.getLeft();
-      HiveObjectSpec spec = input.getRight();
+      TaskEstimate estimate = key.getEstimate();
+      HiveObjectSpec spec = key.getSpec();
       RunInfo status = null;
 
       LOG.info(String.format("Working on %s with estimate %s", spec, estimate));
@@ -93,7 +91,7 @@ public class Stage3CommitChangeMapper extends Mapper<LongWritable, Text, Text, T
               directoryCopier,
               false);
           status = copyPartitionTask.runTask();
-          context.write(value, new Text(status.getRunStatus().toString()));
+          context.write(jobResult, new Text(status.getRunStatus().toString()));
           break;
 
         case COPY_PARTITIONED_TABLE:
@@ -106,7 +104,7 @@ public class Stage3CommitChangeMapper extends Mapper<LongWritable, Text, Text, T
               spec,
               Optional.<Path>empty());
           status = copyPartitionedTableTaskJob.runTask();
-          context.write(value, new Text(status.getRunStatus().toString()));
+          context.write(jobResult, new Text(status.getRunStatus().toString()));
           break;
 
         case COPY_UNPARTITIONED_TABLE:
@@ -121,7 +119,7 @@ public class Stage3CommitChangeMapper extends Mapper<LongWritable, Text, Text, T
               directoryCopier,
               false);
           status = copyUnpartitionedTableTask.runTask();
-          context.write(value, new Text(status.getRunStatus().toString()));
+          context.write(jobResult, new Text(status.getRunStatus().toString()));
           break;
 
         case DROP_PARTITION:
@@ -130,7 +128,7 @@ public class Stage3CommitChangeMapper extends Mapper<LongWritable, Text, Text, T
                                   spec.getTableName(),
                                   spec.getPartitionName());
           if (dstPart == null) {
-            context.write(value, new Text(RunInfo.RunStatus.SUCCESSFUL.toString()));
+            context.write(jobResult, new Text(RunInfo.RunStatus.SUCCESSFUL.toString()));
             break;
           }
 
@@ -140,13 +138,13 @@ public class Stage3CommitChangeMapper extends Mapper<LongWritable, Text, Text, T
               ReplicationUtils.getTldt(dstPart));
 
           status = dropPartitionTask.runTask();
-          context.write(value, new Text(status.getRunStatus().toString()));
+          context.write(jobResult, new Text(status.getRunStatus().toString()));
           break;
 
         case DROP_TABLE:
           Table dstTable = dstClient.getTable(spec.getDbName(), spec.getTableName());
           if (dstTable == null) {
-            context.write(value, new Text(RunInfo.RunStatus.SUCCESSFUL.toString()));
+            context.write(jobResult, new Text(RunInfo.RunStatus.SUCCESSFUL.toString()));
             break;
           }
 
@@ -155,15 +153,15 @@ public class Stage3CommitChangeMapper extends Mapper<LongWritable, Text, Text, T
               spec,
               ReplicationUtils.getTldt(dstTable));
           status = dropTableTask.runTask();
-          context.write(value, new Text(status.getRunStatus().toString()));
+          context.write(jobResult, new Text(status.getRunStatus().toString()));
           break;
 
         default:
           break;
       }
     } catch (HiveMetastoreException | DistCpException | ConfigurationException e) {
-      LOG.error(String.format("Got exception while processing %s", value.toString()), e);
-      context.write(value, new Text(RunInfo.RunStatus.FAILED.toString()));
+      LOG.error(String.format("Got exception while processing %s", jobResult), e);
+      context.write(jobResult, new Text(RunInfo.RunStatus.FAILED.toString()));
     }
   }
 
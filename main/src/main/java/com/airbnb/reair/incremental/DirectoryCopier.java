@@ -17,6 +17,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.Semaphore;
 
 /**
  * Copies directories on Hadoop filesystems.
@@ -27,6 +28,8 @@ public class DirectoryCopier {
   private Configuration conf;
   private Path tmpDir;
   private boolean checkFileModificationTimes;
+  // Limits the number of DistCp jobs that copies through this object run at once
+  private Optional<Semaphore> distCpJobPermits = Optional.empty();
 
   /**
    * Constructor for the directory copier.
@@ -42,6 +45,12 @@ public class DirectoryCopier {
     this.conf = conf;
     this.tmpDir = tmpDir;
     this.checkFileModificationTimes = checkFileModificationTimes;
+    int maxConcurrentDistCpJobs = conf.getInt(
+        ConfigurationKeys.COPY_MAX_CONCURRENT_DISTCP_JOBS,
+        -1);
+    if (maxConcurrentDistCpJobs > 0) {
+      this.distCpJobPermits = Optional.of(new Semaphore(maxConcurrentDistCpJobs, true));
+    }
   }
 
   /**
@@ -116,6 +125,37 @@ public class DirectoryCopier {
         options.setDistcpDynamicJobTimeoutMax(dynamicTimeoutMax);
       }
 
+      long parallelCopySizeThreshold = conf.getLong(
+          ConfigurationKeys.COPY_PARALLEL_SIZE_THRESHOLD,
+          -1);
+      if (parallelCopySizeThreshold >= 0) {
+        options.setParallelCopySizeThreshold(parallelCopySizeThreshold);
+      }
+      long parallelCopyCountThreshold = conf.getLong(
+          ConfigurationKeys.COPY_PARALLEL_COUNT_THRESHOLD,
+          -1);
+      if (parallelCopyCountThreshold >= 0) {
+        options.setParallelCopyCountThreshold(parallelCopyCountThreshold);
+      }
+      int parallelCopyThreads = conf.getInt(
+          ConfigurationKeys.COPY_PARALLEL_THREADS,
+          -1);
+      if (parallelCopyThreads >= 0) {
+        options.setParallelCopyThreads(parallelCopyThreads);
+      }
+      options.setParallelCopyVerifyChecksums(conf.getBoolean(
+          ConfigurationKeys.COPY_PARALLEL_VERIFY_CHECKSUMS,
+          false));
+      options.setIncrementalCopy(conf.getBoolean(
+          ConfigurationKeys.COPY_INCREMENTAL_ENABLED,
+          false));
+      options.setIncrementalCopyCompareChecksums(conf.getBoolean(
+          ConfigurationKeys.COPY_INCREMENTAL_COMPARE_CHECKSUMS,
+          false));
+      if (distCpJobPermits.isPresent()) {
+        options.setDistCpJobPermits(distCpJobPermits.get());
+      }
+
       DistCpWrapper distCpWrapper = new DistCpWrapper(conf);
       long bytesCopied = distCpWrapper.copy(options);
       return bytesCopied;
@@ -0,0 +1,188 @@
+package com.airbnb.reair.incremental;
+
+import com.airbnb.reair.common.FsUtils;
+import com.airbnb.reair.common.HiveMetastoreException;
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.incremental.configuration.ConfigurationException;
+import com.airbnb.reair.incremental.db.PersistedJobInfo;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
+import com.airbnb.reair.incremental.primitives.TaskEstimate;
+import com.airbnb.reair.incremental.primitives.TaskEstimator;
+import com.airbnb.reair.multiprocessing.FifoSchedulingPolicy;
+import com.airbnb.reair.multiprocessing.Job;
+import com.airbnb.reair.multiprocessing.JobSchedulingPolicy;
+import com.airbnb.reair.multiprocessing.PriorityClassSchedulingPolicy;
+import com.airbnb.reair.multiprocessing.ShortestJobFirstSchedulingPolicy;
+import com.airbnb.reair.multiprocessing.WeightedFairSchedulingPolicy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Creates the policy that orders the replication jobs that are ready to run, based on the
+ * configuration.
+ */
+public class JobSchedulingPolicyFactory {
+
+  private static final Log LOG = LogFactory.getLog(JobSchedulingPolicyFactory.class);
+
+  public static final String FIFO_POLICY = "fifo";
+  public static final String PRIORITY_POLICY = "priority";
+  public static final String FAIR_POLICY = "fair";
+  public static final String SHORTEST_FIRST_POLICY = "shortest_first";
+
+  public static final String GROUP_BY_DB = "db";
+  public static final String GROUP_BY_TABLE = "table";
+
+  // Priority classes for the priority policy
+  public static final int METADATA_PRIORITY_CLASS = 0;
+  public static final int COPY_PRIORITY_CLASS = 1;
+  public static final int BULK_COPY_PRIORITY_CLASS = 2;
+
+  // Cost in bytes to use for a job if the estimate fails
+  private static final long UNKNOWN_COST = 1L << 40;
+
+  private final Configuration conf;
+  private final TaskEstimator taskEstimator;
+
+  public JobSchedulingPolicyFactory(Configuration conf, TaskEstimator taskEstimator) {
+    this.conf = conf;
+    this.taskEstimator = taskEstimator;
+  }
+
+  /**
+   * Create the scheduling policy specified in the configuration.
+   *
+   * @return the scheduling policy
+   *
+   * @throws ConfigurationException if the policy or its parameters are invalid
+   */
+  public JobSchedulingPolicy create() throws ConfigurationException {
+    String policyName = conf.get(ConfigurationKeys.JOB_SCHEDULING_POLICY, FIFO_POLICY);
+    switch (policyName) {
+      case FIFO_POLICY:
+        return new FifoSchedulingPolicy();
+      case PRIORITY_POLICY:
+        return new PriorityClassSchedulingPolicy(JobSchedulingPolicyFactory::getPriorityClass);
+      case FAIR_POLICY:
+        return createFairPolicy();
+      case SHORTEST_FIRST_POLICY:
+        int numEstimateThreads =
+            conf.getInt(ConfigurationKeys.JOB_SCHEDULING_ESTIMATE_THREADS, 4);
+        if (numEstimateThreads <= 0) {
+          throw new ConfigurationException(
+              "Invalid number of estimate threads: " + numEstimateThreads);
+        }
+        return new ShortestJobFirstSchedulingPolicy(this::estimateCost, numEstimateThreads);
+      default:
+        throw new ConfigurationException("Unknown job scheduling policy: " + policyName);
+    }
+  }
+
+  private JobSchedulingPolicy createFairPolicy() throws ConfigurationException {
+    String groupBy = conf.get(ConfigurationKeys.JOB_SCHEDULING_FAIR_GROUP_BY, GROUP_BY_TABLE);
+    if (!GROUP_BY_DB.equals(groupBy) && !GROUP_BY_TABLE.equals(groupBy)) {
+      throw new ConfigurationException("Unknown group for fair scheduling: " + groupBy);
+    }
+    final boolean groupByTable = GROUP_BY_TABLE.equals(groupBy);
+
+    final Map<String, Double> weights = new HashMap<>();
+    for (String groupWeight : conf.getTrimmedStrings(
+        ConfigurationKeys.JOB_SCHEDULING_FAIR_WEIGHTS)) {
+      int separatorIndex = groupWeight.lastIndexOf(':');
+      try {
+        double weight = Double.parseDouble(groupWeight.substring(separatorIndex + 1));
+        if (separatorIndex <= 0 || weight <= 0) {
+          throw new ConfigurationException("Invalid group weight: " + groupWeight);
+        }
+        weights.put(groupWeight.substring(0, separatorIndex), weight);
+      } catch (NumberFormatException e) {
+        throw new ConfigurationException("Invalid group weight: " + groupWeight, e);
+      }
+    }
+
+    return new WeightedFairSchedulingPolicy(
+        job -> getGroup(job, groupByTable),
+        group -> weights.getOrDefault(group, 1.0));
+  }
+
+  private static String getGroup(Job job, boolean groupByTable) {
+    if (!(job instanceof ReplicationJob)) {
+      return "";
+    }
+    PersistedJobInfo jobInfo = ((ReplicationJob) job).getPersistedJobInfo();
+    if (groupByTable) {
+      return jobInfo.getSrcDbName() + "." + jobInfo.getSrcTableName();
+    } else {
+      return jobInfo.getSrcDbName();
+    }
+  }
+
+  /**
+   * Jobs that only change metadata are in the highest priority class, followed by jobs that copy
+   * a single table or partition, and then jobs that copy many partitions.
+   */
+  static int getPriorityClass(Job job) {
+    if (!(job instanceof ReplicationJob)) {
+      return COPY_PRIORITY_CLASS;
+    }
+    switch (((ReplicationJob) job).getPersistedJobInfo().getOperation()) {
+      case COPY_PARTITIONED_TABLE:
+      case DROP_TABLE:
+      case DROP_PARTITION:
+      case RENAME_TABLE:
+      case RENAME_PARTITION:
+        return METADATA_PRIORITY_CLASS;
+      case COPY_PARTITIONS:
+        return BULK_COPY_PRIORITY_CLASS;
+      default:
+        return COPY_PRIORITY_CLASS;
+    }
+  }
+
+  /**
+   * Estimate the number of bytes that the job will copy. Jobs that only change metadata have a
+   * cost of 0. Called from the estimate threads of the policy, as this can make metastore and
+   * filesystem calls.
+   */
+  private long estimateCost(Job job) {
+    if (getPriorityClass(job) == METADATA_PRIORITY_CLASS) {
+      return 0;
+    }
+    if (!(job instanceof ReplicationJob)) {
+      return UNKNOWN_COST;
+    }
+    PersistedJobInfo jobInfo = ((ReplicationJob) job).getPersistedJobInfo();
+    try {
+      Optional<Path> srcPath;
+      if (jobInfo.getOperation() == ReplicationOperation.COPY_PARTITIONS) {
+        // Estimating each partition would take too long, so use the size of the table directory
+        srcPath = jobInfo.getSrcPath();
+      } else {
+        HiveObjectSpec spec = jobInfo.getOperation() == ReplicationOperation.COPY_PARTITION
+            ? new HiveObjectSpec(jobInfo.getSrcDbName(), jobInfo.getSrcTableName(),
+                jobInfo.getSrcPartitionNames().get(0))
+            : new HiveObjectSpec(jobInfo.getSrcDbName(), jobInfo.getSrcTableName());
+        TaskEstimate estimate = taskEstimator.analyze(spec);
+        if (!estimate.isUpdateData()) {
+          return 0;
+        }
+        srcPath = estimate.getSrcPath();
+      }
+      if (!srcPath.isPresent()) {
+        return UNKNOWN_COST;
+      }
+      return FsUtils.getSize(conf, srcPath.get(), Optional.empty());
+    } catch (HiveMetastoreException | IOException e) {
+      LOG.warn("Unable to estimate the cost of job id: " + jobInfo.getId(), e);
+      return UNKNOWN_COST;
+    }
+  }
+}
@@ -21,7 +21,10 @@ public class ReplicationCounters {
     EXECUTION_SUBMITTED_TASKS,
     // Tasks that failed to execute. This shouldn't happen in normal
     // operation.
-    FAILED_TASKS
+    FAILED_TASKS,
+    // Tasks that were skipped because a newer task for the same object
+    // was queued before they started.
+    SUPERSEDED_TASKS
   }
 
   private Map<Type, Long> counters;
@@ -19,6 +19,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A job that performs a replication task and can be executed in parallel though the
@@ -34,6 +35,14 @@ public class ReplicationJob extends Job {
   private OnStateChangeHandler onStateChangeHandler;
   private PersistedJobInfo persistedJobInfo;
 
+  private enum ExecutionState {
+    NOT_STARTED, STARTED, SUPERSEDED
+  }
+
+  // A job can be superseded by a newer job only if it hasn't started running
+  private final AtomicReference<ExecutionState> executionState =
+      new AtomicReference<>(ExecutionState.NOT_STARTED);
+
   /**
    * Constructor for a replication job that can be run in the ParallelJobExecutor.
    *
@@ -57,8 +66,29 @@ public class ReplicationJob extends Job {
     return persistedJobInfo;
   }
 
+  /**
+   * Mark this job as superseded by a newer job so that it's skipped when it comes up to run.
+   *
+   * @return true if the job was marked, or false if it has already started running
+   */
+  public boolean supersede() {
+    return executionState.compareAndSet(ExecutionState.NOT_STARTED, ExecutionState.SUPERSEDED);
+  }
+
+  public boolean isSuperseded() {
+    return executionState.get() == ExecutionState.SUPERSEDED;
+  }
+
   @Override
   public int run() {
+    // A job that was interrupted can be run again, so STARTED isn't checked for here
+    if (!executionState.compareAndSet(ExecutionState.NOT_STARTED, ExecutionState.STARTED)
+        && executionState.get() == ExecutionState.SUPERSEDED) {
+      LOG.info(String.format("Replication job id: %s was superseded, so it won't be run",
+          persistedJobInfo.getId()));
+      return 0;
+    }
+
     int maxAttempts = 1 + Math.max(0, conf.getInt(ConfigurationKeys.JOB_RETRIES, 8));
     for (int attempt = 0; attempt < maxAttempts; attempt++) {
       try {
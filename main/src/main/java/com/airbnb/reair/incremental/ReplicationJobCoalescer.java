@@ -0,0 +1,161 @@
+package com.airbnb.reair.incremental;
+
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.incremental.db.PersistedJobInfo;
+import com.airbnb.reair.incremental.db.PersistedJobInfoStore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the queued jobs that haven't started running, so that a copy job can be skipped
+ * when a newer job will copy the same object. Since a copy job replicates the state of the source
+ * object at the time it runs, the newer job makes the older one redundant.
+ *
+ * <p>Only jobs for the same operation are coalesced. Any other job for a table (e.g. a drop or a
+ * rename) acts as a barrier, so jobs queued before it are never superseded by jobs queued after
+ * it. Jobs need to be added in the order that they are queued for execution.
+ */
+public class ReplicationJobCoalescer {
+
+  private static final Log LOG = LogFactory.getLog(ReplicationJobCoalescer.class);
+
+  private final PersistedJobInfoStore jobInfoStore;
+
+  // The queued jobs for each table, keyed by the table spec
+  private final Map<HiveObjectSpec, TableState> tableStates = new HashMap<>();
+
+  /**
+   * The queued jobs for a table that could be superseded.
+   */
+  private static class TableState {
+    // The last job that was queued for the table
+    private ReplicationJob lastJob;
+    // The last job for each partition that was queued after the last table level job
+    private final Map<String, ReplicationJob> partitionCopies = new HashMap<>();
+  }
+
+  public ReplicationJobCoalescer(PersistedJobInfoStore jobInfoStore) {
+    this.jobInfoStore = jobInfoStore;
+  }
+
+  /**
+   * Add a job that is about to be queued for execution.
+   *
+   * @param job the job that is being queued
+   * @return the queued jobs that were superseded by this job. The superseded jobs have been marked
+   *         as aborted in the job info store, and they won't do anything when they are run.
+   *
+   * @throws StateUpdateException if there's an error persisting the status of a superseded job
+   */
+  public synchronized List<ReplicationJob> add(ReplicationJob job) throws StateUpdateException {
+    PersistedJobInfo jobInfo = job.getPersistedJobInfo();
+    HiveObjectSpec tableSpec =
+        new HiveObjectSpec(jobInfo.getSrcDbName(), jobInfo.getSrcTableName());
+    List<ReplicationJob> supersededJobs = new ArrayList<>();
+
+    switch (jobInfo.getOperation()) {
+      case COPY_UNPARTITIONED_TABLE:
+      case COPY_PARTITIONED_TABLE: {
+        TableState tableState = getTableState(tableSpec);
+        if (tableState.lastJob != null
+            && tableState.lastJob.getPersistedJobInfo().getOperation()
+            == jobInfo.getOperation()) {
+          supersede(tableState.lastJob, job, supersededJobs);
+        }
+        tableState.lastJob = job;
+        tableState.partitionCopies.clear();
+        break;
+      }
+      case COPY_PARTITION: {
+        TableState tableState = getTableState(tableSpec);
+        String partitionName = jobInfo.getSrcPartitionNames().get(0);
+        ReplicationJob previousJob = tableState.partitionCopies.get(partitionName);
+        if (previousJob != null) {
+          supersede(previousJob, job, supersededJobs);
+        }
+        tableState.partitionCopies.put(partitionName, job);
+        tableState.lastJob = job;
+        break;
+      }
+      default:
+        addBarrier(tableSpec, job);
+        if (jobInfo.getRenameToDb().isPresent() && jobInfo.getRenameToTable().isPresent()) {
+          addBarrier(new HiveObjectSpec(jobInfo.getRenameToDb().get(),
+              jobInfo.getRenameToTable().get()), job);
+        }
+        break;
+    }
+    return supersededJobs;
+  }
+
+  /**
+   * Remove a job that has started running, as it can't be superseded anymore.
+   *
+   * @param job the job that started
+   */
+  public synchronized void remove(ReplicationJob job) {
+    PersistedJobInfo jobInfo = job.getPersistedJobInfo();
+    HiveObjectSpec tableSpec =
+        new HiveObjectSpec(jobInfo.getSrcDbName(), jobInfo.getSrcTableName());
+    TableState tableState = tableStates.get(tableSpec);
+    if (tableState == null) {
+      return;
+    }
+    if (tableState.lastJob == job) {
+      tableState.lastJob = null;
+    }
+    if (jobInfo.getOperation() == ReplicationOperation.COPY_PARTITION) {
+      tableState.partitionCopies.remove(jobInfo.getSrcPartitionNames().get(0), job);
+    }
+    if (tableState.lastJob == null && tableState.partitionCopies.isEmpty()) {
+      tableStates.remove(tableSpec);
+    }
+  }
+
+  /**
+   * Get the number of tables with queued jobs that are tracked.
+   *
+   * @return the number of tables
+   */
+  public synchronized int getTrackedTableCount() {
+    return tableStates.size();
+  }
+
+  private TableState getTableState(HiveObjectSpec tableSpec) {
+    TableState tableState = tableStates.get(tableSpec);
+    if (tableState == null) {
+      tableState = new TableState();
+      tableStates.put(tableSpec, tableState);
+    }
+    return tableState;
+  }
+
+  private void addBarrier(HiveObjectSpec tableSpec, ReplicationJob job) {
+    TableState tableState = getTableState(tableSpec);
+    tableState.lastJob = job;
+    tableState.partitionCopies.clear();
+  }
+
+  private void supersede(
+      ReplicationJob previousJob,
+      ReplicationJob newJob,
+      List<ReplicationJob> supersededJobs) throws StateUpdateException {
+    if (!previousJob.supersede()) {
+      // Already started running, so there's nothing to skip
+      return;
+    }
+    LOG.debug(String.format("Job id: %s is superseded by job id: %s", previousJob.getId(),
+        newJob.getId()));
+    PersistedJobInfo previousJobInfo = previousJob.getPersistedJobInfo();
+    previousJobInfo.getExtras().put(PersistedJobInfo.SUPERSEDED_BY_KEY,
+        Long.toString(newJob.getId()));
+    jobInfoStore.changeStatusAndPersist(ReplicationStatus.ABORTED, previousJobInfo);
+    supersededJobs.add(previousJob);
+  }
+}
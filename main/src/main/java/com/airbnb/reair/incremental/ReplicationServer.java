@@ -10,6 +10,7 @@ import com.airbnb.reair.incremental.auditlog.AuditLogEntry;
 import com.airbnb.reair.incremental.auditlog.AuditLogEntryException;
 import com.airbnb.reair.incremental.auditlog.AuditLogReader;
 import com.airbnb.reair.incremental.configuration.Cluster;
+import com.airbnb.reair.incremental.configuration.ConfigurationException;
 import com.airbnb.reair.incremental.configuration.DestinationObjectFactory;
 import com.airbnb.reair.incremental.configuration.ObjectConflictHandler;
 import com.airbnb.reair.incremental.db.PersistedJobInfo;
@@ -25,8 +26,10 @@ import com.airbnb.reair.incremental.primitives.DropTableTask;
 import com.airbnb.reair.incremental.primitives.RenamePartitionTask;
 import com.airbnb.reair.incremental.primitives.RenameTableTask;
 import com.airbnb.reair.incremental.primitives.ReplicationTask;
+import com.airbnb.reair.incremental.primitives.TaskEstimator;
 import com.airbnb.reair.incremental.thrift.TReplicationJob;
 import com.airbnb.reair.incremental.thrift.TReplicationService;
+import com.airbnb.reair.multiprocessing.JobSchedulingPolicy;
 import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
 
 import com.timgroup.statsd.StatsDClient;
@@ -104,12 +107,21 @@ public class ReplicationServer implements TReplicationService.Iface {
 
   private long replicationJobRegistryReportInterval;
 
+  // If present, adjusts the number of workers in the job executor based on the load
+  private Optional<WorkerPoolAutoscaler> workerPoolAutoscaler = Optional.empty();
+
+  // If present, used to skip queued copy jobs that are made redundant by newer jobs
+  private Optional<ReplicationJobCoalescer> jobCoalescer = Optional.empty();
+
   // Responsible for persisting changes to the state of the replication job
   // once it finishes
   private class JobStateChangeHandler implements OnStateChangeHandler {
     @Override
     public void onStart(ReplicationJob replicationJob) throws StateUpdateException {
       LOG.debug("Job id: " + replicationJob.getId() + " started");
+      if (jobCoalescer.isPresent()) {
+        jobCoalescer.get().remove(replicationJob);
+      }
       jobInfoStore.changeStatusAndPersist(ReplicationStatus.RUNNING,
           replicationJob.getPersistedJobInfo());
     }
@@ -198,7 +210,15 @@ public class ReplicationServer implements TReplicationService.Iface {
     this.maxJobsInMemory = maxJobsInMemory;
     this.counters = new ReplicationCounters(statsDClient);
 
-    this.jobExecutor = new ParallelJobExecutor("TaskWorker", numWorkers);
+    JobSchedulingPolicy schedulingPolicy;
+    try {
+      schedulingPolicy = new JobSchedulingPolicyFactory(conf,
+          new TaskEstimator(conf, destinationObjectFactory, srcCluster, destCluster,
+              directoryCopier)).create();
+    } catch (ConfigurationException e) {
+      throw new RuntimeException(e);
+    }
+    this.jobExecutor = new ParallelJobExecutor("TaskWorker", numWorkers, schedulingPolicy);
     this.copyPartitionJobExecutor = new ParallelJobExecutor("CopyPartitionWorker", numWorkers);
     this.auditLogBatchSize = conf.getInt(
         ConfigurationKeys.AUDIT_LOG_PROCESSING_BATCH_SIZE, 32);
@@ -206,6 +226,18 @@ public class ReplicationServer implements TReplicationService.Iface {
     this.jobRegistry = new ReplicationJobRegistry(conf, statsDClient);
     this.statsTracker = new StatsTracker(jobRegistry);
 
+    if (conf.getBoolean(ConfigurationKeys.WORKER_AUTOSCALING_ENABLED, false)) {
+      this.workerPoolAutoscaler = Optional.of(new WorkerPoolAutoscaler(
+          jobExecutor,
+          statsTracker,
+          conf.getInt(ConfigurationKeys.WORKER_AUTOSCALING_MIN_THREADS, numWorkers),
+          conf.getInt(ConfigurationKeys.WORKER_AUTOSCALING_MAX_THREADS, 4 * numWorkers),
+          conf.getLong(ConfigurationKeys.WORKER_AUTOSCALING_TARGET_QUEUE_WAIT_MS, 60 * 1000),
+          conf.getLong(ConfigurationKeys.WORKER_AUTOSCALING_TARGET_LAG_MS, 30 * 60 * 1000),
+          conf.getInt(ConfigurationKeys.WORKER_AUTOSCALING_SCALE_UP_EVALUATIONS, 2),
+          conf.getInt(ConfigurationKeys.WORKER_AUTOSCALING_SCALE_DOWN_EVALUATIONS, 6)));
+    }
+
     this.directoryCopier = directoryCopier;
 
     this.jobFactory = new ReplicationJobFactory(
@@ -225,6 +257,10 @@ public class ReplicationServer implements TReplicationService.Iface {
 
     this.startAfterAuditLogId = startAfterAuditLogId;
 
+    if (conf.getBoolean(ConfigurationKeys.JOB_COALESCING_ENABLED, false)) {
+      this.jobCoalescer = Optional.of(new ReplicationJobCoalescer(jobInfoStore));
+    }
+
     jobExecutor.start();
     copyPartitionJobExecutor.start();
 
@@ -331,8 +367,19 @@ public class ReplicationServer implements TReplicationService.Iface {
    * Queue the specified job to be run.
    *
    * @param job the job to add to the queue.
+   *
+   * @throws StateUpdateException if there's an error persisting the status of a job that was
+   *                              superseded by this job
    */
-  public void queueJobForExecution(ReplicationJob job) {
+  public void queueJobForExecution(ReplicationJob job) throws StateUpdateException {
+    if (jobCoalescer.isPresent()) {
+      for (ReplicationJob supersededJob : jobCoalescer.get().add(job)) {
+        LOG.debug(String.format("Job id: %s was superseded by job id: %s",
+            supersededJob.getId(), job.getId()));
+        jobRegistry.retireJob(supersededJob);
+        counters.incrementCounter(ReplicationCounters.Type.SUPERSEDED_TASKS);
+      }
+    }
     jobExecutor.add(job);
     counters.incrementCounter(ReplicationCounters.Type.EXECUTION_SUBMITTED_TASKS);
   }
@@ -380,20 +427,28 @@ public class ReplicationServer implements TReplicationService.Iface {
     LOG.info("Using last persisted ID of " + lastPersistedAuditLogId);
     auditLogReader.setReadAfterId(lastPersistedAuditLogId);
 
-    // Resume jobs that were persisted, but were not run.
-    for (PersistedJobInfo jobInfo : jobInfoStore.getRunnableFromDb()) {
-      LOG.debug(String.format("Restoring %s to (re)run", jobInfo));
-      ReplicationJob job = restoreReplicationJob(jobInfo);
-      prettyLogStart(job);
-      jobRegistry.registerJob(job);
-      queueJobForExecution(job);
-    }
+    // Resume jobs that were persisted, but were not run. The jobs are queued as they are read, so
+    // the workers can start on them while the rest are still being read.
+    long restoreStartTime = System.currentTimeMillis();
+    long restoredJobCount = jobInfoStore.forEachRunnableInDb(jobInfo -> {
+        LOG.debug(String.format("Restoring %s to (re)run", jobInfo));
+        ReplicationJob job = restoreReplicationJob(jobInfo);
+        prettyLogStart(job);
+        jobRegistry.registerJob(job);
+        queueJobForExecution(job);
+      });
+    LOG.info(String.format("Restored %d jobs in %d ms", restoredJobCount,
+        System.currentTimeMillis() - restoreStartTime));
 
     TimeZone tz = TimeZone.getTimeZone("UTC");
     DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'");
     df.setTimeZone(tz);
 
     statsTracker.start();
+    if (workerPoolAutoscaler.isPresent()) {
+      workerPoolAutoscaler.get().start(
+          conf.getLong(ConfigurationKeys.WORKER_AUTOSCALING_INTERVAL_MS, 10 * 1000));
+    }
 
     // This is the time that the last persisted id was updated in the store.
     // It's tracked to rate limit the number of updates that are done.
@@ -415,7 +470,8 @@ public class ReplicationServer implements TReplicationService.Iface {
       // Stop if we've had enough successful jobs - for testing purposes
       // only
       long completedJobs = counters.getCounter(ReplicationCounters.Type.SUCCESSFUL_TASKS)
-          + counters.getCounter(ReplicationCounters.Type.NOT_COMPLETABLE_TASKS);
+          + counters.getCounter(ReplicationCounters.Type.NOT_COMPLETABLE_TASKS)
+          + counters.getCounter(ReplicationCounters.Type.SUPERSEDED_TASKS);
 
       if (jobsToComplete > 0 && completedJobs >= jobsToComplete) {
         LOG.debug(
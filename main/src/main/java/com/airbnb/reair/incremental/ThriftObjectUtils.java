@@ -46,6 +46,8 @@ public class ThriftObjectUtils {
         return TReplicationStatus.FAILED;
       case NOT_COMPLETABLE:
         return TReplicationStatus.NOT_COMPLETABLE;
+      case ABORTED:
+        return TReplicationStatus.ABORTED;
       default:
         throw new RuntimeException("Unhandled case: " + status);
     }
@@ -0,0 +1,133 @@
+package com.airbnb.reair.incremental;
+
+import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Periodically adjusts the number of workers in an executor between a minimum and a maximum.
+ *
+ * <p>The pool is overloaded when there are jobs waiting for a worker and either jobs have been
+ * waiting longer than the target time to start, or the replication lag is more than the target
+ * lag. The pool is underloaded when no jobs are waiting and some of the workers are idle. To avoid
+ * flapping, the pool is only resized after the same condition holds for a number of consecutive
+ * evaluations, and it's configured to grow quickly and shrink slowly. Workers that are removed
+ * finish the job that they are running before they exit.
+ */
+public class WorkerPoolAutoscaler {
+
+  private static final Log LOG = LogFactory.getLog(WorkerPoolAutoscaler.class);
+
+  private final ParallelJobExecutor jobExecutor;
+  private final StatsTracker statsTracker;
+  private final int minWorkers;
+  private final int maxWorkers;
+  private final long targetQueueWaitMs;
+  private final long targetLagMs;
+  private final int scaleUpEvaluations;
+  private final int scaleDownEvaluations;
+
+  private Timer timer = new Timer("WorkerPoolAutoscaler", true);
+
+  // Number of consecutive evaluations where the pool was overloaded or underloaded
+  private int overloadedCount = 0;
+  private int underloadedCount = 0;
+
+  /**
+   * Constructor for an autoscaler.
+   *
+   * @param jobExecutor the executor with the workers to resize
+   * @param statsTracker tracker for the replication lag
+   * @param minWorkers the smallest number of workers to run
+   * @param maxWorkers the largest number of workers to run
+   * @param targetQueueWaitMs add workers if ready jobs wait longer than this to start
+   * @param targetLagMs add workers if the replication lag is longer than this and jobs are waiting
+   * @param scaleUpEvaluations the number of consecutive overloaded evaluations before adding
+   *                           workers
+   * @param scaleDownEvaluations the number of consecutive underloaded evaluations before removing
+   *                             a worker
+   */
+  public WorkerPoolAutoscaler(
+      ParallelJobExecutor jobExecutor,
+      StatsTracker statsTracker,
+      int minWorkers,
+      int maxWorkers,
+      long targetQueueWaitMs,
+      long targetLagMs,
+      int scaleUpEvaluations,
+      int scaleDownEvaluations) {
+    if (minWorkers < 1 || minWorkers > maxWorkers) {
+      throw new IllegalArgumentException(String.format(
+          "Invalid worker bounds: min=%s, max=%s", minWorkers, maxWorkers));
+    }
+    this.jobExecutor = jobExecutor;
+    this.statsTracker = statsTracker;
+    this.minWorkers = minWorkers;
+    this.maxWorkers = maxWorkers;
+    this.targetQueueWaitMs = targetQueueWaitMs;
+    this.targetLagMs = targetLagMs;
+    this.scaleUpEvaluations = scaleUpEvaluations;
+    this.scaleDownEvaluations = scaleDownEvaluations;
+  }
+
+  /**
+   * Start evaluating the load periodically.
+   *
+   * @param intervalMs how often to evaluate the load
+   */
+  public void start(long intervalMs) {
+    timer.scheduleAtFixedRate(new TimerTask() {
+      @Override
+      public void run() {
+        evaluate();
+      }
+    }, intervalMs, intervalMs);
+  }
+
+  public void stop() {
+    timer.cancel();
+  }
+
+  /**
+   * Evaluate the load on the pool and resize it if needed.
+   *
+   * @return the number of workers after the evaluation
+   */
+  public synchronized int evaluate() {
+    int workerCount = jobExecutor.getNumWorkers();
+    int readyJobCount = jobExecutor.getReadyJobCount();
+    int runningJobCount = jobExecutor.getRunningJobCount();
+    double queueWaitMs = jobExecutor.getAverageQueueWaitMs();
+    long lagMs = statsTracker.getLastCalculatedLag();
+
+    boolean overloaded = readyJobCount > 0
+        && (queueWaitMs > targetQueueWaitMs || lagMs > targetLagMs);
+    boolean underloaded = readyJobCount == 0 && runningJobCount < workerCount;
+    overloadedCount = overloaded ? overloadedCount + 1 : 0;
+    underloadedCount = underloaded ? underloadedCount + 1 : 0;
+
+    int newWorkerCount = workerCount;
+    if (overloadedCount >= scaleUpEvaluations) {
+      // Grow by up to double, but not by more than the number of waiting jobs
+      newWorkerCount = workerCount + Math.min(workerCount, readyJobCount);
+      overloadedCount = 0;
+    } else if (underloadedCount >= scaleDownEvaluations) {
+      newWorkerCount = workerCount - 1;
+      underloadedCount = 0;
+    }
+    // Keep the pool within the bounds, even if they changed
+    newWorkerCount = Math.max(minWorkers, Math.min(maxWorkers, newWorkerCount));
+
+    if (newWorkerCount != workerCount) {
+      LOG.info(String.format("Changing the number of workers from %s to %s (ready jobs: %s, "
+          + "running jobs: %s, average queue wait: %.0f ms, lag: %s ms)", workerCount,
+          newWorkerCount, readyJobCount, runningJobCount, queueWaitMs, lagMs));
+      jobExecutor.setNumWorkers(newWorkerCount);
+    }
+    return newWorkerCount;
+  }
+}
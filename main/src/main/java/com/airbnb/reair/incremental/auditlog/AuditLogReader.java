@@ -4,6 +4,8 @@ import com.airbnb.reair.common.Container;
 import com.airbnb.reair.common.NamedPartition;
 import com.airbnb.reair.db.DbConnectionFactory;
 import com.airbnb.reair.hive.hooks.HiveOperation;
+import com.airbnb.reair.hive.hooks.ObjectSerializationFormat;
+import com.airbnb.reair.hive.hooks.SerializationException;
 import com.airbnb.reair.incremental.MetadataException;
 import com.airbnb.reair.incremental.ReplicationUtils;
 import com.airbnb.reair.incremental.db.DbConstants;
@@ -18,13 +20,17 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.metastore.api.Partition;
 import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.thrift.TBase;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -38,7 +44,9 @@ public class AuditLogReader {
 
   private static final Log LOG = LogFactory.getLog(AuditLogReader.class);
 
-  private static final int ROW_FETCH_SIZE = 200;
+  public static final int DEFAULT_ROW_FETCH_SIZE = 200;
+
+  private static final String SERIALIZATION_FORMAT_COLUMN = "serialization_format";
 
   private DbConnectionFactory dbConnectionFactory;
   private String auditLogTableName;
@@ -47,6 +55,10 @@ public class AuditLogReader {
   private long lastReadId;
   private Queue<AuditLogEntry> auditLogEntries;
   private RetryingTaskRunner retryingTaskRunner;
+  private final int rowFetchSize;
+  // Whether the objects table has the columns for binary objects. Only set once the columns are
+  // found, so that columns added while the reader is running are picked up.
+  private volatile boolean hasSerializationFormatColumns = false;
 
   /**
    * Constructs an AuditLogReader.
@@ -74,6 +86,8 @@ public class AuditLogReader {
         conf.getInt(ConfigurationKeys.DB_QUERY_RETRIES,
             DbConstants.DEFAULT_NUM_RETRIES),
         DbConstants.DEFAULT_RETRY_EXPONENTIAL_BASE);
+    this.rowFetchSize = conf.getInt(ConfigurationKeys.AUDIT_LOG_FETCH_SIZE,
+        DEFAULT_ROW_FETCH_SIZE);
   }
 
   /**
@@ -156,7 +170,7 @@ public class AuditLogReader {
 
     LOG.debug("Executing queries to try to get more audit log entries from the DB");
 
-    fetchMoreEntries();
+    lastReadId = fetchEntries(lastReadId, auditLogEntries);
 
     if (auditLogEntries.size() > 0) {
       return Optional.of(auditLogEntries.remove());
@@ -189,14 +203,16 @@ public class AuditLogReader {
   }
 
   /**
-   * Given that we start reading after lastReadId and need to get
-   * ROW_FETCH_SIZE rows from the audit log, figure out the min and max row
+   * Given that we start reading after readAfterId and need to get
+   * fetchSize rows from the audit log, figure out the min and max row
    * IDs to read.
    *
+   * @param readAfterId the ID of the last entry that was read
+   * @param fetchSize the number of rows to read
    * @returns a range of ID's to read from the audit log table based on the fetch size
    * @throws SQLException if there is an error reading from the DB
    */
-  private LongRange getIdsToRead() throws SQLException {
+  private LongRange getIdsToRead(long readAfterId, int fetchSize) throws SQLException {
     String queryFormatString = "SELECT MIN(id) min_id, MAX(id) max_id "
         + "FROM (SELECT id FROM %s WHERE id > %s "
         + "AND (command_type IS NULL OR command_type NOT IN('SHOWTABLES', 'SHOWPARTITIONS', "
@@ -210,58 +226,180 @@ public class AuditLogReader {
         // inserts id = 1, but another transaction starts, inserts, and commits i = 2 before the
         // first transaction commits. Locking can also be done with serializable isolation level.
         + "LOCK IN SHARE MODE";
-    String query = String.format(queryFormatString, auditLogTableName, lastReadId, ROW_FETCH_SIZE);
-    Connection connection = dbConnectionFactory.getConnection();
-
-    PreparedStatement ps = connection.prepareStatement(query);
-    LOG.debug("Executing: " + query);
-    ResultSet rs = ps.executeQuery();
-    if (rs.next()) {
-      long minId = rs.getLong("min_id");
-      long maxId = rs.getLong("max_id");
-      return new LongRange(minId, maxId);
+    String query = String.format(queryFormatString, auditLogTableName, readAfterId, fetchSize);
+    try (Connection connection = dbConnectionFactory.getConnection();
+        PreparedStatement ps = connection.prepareStatement(query)) {
+      LOG.debug("Executing: " + query);
+      ResultSet rs = ps.executeQuery();
+      if (rs.next()) {
+        long minId = rs.getLong("min_id");
+        long maxId = rs.getLong("max_id");
+        return new LongRange(minId, maxId);
+      }
+      return new LongRange(0, 0);
     }
-    return new LongRange(0, 0);
   }
 
 
-  private void fetchMoreEntries() throws SQLException, AuditLogEntryException {
+  /**
+   * Read the next group of entries after the specified ID from the DB. Entries are only added to
+   * the supplied collection once the whole group has been read and deserialized, so a failure
+   * part way through leaves the collection untouched and the read can simply be retried.
+   *
+   * @param readAfterId read entries with an ID greater than this value
+   * @param entries the collection to add the entries that were read to
+   * @return the ID to read after for the next call
+   *
+   * @throws SQLException if there is an error querying the DB
+   * @throws AuditLogEntryException if there is an error reading the audit log entry
+   */
+  long fetchEntries(long readAfterId, Collection<AuditLogEntry> entries)
+      throws SQLException, AuditLogEntryException {
+    return fetchEntries(readAfterId, rowFetchSize, entries);
+  }
+
+  /**
+   * Read the next group of entries after the specified ID from the DB, reading up to the given
+   * number of rows.
+   *
+   * @param readAfterId read entries with an ID greater than this value
+   * @param fetchSize the maximum number of audit log rows to read
+   * @param entries the collection to add the entries that were read to
+   * @return the ID to read after for the next call
+   *
+   * @throws SQLException if there is an error querying the DB
+   * @throws AuditLogEntryException if there is an error reading the audit log entry
+   */
+  long fetchEntries(long readAfterId, int fetchSize, Collection<AuditLogEntry> entries)
+      throws SQLException, AuditLogEntryException {
 
-    LongRange idsToRead = getIdsToRead();
+    LongRange idsToRead = getIdsToRead(readAfterId, fetchSize);
 
     // No more entries to read
     if (idsToRead.getMaximumLong() == 0) {
-      return;
+      return readAfterId;
     }
 
-    // TODO: Remove left outer join and command type filter once the
-    // exchange partition bug is fixed in HIVE-12215
-    String queryFormatString = "SELECT a.id, a.create_time, "
-        + "command_type, command, name, category, "
-        + "type, serialized_object "
-        + "FROM %s a LEFT OUTER JOIN %s b on a.id = b.audit_log_id "
-        + "WHERE a.id >= ? AND a.id <= ? "
-        + "AND (command_type IS NULL OR command_type "
-        + "NOT IN('SHOWTABLES', 'SHOWPARTITIONS', 'SWITCHDATABASE')) "
-        + "ORDER BY id "
-        // Get read locks on the specified rows to prevent skipping of rows that haven't committed
-        // yet, but have an ID between idsToRead. For example, one transaction starts and
-        // inserts id = 1, but another transaction starts, inserts, and commits i=2 before the
-        // first transaction commits. Locking can also be done with serializable isolation level.
-        + "LOCK IN SHARE MODE";
-    String query = String.format(queryFormatString,
-        auditLogTableName, outputObjectsTableName,
-        idsToRead.getMinimumLong(), idsToRead.getMaximumLong());
+    readEntries(dbConnectionFactory, idsToRead.getMinimumLong(), idsToRead.getMaximumLong(),
+        entries);
+    // Note: if we constantly get empty results (i.e. no valid entries
+    // because all the commands got filtered out), then the lastReadId won't
+    // be updated for a while.
+    return idsToRead.getMaximumLong();
+  }
 
-    Connection connection = dbConnectionFactory.getConnection();
-    PreparedStatement ps = connection.prepareStatement(query);
+  /**
+   * Check whether the objects table has the columns for objects in a binary format. Tables that
+   * were created before the columns were added only have JSON objects.
+   *
+   * @param connection the connection to query the table with
+   * @return whether the serialization format columns should be read
+   *
+   * @throws SQLException if there is an error querying the DB
+   */
+  private boolean hasSerializationFormatColumns(Connection connection) throws SQLException {
+    if (hasSerializationFormatColumns) {
+      return true;
+    }
+    String query = String.format("SELECT * FROM %s LIMIT 0", outputObjectsTableName);
+    try (Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery(query)) {
+      ResultSetMetaData metaData = rs.getMetaData();
+      for (int i = 1; i <= metaData.getColumnCount(); i++) {
+        if (SERIALIZATION_FORMAT_COLUMN.equalsIgnoreCase(metaData.getColumnName(i))) {
+          hasSerializationFormatColumns = true;
+        }
+      }
+    }
+    return hasSerializationFormatColumns;
+  }
 
-    int index = 1;
-    ps.setLong(index++, idsToRead.getMinimumLong());
-    ps.setLong(index++, idsToRead.getMaximumLong());
+  /**
+   * Deserialize a Thrift object from a row in the objects table.
+   *
+   * @param formatName the value of the serialization_format column
+   * @param serializedObject the value of the serialized_object column
+   * @param serializedObjectBinary the value of the serialized_object_binary column
+   * @param obj the Thrift object to populate
+   *
+   * @throws AuditLogEntryException if there is an error deserializing the object
+   */
+  private static void deserializeObject(
+      String formatName,
+      String serializedObject,
+      byte[] serializedObjectBinary,
+      TBase obj) throws AuditLogEntryException {
+    try {
+      ObjectSerializationFormat format = ObjectSerializationFormat.fromColumnValue(formatName);
+      if (format.isBinary()) {
+        format.deserialize(serializedObjectBinary, obj);
+      } else {
+        ReplicationUtils.deserializeObject(serializedObject, obj);
+      }
+    } catch (SerializationException | MetadataException e) {
+      throw new AuditLogEntryException(e);
+    }
+  }
 
-    ResultSet rs = ps.executeQuery();
+  /**
+   * Read the entries with IDs in the given range from the DB. As with
+   * {@link #fetchEntries(long, Collection)}, entries are only added to the supplied collection once
+   * the whole range has been read and deserialized.
+   *
+   * @param connectionFactory factory for the connection to run the query on
+   * @param minId the lowest ID to read, inclusive
+   * @param maxId the highest ID to read, inclusive
+   * @param entries the collection to add the entries that were read to
+   * @return the number of characters in the commands and serialized objects that were read, as an
+   *         estimate of the size of the rows
+   *
+   * @throws SQLException if there is an error querying the DB
+   * @throws AuditLogEntryException if there is an error reading the audit log entry
+   */
+  long readEntries(
+      DbConnectionFactory connectionFactory,
+      long minId,
+      long maxId,
+      Collection<AuditLogEntry> entries) throws SQLException, AuditLogEntryException {
+    try (Connection connection = connectionFactory.getConnection()) {
+      // TODO: Remove left outer join and command type filter once the
+      // exchange partition bug is fixed in HIVE-12215
+      boolean readFormatColumns = hasSerializationFormatColumns(connection);
+
+      String queryFormatString = "SELECT a.id, a.create_time, "
+          + "command_type, command, name, category, "
+          + "type, serialized_object"
+          + (readFormatColumns ? ", serialization_format, serialized_object_binary " : " ")
+          + "FROM %s a LEFT OUTER JOIN %s b on a.id = b.audit_log_id "
+          + "WHERE a.id >= ? AND a.id <= ? "
+          + "AND (command_type IS NULL OR command_type "
+          + "NOT IN('SHOWTABLES', 'SHOWPARTITIONS', 'SWITCHDATABASE')) "
+          + "ORDER BY id "
+          // Get read locks on the specified rows to prevent skipping of rows that haven't
+          // committed yet, but have an ID between minId and maxId. For example, one transaction
+          // starts and inserts id = 1, but another transaction starts, inserts, and commits i=2
+          // before the first transaction commits. Locking can also be done with serializable
+          // isolation level.
+          + "LOCK IN SHARE MODE";
+      String query = String.format(queryFormatString,
+          auditLogTableName, outputObjectsTableName);
+
+      try (PreparedStatement ps = connection.prepareStatement(query)) {
+        int index = 1;
+        ps.setLong(index++, minId);
+        ps.setLong(index++, maxId);
+
+        try (ResultSet rs = ps.executeQuery()) {
+          return readEntries(rs, readFormatColumns, entries);
+        }
+      }
+    }
+  }
 
+  private long readEntries(
+      ResultSet rs,
+      boolean readFormatColumns,
+      Collection<AuditLogEntry> entries) throws SQLException, AuditLogEntryException {
     long id = -1;
     Timestamp createTime = null;
     HiveOperation commandType = null;
@@ -270,7 +408,11 @@ public class AuditLogReader {
     String objectCategory;
     String objectType;
     String objectSerialized;
+    String objectSerializationFormat;
+    byte[] objectSerializedBinary;
+    long rowSize = 0;
 
+    List<AuditLogEntry> fetchedEntries = new ArrayList<>();
     long previouslyReadId = -1;
     Timestamp previouslyReadTs = null;
     HiveOperation previousCommandType = null;
@@ -304,9 +446,15 @@ public class AuditLogReader {
       objectCategory = rs.getString("category");
       objectType = rs.getString("type");
       objectSerialized = rs.getString("serialized_object");
+      objectSerializationFormat =
+          readFormatColumns ? rs.getString("serialization_format") : null;
+      objectSerializedBinary =
+          readFormatColumns ? rs.getBytes("serialized_object_binary") : null;
+      rowSize += (command == null ? 0 : command.length())
+          + (objectSerialized == null ? 0 : objectSerialized.length())
+          + (objectSerializedBinary == null ? 0 : objectSerializedBinary.length);
 
       if (previouslyReadId != -1 && id != previouslyReadId) {
-        lastReadId = previouslyReadId;
         // This means that all the outputs for a given audit log entry
         // has been read.
         AuditLogEntry entry = new AuditLogEntry(
@@ -320,7 +468,7 @@ public class AuditLogReader {
             outputPartitions,
             inputTable,
             renameFromPartition);
-        auditLogEntries.add(entry);
+        fetchedEntries.add(entry);
         // Reset these accumulated values
         outputDirectories = new LinkedList<>();
         referenceTables = new LinkedList<>();
@@ -339,11 +487,8 @@ public class AuditLogReader {
         outputDirectories.add(objectName);
       } else if ("TABLE".equals(objectType)) {
         Table table = new Table();
-        try {
-          ReplicationUtils.deserializeObject(objectSerialized, table);
-        } catch (MetadataException e) {
-          throw new AuditLogEntryException(e);
-        }
+        deserializeObject(objectSerializationFormat, objectSerialized, objectSerializedBinary,
+            table);
         ReplicationUtils.normalizeNames(table);
         if ("OUTPUT".equals(objectCategory)) {
           outputTables.add(table);
@@ -356,12 +501,8 @@ public class AuditLogReader {
         }
       } else if ("PARTITION".equals(objectType)) {
         Partition partition = new Partition();
-
-        try {
-          ReplicationUtils.deserializeObject(objectSerialized, partition);
-        } catch (MetadataException e) {
-          throw new AuditLogEntryException(e);
-        }
+        deserializeObject(objectSerializationFormat, objectSerialized, objectSerializedBinary,
+            partition);
         ReplicationUtils.normalizeNames(partition);
         String partitionName = getPartitionNameFromOutputCol(objectName);
         NamedPartition namedPartition = new NamedPartition(partitionName, partition);
@@ -403,13 +544,10 @@ public class AuditLogReader {
           outputPartitions,
           inputTable,
           renameFromPartition);
-      auditLogEntries.add(entry);
+      fetchedEntries.add(entry);
     }
-    // Note: if we constantly get empty results (i.e. no valid entries
-    // because all the commands got filtered out), then the lastReadId won't
-    // be updated for a while.
-    lastReadId = idsToRead.getMaximumLong();
-    return;
+    entries.addAll(fetchedEntries);
+    return rowSize;
   }
 
   /**
@@ -433,12 +571,12 @@ public class AuditLogReader {
    */
   public synchronized Optional<Long> getMaxId() throws SQLException {
     String query = String.format("SELECT MAX(id) FROM %s", auditLogTableName);
-    Connection connection = dbConnectionFactory.getConnection();
-    PreparedStatement ps = connection.prepareStatement(query);
-
-    ResultSet rs = ps.executeQuery();
+    try (Connection connection = dbConnectionFactory.getConnection();
+        PreparedStatement ps = connection.prepareStatement(query)) {
+      ResultSet rs = ps.executeQuery();
 
-    rs.next();
-    return Optional.ofNullable(rs.getLong(1));
+      rs.next();
+      return Optional.ofNullable(rs.getLong(1));
+    }
   }
 }
@@ -0,0 +1,67 @@
+package com.airbnb.reair.incremental.auditlog;
+
+/**
+ * Picks the number of audit log IDs to read in a single query so that each query returns roughly
+ * a target number of bytes. The width of the rows varies a lot depending on the objects that the
+ * queries wrote, so the average size per ID is tracked as a moving average of recent reads.
+ */
+class FetchSizeEstimator {
+
+  // Weight given to the latest read when updating the average
+  private static final double SMOOTHING_FACTOR = 0.2;
+
+  private final long targetBytes;
+  private final int minFetchSize;
+  private final int maxFetchSize;
+
+  private int fetchSize;
+  private double bytesPerId = -1;
+
+  /**
+   * Constructor.
+   *
+   * @param targetBytes the number of bytes that each read should return
+   * @param minFetchSize the smallest number of IDs to read at once
+   * @param maxFetchSize the largest number of IDs to read at once
+   * @param initialFetchSize the number of IDs to read before any reads have been recorded
+   */
+  FetchSizeEstimator(long targetBytes, int minFetchSize, int maxFetchSize, int initialFetchSize) {
+    if (minFetchSize <= 0 || minFetchSize > maxFetchSize) {
+      throw new IllegalArgumentException(String.format(
+          "Invalid fetch size bounds: min=%s, max=%s", minFetchSize, maxFetchSize));
+    }
+    this.targetBytes = targetBytes;
+    this.minFetchSize = minFetchSize;
+    this.maxFetchSize = maxFetchSize;
+    this.fetchSize = Math.max(minFetchSize, Math.min(maxFetchSize, initialFetchSize));
+  }
+
+  /**
+   * Record the result of a read.
+   *
+   * @param idCount the number of IDs in the range that was read
+   * @param bytes the size of the rows that were read
+   */
+  synchronized void record(long idCount, long bytes) {
+    if (idCount <= 0) {
+      return;
+    }
+    double latestBytesPerId = (double) bytes / idCount;
+    if (bytesPerId < 0) {
+      bytesPerId = latestBytesPerId;
+    } else {
+      bytesPerId = SMOOTHING_FACTOR * latestBytesPerId + (1 - SMOOTHING_FACTOR) * bytesPerId;
+    }
+
+    if (bytesPerId <= 0) {
+      fetchSize = maxFetchSize;
+    } else {
+      long size = (long) (targetBytes / bytesPerId);
+      fetchSize = (int) Math.max(minFetchSize, Math.min(maxFetchSize, size));
+    }
+  }
+
+  synchronized int getFetchSize() {
+    return fetchSize;
+  }
+}
@@ -0,0 +1,348 @@
+package com.airbnb.reair.incremental.auditlog;
+
+import com.airbnb.reair.common.Container;
+import com.airbnb.reair.db.DbConnectionFactory;
+import com.airbnb.reair.incremental.db.DbConstants;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
+import com.airbnb.reair.utils.RetryableTask;
+import com.airbnb.reair.utils.RetryingTaskRunner;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * An audit log reader that queries and deserializes entries in a background thread, so that the
+ * caller can create jobs from one batch of entries while the next batch is being read from the DB.
+ *
+ * <p>Fetched batches are held in a bounded buffer. The fetch thread stops once the number of
+ * buffered entries reaches the high watermark and resumes once the caller has drained the buffer
+ * down to the low watermark. Errors from the fetch thread are retried there, and if the retries
+ * are exhausted, the error is thrown to the caller after the entries buffered before it.
+ */
+public class PrefetchingAuditLogReader extends AuditLogReader {
+
+  private static final Log LOG = LogFactory.getLog(PrefetchingAuditLogReader.class);
+
+  public static final int DEFAULT_HIGH_WATERMARK = 2000;
+  public static final int DEFAULT_LOW_WATERMARK = 500;
+  public static final long DEFAULT_POLL_INTERVAL_MS = 1000;
+
+  private final int highWatermark;
+  private final int lowWatermark;
+  private final long pollIntervalMs;
+  private final RetryingTaskRunner retryingTaskRunner;
+
+  // The following fields are guarded by the monitor of this object
+  private final Deque<List<AuditLogEntry>> fetchedBatches = new ArrayDeque<>();
+  private Iterator<AuditLogEntry> currentBatch = Collections.emptyIterator();
+  private int bufferedEntryCount = 0;
+  // ID to read after for the next fetch
+  private long readAfterId;
+  // Incremented whenever the read position is changed so that in-flight fetches can be discarded
+  private long generation = 0;
+  // Whether the fetch thread should keep reading or wait until the buffer is drained
+  private boolean fillingBuffer = true;
+  // Set when the last fetch returned no new rows
+  private boolean caughtUp = false;
+  private Exception fetchException = null;
+  private Thread fetchThread = null;
+  private boolean closed = false;
+
+  /**
+   * Constructs a PrefetchingAuditLogReader. The watermarks and the interval for polling the DB
+   * when there are no new entries are read from the configuration.
+   *
+   * @param conf configuration
+   * @param dbConnectionFactory factory for creating connections to the DB where the log resides
+   * @param auditLogTableName name of the table on the DB that contains the audit log entries
+   * @param outputObjectsTableName name of the table on the DB that contains serialized objects
+   * @param mapRedStatsTableName name of the table on the DB that contains job stats
+   * @param getIdsAfter start reading entries from the audit log after this ID value
+   */
+  public PrefetchingAuditLogReader(
+      Configuration conf,
+      DbConnectionFactory dbConnectionFactory,
+      String auditLogTableName,
+      String outputObjectsTableName,
+      String mapRedStatsTableName,
+      long getIdsAfter) throws SQLException {
+    super(conf,
+        dbConnectionFactory,
+        auditLogTableName,
+        outputObjectsTableName,
+        mapRedStatsTableName,
+        getIdsAfter);
+    this.highWatermark = conf.getInt(ConfigurationKeys.AUDIT_LOG_PREFETCH_HIGH_WATERMARK,
+        DEFAULT_HIGH_WATERMARK);
+    this.lowWatermark = conf.getInt(ConfigurationKeys.AUDIT_LOG_PREFETCH_LOW_WATERMARK,
+        DEFAULT_LOW_WATERMARK);
+    this.pollIntervalMs = conf.getLong(ConfigurationKeys.AUDIT_LOG_PREFETCH_POLL_INTERVAL_MS,
+        DEFAULT_POLL_INTERVAL_MS);
+    if (lowWatermark < 0 || lowWatermark >= highWatermark) {
+      throw new IllegalArgumentException(String.format(
+          "Invalid prefetch watermarks: low=%s, high=%s", lowWatermark, highWatermark));
+    }
+    this.readAfterId = getIdsAfter;
+    this.retryingTaskRunner = new RetryingTaskRunner(
+        conf.getInt(ConfigurationKeys.DB_QUERY_RETRIES,
+            DbConstants.DEFAULT_NUM_RETRIES),
+        DbConstants.DEFAULT_RETRY_EXPONENTIAL_BASE);
+  }
+
+  /**
+   * Return the next audit log entry. Retries for DB errors are done by the fetch thread, so this
+   * is the same as calling {@link #next()}.
+   *
+   * @return the next audit log entry
+   *
+   * @throws SQLException if there is an error querying the DB
+   * @throws AuditLogEntryException if there is an error reading the audit log entry
+   */
+  @Override
+  public Optional<AuditLogEntry> resilientNext() throws AuditLogEntryException, SQLException {
+    return next();
+  }
+
+  /**
+   * Returns (up to) the next N entries. This blocks until at least one entry is available or the
+   * end of the log has been reached, but does not wait for further fetches to fill up the
+   * remainder of the result.
+   *
+   * @param maxResults the max amount of results returned
+   * @return A list of AuditLogEntries
+   * @throws AuditLogEntryException if the AuditLogEntry has issues
+   * @throws SQLException if SQL has issues
+   */
+  @Override
+  public List<AuditLogEntry> resilientNext(int maxResults)
+      throws AuditLogEntryException, SQLException {
+    List<AuditLogEntry> results = new ArrayList<>();
+    while (results.size() < maxResults) {
+      Optional<AuditLogEntry> entry = poll(results.isEmpty());
+      if (!entry.isPresent()) {
+        break;
+      }
+      results.add(entry.get());
+    }
+    return results;
+  }
+
+  /**
+   * Return the next audit log entry. If the buffer is empty, this waits for the fetch that is in
+   * progress to complete.
+   *
+   * @return the next audit log entry, or empty if there are no more entries in the log
+   *
+   * @throws SQLException if there is an error querying the DB
+   * @throws AuditLogEntryException if there is an error reading the audit log entry
+   */
+  @Override
+  public Optional<AuditLogEntry> next() throws SQLException, AuditLogEntryException {
+    return poll(true);
+  }
+
+  private synchronized Optional<AuditLogEntry> poll(boolean waitForFetch)
+      throws SQLException, AuditLogEntryException {
+    if (closed) {
+      throw new IllegalStateException("Reader has been closed");
+    }
+    startFetchThreadIfNecessary();
+
+    while (!currentBatch.hasNext()) {
+      if (!fetchedBatches.isEmpty()) {
+        currentBatch = fetchedBatches.remove().iterator();
+        continue;
+      }
+
+      if (fetchException != null) {
+        Exception e = fetchException;
+        fetchException = null;
+        notifyAll();
+        if (e instanceof SQLException) {
+          throw (SQLException) e;
+        } else if (e instanceof AuditLogEntryException) {
+          throw (AuditLogEntryException) e;
+        } else {
+          throw new RuntimeException(e);
+        }
+      }
+
+      if (caughtUp || !waitForFetch) {
+        return Optional.empty();
+      }
+
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for audit log entries", e);
+      }
+
+      if (closed) {
+        throw new IllegalStateException("Reader has been closed");
+      }
+    }
+
+    bufferedEntryCount--;
+    if (!fillingBuffer && bufferedEntryCount <= lowWatermark) {
+      fillingBuffer = true;
+      notifyAll();
+    }
+    return Optional.of(currentBatch.next());
+  }
+
+  /**
+   * Change the reader to start reading entries after this ID. Any entries that were fetched in
+   * advance are discarded.
+   *
+   * @param readAfterId ID to configure the reader to read after
+   */
+  @Override
+  public synchronized void setReadAfterId(long readAfterId) {
+    this.readAfterId = readAfterId;
+    generation++;
+    fetchedBatches.clear();
+    currentBatch = Collections.emptyIterator();
+    bufferedEntryCount = 0;
+    fillingBuffer = true;
+    caughtUp = false;
+    fetchException = null;
+    notifyAll();
+  }
+
+  /**
+   * Returns the number of entries that have been fetched, but not yet returned.
+   *
+   * @return the number of buffered entries
+   */
+  public synchronized int getBufferedEntryCount() {
+    return bufferedEntryCount;
+  }
+
+  /**
+   * Stop the fetch thread. The reader can't be used after this is called.
+   */
+  public void close() {
+    Thread threadToStop;
+    synchronized (this) {
+      closed = true;
+      threadToStop = fetchThread;
+      notifyAll();
+    }
+
+    if (threadToStop != null) {
+      threadToStop.interrupt();
+      try {
+        threadToStop.join();
+      } catch (InterruptedException e) {
+        LOG.error("Unexpected interruption while stopping the fetch thread", e);
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void startFetchThreadIfNecessary() {
+    if (fetchThread == null) {
+      fetchThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          runFetchLoop();
+        }
+      }, "AuditLogPrefetcher");
+      fetchThread.setDaemon(true);
+      fetchThread.start();
+    }
+  }
+
+  private void runFetchLoop() {
+    try {
+      while (true) {
+        final long fetchGeneration;
+        final long fetchAfterId;
+
+        synchronized (this) {
+          while (!closed && (fetchException != null || !fillingBuffer)) {
+            wait();
+          }
+          if (closed) {
+            return;
+          }
+          fetchGeneration = generation;
+          fetchAfterId = readAfterId;
+        }
+
+        final List<AuditLogEntry> batch = new ArrayList<>();
+        final Container<Long> nextReadAfterId = new Container<>();
+
+        try {
+          retryingTaskRunner.runWithRetries(new RetryableTask() {
+            @Override
+            public void run() throws Exception {
+              nextReadAfterId.set(fetchEntries(fetchAfterId, batch));
+            }
+          });
+        } catch (InterruptedException e) {
+          throw e;
+        } catch (Exception e) {
+          synchronized (this) {
+            if (!closed && fetchGeneration == generation) {
+              LOG.error("Failed to fetch audit log entries after id " + fetchAfterId, e);
+              fetchException = e;
+              notifyAll();
+            }
+          }
+          continue;
+        }
+
+        synchronized (this) {
+          if (fetchGeneration != generation) {
+            // The read position was changed while fetching, so these entries are stale
+            continue;
+          }
+          readAfterId = nextReadAfterId.get();
+
+          if (!batch.isEmpty()) {
+            fetchedBatches.add(batch);
+            bufferedEntryCount += batch.size();
+            if (bufferedEntryCount >= highWatermark) {
+              fillingBuffer = false;
+            }
+            notifyAll();
+          } else if (readAfterId == fetchAfterId) {
+            // No new rows in the log, so let callers know and wait a bit before polling again.
+            LOG.debug("No new audit log entries after id " + fetchAfterId);
+            caughtUp = true;
+            notifyAll();
+            long pollTime = System.currentTimeMillis() + pollIntervalMs;
+            long waitTime = pollIntervalMs;
+            while (!closed && fetchGeneration == generation && waitTime > 0) {
+              wait(waitTime);
+              waitTime = pollTime - System.currentTimeMillis();
+            }
+            caughtUp = false;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      synchronized (this) {
+        if (!closed) {
+          LOG.error("Fetch thread was unexpectedly interrupted", e);
+          fetchException = e;
+          // Let the next call start a new fetch thread
+          fetchThread = null;
+          notifyAll();
+        }
+      }
+    }
+  }
+}
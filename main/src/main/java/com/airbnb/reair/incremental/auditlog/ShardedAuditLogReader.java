@@ -0,0 +1,302 @@
+package com.airbnb.reair.incremental.auditlog;
+
+import com.airbnb.reair.common.Container;
+import com.airbnb.reair.db.DbConnectionFactory;
+import com.airbnb.reair.incremental.db.DbConstants;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
+import com.airbnb.reair.utils.RetryableTask;
+import com.airbnb.reair.utils.RetryingTaskRunner;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An audit log reader that reads a backlog of entries in parallel. When the reader is more than a
+ * threshold number of IDs behind the end of the log, the unread ID range is split into shards that
+ * are each read and deserialized on a separate connection. Shards can finish in any order, but
+ * they are returned from the head of a queue in ID order, so the entries are returned in the same
+ * order as with {@link AuditLogReader}. Once the reader is near the end of the log, entries are
+ * read sequentially as before.
+ *
+ * <p>The number of IDs in each shard is adjusted so that each shard has about the same number of
+ * bytes, based on the size of the rows that were read in previous shards.
+ */
+public class ShardedAuditLogReader extends AuditLogReader {
+
+  private static final Log LOG = LogFactory.getLog(ShardedAuditLogReader.class);
+
+  public static final long DEFAULT_CATCH_UP_THRESHOLD = 10000;
+  public static final long DEFAULT_FETCH_TARGET_BYTES = 4 * 1024 * 1024;
+  public static final int DEFAULT_MAX_FETCH_SIZE = 10000;
+  private static final int MIN_FETCH_SIZE = 10;
+
+  private final long catchUpThreshold;
+  private final int maxPendingShards;
+  private final FetchSizeEstimator fetchSizeEstimator;
+  private final RetryingTaskRunner retryingTaskRunner;
+  private final ExecutorService fetchPool;
+  // Each shard is read on its own connection, so a shard takes a factory from here while reading
+  private final BlockingQueue<DbConnectionFactory> idleConnectionFactories;
+
+  // The following fields are guarded by the monitor of this object
+  // Shards that are being read or are done, in ID order
+  private final Deque<Future<Shard>> pendingShards = new ArrayDeque<>();
+  private Iterator<AuditLogEntry> currentEntries = Collections.emptyIterator();
+  // ID to read after once the current entries have been returned
+  private long readAfterId;
+  // First ID of the next shard to read
+  private long nextShardStartId;
+  // Last ID to read with shards before checking how far behind the reader is again
+  private long catchUpEndId;
+  // Whether the next read should check how far behind the end of the log the reader is
+  private boolean checkForBacklog = true;
+  private boolean closed = false;
+
+  /**
+   * The entries read from a range of IDs.
+   */
+  private static class Shard {
+    private final long endId;
+    private final List<AuditLogEntry> entries;
+
+    Shard(long endId, List<AuditLogEntry> entries) {
+      this.endId = endId;
+      this.entries = entries;
+    }
+  }
+
+  /**
+   * Constructs a ShardedAuditLogReader. The catch-up threshold and the shard sizing parameters are
+   * read from the configuration.
+   *
+   * @param conf configuration
+   * @param dbConnectionFactory factory for creating connections to the DB where the log resides
+   * @param shardConnectionFactories factories for the connections used to read shards. Shards are
+   *                                 read in parallel with one thread for each factory, so each
+   *                                 factory should return a different connection. The same
+   *                                 pooled factory can be passed multiple times if the pool
+   *                                 has enough connections for all of the threads.
+   * @param auditLogTableName name of the table on the DB that contains the audit log entries
+   * @param outputObjectsTableName name of the table on the DB that contains serialized objects
+   * @param mapRedStatsTableName name of the table on the DB that contains job stats
+   * @param getIdsAfter start reading entries from the audit log after this ID value
+   */
+  public ShardedAuditLogReader(
+      Configuration conf,
+      DbConnectionFactory dbConnectionFactory,
+      List<DbConnectionFactory> shardConnectionFactories,
+      String auditLogTableName,
+      String outputObjectsTableName,
+      String mapRedStatsTableName,
+      long getIdsAfter) throws SQLException {
+    super(conf,
+        dbConnectionFactory,
+        auditLogTableName,
+        outputObjectsTableName,
+        mapRedStatsTableName,
+        getIdsAfter);
+    if (shardConnectionFactories.isEmpty()) {
+      throw new IllegalArgumentException("At least one shard connection factory is required");
+    }
+    this.catchUpThreshold = conf.getLong(ConfigurationKeys.AUDIT_LOG_SHARDED_CATCH_UP_THRESHOLD,
+        DEFAULT_CATCH_UP_THRESHOLD);
+    this.maxPendingShards = conf.getInt(ConfigurationKeys.AUDIT_LOG_SHARDED_MAX_PENDING_SHARDS,
+        2 * shardConnectionFactories.size());
+    this.fetchSizeEstimator = new FetchSizeEstimator(
+        conf.getLong(ConfigurationKeys.AUDIT_LOG_FETCH_TARGET_BYTES, DEFAULT_FETCH_TARGET_BYTES),
+        MIN_FETCH_SIZE,
+        conf.getInt(ConfigurationKeys.AUDIT_LOG_FETCH_MAX_SIZE, DEFAULT_MAX_FETCH_SIZE),
+        conf.getInt(ConfigurationKeys.AUDIT_LOG_FETCH_SIZE, DEFAULT_ROW_FETCH_SIZE));
+    this.retryingTaskRunner = new RetryingTaskRunner(
+        conf.getInt(ConfigurationKeys.DB_QUERY_RETRIES,
+            DbConstants.DEFAULT_NUM_RETRIES),
+        DbConstants.DEFAULT_RETRY_EXPONENTIAL_BASE);
+    this.idleConnectionFactories = new LinkedBlockingQueue<>(shardConnectionFactories);
+    AtomicInteger threadCount = new AtomicInteger(0);
+    this.fetchPool = Executors.newFixedThreadPool(shardConnectionFactories.size(), runnable -> {
+        Thread thread = new Thread(runnable,
+            "AuditLogShardReader-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    this.readAfterId = getIdsAfter;
+  }
+
+  /**
+   * Return the next audit log entry from the DB. If the reader is far enough behind, this waits
+   * for the shard with the next entries to be read.
+   *
+   * @return the next audit log entry, or empty if there are no more entries in the log
+   *
+   * @throws SQLException if there is an error querying the DB
+   * @throws AuditLogEntryException if there is an error reading the audit log entry
+   */
+  @Override
+  public synchronized Optional<AuditLogEntry> next() throws SQLException, AuditLogEntryException {
+    if (closed) {
+      throw new IllegalStateException("Reader has been closed");
+    }
+
+    while (!currentEntries.hasNext()) {
+      if (pendingShards.isEmpty() && !startCatchUpIfBehind()) {
+        // Near the end of the log, so read sequentially
+        int fetchSize = fetchSizeEstimator.getFetchSize();
+        List<AuditLogEntry> entries = new ArrayList<>();
+        long nextReadAfterId = fetchEntries(readAfterId, fetchSize, entries);
+        if (nextReadAfterId == readAfterId) {
+          return Optional.empty();
+        }
+        // A full read means that there could be a backlog again
+        checkForBacklog = entries.size() >= fetchSize;
+        readAfterId = nextReadAfterId;
+        currentEntries = entries.iterator();
+        continue;
+      }
+
+      Shard shard = takeNextShard();
+      readAfterId = shard.endId;
+      currentEntries = shard.entries.iterator();
+    }
+
+    return Optional.of(currentEntries.next());
+  }
+
+  /**
+   * If the reader is more than the threshold number of IDs behind the end of the log, start
+   * reading shards up to the current end of the log.
+   *
+   * @return whether shards were started
+   */
+  private boolean startCatchUpIfBehind() throws SQLException {
+    if (!checkForBacklog) {
+      return false;
+    }
+    checkForBacklog = false;
+
+    long maxId = getMaxId().orElse(0L);
+    if (maxId - readAfterId < catchUpThreshold) {
+      return false;
+    }
+
+    LOG.info(String.format("Reader is %s IDs behind, so reading IDs %s to %s in parallel",
+        maxId - readAfterId, readAfterId + 1, maxId));
+    nextShardStartId = readAfterId + 1;
+    catchUpEndId = maxId;
+    startShards();
+    return true;
+  }
+
+  private void startShards() {
+    while (pendingShards.size() < maxPendingShards && nextShardStartId <= catchUpEndId) {
+      final long startId = nextShardStartId;
+      final long endId = Math.min(catchUpEndId, startId + fetchSizeEstimator.getFetchSize() - 1);
+      pendingShards.add(fetchPool.submit(new Callable<Shard>() {
+        @Override
+        public Shard call() throws Exception {
+          return readShard(startId, endId);
+        }
+      }));
+      nextShardStartId = endId + 1;
+    }
+  }
+
+  private Shard takeNextShard() throws SQLException, AuditLogEntryException {
+    try {
+      Shard shard = pendingShards.peek().get();
+      pendingShards.remove();
+      if (pendingShards.isEmpty() && nextShardStartId > catchUpEndId) {
+        // Done with this catch-up, but more entries could have been written in the meantime
+        checkForBacklog = true;
+      }
+      startShards();
+      return shard;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for audit log entries", e);
+    } catch (ExecutionException e) {
+      // Start over from the last shard that was returned on the next call
+      cancelPendingShards();
+      Throwable cause = e.getCause();
+      if (cause instanceof SQLException) {
+        throw (SQLException) cause;
+      } else if (cause instanceof AuditLogEntryException) {
+        throw (AuditLogEntryException) cause;
+      } else {
+        throw new RuntimeException(cause);
+      }
+    }
+  }
+
+  private Shard readShard(long startId, long endId) throws Exception {
+    final DbConnectionFactory connectionFactory = idleConnectionFactories.take();
+    try {
+      final List<AuditLogEntry> entries = new ArrayList<>();
+      final Container<Long> rowSize = new Container<>();
+      retryingTaskRunner.runWithRetries(new RetryableTask() {
+        @Override
+        public void run() throws Exception {
+          rowSize.set(readEntries(connectionFactory, startId, endId, entries));
+        }
+      });
+      fetchSizeEstimator.record(endId - startId + 1, rowSize.get());
+      LOG.debug(String.format("Read %s entries with IDs %s to %s", entries.size(), startId,
+          endId));
+      return new Shard(endId, entries);
+    } finally {
+      idleConnectionFactories.add(connectionFactory);
+    }
+  }
+
+  private void cancelPendingShards() {
+    for (Future<Shard> future : pendingShards) {
+      future.cancel(false);
+    }
+    pendingShards.clear();
+    checkForBacklog = true;
+  }
+
+  /**
+   * Change the reader to start reading entries after this ID. Any entries that were read in
+   * advance are discarded.
+   *
+   * @param readAfterId ID to configure the reader to read after
+   */
+  @Override
+  public synchronized void setReadAfterId(long readAfterId) {
+    cancelPendingShards();
+    this.readAfterId = readAfterId;
+    currentEntries = Collections.emptyIterator();
+  }
+
+  /**
+   * Stop the threads that read shards. The reader can't be used after this is called.
+   */
+  public void close() {
+    // Stop the threads first so that a caller waiting for a shard is woken up
+    for (Runnable unstartedShard : fetchPool.shutdownNow()) {
+      ((Future<?>) unstartedShard).cancel(false);
+    }
+    synchronized (this) {
+      closed = true;
+      cancelPendingShards();
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package com.airbnb.reair.incremental.configuration;
 
+import com.airbnb.reair.common.HiveMetastoreClient;
+import com.airbnb.reair.common.PooledHiveMetastoreClient;
 import com.airbnb.reair.incremental.DirectoryCopier;
 import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 
@@ -37,6 +39,33 @@ public class ConfiguredClusterFactory implements ClusterFactory {
     }
   }
 
+  /**
+   * Create a metastore client that is shared between threads if a connection pool is enabled.
+   *
+   * @param conf configuration
+   * @param metastoreUri URI of the metastore Thrift server
+   * @return a pooled metastore client, or empty if a client should be created for each thread
+   */
+  private static Optional<HiveMetastoreClient> makeSharedMetastoreClient(
+      Configuration conf,
+      URI metastoreUri) {
+    int poolSize = conf.getInt(ConfigurationKeys.METASTORE_CONNECTION_POOL_SIZE, 0);
+    if (poolSize <= 0) {
+      return Optional.empty();
+    }
+    return Optional.of(new PooledHiveMetastoreClient(
+        metastoreUri.getHost(),
+        metastoreUri.getPort(),
+        poolSize,
+        conf.getLong(ConfigurationKeys.METASTORE_CONNECTION_POOL_MAX_IDLE_MS,
+            PooledHiveMetastoreClient.DEFAULT_MAX_IDLE_TIME_MS),
+        PooledHiveMetastoreClient.DEFAULT_VALIDATION_IDLE_TIME_MS,
+        conf.getInt(ConfigurationKeys.METASTORE_CONNECTION_POOL_CONNECT_TIMEOUT_MS,
+            PooledHiveMetastoreClient.DEFAULT_CONNECT_TIMEOUT_MS),
+        PooledHiveMetastoreClient.DEFAULT_SOCKET_TIMEOUT_MS,
+        PooledHiveMetastoreClient.DEFAULT_BORROW_TIMEOUT_MS));
+  }
+
   @Override
   public Cluster getDestCluster() throws ConfigurationException {
 
@@ -62,7 +91,8 @@ public class ConfiguredClusterFactory implements ClusterFactory {
         null,
         null,
         new Path(destHdfsRoot),
-        new Path(destHdfsTmp));
+        new Path(destHdfsTmp),
+        makeSharedMetastoreClient(conf, destMetastoreUrl));
   }
 
   @Override
@@ -90,7 +120,8 @@ public class ConfiguredClusterFactory implements ClusterFactory {
         null,
         null,
         new Path(srcHdfsRoot),
-        new Path(srcHdfsTmp));
+        new Path(srcHdfsTmp),
+        makeSharedMetastoreClient(conf, srcMetastoreUrl));
   }
 
   @Override
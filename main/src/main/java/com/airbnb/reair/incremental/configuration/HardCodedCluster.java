@@ -1,10 +1,13 @@
 package com.airbnb.reair.incremental.configuration;
 
+import com.airbnb.reair.common.HiveMetastoreClient;
 import com.airbnb.reair.common.HiveMetastoreException;
 import com.airbnb.reair.common.ThriftHiveMetastoreClient;
 
 import org.apache.hadoop.fs.Path;
 
+import java.util.Optional;
+
 /**
  * A cluster defined with hard coded values, typically derived from the configuration.
  */
@@ -18,6 +21,7 @@ public class HardCodedCluster implements Cluster {
   private Path hdfsRoot;
   private Path tmpDir;
   private ThreadLocal<ThriftHiveMetastoreClient> metastoreClient;
+  private Optional<HiveMetastoreClient> sharedMetastoreClient;
 
   /**
    * Constructor with specific values.
@@ -38,6 +42,32 @@ public class HardCodedCluster implements Cluster {
       String jobtrackerPort,
       Path hdfsRoot,
       Path tmpDir) {
+    this(name, metastoreHost, metastorePort, jobtrackerHost, jobtrackerPort, hdfsRoot, tmpDir,
+        Optional.empty());
+  }
+
+  /**
+   * Constructor with specific values and a metastore client that is shared between threads.
+   *
+   * @param name string to use for identifying this cluster
+   * @param metastoreHost hostname of the metastore Thrift server
+   * @param metastorePort port of the metastore Thrift server
+   * @param jobtrackerHost hostname of the job tracker
+   * @param jobtrackerPort port of the job tracker
+   * @param hdfsRoot the path for the root HDFS directory
+   * @param tmpDir the path for the temporary HDFS directory (should be under root)
+   * @param sharedMetastoreClient a thread-safe client to return from getMetastoreClient(). If
+   *                              empty, a client is created for each thread.
+   */
+  public HardCodedCluster(
+      String name,
+      String metastoreHost,
+      int metastorePort,
+      String jobtrackerHost,
+      String jobtrackerPort,
+      Path hdfsRoot,
+      Path tmpDir,
+      Optional<HiveMetastoreClient> sharedMetastoreClient) {
     this.name = name;
     this.metastoreHost = metastoreHost;
     this.metastorePort = metastorePort;
@@ -46,6 +76,7 @@ public class HardCodedCluster implements Cluster {
     this.hdfsRoot = hdfsRoot;
     this.tmpDir = tmpDir;
     this.metastoreClient = new ThreadLocal<ThriftHiveMetastoreClient>();
+    this.sharedMetastoreClient = sharedMetastoreClient;
   }
 
   public String getMetastoreHost() {
@@ -57,9 +88,13 @@ public class HardCodedCluster implements Cluster {
   }
 
   /**
-   * Get a cached ThreadLocal metastore client.
+   * Get the shared metastore client if one was supplied, or a cached ThreadLocal metastore client
+   * otherwise.
    */
-  public ThriftHiveMetastoreClient getMetastoreClient() throws HiveMetastoreException {
+  public HiveMetastoreClient getMetastoreClient() throws HiveMetastoreException {
+    if (sharedMetastoreClient.isPresent()) {
+      return sharedMetastoreClient.get();
+    }
     ThriftHiveMetastoreClient result = this.metastoreClient.get();
     if (result == null) {
       result = new ThriftHiveMetastoreClient(getMetastoreHost(), getMetastorePort());
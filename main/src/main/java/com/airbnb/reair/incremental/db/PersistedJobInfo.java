@@ -60,6 +60,8 @@ public class PersistedJobInfo {
   public static final String AUDIT_LOG_ID_EXTRAS_KEY = "audit_log_id";
   public static final String AUDIT_LOG_ENTRY_CREATE_TIME_KEY = "audit_log_entry_create_time";
   public static final String BYTES_COPIED_KEY = "bytes_copied";
+  // For jobs that were aborted because a newer job made them redundant, the ID of the newer job
+  public static final String SUPERSEDED_BY_KEY = "superseded_by";
 
   /**
    * Constructor for a persisted job info.
@@ -25,20 +25,35 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A store for managing and persisting PersistedJobInfo objects. The objects are stored though a
  * state table that generally has a separate column for each field in PersistedJobInfo. This avoids
  * the use of ORM as the use case is relatively simple.
  *
- * <p>Note: to simplify programming, all methods are synchronized. This could be slow, so another
- * approach is for each thread to use a different DB connection for higher parallelism.
+ * <p>Note: to simplify programming, all methods except forEachRunnableInDb() are synchronized.
+ * This could be slow, so another approach is for each thread to use a different DB connection for
+ * higher parallelism.
+ *
+ * <p>Optionally, changes from persist() can be written behind. Then, the latest state of each
+ * changed job is kept in memory and a background thread writes the pending jobs periodically with
+ * multi-row upserts. Each row contains the complete state of a job and writes are applied in the
+ * order that the changes were made, so after a crash, the state in the DB is at most one flush
+ * interval behind.
  */
 public class PersistedJobInfoStore {
 
@@ -50,10 +65,65 @@ public class PersistedJobInfoStore {
       ReplicationStatus.NOT_COMPLETABLE.name(),
       ReplicationStatus.ABORTED.name()};
 
+  public static final long DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL_MS = 1000;
+  public static final int DEFAULT_WRITE_BEHIND_MAX_PENDING_JOBS = 1000;
+  public static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 200;
+  public static final int DEFAULT_RESTORE_PAGE_SIZE = 10000;
+  public static final int DEFAULT_RESTORE_PARSE_THREADS = 4;
+
+  private static final String JOB_COLUMNS = "id, create_time, operation, status, src_path, "
+      + "src_cluster, src_db, src_table, src_partitions, src_tldt, rename_to_db, "
+      + "rename_to_table, rename_to_partition, rename_to_path, extras";
+
   private DbConnectionFactory dbConnectionFactory;
   private String dbTableName;
   private RetryingTaskRunner retryingTaskRunner = new RetryingTaskRunner();
 
+  private final boolean writeBehindEnabled;
+  private final long flushIntervalMs;
+  private final int maxPendingJobs;
+  private final int flushBatchSize;
+  private final int restorePageSize;
+  private final int restoreParseThreads;
+
+  // Guards the fields used for writing behind. Separate from the lock on this object so that
+  // recording a change doesn't wait for queries to the DB.
+  private final Object pendingLock = new Object();
+  // Copies of the jobs with changes that haven't been written yet, keyed by the job ID
+  private Map<Long, PersistedJobInfo> pendingJobs = new LinkedHashMap<>();
+  private Thread flushThread = null;
+  private boolean closed = false;
+  // Held while writing pending jobs so that writes are applied in order
+  private final Object flushLock = new Object();
+
+  /**
+   * Receives the jobs read by {@link #forEachRunnableInDb(RunnableJobConsumer)}.
+   */
+  public interface RunnableJobConsumer {
+    void accept(PersistedJobInfo jobInfo) throws StateUpdateException;
+  }
+
+  /**
+   * The column values of a row in the state table, before the JSON columns are parsed.
+   */
+  private static class JobRow {
+    private long id;
+    private Timestamp createTime;
+    private String operation;
+    private String status;
+    private String srcPath;
+    private String srcCluster;
+    private String srcDb;
+    private String srcTable;
+    private String srcPartitions;
+    private String srcTldt;
+    private String renameToDb;
+    private String renameToTable;
+    private String renameToPartition;
+    private String renameToPath;
+    private String extras;
+  }
+
   /**
    * Constructor.
    *
@@ -70,6 +140,27 @@ public class PersistedJobInfoStore {
         conf.getInt(ConfigurationKeys.DB_QUERY_RETRIES,
             DbConstants.DEFAULT_NUM_RETRIES),
         DbConstants.DEFAULT_RETRY_EXPONENTIAL_BASE);
+    this.writeBehindEnabled = conf.getBoolean(
+        ConfigurationKeys.STATE_WRITE_BEHIND_ENABLED, false);
+    this.flushIntervalMs = conf.getLong(
+        ConfigurationKeys.STATE_WRITE_BEHIND_FLUSH_INTERVAL_MS,
+        DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL_MS);
+    this.maxPendingJobs = conf.getInt(
+        ConfigurationKeys.STATE_WRITE_BEHIND_MAX_PENDING_JOBS,
+        DEFAULT_WRITE_BEHIND_MAX_PENDING_JOBS);
+    this.flushBatchSize = conf.getInt(
+        ConfigurationKeys.STATE_WRITE_BEHIND_BATCH_SIZE,
+        DEFAULT_WRITE_BEHIND_BATCH_SIZE);
+    this.restorePageSize = conf.getInt(
+        ConfigurationKeys.STATE_RESTORE_PAGE_SIZE,
+        DEFAULT_RESTORE_PAGE_SIZE);
+    this.restoreParseThreads = conf.getInt(
+        ConfigurationKeys.STATE_RESTORE_PARSE_THREADS,
+        DEFAULT_RESTORE_PARSE_THREADS);
+
+    if (writeBehindEnabled) {
+      startFlushThread();
+    }
   }
 
   /**
@@ -105,18 +196,22 @@ public class PersistedJobInfoStore {
    * @throws SQLException if there is an error querying the DB
    */
   public synchronized void abortRunnableFromDb() throws SQLException {
+    String query = String.format("UPDATE %s SET status = 'ABORTED' " + "WHERE status NOT IN (%s)",
+        dbTableName, getCompletedStateList());
+    try (Connection connection = dbConnectionFactory.getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute(query);
+    }
+  }
+
+  private static String getCompletedStateList() {
     // Convert from ['a', 'b'] to "'a', 'b'"
-    String completedStateList = StringUtils.join(", ",
+    return StringUtils.join(", ",
         Lists.transform(Arrays.asList(completedStateStrings), new Function<String, String>() {
           public String apply(String str) {
             return String.format("'%s'", str);
           }
         }));
-    String query = String.format("UPDATE %s SET status = 'ABORTED' " + "WHERE status NOT IN (%s)",
-        dbTableName, completedStateList);
-    Connection connection = dbConnectionFactory.getConnection();
-    Statement statement = connection.createStatement();
-    statement.execute(query);
   }
 
   /**
@@ -126,61 +221,172 @@ public class PersistedJobInfoStore {
    * @throws SQLException if there's an error querying the DB
    */
   public synchronized List<PersistedJobInfo> getRunnableFromDb() throws SQLException {
-    // Convert from ['a', 'b'] to "'a', 'b'"
-    String completedStateList = StringUtils.join(", ",
-        Lists.transform(Arrays.asList(completedStateStrings), new Function<String, String>() {
-          public String apply(String str) {
-            return String.format("'%s'", str);
-          }
-        }));
-    String query = String.format("SELECT id, create_time, operation, status, src_path, "
-        + "src_cluster, src_db, "
-        + "src_table, src_partitions, src_tldt, "
-        + "rename_to_db, rename_to_table, rename_to_partition, "
-        + "rename_to_path, extras "
-        + "FROM %s WHERE status NOT IN (%s) ORDER BY id", dbTableName, completedStateList);
+    String query = String.format("SELECT %s FROM %s WHERE status NOT IN (%s) ORDER BY id",
+        JOB_COLUMNS, dbTableName, getCompletedStateList());
 
     List<PersistedJobInfo> persistedJobInfos = new ArrayList<>();
-    Connection connection = dbConnectionFactory.getConnection();
-
-    Statement statement = connection.createStatement();
-    ResultSet rs = statement.executeQuery(query);
-
-    while (rs.next()) {
-      long id = rs.getLong("id");
-      Optional<Timestamp> createTimestamp = Optional.ofNullable(rs.getTimestamp("create_time"));
-      long createTime = createTimestamp.map(Timestamp::getTime).orElse(Long.valueOf(0));
-      ReplicationOperation operation = ReplicationOperation.valueOf(rs.getString("operation"));
-      ReplicationStatus status = ReplicationStatus.valueOf(rs.getString("status"));
-      Optional srcPath = Optional.ofNullable(rs.getString("src_path")).map(Path::new);
-      String srcClusterName = rs.getString("src_cluster");
-      String srcDbName = rs.getString("src_db");
-      String srcTableName = rs.getString("src_table");
-      List<String> srcPartitionNames = new ArrayList<>();
-      String partitionNamesJson = rs.getString("src_partitions");
-      if (partitionNamesJson != null) {
-        srcPartitionNames = ReplicationUtils.convertToList(partitionNamesJson);
+    try (Connection connection = dbConnectionFactory.getConnection();
+        Statement statement = connection.createStatement()) {
+      ResultSet rs = statement.executeQuery(query);
+
+      while (rs.next()) {
+        persistedJobInfos.add(parseRow(readRow(rs)));
       }
-      Optional<String> srcObjectTldt = Optional.ofNullable(rs.getString("src_tldt"));
-      Optional<String> renameToDbName = Optional.ofNullable(rs.getString("rename_to_db"));
-      Optional<String> renameToTableName = Optional.ofNullable(rs.getString("rename_to_table"));
-      Optional<String> renameToPartitionName =
-          Optional.ofNullable(rs.getString("rename_to_partition"));
-      Optional<Path> renameToPath =
-          Optional.ofNullable(rs.getString("rename_to_path")).map(Path::new);
-      Optional<String> extrasJson = Optional.ofNullable(rs.getString("extras"));
-      Map<String, String> extras =
-          extrasJson.map(ReplicationUtils::convertToMap).orElse(new HashMap<>());
-
-      PersistedJobInfo persistedJobInfo = new PersistedJobInfo(Optional.of(id), createTime,
-          operation, status, srcPath, srcClusterName, srcDbName, srcTableName, srcPartitionNames,
-          srcObjectTldt, renameToDbName, renameToTableName, renameToPartitionName, renameToPath,
-          extras);
-      persistedJobInfos.add(persistedJobInfo);
     }
     return persistedJobInfos;
   }
 
+  /**
+   * Reads the jobs that have a not completed status from the DB and passes them to the consumer in
+   * order of ID. Unlike getRunnableFromDb(), the rows are read a page at a time, and the rows of a
+   * page are parsed by a pool of threads while the next page is read. Since the consumer gets the
+   * first jobs before the rest are read, restored jobs can start running right away, and only a
+   * couple of pages are held in memory at a time.
+   *
+   * <p>This method is not synchronized so that the jobs passed to the consumer can persist changes
+   * while the remaining jobs are read.
+   *
+   * @param consumer receives the jobs, in the calling thread
+   * @return the number of jobs that were passed to the consumer
+   *
+   * @throws SQLException if there's an error querying the DB
+   * @throws StateUpdateException if the consumer throws one
+   */
+  public long forEachRunnableInDb(RunnableJobConsumer consumer)
+      throws SQLException, StateUpdateException {
+    // Paging by ID instead of with an offset keeps each query cheap as the restore progresses
+    String query = String.format(
+        "SELECT %s FROM %s WHERE status NOT IN (%s) AND id > ? ORDER BY id LIMIT ?",
+        JOB_COLUMNS, dbTableName, getCompletedStateList());
+
+    AtomicInteger threadCount = new AtomicInteger(0);
+    ExecutorService parsePool = Executors.newFixedThreadPool(restoreParseThreads, runnable -> {
+        Thread thread = new Thread(runnable,
+            "PersistedJobInfoStore-parse-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    // Chunks of rows that are being parsed, in order of ID
+    Deque<Future<List<PersistedJobInfo>>> parsedChunks = new ArrayDeque<>();
+    long lastId = 0;
+    long jobCount = 0;
+    boolean morePages = true;
+    try {
+      while (morePages) {
+        List<JobRow> page = readPage(query, lastId);
+        morePages = page.size() == restorePageSize;
+        if (!page.isEmpty()) {
+          lastId = page.get(page.size() - 1).id;
+        }
+
+        int chunkSize = Math.max(1,
+            (page.size() + restoreParseThreads - 1) / restoreParseThreads);
+        for (int i = 0; i < page.size(); i += chunkSize) {
+          final List<JobRow> chunk = page.subList(i, Math.min(i + chunkSize, page.size()));
+          parsedChunks.add(parsePool.submit(() -> parseRows(chunk)));
+        }
+
+        // Pass on the jobs that are ready. Wait for the ones from the previous page so that the
+        // reading doesn't get more than a page ahead of the consumer.
+        while (!parsedChunks.isEmpty() && (!morePages || parsedChunks.peek().isDone()
+            || parsedChunks.size() > restoreParseThreads)) {
+          jobCount += consumeChunk(parsedChunks.remove(), consumer);
+        }
+      }
+    } finally {
+      parsePool.shutdownNow();
+    }
+    return jobCount;
+  }
+
+  private List<JobRow> readPage(String query, long afterId) throws SQLException {
+    List<JobRow> rows = new ArrayList<>();
+    try (Connection connection = dbConnectionFactory.getConnection();
+        PreparedStatement ps = connection.prepareStatement(query)) {
+      ps.setLong(1, afterId);
+      ps.setInt(2, restorePageSize);
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        rows.add(readRow(rs));
+      }
+    }
+    return rows;
+  }
+
+  private static List<PersistedJobInfo> parseRows(List<JobRow> rows) {
+    List<PersistedJobInfo> jobs = new ArrayList<>(rows.size());
+    for (JobRow row : rows) {
+      jobs.add(parseRow(row));
+    }
+    return jobs;
+  }
+
+  private static int consumeChunk(Future<List<PersistedJobInfo>> chunk,
+      RunnableJobConsumer consumer) throws StateUpdateException {
+    List<PersistedJobInfo> jobs;
+    try {
+      jobs = chunk.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while parsing jobs", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw new RuntimeException(cause);
+      }
+    }
+    for (PersistedJobInfo job : jobs) {
+      consumer.accept(job);
+    }
+    return jobs.size();
+  }
+
+  /**
+   * Copies the columns of the current row so that the row can be parsed in another thread.
+   */
+  private static JobRow readRow(ResultSet rs) throws SQLException {
+    JobRow row = new JobRow();
+    row.id = rs.getLong("id");
+    row.createTime = rs.getTimestamp("create_time");
+    row.operation = rs.getString("operation");
+    row.status = rs.getString("status");
+    row.srcPath = rs.getString("src_path");
+    row.srcCluster = rs.getString("src_cluster");
+    row.srcDb = rs.getString("src_db");
+    row.srcTable = rs.getString("src_table");
+    row.srcPartitions = rs.getString("src_partitions");
+    row.srcTldt = rs.getString("src_tldt");
+    row.renameToDb = rs.getString("rename_to_db");
+    row.renameToTable = rs.getString("rename_to_table");
+    row.renameToPartition = rs.getString("rename_to_partition");
+    row.renameToPath = rs.getString("rename_to_path");
+    row.extras = rs.getString("extras");
+    return row;
+  }
+
+  private static PersistedJobInfo parseRow(JobRow row) {
+    Optional<Timestamp> createTimestamp = Optional.ofNullable(row.createTime);
+    long createTime = createTimestamp.map(Timestamp::getTime).orElse(Long.valueOf(0));
+    ReplicationOperation operation = ReplicationOperation.valueOf(row.operation);
+    ReplicationStatus status = ReplicationStatus.valueOf(row.status);
+    Optional<Path> srcPath = Optional.ofNullable(row.srcPath).map(Path::new);
+    List<String> srcPartitionNames = new ArrayList<>();
+    if (row.srcPartitions != null) {
+      srcPartitionNames = ReplicationUtils.convertToList(row.srcPartitions);
+    }
+    Optional<Path> renameToPath = Optional.ofNullable(row.renameToPath).map(Path::new);
+    Map<String, String> extras =
+        Optional.ofNullable(row.extras).map(ReplicationUtils::convertToMap).orElse(new HashMap<>());
+
+    return new PersistedJobInfo(Optional.of(row.id), createTime, operation, status, srcPath,
+        row.srcCluster, row.srcDb, row.srcTable, srcPartitionNames,
+        Optional.ofNullable(row.srcTldt), Optional.ofNullable(row.renameToDb),
+        Optional.ofNullable(row.renameToTable), Optional.ofNullable(row.renameToPartition),
+        renameToPath, extras);
+  }
+
   private synchronized void persistHelper(PersistedJobInfo job) throws SQLException, IOException {
     String query = "INSERT INTO " + dbTableName
         + " SET " + "id = ?, " + "create_time = ?, "
@@ -207,61 +413,39 @@ public class PersistedJobInfoStore {
         + "rename_to_path = ?, "
         + "extras = ?";
 
-    Connection connection = dbConnectionFactory.getConnection();
-    PreparedStatement ps = connection.prepareStatement(query);
-    try {
+    try (Connection connection = dbConnectionFactory.getConnection();
+        PreparedStatement ps = connection.prepareStatement(query)) {
       int queryParamIndex = 1;
       ps.setLong(queryParamIndex++, job.getId());
-      ps.setTimestamp(queryParamIndex++, new Timestamp(job.getCreateTime()));
-      ps.setString(queryParamIndex++, job.getOperation().toString());
-      ps.setString(queryParamIndex++, job.getStatus().toString());
-      ps.setString(queryParamIndex++, job.getSrcPath().map(Path::toString).orElse(null));
-      ps.setString(queryParamIndex++, job.getSrcClusterName());
-      ps.setString(queryParamIndex++, job.getSrcDbName());
-      ps.setString(queryParamIndex++, job.getSrcTableName());
-      ps.setString(queryParamIndex++, ReplicationUtils.convertToJson(job.getSrcPartitionNames()));
-      ps.setString(queryParamIndex++, job.getSrcObjectTldt().orElse(null));
-      ps.setString(queryParamIndex++, job.getRenameToDb().orElse(null));
-      ps.setString(queryParamIndex++, job.getRenameToTable().orElse(null));
-      ps.setString(queryParamIndex++, job.getRenameToPartition().orElse(null));
-      ps.setString(queryParamIndex++, job.getRenameToPath().map(Path::toString).orElse(null));
-      ps.setString(queryParamIndex++, ReplicationUtils.convertToJson(job.getExtras()));
-
+      queryParamIndex = setColumnValues(ps, queryParamIndex, job);
       // Handle the update case
-      ps.setTimestamp(queryParamIndex++, new Timestamp(job.getCreateTime()));
-      ps.setString(queryParamIndex++, job.getOperation().toString());
-      ps.setString(queryParamIndex++, job.getStatus().toString());
-      ps.setString(queryParamIndex++, job.getSrcPath().map(Path::toString).orElse(null));
-      ps.setString(queryParamIndex++, job.getSrcClusterName());
-      ps.setString(queryParamIndex++, job.getSrcDbName());
-      ps.setString(queryParamIndex++, job.getSrcTableName());
-      ps.setString(queryParamIndex++, ReplicationUtils.convertToJson(job.getSrcPartitionNames()));
-      ps.setString(queryParamIndex++, job.getSrcObjectTldt().orElse(null));
-      ps.setString(queryParamIndex++, job.getRenameToDb().orElse(null));
-      ps.setString(queryParamIndex++, job.getRenameToTable().orElse(null));
-      ps.setString(queryParamIndex++, job.getRenameToPartition().orElse(null));
-      ps.setString(queryParamIndex++, job.getRenameToPath().map(Path::toString).orElse(null));
-      ps.setString(queryParamIndex++, ReplicationUtils.convertToJson(job.getExtras()));
+      setColumnValues(ps, queryParamIndex, job);
 
       ps.execute();
-    } finally {
-      ps.close();
-      ps = null;
     }
   }
 
-  public synchronized void changeStatusAndPersist(ReplicationStatus status, PersistedJobInfo job)
+  public void changeStatusAndPersist(ReplicationStatus status, PersistedJobInfo job)
       throws StateUpdateException {
     job.setStatus(status);
     persist(job);
   }
 
   /**
-   * Persist the data from the job into the DB.
+   * Persist the data from the job into the DB. If writing behind, the job is queued to be written
+   * later.
    *
    * @param job the job to persist
    */
-  public synchronized void persist(final PersistedJobInfo job) throws StateUpdateException {
+  public void persist(final PersistedJobInfo job) throws StateUpdateException {
+    if (writeBehindEnabled) {
+      enqueue(job);
+    } else {
+      persistNow(job);
+    }
+  }
+
+  private synchronized void persistNow(final PersistedJobInfo job) throws StateUpdateException {
     try {
       retryingTaskRunner.runWithRetries(new RetryableTask() {
         @Override
@@ -276,6 +460,222 @@ public class PersistedJobInfoStore {
     }
   }
 
+  /**
+   * Make a copy of the job so that the state to write doesn't change while it's being written.
+   */
+  private static PersistedJobInfo copyOf(PersistedJobInfo job) {
+    return new PersistedJobInfo(Optional.of(job.getId()), job.getCreateTime(),
+        job.getOperation(), job.getStatus(), job.getSrcPath(), job.getSrcClusterName(),
+        job.getSrcDbName(), job.getSrcTableName(), new ArrayList<>(job.getSrcPartitionNames()),
+        job.getSrcObjectTldt(), job.getRenameToDb(), job.getRenameToTable(),
+        job.getRenameToPartition(), job.getRenameToPath(), new HashMap<>(job.getExtras()));
+  }
+
+  private void enqueue(PersistedJobInfo job) throws StateUpdateException {
+    boolean flushNeeded;
+    synchronized (pendingLock) {
+      // A newer copy replaces any copy that hasn't been written yet
+      pendingJobs.put(job.getId(), copyOf(job));
+      // Once closed, there's no background thread, so changes are written right away. If there
+      // are too many pending jobs, write them in this thread to limit memory usage.
+      flushNeeded = closed || pendingJobs.size() >= maxPendingJobs;
+    }
+    if (flushNeeded) {
+      flush();
+    }
+  }
+
+  /**
+   * Get the number of jobs with changes that have not been written to the DB yet.
+   *
+   * @return the number of jobs with pending changes
+   */
+  public int getPendingJobCount() {
+    synchronized (pendingLock) {
+      return pendingJobs.size();
+    }
+  }
+
+  /**
+   * Write all pending changes to the DB. If there is an error, the changes that were not written
+   * remain pending.
+   *
+   * @throws StateUpdateException if there's an error writing to the DB
+   */
+  public void flush() throws StateUpdateException {
+    synchronized (flushLock) {
+      List<PersistedJobInfo> jobsToWrite;
+      synchronized (pendingLock) {
+        if (pendingJobs.isEmpty()) {
+          return;
+        }
+        jobsToWrite = new ArrayList<>(pendingJobs.values());
+        pendingJobs = new LinkedHashMap<>();
+      }
+
+      LOG.debug(String.format("Writing %d pending PersistedJobInfos", jobsToWrite.size()));
+      try {
+        while (!jobsToWrite.isEmpty()) {
+          final List<PersistedJobInfo> batch =
+              jobsToWrite.subList(0, Math.min(flushBatchSize, jobsToWrite.size()));
+          retryingTaskRunner.runWithRetries(() -> persistManyHelper(batch));
+          batch.clear();
+        }
+      } catch (IOException | SQLException e) {
+        requeue(jobsToWrite);
+        throw new StateUpdateException(e);
+      } catch (Exception e) {
+        requeue(jobsToWrite);
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private void requeue(List<PersistedJobInfo> jobs) {
+    synchronized (pendingLock) {
+      Map<Long, PersistedJobInfo> newPendingJobs = new LinkedHashMap<>();
+      for (PersistedJobInfo job : jobs) {
+        newPendingJobs.put(job.getId(), job);
+      }
+      // Changes made while writing are newer than the ones that failed to be written
+      newPendingJobs.putAll(pendingJobs);
+      pendingJobs = newPendingJobs;
+    }
+  }
+
+  private void startFlushThread() {
+    flushThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        flushPeriodically();
+      }
+    }, "PersistedJobInfoStore-flush");
+    flushThread.setDaemon(true);
+    flushThread.start();
+  }
+
+  private void flushPeriodically() {
+    while (true) {
+      synchronized (pendingLock) {
+        long flushTime = System.currentTimeMillis() + flushIntervalMs;
+        long waitTime = flushIntervalMs;
+        try {
+          while (!closed && waitTime > 0) {
+            pendingLock.wait(waitTime);
+            waitTime = flushTime - System.currentTimeMillis();
+          }
+        } catch (InterruptedException e) {
+          if (!closed) {
+            LOG.error("Flush thread was unexpectedly interrupted", e);
+          }
+          return;
+        }
+        if (closed) {
+          return;
+        }
+      }
+
+      try {
+        flush();
+      } catch (StateUpdateException | RuntimeException e) {
+        LOG.error("Error writing pending job state. Will retry at the next flush.", e);
+      }
+    }
+  }
+
+  /**
+   * Stop writing in the background and write all pending changes. Changes persisted after this
+   * call are written immediately.
+   *
+   * @throws StateUpdateException if there's an error writing the pending changes
+   */
+  public void close() throws StateUpdateException {
+    Thread threadToStop;
+    synchronized (pendingLock) {
+      closed = true;
+      threadToStop = flushThread;
+      flushThread = null;
+      pendingLock.notifyAll();
+    }
+    if (threadToStop != null) {
+      try {
+        threadToStop.join();
+      } catch (InterruptedException e) {
+        LOG.error("Unexpected interruption while stopping the flush thread", e);
+        Thread.currentThread().interrupt();
+      }
+    }
+    flush();
+  }
+
+  /**
+   * Set the values of the job's columns other than the ID, in the order of JOB_COLUMNS, starting
+   * at the given parameter index.
+   *
+   * @return the index of the parameter after the last one that was set
+   */
+  private static int setColumnValues(PreparedStatement ps, int queryParamIndex,
+      PersistedJobInfo job) throws IOException, SQLException {
+    ps.setTimestamp(queryParamIndex++, new Timestamp(job.getCreateTime()));
+    ps.setString(queryParamIndex++, job.getOperation().toString());
+    ps.setString(queryParamIndex++, job.getStatus().toString());
+    ps.setString(queryParamIndex++, job.getSrcPath().map(Path::toString).orElse(null));
+    ps.setString(queryParamIndex++, job.getSrcClusterName());
+    ps.setString(queryParamIndex++, job.getSrcDbName());
+    ps.setString(queryParamIndex++, job.getSrcTableName());
+    ps.setString(queryParamIndex++, ReplicationUtils.convertToJson(job.getSrcPartitionNames()));
+    ps.setString(queryParamIndex++, job.getSrcObjectTldt().orElse(null));
+    ps.setString(queryParamIndex++, job.getRenameToDb().orElse(null));
+    ps.setString(queryParamIndex++, job.getRenameToTable().orElse(null));
+    ps.setString(queryParamIndex++, job.getRenameToPartition().orElse(null));
+    ps.setString(queryParamIndex++, job.getRenameToPath().map(Path::toString).orElse(null));
+    ps.setString(queryParamIndex++, ReplicationUtils.convertToJson(job.getExtras()));
+    return queryParamIndex;
+  }
+
+  /**
+   * Writes the jobs with a single upsert, so either all or none of the rows are changed.
+   */
+  private synchronized void persistManyHelper(List<PersistedJobInfo> jobs)
+      throws IOException, SQLException {
+    String valuesStr = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    StringBuilder sb = new StringBuilder();
+    sb.append("INSERT INTO " + dbTableName + " (id, create_time, operation, status, src_path, "
+        + "src_cluster, src_db, src_table, src_partitions, src_tldt, rename_to_db, "
+        + "rename_to_table, rename_to_partition, rename_to_path, extras) VALUES ");
+    for (int i = 0; i < jobs.size(); i++) {
+      if (i > 0) {
+        sb.append(" , ");
+      }
+      sb.append(valuesStr);
+    }
+    sb.append(" ON DUPLICATE KEY UPDATE "
+        + "create_time = VALUES(create_time), "
+        + "operation = VALUES(operation), "
+        + "status = VALUES(status), "
+        + "src_path = VALUES(src_path), "
+        + "src_cluster = VALUES(src_cluster), "
+        + "src_db = VALUES(src_db), "
+        + "src_table = VALUES(src_table), "
+        + "src_partitions = VALUES(src_partitions), "
+        + "src_tldt = VALUES(src_tldt), "
+        + "rename_to_db = VALUES(rename_to_db), "
+        + "rename_to_table = VALUES(rename_to_table), "
+        + "rename_to_partition = VALUES(rename_to_partition), "
+        + "rename_to_path = VALUES(rename_to_path), "
+        + "extras = VALUES(extras)");
+
+    try (Connection connection = dbConnectionFactory.getConnection();
+        PreparedStatement ps = connection.prepareStatement(sb.toString())) {
+      int queryParamIndex = 1;
+      for (PersistedJobInfo job : jobs) {
+        ps.setLong(queryParamIndex++, job.getId());
+        queryParamIndex = setColumnValues(ps, queryParamIndex, job);
+      }
+      ps.execute();
+    }
+  }
+
   private synchronized void createManyImpl(List<PersistedJobInfo> jobs)
       throws IOException, SQLException, StateUpdateException {
     LOG.debug(String.format("Persisting %d PersistedJobInfos", jobs.size()));
@@ -283,25 +683,12 @@ public class PersistedJobInfoStore {
       return;
     }
     String query = generateQuery(jobs.size());
-    Connection connection = dbConnectionFactory.getConnection();
-    try (PreparedStatement ps =
-             connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+    try (Connection connection = dbConnectionFactory.getConnection();
+        PreparedStatement ps =
+            connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
       int queryParamIndex = 1;
       for (PersistedJobInfo job: jobs) {
-        ps.setTimestamp(queryParamIndex++, new Timestamp(job.getCreateTime()));
-        ps.setString(queryParamIndex++, job.getOperation().toString());
-        ps.setString(queryParamIndex++, job.getStatus().toString());
-        ps.setString(queryParamIndex++, job.getSrcPath().map(Path::toString).orElse(null));
-        ps.setString(queryParamIndex++, job.getSrcClusterName());
-        ps.setString(queryParamIndex++, job.getSrcDbName());
-        ps.setString(queryParamIndex++, job.getSrcTableName());
-        ps.setString(queryParamIndex++, ReplicationUtils.convertToJson(job.getSrcPartitionNames()));
-        ps.setString(queryParamIndex++, job.getSrcObjectTldt().orElse(null));
-        ps.setString(queryParamIndex++, job.getRenameToDb().orElse(null));
-        ps.setString(queryParamIndex++, job.getRenameToTable().orElse(null));
-        ps.setString(queryParamIndex++, job.getRenameToPartition().orElse(null));
-        ps.setString(queryParamIndex++, job.getRenameToPath().map(Path::toString).orElse(null));
-        ps.setString(queryParamIndex++, ReplicationUtils.convertToJson(job.getExtras()));
+        queryParamIndex = setColumnValues(ps, queryParamIndex, job);
       }
       ps.execute();
       ResultSet rs = ps.getGeneratedKeys();
@@ -356,41 +743,41 @@ public class PersistedJobInfoStore {
         + "rename_to_db, rename_to_table, rename_to_partition, " + "rename_to_path, extras "
         + "FROM " + dbTableName + " WHERE id = ?";
 
-    Connection connection = dbConnectionFactory.getConnection();
-
-    PreparedStatement ps = connection.prepareStatement(query);
-    ResultSet rs = ps.executeQuery(query);
-
-    while (rs.next()) {
-      Optional<Timestamp> ts = Optional.ofNullable(rs.getTimestamp("create_time"));
-      long createTime = ts.map(Timestamp::getTime).orElse(Long.valueOf(0));
-      ReplicationOperation operation = ReplicationOperation.valueOf(rs.getString("operation"));
-      ReplicationStatus status = ReplicationStatus.valueOf(rs.getString("status"));
-      Optional<Path> srcPath = Optional.ofNullable(rs.getString("src_path")).map(Path::new);
-      String srcClusterName = rs.getString("src_cluster");
-      String srcDbName = rs.getString("src_db");
-      String srcTableName = rs.getString("src_table");
-      List<String> srcPartitionNames = new ArrayList<>();
-      String partitionNamesJson = rs.getString("src_partitions");
-      if (partitionNamesJson != null) {
-        srcPartitionNames = ReplicationUtils.convertToList(partitionNamesJson);
-      }
-      Optional<String> srcObjectTldt = Optional.of(rs.getString("src_tldt"));
-      Optional<String> renameToDbName = Optional.of(rs.getString("rename_to_db"));
-      Optional<String> renameToTableName = Optional.of(rs.getString("rename_to_table"));
-      Optional<String> renameToPartitionName = Optional.of(rs.getString("rename_to_partition"));
-      Optional<Path> renameToPath = Optional.of(rs.getString("rename_to_path")).map(Path::new);
-      String extrasJson = rs.getString("extras");
-      Map<String, String> extras = new HashMap<>();
-      if (extrasJson != null) {
-        extras = ReplicationUtils.convertToMap(rs.getString("extras"));
-      }
+    try (Connection connection = dbConnectionFactory.getConnection();
+        PreparedStatement ps = connection.prepareStatement(query)) {
+      ResultSet rs = ps.executeQuery(query);
 
-      PersistedJobInfo persistedJobInfo = new PersistedJobInfo(Optional.of(id), createTime,
-          operation, status, srcPath, srcClusterName, srcDbName, srcTableName, srcPartitionNames,
-          srcObjectTldt, renameToDbName, renameToTableName, renameToPartitionName, renameToPath,
-          extras);
-      return persistedJobInfo;
+      while (rs.next()) {
+        Optional<Timestamp> ts = Optional.ofNullable(rs.getTimestamp("create_time"));
+        long createTime = ts.map(Timestamp::getTime).orElse(Long.valueOf(0));
+        ReplicationOperation operation = ReplicationOperation.valueOf(rs.getString("operation"));
+        ReplicationStatus status = ReplicationStatus.valueOf(rs.getString("status"));
+        Optional<Path> srcPath = Optional.ofNullable(rs.getString("src_path")).map(Path::new);
+        String srcClusterName = rs.getString("src_cluster");
+        String srcDbName = rs.getString("src_db");
+        String srcTableName = rs.getString("src_table");
+        List<String> srcPartitionNames = new ArrayList<>();
+        String partitionNamesJson = rs.getString("src_partitions");
+        if (partitionNamesJson != null) {
+          srcPartitionNames = ReplicationUtils.convertToList(partitionNamesJson);
+        }
+        Optional<String> srcObjectTldt = Optional.of(rs.getString("src_tldt"));
+        Optional<String> renameToDbName = Optional.of(rs.getString("rename_to_db"));
+        Optional<String> renameToTableName = Optional.of(rs.getString("rename_to_table"));
+        Optional<String> renameToPartitionName = Optional.of(rs.getString("rename_to_partition"));
+        Optional<Path> renameToPath = Optional.of(rs.getString("rename_to_path")).map(Path::new);
+        String extrasJson = rs.getString("extras");
+        Map<String, String> extras = new HashMap<>();
+        if (extrasJson != null) {
+          extras = ReplicationUtils.convertToMap(rs.getString("extras"));
+        }
+
+        PersistedJobInfo persistedJobInfo = new PersistedJobInfo(Optional.of(id), createTime,
+            operation, status, srcPath, srcClusterName, srcDbName, srcTableName, srcPartitionNames,
+            srcObjectTldt, renameToDbName, renameToTableName, renameToPartitionName, renameToPath,
+            extras);
+        return persistedJobInfo;
+      }
     }
     return null;
   }
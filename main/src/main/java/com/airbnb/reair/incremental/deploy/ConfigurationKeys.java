@@ -21,6 +21,39 @@ public class ConfigurationKeys {
   // Affects how many AuditLogEntries are read and processed at once, default 128
   public static final String AUDIT_LOG_PROCESSING_BATCH_SIZE =
       "airbnb.reair.audit_log.batch_size";
+  // Whether to read audit log entries in a background thread ahead of processing, default false
+  public static final String AUDIT_LOG_PREFETCH_ENABLED =
+      "airbnb.reair.audit_log.prefetch.enabled";
+  // Stop prefetching once this many audit log entries are buffered, default 2000
+  public static final String AUDIT_LOG_PREFETCH_HIGH_WATERMARK =
+      "airbnb.reair.audit_log.prefetch.high_watermark";
+  // Resume prefetching once the number of buffered entries drops to this amount, default 500
+  public static final String AUDIT_LOG_PREFETCH_LOW_WATERMARK =
+      "airbnb.reair.audit_log.prefetch.low_watermark";
+  // When there are no new audit log entries, wait this long before polling again, default 1000
+  public static final String AUDIT_LOG_PREFETCH_POLL_INTERVAL_MS =
+      "airbnb.reair.audit_log.prefetch.poll_interval_ms";
+  // Number of audit log rows to read with a single query, default 200
+  public static final String AUDIT_LOG_FETCH_SIZE = "airbnb.reair.audit_log.fetch.size";
+  // When reading shards, the number of IDs in a shard is adjusted so that each shard is about this
+  // many bytes, default 4194304
+  public static final String AUDIT_LOG_FETCH_TARGET_BYTES =
+      "airbnb.reair.audit_log.fetch.target_bytes";
+  // The most IDs to read with a single query when adjusting the fetch size, default 10000
+  public static final String AUDIT_LOG_FETCH_MAX_SIZE = "airbnb.reair.audit_log.fetch.max_size";
+  // Whether to read a backlog of audit log entries in parallel shards, default false
+  public static final String AUDIT_LOG_SHARDED_ENABLED = "airbnb.reair.audit_log.sharded.enabled";
+  // Number of connections used to read shards in parallel, default 4
+  public static final String AUDIT_LOG_SHARDED_CONNECTIONS =
+      "airbnb.reair.audit_log.sharded.connections";
+  // Read in shards when the reader is at least this many IDs behind the end of the log,
+  // default 10000
+  public static final String AUDIT_LOG_SHARDED_CATCH_UP_THRESHOLD =
+      "airbnb.reair.audit_log.sharded.catch_up_threshold";
+  // Maximum number of shards that are read ahead of the entries being returned, default 2 per
+  // connection
+  public static final String AUDIT_LOG_SHARDED_MAX_PENDING_SHARDS =
+      "airbnb.reair.audit_log.sharded.max_pending_shards";
 
   // JDB URL to the DB containing the replication state tables
   public static final String STATE_JDBC_URL = "airbnb.reair.state.db.jdbc_url";
@@ -32,10 +65,40 @@ public class ConfigurationKeys {
   public static final String STATE_DB_TABLE = "airbnb.reair.state.db.table_name";
   // Name of the table containing key/value pairs
   public static final String STATE_KV_DB_TABLE = "airbnb.reair.state.kv.db.table_name";
+  // Whether to write job status changes to the state table in batches from a background thread
+  // instead of with a query for every change, default false
+  public static final String STATE_WRITE_BEHIND_ENABLED =
+      "airbnb.reair.state.db.write_behind.enabled";
+  // When writing job state in the background, how often to write pending changes, default 1000
+  public static final String STATE_WRITE_BEHIND_FLUSH_INTERVAL_MS =
+      "airbnb.reair.state.db.write_behind.flush_interval_ms";
+  // Write pending changes immediately once this many jobs have unwritten changes, default 1000
+  public static final String STATE_WRITE_BEHIND_MAX_PENDING_JOBS =
+      "airbnb.reair.state.db.write_behind.max_pending_jobs";
+  // Maximum number of jobs to write with a single query, default 200
+  public static final String STATE_WRITE_BEHIND_BATCH_SIZE =
+      "airbnb.reair.state.db.write_behind.batch_size";
+  // When restoring unfinished jobs on startup, the number of rows to read from the state table
+  // with each query, default 10000
+  public static final String STATE_RESTORE_PAGE_SIZE =
+      "airbnb.reair.state.db.restore.page_size";
+  // Number of threads used to parse the rows read when restoring unfinished jobs, default 4
+  public static final String STATE_RESTORE_PARSE_THREADS =
+      "airbnb.reair.state.db.restore.parse_threads";
 
   // When running queries to the DB, the number of times to retry if there's an error
   public static final String DB_QUERY_RETRIES =
       "airbnb.reair.db.query.retries";
+  // Maximum number of connections to open to each of the audit log and state DBs. The connections
+  // are shared by the audit log reader, the job info store, and the key/value store. Default 8.
+  public static final String DB_CONNECTION_POOL_SIZE = "airbnb.reair.db.pool.size";
+  // Log the stack trace of the borrower when a pooled DB connection hasn't been returned after
+  // this long. Default 0 (disabled).
+  public static final String DB_CONNECTION_POOL_LEAK_DETECTION_MS =
+      "airbnb.reair.db.pool.leak_detection_ms";
+  // Number of prepared statements to cache per pooled DB connection. Default 32.
+  public static final String DB_CONNECTION_POOL_STATEMENT_CACHE_SIZE =
+      "airbnb.reair.db.pool.statement_cache_size";
 
   // monitoring via statsd settings
   public static final String STATSD_ENABLED = "airbnb.reair.statsd.enabled";
@@ -70,15 +133,80 @@ public class ConfigurationKeys {
   public static final String DEST_HDFS_ROOT = "airbnb.reair.clusters.dest.hdfs.root";
   // The root of the temporary directory for storing temporary files on the destination cluster
   public static final String DEST_HDFS_TMP = "airbnb.reair.clusters.dest.hdfs.tmp";
+  // If positive, share a pool of at most this many connections to each metastore between all
+  // threads instead of opening a connection per thread. Default 0 (connection per thread).
+  public static final String METASTORE_CONNECTION_POOL_SIZE =
+      "airbnb.reair.clusters.metastore.pool.size";
+  // Close pooled metastore connections that have been idle for this long. Default 5 minutes.
+  public static final String METASTORE_CONNECTION_POOL_MAX_IDLE_MS =
+      "airbnb.reair.clusters.metastore.pool.max_idle_ms";
+  // Timeout for opening a pooled metastore connection. Default 10 seconds.
+  public static final String METASTORE_CONNECTION_POOL_CONNECT_TIMEOUT_MS =
+      "airbnb.reair.clusters.metastore.pool.connect_timeout_ms";
 
   // Class to use for filtering out entries from the audit log
   public static final String OBJECT_FILTER_CLASS = "airbnb.reair.object.filter";
   // Number of threads to use for copying objects in the incremental replication server
   public static final String WORKER_THREADS = "airbnb.reair.worker.threads";
+  // Whether to adjust the number of worker threads based on the load. The initial number of
+  // threads is still set by WORKER_THREADS. Default false.
+  public static final String WORKER_AUTOSCALING_ENABLED = "airbnb.reair.worker.autoscaling.enabled";
+  // Bounds for the number of worker threads when autoscaling. Default to the initial number of
+  // threads and 4 times the initial number of threads.
+  public static final String WORKER_AUTOSCALING_MIN_THREADS =
+      "airbnb.reair.worker.autoscaling.min_threads";
+  public static final String WORKER_AUTOSCALING_MAX_THREADS =
+      "airbnb.reair.worker.autoscaling.max_threads";
+  // How often to evaluate the load when autoscaling. Default 10s.
+  public static final String WORKER_AUTOSCALING_INTERVAL_MS =
+      "airbnb.reair.worker.autoscaling.interval_ms";
+  // Add workers when jobs that are ready wait longer than this to start. Default 60s.
+  public static final String WORKER_AUTOSCALING_TARGET_QUEUE_WAIT_MS =
+      "airbnb.reair.worker.autoscaling.target_queue_wait_ms";
+  // Add workers when the replication lag is longer than this and jobs are waiting. Default 30m.
+  public static final String WORKER_AUTOSCALING_TARGET_LAG_MS =
+      "airbnb.reair.worker.autoscaling.target_lag_ms";
+  // Number of consecutive evaluations that need to find the workers overloaded or underloaded
+  // before workers are added or removed. Default 2 and 6.
+  public static final String WORKER_AUTOSCALING_SCALE_UP_EVALUATIONS =
+      "airbnb.reair.worker.autoscaling.scale_up_evaluations";
+  public static final String WORKER_AUTOSCALING_SCALE_DOWN_EVALUATIONS =
+      "airbnb.reair.worker.autoscaling.scale_down_evaluations";
   // Maximum number of jobs to keep in memory in the incremental replication server
   public static final String MAX_JOBS_IN_MEMORY = "airbnb.reair.jobs.in_memory_count";
+  // Whether a queued copy job that hasn't started is skipped when a newer job copies the same
+  // table or partition. Default false.
+  public static final String JOB_COALESCING_ENABLED = "airbnb.reair.jobs.coalescing.enabled";
+  // How to order the jobs that are ready to run: fifo, priority (metadata-only jobs first), fair
+  // (weighted fair sharing between groups of jobs), or shortest_first (by estimated bytes to copy,
+  // which lists the source directory of each copy job after it's queued). Default fifo.
+  public static final String JOB_SCHEDULING_POLICY = "airbnb.reair.jobs.scheduling.policy";
+  // For the shortest_first policy, the number of threads that estimate the cost of queued jobs.
+  // Default 4.
+  public static final String JOB_SCHEDULING_ESTIMATE_THREADS =
+      "airbnb.reair.jobs.scheduling.estimate_threads";
+  // For the fair policy, whether jobs are grouped by db or by table. Default table.
+  public static final String JOB_SCHEDULING_FAIR_GROUP_BY =
+      "airbnb.reair.jobs.scheduling.fair.group_by";
+  // For the fair policy, a comma separated list of group:weight pairs for groups that should get
+  // more or less than the default weight of 1 (e.g. "core_db:4,scratch_db.big_table:0.5").
+  public static final String JOB_SCHEDULING_FAIR_WEIGHTS =
+      "airbnb.reair.jobs.scheduling.fair.weights";
   // The port for the Thrift server to listen on
   public static final String THRIFT_SERVER_PORT = "airbnb.reair.thrift.port";
+  // Whether the Thrift server uses framed transport. Set to false to serve clients that use
+  // unframed transport with a thread per connection instead. Default true.
+  public static final String THRIFT_SERVER_FRAMED = "airbnb.reair.thrift.framed";
+  // Number of threads that read and write requests for framed transport. Default 2.
+  public static final String THRIFT_SERVER_SELECTOR_THREADS =
+      "airbnb.reair.thrift.selector_threads";
+  // Number of threads that handle Thrift requests. For unframed transport, this is the number of
+  // threads kept for idle connections. Default 8.
+  public static final String THRIFT_SERVER_WORKER_THREADS = "airbnb.reair.thrift.worker_threads";
+  // Close Thrift client connections that don't send a complete request within this long. Default
+  // 30 seconds.
+  public static final String THRIFT_SERVER_CLIENT_TIMEOUT_MS =
+      "airbnb.reair.thrift.client_timeout_ms";
   // When copying tables or partitions using an MR job, fail the job and retry if the job takes
   // longer than this many seconds.
   public static final String COPY_JOB_TIMEOUT_SECONDS = "airbnb.reair.copy.timeout.seconds";
@@ -91,6 +219,30 @@ public class ConfigurationKeys {
       "airbnb.reair.copy.timeout.dynamic.base.ms";
   public static final String COPY_JOB_DYNAMIC_TIMEOUT_MAX =
       "airbnb.reair.copy.timeout.dynamic.max.ms";
+  // Copies smaller than this many bytes (but too large for a single threaded copy) are done with a
+  // pool of threads in the replication process instead of a DistCp job. Default 5 GB.
+  public static final String COPY_PARALLEL_SIZE_THRESHOLD =
+      "airbnb.reair.copy.parallel.max_bytes";
+  // Copies with this many files or more are always done with a DistCp job. Default 1000.
+  public static final String COPY_PARALLEL_COUNT_THRESHOLD =
+      "airbnb.reair.copy.parallel.max_files";
+  // Number of files to copy at once in the replication process. Set to 0 to use DistCp instead.
+  // Default 8.
+  public static final String COPY_PARALLEL_THREADS = "airbnb.reair.copy.parallel.threads";
+  // Whether to check the checksums of files copied in the replication process. Default false.
+  public static final String COPY_PARALLEL_VERIFY_CHECKSUMS =
+      "airbnb.reair.copy.parallel.verify_checksums";
+  // Whether to copy only the files that changed when replacing an existing directory. Unchanged
+  // files are moved from the existing directory into the new copy. Default false.
+  public static final String COPY_INCREMENTAL_ENABLED = "airbnb.reair.copy.incremental.enabled";
+  // Whether an incremental copy should also compare checksums to decide if a file changed.
+  // Default false.
+  public static final String COPY_INCREMENTAL_COMPARE_CHECKSUMS =
+      "airbnb.reair.copy.incremental.compare_checksums";
+  // Maximum number of DistCp jobs to run at once, regardless of the number of workers. Copies that
+  // are done in process are not limited. Default is no limit.
+  public static final String COPY_MAX_CONCURRENT_DISTCP_JOBS =
+      "airbnb.reair.copy.distcp.max_concurrent_jobs";
   // If a replication job fails, the number of times to retry the job.
   public static final String JOB_RETRIES = "airbnb.reair.job.retries";
   // After a copy, whether to set / check that modified times for the copied files match between
@@ -98,6 +250,10 @@ public class ConfigurationKeys {
   // to the modified time.
   public static final String SYNC_MODIFIED_TIMES_FOR_FILE_COPY =
       "airbnb.reair.copy.sync_modified_times";
+  // When copying multiple partitions, the maximum number of partitions to fetch, add, or alter
+  // with a single metastore call. Default 100.
+  public static final String METASTORE_PARTITION_BATCH_SIZE =
+      "airbnb.reair.copy.metastore_partition_batch_size";
 
   // Following are settings pertinent to batch replication only.
 
@@ -123,4 +279,13 @@ public class ConfigurationKeys {
   // Whether to try to compare checksums to validate file copies when possible
   public static final String BATCH_JOB_VERIFY_COPY_CHECKSUM =
       "airbnb.reair.batch.copy.checksum.verify";
+  // The format of the output of the first stage, which is read by the later stages. Either
+  // "text" for gzip'd tab-separated text or "sequence_file" for block-compressed SequenceFiles of
+  // binary records. Default text.
+  public static final String BATCH_JOB_INTERMEDIATE_FORMAT =
+      "airbnb.reair.batch.intermediate.format";
+  // Name of the codec class to compress the output of the first stage with when using the
+  // sequence_file format. Default org.apache.hadoop.io.compress.DefaultCodec.
+  public static final String BATCH_JOB_INTERMEDIATE_CODEC =
+      "airbnb.reair.batch.intermediate.codec";
 }
@@ -3,11 +3,13 @@ package com.airbnb.reair.incremental.deploy;
 import com.airbnb.reair.db.DbConnectionFactory;
 import com.airbnb.reair.db.DbConnectionWatchdog;
 import com.airbnb.reair.db.DbKeyValueStore;
-import com.airbnb.reair.db.StaticDbConnectionFactory;
+import com.airbnb.reair.db.PooledDbConnectionFactory;
 import com.airbnb.reair.incremental.ReplicationServer;
 import com.airbnb.reair.incremental.StateUpdateException;
 import com.airbnb.reair.incremental.auditlog.AuditLogEntryException;
 import com.airbnb.reair.incremental.auditlog.AuditLogReader;
+import com.airbnb.reair.incremental.auditlog.PrefetchingAuditLogReader;
+import com.airbnb.reair.incremental.auditlog.ShardedAuditLogReader;
 import com.airbnb.reair.incremental.configuration.Cluster;
 import com.airbnb.reair.incremental.configuration.ClusterFactory;
 import com.airbnb.reair.incremental.configuration.ConfigurationException;
@@ -29,10 +31,16 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.thrift.TProcessor;
 import org.apache.thrift.server.TServer;
-import org.apache.thrift.server.TSimpleServer;
+import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TNonblockingServerTransport;
 import org.apache.thrift.transport.TServerSocket;
 import org.apache.thrift.transport.TServerTransport;
+import org.apache.thrift.transport.TTransportException;
 
 import java.io.IOException;
 import java.sql.SQLException;
@@ -81,11 +89,16 @@ public class ReplicationLauncher {
         ConfigurationKeys.AUDIT_LOG_DB_USER);
     String auditLogDbPassword = conf.get(
         ConfigurationKeys.AUDIT_LOG_DB_PASSWORD);
-    DbConnectionFactory auditLogConnectionFactory =
-        new StaticDbConnectionFactory(
-            auditLogJdbcUrl,
-            auditLogDbUser,
-            auditLogDbPassword);
+    boolean shardedAuditLogReader =
+        conf.getBoolean(ConfigurationKeys.AUDIT_LOG_SHARDED_ENABLED, false);
+    int shardConnections = conf.getInt(ConfigurationKeys.AUDIT_LOG_SHARDED_CONNECTIONS, 4);
+    // The shards share the pool with the reader, so make sure that they can all run at once
+    DbConnectionFactory auditLogConnectionFactory = createDbConnectionFactory(
+        conf,
+        auditLogJdbcUrl,
+        auditLogDbUser,
+        auditLogDbPassword,
+        shardedAuditLogReader ? shardConnections + 1 : 1);
     String auditLogTableName = conf.get(
         ConfigurationKeys.AUDIT_LOG_DB_TABLE);
     String auditLogObjectsTableName = conf.get(
@@ -93,13 +106,37 @@ public class ReplicationLauncher {
     String auditLogMapRedStatsTableName = conf.get(
         ConfigurationKeys.AUDIT_LOG_MAPRED_STATS_DB_TABLE);
 
-    final AuditLogReader auditLogReader = new AuditLogReader(
-        conf,
-        auditLogConnectionFactory,
-        auditLogTableName,
-        auditLogObjectsTableName,
-        auditLogMapRedStatsTableName,
-        0);
+    final AuditLogReader auditLogReader;
+    if (shardedAuditLogReader) {
+      List<DbConnectionFactory> shardConnectionFactories = new ArrayList<>();
+      for (int i = 0; i < shardConnections; i++) {
+        shardConnectionFactories.add(auditLogConnectionFactory);
+      }
+      auditLogReader = new ShardedAuditLogReader(
+          conf,
+          auditLogConnectionFactory,
+          shardConnectionFactories,
+          auditLogTableName,
+          auditLogObjectsTableName,
+          auditLogMapRedStatsTableName,
+          0);
+    } else if (conf.getBoolean(ConfigurationKeys.AUDIT_LOG_PREFETCH_ENABLED, false)) {
+      auditLogReader = new PrefetchingAuditLogReader(
+          conf,
+          auditLogConnectionFactory,
+          auditLogTableName,
+          auditLogObjectsTableName,
+          auditLogMapRedStatsTableName,
+          0);
+    } else {
+      auditLogReader = new AuditLogReader(
+          conf,
+          auditLogConnectionFactory,
+          auditLogTableName,
+          auditLogObjectsTableName,
+          auditLogMapRedStatsTableName,
+          0);
+    }
 
     // Create the connection to the key value store in the DB
     String stateJdbcUrl = conf.get(
@@ -111,11 +148,12 @@ public class ReplicationLauncher {
     String keyValueTableName = conf.get(
         ConfigurationKeys.STATE_KV_DB_TABLE);
 
-    DbConnectionFactory stateConnectionFactory =
-        new StaticDbConnectionFactory(
-            stateJdbcUrl,
-            stateDbUser,
-            stateDbPassword);
+    DbConnectionFactory stateConnectionFactory = createDbConnectionFactory(
+        conf,
+        stateJdbcUrl,
+        stateDbUser,
+        stateDbPassword,
+        1);
 
     final DbKeyValueStore dbKeyValueStore = new DbKeyValueStore(
         stateConnectionFactory,
@@ -131,6 +169,15 @@ public class ReplicationLauncher {
             stateConnectionFactory,
             stateTableName);
 
+    // If job state is written behind, write any pending changes before exiting
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          persistedJobInfoStore.close();
+        } catch (StateUpdateException e) {
+          LOG.error("Error writing pending job state on shutdown", e);
+        }
+      }));
+
     if (resetState) {
       LOG.info("Resetting state by aborting non-completed jobs");
       persistedJobInfoStore.abortRunnableFromDb();
@@ -204,11 +251,7 @@ public class ReplicationLauncher {
     Runnable serverRunnable = new Runnable() {
       public void run() {
         try {
-          TServerTransport serverTransport = new TServerSocket(
-              thriftServerPort);
-          TServer server = new TSimpleServer(
-              new TServer.Args(
-                serverTransport).processor(processor));
+          TServer server = createThriftServer(conf, processor, thriftServerPort);
 
           LOG.debug("Starting the thrift server on port " + thriftServerPort);
           server.serve();
@@ -235,6 +278,74 @@ public class ReplicationLauncher {
     }
   }
 
+  /**
+   * Creates a pool of connections to a DB, sized according to the configuration.
+   *
+   * @param conf configuration object
+   * @param jdbcUrl the JDBC connection URL
+   * @param username the username
+   * @param password the password associated with the username
+   * @param minConnections the minimum size of the pool, regardless of the configured size
+   * @return a factory that hands out pooled connections
+   */
+  private static DbConnectionFactory createDbConnectionFactory(
+      Configuration conf,
+      String jdbcUrl,
+      String username,
+      String password,
+      int minConnections) {
+    return new PooledDbConnectionFactory(
+        jdbcUrl,
+        username,
+        password,
+        Math.max(minConnections, conf.getInt(ConfigurationKeys.DB_CONNECTION_POOL_SIZE, 8)),
+        PooledDbConnectionFactory.DEFAULT_MAX_IDLE_TIME_MS,
+        PooledDbConnectionFactory.DEFAULT_VALIDATION_IDLE_TIME_MS,
+        PooledDbConnectionFactory.DEFAULT_BORROW_TIMEOUT_MS,
+        conf.getLong(ConfigurationKeys.DB_CONNECTION_POOL_LEAK_DETECTION_MS,
+            PooledDbConnectionFactory.DEFAULT_LEAK_DETECTION_THRESHOLD_MS),
+        conf.getInt(ConfigurationKeys.DB_CONNECTION_POOL_STATEMENT_CACHE_SIZE,
+            PooledDbConnectionFactory.DEFAULT_STATEMENT_CACHE_SIZE));
+  }
+
+  /**
+   * Creates the Thrift server for the replication service. By default, the server uses framed
+   * transport and handles requests with a pool of worker threads, so a slow call or a client that
+   * stalls in the middle of a request doesn't block other clients. For clients that use unframed
+   * transport, the server can instead use a thread per connection.
+   *
+   * @param conf configuration object
+   * @param processor the processor for the replication service
+   * @param port the port to listen on
+   * @return the server, which handles requests once serve() is called
+   *
+   * @throws TTransportException if there's an error listening on the port
+   */
+  public static TServer createThriftServer(
+      Configuration conf,
+      TProcessor processor,
+      int port) throws TTransportException {
+    int workerThreads = conf.getInt(ConfigurationKeys.THRIFT_SERVER_WORKER_THREADS, 8);
+    int clientTimeoutMs = conf.getInt(ConfigurationKeys.THRIFT_SERVER_CLIENT_TIMEOUT_MS, 30000);
+
+    if (conf.getBoolean(ConfigurationKeys.THRIFT_SERVER_FRAMED, true)) {
+      TNonblockingServerTransport serverTransport =
+          new TNonblockingServerSocket(port, clientTimeoutMs);
+      return new TThreadedSelectorServer(
+          new TThreadedSelectorServer.Args(serverTransport)
+              .selectorThreads(conf.getInt(ConfigurationKeys.THRIFT_SERVER_SELECTOR_THREADS, 2))
+              .workerThreads(workerThreads)
+              .transportFactory(new TFramedTransport.Factory())
+              .processor(processor));
+    } else {
+      TServerTransport serverTransport = new TServerSocket(port, clientTimeoutMs);
+      return new TThreadPoolServer(
+          new TThreadPoolServer.Args(serverTransport)
+              .minWorkerThreads(workerThreads)
+              .processor(processor));
+    }
+  }
+
   /**
    * Launcher entry point.
    *
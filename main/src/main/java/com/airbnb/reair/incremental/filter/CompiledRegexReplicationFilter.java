@@ -0,0 +1,133 @@
+package com.airbnb.reair.incremental.filter;
+
+import com.airbnb.reair.common.NamedPartition;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntry;
+import com.airbnb.reair.incremental.filter.ObjectNamePattern.PrefixMatch;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.metastore.api.Table;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Filters out objects using the same configuration and giving the same results as
+ * {@link RegexReplicationFilter}, but with the whitelist and blacklist compiled when the
+ * configuration is set. Decisions are cached per table, so that for most rules, checking a
+ * partition doesn't need any matching once its table has been seen.
+ */
+public class CompiledRegexReplicationFilter implements ReplicationFilter {
+
+  private static final Log LOG = LogFactory.getLog(CompiledRegexReplicationFilter.class);
+
+  // Maximum number of tables to cache filter decisions for
+  public static final String CACHE_SIZE_KEY = "airbnb.reair.filter.cache_size";
+  private static final int DEFAULT_CACHE_SIZE = 10000;
+
+  /**
+   * The filter decisions for a table and the partitions of the table.
+   */
+  private static class TableDecision {
+    private final boolean tableAccepted;
+    private final PrefixMatch whitelistedPartitions;
+    private final PrefixMatch blacklistedPartitions;
+
+    TableDecision(
+        boolean tableAccepted,
+        PrefixMatch whitelistedPartitions,
+        PrefixMatch blacklistedPartitions) {
+      this.tableAccepted = tableAccepted;
+      this.whitelistedPartitions = whitelistedPartitions;
+      this.blacklistedPartitions = blacklistedPartitions;
+    }
+  }
+
+  // Null if the whitelist is missing, in which case nothing is accepted
+  private ObjectNamePattern whitelist;
+  // Null if the blacklist is missing, in which case nothing is blacklisted
+  private ObjectNamePattern blacklist;
+  private Map<String, TableDecision> tableDecisions;
+
+  @Override
+  public void setConf(Configuration conf) {
+    String whitelistRegex = conf.get(RegexReplicationFilter.WHITELIST_REGEX_KEY);
+    if (whitelistRegex == null) {
+      LOG.warn("Missing value for whitelist key: " + RegexReplicationFilter.WHITELIST_REGEX_KEY);
+      whitelist = null;
+    } else {
+      whitelist = new ObjectNamePattern(whitelistRegex);
+    }
+
+    String blacklistRegex = conf.get(RegexReplicationFilter.BLACKLIST_REGEX_KEY);
+    if (blacklistRegex == null) {
+      LOG.warn("Missing value for blacklist key: " + RegexReplicationFilter.BLACKLIST_REGEX_KEY);
+      blacklist = null;
+    } else {
+      blacklist = new ObjectNamePattern(blacklistRegex);
+    }
+
+    final int cacheSize = conf.getInt(CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE);
+    tableDecisions = Collections.synchronizedMap(
+        new LinkedHashMap<String, TableDecision>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, TableDecision> eldest) {
+            return size() > cacheSize;
+          }
+        });
+  }
+
+  @Override
+  public boolean accept(AuditLogEntry entry) {
+    return true;
+  }
+
+  @Override
+  public boolean accept(Table table) {
+    return accept(table, null);
+  }
+
+  @Override
+  public boolean accept(Table table, NamedPartition partition) {
+    // Same format as HiveObjectSpec.toString()
+    String tableObjectName = table.getDbName() + "." + table.getTableName();
+    TableDecision decision = getTableDecision(tableObjectName);
+    if (partition == null) {
+      return decision.tableAccepted;
+    }
+
+    if (decision.whitelistedPartitions == PrefixMatch.NONE
+        || decision.blacklistedPartitions == PrefixMatch.ALL) {
+      return false;
+    }
+    if (decision.whitelistedPartitions == PrefixMatch.ALL
+        && decision.blacklistedPartitions == PrefixMatch.NONE) {
+      return true;
+    }
+    return matches(tableObjectName + "/" + partition.getName());
+  }
+
+  private TableDecision getTableDecision(String tableObjectName) {
+    TableDecision decision = tableDecisions.get(tableObjectName);
+    if (decision != null) {
+      return decision;
+    }
+
+    String partitionPrefix = tableObjectName + "/";
+    decision = new TableDecision(
+        matches(tableObjectName),
+        whitelist == null ? PrefixMatch.NONE : whitelist.matchesWithPrefix(partitionPrefix),
+        blacklist == null ? PrefixMatch.NONE : blacklist.matchesWithPrefix(partitionPrefix));
+    tableDecisions.put(tableObjectName, decision);
+    return decision;
+  }
+
+  private boolean matches(String objectName) {
+    if (whitelist == null || !whitelist.matches(objectName)) {
+      return false;
+    }
+    return blacklist == null || !blacklist.matches(objectName);
+  }
+}
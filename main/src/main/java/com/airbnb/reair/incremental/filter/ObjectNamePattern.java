@@ -0,0 +1,240 @@
+package com.airbnb.reair.incremental.filter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A compiled form of a regular expression for matching object names (e.g. {@code db.table} or
+ * {@code db.table/ds=1}) that gives the same results as {@link String#matches(String)}.
+ *
+ * <p>Filter regexes are often a long list of alternatives like
+ * {@code ^db\.table_1$|^db\.table_2$|db\.tmp_.*}. Alternatives that match a single name are kept
+ * in a hash set, and alternatives that match all names starting with a fixed prefix are kept in a
+ * trie. Only the remaining alternatives are matched as a regular expression.
+ */
+public class ObjectNamePattern {
+
+  /**
+   * Describes which of the names starting with a given prefix match the pattern.
+   */
+  public enum PrefixMatch {
+    // All of the names starting with the prefix match
+    ALL,
+    // None of the names starting with the prefix match
+    NONE,
+    // Some names may match, so each name needs to be checked
+    SOME
+  }
+
+  // Characters that have a special meaning outside of a character class
+  private static final String META_CHARACTERS = "\\^$.|?*+()[]{}";
+
+  /**
+   * A node in the trie of literal names and prefixes.
+   */
+  private static class Node {
+    private final Map<Character, Node> children = new HashMap<>();
+    // Whether all names that start with the path to this node match
+    private boolean prefixEnd = false;
+  }
+
+  private final Set<String> names = new HashSet<>();
+  private final Node root = new Node();
+  // Null if all the alternatives are literals
+  private final Pattern fallbackPattern;
+
+  /**
+   * Compiles the given regex.
+   *
+   * @param regex the regex to compile
+   *
+   * @throws PatternSyntaxException if the regex is invalid
+   */
+  public ObjectNamePattern(String regex) {
+    // Check the syntax of the whole regex before splitting it
+    Pattern pattern = Pattern.compile(regex);
+
+    List<String> alternatives = splitAlternatives(regex);
+    if (alternatives == null) {
+      fallbackPattern = pattern;
+      return;
+    }
+
+    List<String> remainingAlternatives = new ArrayList<>();
+    for (String alternative : alternatives) {
+      if (!addLiteral(alternative)) {
+        remainingAlternatives.add(alternative);
+      }
+    }
+    fallbackPattern = remainingAlternatives.isEmpty()
+        ? null : Pattern.compile(String.join("|", remainingAlternatives));
+  }
+
+  /**
+   * Split a regex into its top level alternatives.
+   *
+   * @return the alternatives, or null if the regex uses constructs that would change meaning if the
+   *         alternatives were matched separately
+   */
+  private static List<String> splitAlternatives(String regex) {
+    // Flags, named groups, quoting, and backreferences could apply across alternatives
+    if (regex.contains("(?") || regex.contains("\\Q") || regex.contains("\\k")
+        || regex.matches("(?s).*\\\\[1-9].*")) {
+      return null;
+    }
+
+    List<String> alternatives = new ArrayList<>();
+    int groupDepth = 0;
+    int classDepth = 0;
+    int start = 0;
+    for (int i = 0; i < regex.length(); i++) {
+      char ch = regex.charAt(i);
+      if (ch == '\\') {
+        // Skip the escaped character
+        i++;
+      } else if (ch == '[') {
+        classDepth++;
+      } else if (ch == ']' && classDepth > 0) {
+        classDepth--;
+      } else if (classDepth > 0) {
+        continue;
+      } else if (ch == '(') {
+        groupDepth++;
+      } else if (ch == ')') {
+        groupDepth--;
+      } else if (ch == '|' && groupDepth == 0) {
+        alternatives.add(regex.substring(start, i));
+        start = i + 1;
+      }
+    }
+    alternatives.add(regex.substring(start));
+
+    for (String alternative : alternatives) {
+      try {
+        Pattern.compile(alternative);
+      } catch (PatternSyntaxException e) {
+        return null;
+      }
+    }
+    return alternatives;
+  }
+
+  private static boolean isEscaped(String regex, int index) {
+    int backslashCount = 0;
+    for (int i = index - 1; i >= 0 && regex.charAt(i) == '\\'; i--) {
+      backslashCount++;
+    }
+    return backslashCount % 2 == 1;
+  }
+
+  /**
+   * If the alternative only matches a literal name, or all the names with a literal prefix, add it
+   * to the set of names or the trie.
+   *
+   * @return whether the alternative was added
+   */
+  private boolean addLiteral(String alternative) {
+    int start = 0;
+    int end = alternative.length();
+    if (alternative.startsWith("^")) {
+      start++;
+    }
+    if (end > start && alternative.charAt(end - 1) == '$' && !isEscaped(alternative, end - 1)) {
+      end--;
+    }
+
+    StringBuilder literal = new StringBuilder();
+    boolean isPrefix = false;
+    int i = start;
+    while (i < end) {
+      char ch = alternative.charAt(i);
+      if (ch == '.' && i + 2 == end && alternative.charAt(i + 1) == '*') {
+        // Object names don't contain line terminators, so a trailing .* matches any suffix
+        isPrefix = true;
+        i += 2;
+      } else if (ch == '\\') {
+        if (i + 1 >= end || Character.isLetterOrDigit(alternative.charAt(i + 1))) {
+          // Escapes like \d are character classes
+          return false;
+        }
+        literal.append(alternative.charAt(i + 1));
+        i += 2;
+      } else if (META_CHARACTERS.indexOf(ch) >= 0) {
+        return false;
+      } else {
+        literal.append(ch);
+        i++;
+      }
+    }
+
+    Node node = root;
+    for (int j = 0; j < literal.length(); j++) {
+      node = node.children.computeIfAbsent(literal.charAt(j), c -> new Node());
+    }
+    if (isPrefix) {
+      node.prefixEnd = true;
+    } else {
+      names.add(literal.toString());
+    }
+    return true;
+  }
+
+  /**
+   * Check whether the given name matches the pattern.
+   *
+   * @param name the name to check
+   * @return whether the whole name matches the pattern
+   */
+  public boolean matches(String name) {
+    if (names.contains(name)) {
+      return true;
+    }
+    Node node = root;
+    for (int i = 0; node != null; i++) {
+      if (node.prefixEnd) {
+        return true;
+      }
+      if (i == name.length()) {
+        break;
+      }
+      node = node.children.get(name.charAt(i));
+    }
+    return fallbackPattern != null && fallbackPattern.matcher(name).matches();
+  }
+
+  /**
+   * Check which of the names that start with the given prefix match the pattern.
+   *
+   * @param prefix the prefix of the names
+   * @return whether all, none, or some of the names with the prefix match
+   */
+  public PrefixMatch matchesWithPrefix(String prefix) {
+    Node node = root;
+    for (int i = 0; node != null; i++) {
+      if (node.prefixEnd) {
+        return PrefixMatch.ALL;
+      }
+      if (i == prefix.length()) {
+        break;
+      }
+      node = node.children.get(prefix.charAt(i));
+    }
+    // If there's a node for the prefix, there are literal names or prefixes that start with it
+    boolean someMatch = node != null;
+
+    if (!someMatch && fallbackPattern != null) {
+      // If the regex didn't need to read past the end of the prefix to fail, adding characters to
+      // the prefix can't make it match
+      Matcher matcher = fallbackPattern.matcher(prefix);
+      someMatch = matcher.matches() || matcher.hitEnd();
+    }
+    return someMatch ? PrefixMatch.SOME : PrefixMatch.NONE;
+  }
+}
@@ -52,6 +52,11 @@ public class CopyPartitionTask implements ReplicationTask {
   private Optional<Path> optimisticCopyRoot;
   private DirectoryCopier directoryCopier;
   private boolean allowDataCopy;
+  // If set, the partitions were fetched by the caller, and the metadata changes are recorded in
+  // the batch for the caller to commit.
+  private Optional<PartitionMetadataBatch> metadataBatch;
+  private Partition prefetchedSrcPartition;
+  private Partition prefetchedDestPartition;
 
   /**
    * Constructor for a task that copies a single Hive partition.
@@ -93,6 +98,50 @@ public class CopyPartitionTask implements ReplicationTask {
     this.optimisticCopyRoot = optimisticCopyRoot;
     this.directoryCopier = directoryCopier;
     this.allowDataCopy = allowDataCopy;
+    this.metadataBatch = Optional.empty();
+  }
+
+  /**
+   * Constructor for a task that copies a single Hive partition as part of a batch of partitions.
+   * The caller has already fetched the partitions and brought the destination table up to date,
+   * so this task does not query the metastores. Instead of creating or altering the partition on
+   * the destination, the change is recorded in the supplied batch, and the caller is responsible
+   * for committing it.
+   *
+   * @param conf configuration object
+   * @param destObjectFactory factory for creating objects for the destination cluster
+   * @param objectConflictHandler handler for addressing conflicting tables/partitions on the
+   *                              destination cluster
+   * @param srcCluster source cluster
+   * @param destCluster destination cluster
+   * @param spec specification for the Hive partition to copy
+   * @param srcPartition the partition on the source
+   * @param existingDestPartition the partition on the destination, or null if it doesn't exist
+   * @param optimisticCopyRoot if data for this partitioned was copied in advance, the root
+   *                           directory where the data was copied to
+   * @param directoryCopier runs directory copies through MR jobs
+   * @param allowDataCopy Whether to copy data for this partition
+   * @param metadataBatch the batch to record the metadata changes in
+   */
+  public CopyPartitionTask(
+      Configuration conf,
+      DestinationObjectFactory destObjectFactory,
+      ObjectConflictHandler objectConflictHandler,
+      Cluster srcCluster,
+      Cluster destCluster,
+      HiveObjectSpec spec,
+      Partition srcPartition,
+      Partition existingDestPartition,
+      Optional<Path> optimisticCopyRoot,
+      DirectoryCopier directoryCopier,
+      boolean allowDataCopy,
+      PartitionMetadataBatch metadataBatch) {
+    this(conf, destObjectFactory, objectConflictHandler, srcCluster, destCluster, spec,
+        ReplicationUtils.getLocation(srcPartition), optimisticCopyRoot, directoryCopier,
+        allowDataCopy);
+    this.metadataBatch = Optional.of(metadataBatch);
+    this.prefetchedSrcPartition = srcPartition;
+    this.prefetchedDestPartition = existingDestPartition;
   }
 
   @Override
@@ -103,8 +152,9 @@ public class CopyPartitionTask implements ReplicationTask {
     HiveMetastoreClient destMs = destCluster.getMetastoreClient();
     HiveMetastoreClient srcMs = srcCluster.getMetastoreClient();
 
-    Partition freshSrcPartition =
-        srcMs.getPartition(spec.getDbName(), spec.getTableName(), spec.getPartitionName());
+    Partition freshSrcPartition = metadataBatch.isPresent()
+        ? prefetchedSrcPartition
+        : srcMs.getPartition(spec.getDbName(), spec.getTableName(), spec.getPartitionName());
 
     if (freshSrcPartition == null) {
       LOG.warn("Source partition " + spec + " does not exist, so not " + "copying");
@@ -112,8 +162,9 @@ public class CopyPartitionTask implements ReplicationTask {
     }
 
     if (!conf.getBoolean(ConfigurationKeys.BATCH_JOB_OVERWRITE_NEWER, true)) {
-      Partition freshDestPartition =
-          destMs.getPartition(spec.getDbName(), spec.getTableName(), spec.getPartitionName());
+      Partition freshDestPartition = metadataBatch.isPresent()
+          ? prefetchedDestPartition
+          : destMs.getPartition(spec.getDbName(), spec.getTableName(), spec.getPartitionName());
       if (ReplicationUtils.isSrcOlder(freshSrcPartition, freshDestPartition)) {
         LOG.warn(String.format(
             "Source %s (%s) is older than destination (%s), so not copying",
@@ -124,30 +175,36 @@ public class CopyPartitionTask implements ReplicationTask {
       }
     }
 
-    // Before copying a partition, first make sure that table is up to date
-    Table srcTable = srcMs.getTable(spec.getDbName(), spec.getTableName());
-    Table destTable = destMs.getTable(spec.getDbName(), spec.getTableName());
-
-    if (srcTable == null) {
-      LOG.warn("Source table " + spec + " doesn't exist, so not " + "copying");
-      return new RunInfo(RunInfo.RunStatus.NOT_COMPLETABLE, 0);
-    }
+    Partition existingPartition;
+    if (metadataBatch.isPresent()) {
+      // The caller has already made sure that the table is up to date
+      existingPartition = prefetchedDestPartition;
+    } else {
+      // Before copying a partition, first make sure that table is up to date
+      Table srcTable = srcMs.getTable(spec.getDbName(), spec.getTableName());
+      Table destTable = destMs.getTable(spec.getDbName(), spec.getTableName());
+
+      if (srcTable == null) {
+        LOG.warn("Source table " + spec + " doesn't exist, so not " + "copying");
+        return new RunInfo(RunInfo.RunStatus.NOT_COMPLETABLE, 0);
+      }
 
-    if (destTable == null || !ReplicationUtils.schemasMatch(srcTable, destTable)) {
-      LOG.warn("Copying source table over to the destination since "
-          + "schemas do not match. (source: " + srcTable + " destination: " + destTable + ")");
-      CopyPartitionedTableTask copyTableJob =
-          new CopyPartitionedTableTask(conf, destObjectFactory, objectConflictHandler, srcCluster,
-              destCluster, spec.getTableSpec(), ReplicationUtils.getLocation(srcTable));
-      RunInfo status = copyTableJob.runTask();
-      if (status.getRunStatus() != RunInfo.RunStatus.SUCCESSFUL) {
-        LOG.error("Failed to copy " + spec.getTableSpec());
-        return new RunInfo(RunInfo.RunStatus.FAILED, 0);
+      if (destTable == null || !ReplicationUtils.schemasMatch(srcTable, destTable)) {
+        LOG.warn("Copying source table over to the destination since "
+            + "schemas do not match. (source: " + srcTable + " destination: " + destTable + ")");
+        CopyPartitionedTableTask copyTableJob =
+            new CopyPartitionedTableTask(conf, destObjectFactory, objectConflictHandler, srcCluster,
+                destCluster, spec.getTableSpec(), ReplicationUtils.getLocation(srcTable));
+        RunInfo status = copyTableJob.runTask();
+        if (status.getRunStatus() != RunInfo.RunStatus.SUCCESSFUL) {
+          LOG.error("Failed to copy " + spec.getTableSpec());
+          return new RunInfo(RunInfo.RunStatus.FAILED, 0);
+        }
       }
-    }
 
-    Partition existingPartition =
-        destMs.getPartition(spec.getDbName(), spec.getTableName(), spec.getPartitionName());
+      existingPartition =
+          destMs.getPartition(spec.getDbName(), spec.getTableName(), spec.getPartitionName());
+    }
 
     Partition destPartition = destObjectFactory.createDestPartition(srcCluster, destCluster,
         freshSrcPartition, existingPartition);
@@ -238,6 +295,11 @@ public class CopyPartitionTask implements ReplicationTask {
     switch (action) {
 
       case CREATE:
+        if (metadataBatch.isPresent()) {
+          LOG.debug("Adding " + spec + " to the batch of partitions to create");
+          metadataBatch.get().addPartition(destPartition);
+          break;
+        }
         ReplicationUtils.createDbIfNecessary(srcMs, destMs, destPartition.getDbName());
 
         LOG.debug("Creating " + spec + " since it does not exist on " + "the destination");
@@ -246,6 +308,11 @@ public class CopyPartitionTask implements ReplicationTask {
         break;
 
       case ALTER:
+        if (metadataBatch.isPresent()) {
+          LOG.debug("Adding " + spec + " to the batch of partitions to alter");
+          metadataBatch.get().alterPartition(destPartition);
+          break;
+        }
         LOG.debug("Altering partition " + spec + " on destination");
         destMs.alterPartition(destPartition.getDbName(), destPartition.getTableName(),
             destPartition);
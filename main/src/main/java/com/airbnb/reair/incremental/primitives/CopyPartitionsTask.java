@@ -1,5 +1,7 @@
 package com.airbnb.reair.incremental.primitives;
 
+import com.google.common.collect.Lists;
+
 import com.airbnb.reair.common.DistCpException;
 import com.airbnb.reair.common.FsUtils;
 import com.airbnb.reair.common.HiveMetastoreClient;
@@ -14,6 +16,7 @@ import com.airbnb.reair.incremental.configuration.Cluster;
 import com.airbnb.reair.incremental.configuration.ConfigurationException;
 import com.airbnb.reair.incremental.configuration.DestinationObjectFactory;
 import com.airbnb.reair.incremental.configuration.ObjectConflictHandler;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 import com.airbnb.reair.multiprocessing.Lock;
 import com.airbnb.reair.multiprocessing.LockSet;
 import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
@@ -28,6 +31,7 @@ import org.apache.hadoop.hive.metastore.api.Table;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +48,8 @@ public class CopyPartitionsTask implements ReplicationTask {
 
   private static final Log LOG = LogFactory.getLog(CopyPartitionsTask.class);
 
+  public static final int DEFAULT_METASTORE_PARTITION_BATCH_SIZE = 100;
+
   private Configuration conf;
   private DestinationObjectFactory objectModifier;
   private ObjectConflictHandler objectConflictHandler;
@@ -134,6 +140,33 @@ public class CopyPartitionsTask implements ReplicationTask {
     return commonDirectory;
   }
 
+  /**
+   * Fetch partitions from the metastore in batches.
+   *
+   * @param ms the metastore to fetch the partitions from
+   * @param table the table that the partitions belong to
+   * @param partitionNames the names of the partitions to fetch
+   * @param batchSize the maximum number of partitions to fetch in a single call
+   * @return a map from the partition name to the partition. Partitions that don't exist are not
+   *         included.
+   *
+   * @throws HiveMetastoreException if there's an error querying the metastore
+   */
+  private static Map<String, Partition> getPartitionsByNames(
+      HiveMetastoreClient ms,
+      Table table,
+      List<String> partitionNames,
+      int batchSize) throws HiveMetastoreException {
+    Map<String, Partition> nameToPartition = new HashMap<>();
+    for (List<String> batch : Lists.partition(partitionNames, batchSize)) {
+      for (Partition partition :
+          ms.getPartitionsByNames(table.getDbName(), table.getTableName(), batch)) {
+        nameToPartition.put(HiveUtils.getPartitionName(table, partition), partition);
+      }
+    }
+    return nameToPartition;
+  }
+
   @Override
   public RunInfo runTask()
       throws HiveMetastoreException, DistCpException, IOException,
@@ -160,6 +193,58 @@ public class CopyPartitionsTask implements ReplicationTask {
     Optional<Path> tableLocation = ReplicationUtils.getLocation(freshSrcTable);
     LOG.debug("Location of table " + srcTableSpec + " is " + tableLocation);
 
+    int batchSize = conf.getInt(ConfigurationKeys.METASTORE_PARTITION_BATCH_SIZE,
+        DEFAULT_METASTORE_PARTITION_BATCH_SIZE);
+
+    // Fetch all the source partitions up front rather than one at a time
+    Map<String, Partition> srcPartitions =
+        getPartitionsByNames(srcMs, freshSrcTable, partitionNames, batchSize);
+    for (String partitionName : partitionNames) {
+      // The names that were passed in may not be formatted in exactly the same way as the names
+      // derived from the fetched partitions, so look up any stragglers individually.
+      if (!srcPartitions.containsKey(partitionName)) {
+        Partition partition = srcMs.getPartition(srcTableSpec.getDbName(),
+            srcTableSpec.getTableName(), partitionName);
+        if (partition != null) {
+          srcPartitions.put(partitionName, partition);
+        }
+      }
+    }
+
+    // Make sure that the table on the destination is up to date once for all the partitions,
+    // rather than checking it while copying each partition.
+    Table destTable = destMs.getTable(srcTableSpec.getDbName(), srcTableSpec.getTableName());
+    if (destTable == null || !ReplicationUtils.schemasMatch(freshSrcTable, destTable)) {
+      LOG.warn("Copying source table over to the destination since "
+          + "schemas do not match. (source: " + freshSrcTable + " destination: " + destTable
+          + ")");
+      CopyPartitionedTableTask copyTableJob =
+          new CopyPartitionedTableTask(conf, objectModifier, objectConflictHandler, srcCluster,
+              destCluster, srcTableSpec, tableLocation);
+      RunInfo status = copyTableJob.runTask();
+      if (status.getRunStatus() != RunInfo.RunStatus.SUCCESSFUL) {
+        LOG.error("Failed to copy " + srcTableSpec);
+        return new RunInfo(RunInfo.RunStatus.FAILED, 0);
+      }
+      destTable = destMs.getTable(srcTableSpec.getDbName(), srcTableSpec.getTableName());
+      if (destTable == null) {
+        LOG.error("Destination table " + srcTableSpec + " does not exist after copying");
+        return new RunInfo(RunInfo.RunStatus.FAILED, 0);
+      }
+    }
+
+    // Fetch the existing destination partitions. These are keyed by the values as the destination
+    // object factory doesn't change them.
+    List<String> srcPartitionNames = new ArrayList<>();
+    for (Partition srcPartition : srcPartitions.values()) {
+      srcPartitionNames.add(HiveUtils.getPartitionName(freshSrcTable, srcPartition));
+    }
+    Map<List<String>, Partition> destPartitions = new HashMap<>();
+    for (Partition destPartition :
+        getPartitionsByNames(destMs, destTable, srcPartitionNames, batchSize).values()) {
+      destPartitions.put(destPartition.getValues(), destPartition);
+    }
+
     // If possible, copy the common directory in a single distcp job.
     // We call this the optimistic copy as this should result in no
     // additional distcp jobs when copying the partitions.
@@ -176,12 +261,8 @@ public class CopyPartitionsTask implements ReplicationTask {
       // the same size
 
       long sizeOfPartitionsInCommonDirectory = 0;
-      for (String partitionName : partitionNames) {
-        Partition partition = srcMs.getPartition(
-            srcTableSpec.getDbName(),
-            srcTableSpec.getTableName(),
-            partitionName);
-        if (partition != null && partition.getSd().getLocation() != null) {
+      for (Partition partition : srcPartitions.values()) {
+        if (partition.getSd().getLocation() != null) {
           Path partitionLocation = new Path(partition.getSd().getLocation());
           if (FsUtils.isSubDirectory(commonDir, partitionLocation)
               && FsUtils.dirExists(conf, partitionLocation)) {
@@ -235,13 +316,14 @@ public class CopyPartitionsTask implements ReplicationTask {
       }
     }
 
-    // Now copy all the partitions
+    // Now copy all the partitions. The metadata changes are collected and made in batches once all
+    // the data has been copied.
     CopyPartitionsCounter copyPartitionsCounter = new CopyPartitionsCounter();
+    PartitionMetadataBatch metadataBatch = new PartitionMetadataBatch();
     long expectedCopyCount = 0;
 
     for (String partitionName : partitionNames) {
-      Partition srcPartition =
-          srcMs.getPartition(srcTableSpec.getDbName(), srcTableSpec.getTableName(), partitionName);
+      Partition srcPartition = srcPartitions.get(partitionName);
       HiveObjectSpec partitionSpec =
           new HiveObjectSpec(srcTableSpec.getDbName(), srcTableSpec.getTableName(), partitionName);
 
@@ -251,8 +333,9 @@ public class CopyPartitionsTask implements ReplicationTask {
       }
 
       CopyPartitionTask copyPartitionTask = new CopyPartitionTask(conf, objectModifier,
-          objectConflictHandler, srcCluster, destCluster, partitionSpec,
-          ReplicationUtils.getLocation(srcPartition), optimisticCopyDir, directoryCopier, true);
+          objectConflictHandler, srcCluster, destCluster, partitionSpec, srcPartition,
+          destPartitions.get(srcPartition.getValues()), optimisticCopyDir, directoryCopier, true,
+          metadataBatch);
 
       CopyPartitionJob copyPartitionJob =
           new CopyPartitionJob(copyPartitionTask, copyPartitionsCounter);
@@ -279,6 +362,14 @@ public class CopyPartitionsTask implements ReplicationTask {
 
     bytesCopied += copyPartitionsCounter.getBytesCopied();
 
+    // Like when creating a single partition, make sure that the DB exists first
+    for (String dbName : metadataBatch.getDbNamesToAdd()) {
+      ReplicationUtils.createDbIfNecessary(srcMs, destMs, dbName);
+    }
+    int committedCount = metadataBatch.commit(destMs, batchSize);
+    LOG.debug(String.format("Created or altered %s partitions of %s", committedCount,
+        srcTableSpec));
+
     return new RunInfo(RunInfo.RunStatus.SUCCESSFUL, bytesCopied);
   }
 
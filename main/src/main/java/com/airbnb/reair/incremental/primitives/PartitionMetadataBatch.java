@@ -0,0 +1,146 @@
+package com.airbnb.reair.incremental.primitives;
+
+import com.airbnb.reair.common.HiveMetastoreClient;
+import com.airbnb.reair.common.HiveMetastoreException;
+import com.airbnb.reair.common.HiveObjectSpec;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.metastore.api.AlreadyExistsException;
+import org.apache.hadoop.hive.metastore.api.Partition;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the partitions that need to be created or altered on the destination while copying
+ * multiple partitions, so that the metadata changes can be made with a few batched calls to the
+ * metastore instead of one call per partition.
+ */
+public class PartitionMetadataBatch {
+
+  private static final Log LOG = LogFactory.getLog(PartitionMetadataBatch.class);
+
+  // Keyed by the spec of the table that the partitions belong to
+  private Map<HiveObjectSpec, List<Partition>> partitionsToAdd = new LinkedHashMap<>();
+  private Map<HiveObjectSpec, List<Partition>> partitionsToAlter = new LinkedHashMap<>();
+
+  private static void addToMap(Map<HiveObjectSpec, List<Partition>> map, Partition partition) {
+    HiveObjectSpec tableSpec = new HiveObjectSpec(partition.getDbName(), partition.getTableName());
+    List<Partition> partitions = map.get(tableSpec);
+    if (partitions == null) {
+      partitions = new ArrayList<>();
+      map.put(tableSpec, partitions);
+    }
+    partitions.add(partition);
+  }
+
+  /**
+   * Record that the given partition should be created on the destination.
+   *
+   * @param partition the partition to create
+   */
+  public synchronized void addPartition(Partition partition) {
+    addToMap(partitionsToAdd, partition);
+  }
+
+  /**
+   * Record that the given partition should be altered on the destination.
+   *
+   * @param partition the new partition object
+   */
+  public synchronized void alterPartition(Partition partition) {
+    addToMap(partitionsToAlter, partition);
+  }
+
+  /**
+   * Get the names of the DBs that the partitions to create belong to.
+   *
+   * @return the names of the DBs
+   */
+  public synchronized Set<String> getDbNamesToAdd() {
+    Set<String> dbNames = new LinkedHashSet<>();
+    for (HiveObjectSpec tableSpec : partitionsToAdd.keySet()) {
+      dbNames.add(tableSpec.getDbName());
+    }
+    return dbNames;
+  }
+
+  /**
+   * Add the partitions one at a time, altering the ones that already exist. This is used when
+   * adding a chunk fails because some of the partitions were created after the batch was built.
+   */
+  private static void addOrAlterPartitions(HiveMetastoreClient destMs, List<Partition> partitions)
+      throws HiveMetastoreException {
+    for (Partition partition : partitions) {
+      try {
+        destMs.addPartition(partition);
+      } catch (HiveMetastoreException e) {
+        if (!(e.getCause() instanceof AlreadyExistsException)) {
+          throw e;
+        }
+        LOG.debug("Altering partition " + partition.getValues() + " of "
+            + partition.getDbName() + "." + partition.getTableName() + " since it exists");
+        destMs.alterPartition(partition.getDbName(), partition.getTableName(), partition);
+      }
+    }
+  }
+
+  /**
+   * Make all the recorded changes on the destination metastore. Changes are removed from the batch
+   * as they are committed, so if there's an error, calling this again retries the remaining
+   * changes. Adding partitions is all or nothing for each call, so if some of the partitions in a
+   * call already exist, the partitions in that call are added or altered one at a time instead.
+   *
+   * @param destMs the destination metastore
+   * @param batchSize the maximum number of partitions to add or alter in a single call
+   * @return the number of partitions that were added or altered
+   *
+   * @throws HiveMetastoreException if there's an error making the changes
+   */
+  public synchronized int commit(HiveMetastoreClient destMs, int batchSize)
+      throws HiveMetastoreException {
+    int committedCount = 0;
+
+    for (Map.Entry<HiveObjectSpec, List<Partition>> entry : partitionsToAdd.entrySet()) {
+      List<Partition> partitions = entry.getValue();
+      while (!partitions.isEmpty()) {
+        List<Partition> chunk = partitions.subList(0, Math.min(batchSize, partitions.size()));
+        LOG.debug(String.format("Adding %d partitions to %s", chunk.size(), entry.getKey()));
+        try {
+          destMs.addPartitions(new ArrayList<>(chunk));
+        } catch (HiveMetastoreException e) {
+          if (!(e.getCause() instanceof AlreadyExistsException)) {
+            throw e;
+          }
+          LOG.warn(String.format("Some of the partitions to add to %s already exist, so adding "
+              + "or altering %d partitions individually", entry.getKey(), chunk.size()));
+          addOrAlterPartitions(destMs, chunk);
+        }
+        committedCount += chunk.size();
+        chunk.clear();
+      }
+    }
+    partitionsToAdd.clear();
+
+    for (Map.Entry<HiveObjectSpec, List<Partition>> entry : partitionsToAlter.entrySet()) {
+      HiveObjectSpec tableSpec = entry.getKey();
+      List<Partition> partitions = entry.getValue();
+      while (!partitions.isEmpty()) {
+        List<Partition> chunk = partitions.subList(0, Math.min(batchSize, partitions.size()));
+        LOG.debug(String.format("Altering %d partitions in %s", chunk.size(), tableSpec));
+        destMs.alterPartitions(tableSpec.getDbName(), tableSpec.getTableName(),
+            new ArrayList<>(chunk));
+        committedCount += chunk.size();
+        chunk.clear();
+      }
+    }
+    partitionsToAlter.clear();
+
+    return committedCount;
+  }
+}
@@ -0,0 +1,219 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import com.airbnb.reair.common.NamedPartition;
+import com.airbnb.reair.db.DbConnectionFactory;
+import com.airbnb.reair.db.EmbeddedMySqlDb;
+import com.airbnb.reair.db.StaticDbConnectionFactory;
+import com.airbnb.reair.db.TestDbCredentials;
+import com.airbnb.reair.hive.hooks.AuditLogHookUtils;
+import com.airbnb.reair.hive.hooks.CliAuditLogHook;
+import com.airbnb.reair.hive.hooks.HiveOperation;
+import com.airbnb.reair.hive.hooks.ObjectLogModule;
+import com.airbnb.reair.hive.hooks.ObjectSerializationFormat;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntry;
+import com.airbnb.reair.incremental.auditlog.AuditLogReader;
+import com.airbnb.reair.utils.ReplicationTestUtils;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.ql.metadata.Partition;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+public class AuditLogObjectFormatTest {
+
+  private static final String AUDIT_LOG_TABLE_NAME = "audit_log";
+  private static final String AUDIT_LOG_OBJECTS_TABLE_NAME = "audit_objects";
+  private static final String AUDIT_LOG_MAP_RED_STATS_TABLE_NAME = "mapred_stats";
+
+  private static final int OUTPUT_PARTITION_COUNT = 10;
+
+  private static EmbeddedMySqlDb embeddedMySqlDb;
+
+  @BeforeClass
+  public static void setupClass() {
+    embeddedMySqlDb = new EmbeddedMySqlDb();
+    embeddedMySqlDb.startDb();
+  }
+
+  private static DbConnectionFactory getDbConnectionFactory(String dbName) {
+    TestDbCredentials testDbCredentials = new TestDbCredentials();
+    return new StaticDbConnectionFactory(
+        dbName == null
+            ? ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb)
+            : ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb, dbName),
+        testDbCredentials.getReadWriteUsername(),
+        testDbCredentials.getReadWritePassword());
+  }
+
+  private static void setupAuditLogTables(String dbName) throws SQLException {
+    DbConnectionFactory dbConnectionFactory = getDbConnectionFactory(null);
+    ReplicationTestUtils.dropDatabase(dbConnectionFactory, dbName);
+    AuditLogHookUtils.setupAuditLogTables(
+        dbConnectionFactory,
+        dbName,
+        AUDIT_LOG_TABLE_NAME,
+        AUDIT_LOG_OBJECTS_TABLE_NAME,
+        AUDIT_LOG_MAP_RED_STATS_TABLE_NAME);
+  }
+
+  private static void executeUpdate(String dbName, String sql) throws SQLException {
+    try (Connection connection = getDbConnectionFactory(dbName).getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.executeUpdate(sql);
+    }
+  }
+
+  private static long getLongValue(String dbName, String sql) throws SQLException {
+    try (Connection connection = getDbConnectionFactory(dbName).getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery(sql)) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+
+  private static Table createOutputTable() {
+    Table qlTable = new Table("test_db", "test_output_table");
+    List<FieldSchema> partitionCols = new ArrayList<>();
+    partitionCols.add(new FieldSchema("ds", null, null));
+    qlTable.setPartCols(partitionCols);
+    qlTable.setDataLocation(new Path("file://a/b/c"));
+    qlTable.setCreateTime(0);
+    return qlTable;
+  }
+
+  private static List<Partition> createOutputPartitions(Table qlTable) throws Exception {
+    List<Partition> outputPartitions = new ArrayList<>();
+    for (int i = 0; i < OUTPUT_PARTITION_COUNT; i++) {
+      Map<String, String> partitionKeyValue = new HashMap<>();
+      partitionKeyValue.put("ds", Integer.toString(i));
+      Partition outputPartition = new Partition(qlTable, partitionKeyValue, null);
+      outputPartition.setLocation("file://a/b/c/ds=" + i);
+      outputPartitions.add(outputPartition);
+    }
+    return outputPartitions;
+  }
+
+  /**
+   * Runs the hook for a query that writes to a table and its partitions.
+   */
+  private static void runHook(String dbName, ObjectSerializationFormat format) throws Exception {
+    HiveConf hiveConf = AuditLogHookUtils.getHiveConf(
+        embeddedMySqlDb,
+        dbName,
+        AUDIT_LOG_TABLE_NAME,
+        AUDIT_LOG_OBJECTS_TABLE_NAME,
+        AUDIT_LOG_MAP_RED_STATS_TABLE_NAME);
+    if (format != null) {
+      hiveConf.set(ObjectLogModule.SERIALIZATION_FORMAT_KEY, format.name());
+    }
+    Table outputTable = createOutputTable();
+    AuditLogHookUtils.insertAuditLogEntry(
+        new CliAuditLogHook(new TestDbCredentials()),
+        HiveOperation.QUERY,
+        "Example query string",
+        new ArrayList<>(),
+        new ArrayList<>(),
+        Collections.singletonList(outputTable),
+        createOutputPartitions(outputTable),
+        new HashMap<>(),
+        hiveConf);
+  }
+
+  private static List<AuditLogEntry> readEntries(String dbName, int count) throws Exception {
+    AuditLogReader reader = new AuditLogReader(
+        new Configuration(),
+        getDbConnectionFactory(dbName),
+        AUDIT_LOG_TABLE_NAME,
+        AUDIT_LOG_OBJECTS_TABLE_NAME,
+        AUDIT_LOG_MAP_RED_STATS_TABLE_NAME,
+        0);
+    List<AuditLogEntry> entries = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Optional<AuditLogEntry> entry = reader.resilientNext();
+      entries.add(entry.get());
+    }
+    assertFalse(reader.resilientNext().isPresent());
+    return entries;
+  }
+
+  private static void assertSameObjects(AuditLogEntry expected, AuditLogEntry actual) {
+    assertEquals(expected.getOutputTables(), actual.getOutputTables());
+    assertEquals(expected.getReferenceTables(), actual.getReferenceTables());
+    assertEquals(NamedPartition.toNames(expected.getOutputPartitions()),
+        NamedPartition.toNames(actual.getOutputPartitions()));
+    assertEquals(NamedPartition.toPartitions(expected.getOutputPartitions()),
+        NamedPartition.toPartitions(actual.getOutputPartitions()));
+  }
+
+  @Test
+  public void testReadMixedFormats() throws Exception {
+    String dbName = "audit_log_db";
+    setupAuditLogTables(dbName);
+    runHook(dbName, null);
+    runHook(dbName, ObjectSerializationFormat.COMPACT);
+    runHook(dbName, ObjectSerializationFormat.COMPACT_DEFLATE);
+
+    // The table, its partitions, and the table as a reference for the partitions
+    long objectsPerEntry = 1 + OUTPUT_PARTITION_COUNT + 1;
+    for (ObjectSerializationFormat format : new ObjectSerializationFormat[] {
+        ObjectSerializationFormat.COMPACT, ObjectSerializationFormat.COMPACT_DEFLATE}) {
+      assertEquals(objectsPerEntry, getLongValue(dbName, String.format(
+          "SELECT COUNT(*) FROM %s WHERE serialization_format = '%s' "
+              + "AND serialized_object_binary IS NOT NULL AND serialized_object IS NULL",
+          AUDIT_LOG_OBJECTS_TABLE_NAME, format.name())));
+    }
+    assertEquals(objectsPerEntry, getLongValue(dbName, String.format(
+        "SELECT COUNT(*) FROM %s WHERE serialization_format IS NULL",
+        AUDIT_LOG_OBJECTS_TABLE_NAME)));
+
+    List<AuditLogEntry> entries = readEntries(dbName, 3);
+    assertEquals(1, entries.get(0).getOutputTables().size());
+    assertEquals(OUTPUT_PARTITION_COUNT, entries.get(0).getOutputPartitions().size());
+    assertSameObjects(entries.get(0), entries.get(1));
+    assertSameObjects(entries.get(0), entries.get(2));
+  }
+
+  @Test
+  public void testReadTableWithoutFormatColumns() throws Exception {
+    String dbName = "legacy_audit_log_db";
+    setupAuditLogTables(dbName);
+    executeUpdate(dbName, String.format(
+        "ALTER TABLE %s DROP COLUMN serialization_format, DROP COLUMN serialized_object_binary",
+        AUDIT_LOG_OBJECTS_TABLE_NAME));
+
+    // The default format only uses the original columns
+    runHook(dbName, null);
+    runHook(dbName, ObjectSerializationFormat.JSON);
+
+    List<AuditLogEntry> entries = readEntries(dbName, 2);
+    assertEquals(OUTPUT_PARTITION_COUNT, entries.get(0).getOutputPartitions().size());
+    assertSameObjects(entries.get(0), entries.get(1));
+    assertNull(entries.get(0).getInputTable());
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    embeddedMySqlDb.stopDb();
+  }
+}
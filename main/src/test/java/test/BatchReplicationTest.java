@@ -120,6 +120,39 @@ public class BatchReplicationTest extends MockClusterTest {
     assertTrue(!ReplicationUtils.exists(destMetastore, partitionSpec2));
   }
 
+  @Test
+  public void testCopyWithSequenceFileFormat() throws Exception {
+    // Create a partitioned table with a partition in the source
+    final HiveObjectSpec tableSpec = new HiveObjectSpec("test", "sequence_file_table");
+    ReplicationTestUtils.createPartitionedTable(conf,
+        srcMetastore,
+        tableSpec,
+        TableType.MANAGED_TABLE,
+        srcWarehouseRoot);
+    HiveObjectSpec partitionSpec = new HiveObjectSpec("test",
+        "sequence_file_table", "ds=1/hr=1");
+    final Partition srcPartition = ReplicationTestUtils.createPartition(conf,
+        srcMetastore, partitionSpec);
+
+    JobConf jobConf = new JobConf(conf);
+    jobConf.set(ConfigurationKeys.BATCH_JOB_OUTPUT_DIR,
+        new Path(destCluster.getFsRoot(), "test_sequence_file_output").toString());
+    jobConf.set(ConfigurationKeys.BATCH_JOB_CLUSTER_FACTORY_CLASS,
+        MockClusterFactory.class.getName());
+    jobConf.set(ConfigurationKeys.BATCH_JOB_INTERMEDIATE_FORMAT,
+        MetastoreReplicationJob.SEQUENCE_FILE_FORMAT);
+
+    String[] args = {};
+    assertEquals(0, ToolRunner.run(jobConf, new MetastoreReplicationJob(), args));
+
+    assertTrue(ReplicationUtils.exists(destMetastore, tableSpec));
+    assertTrue(ReplicationUtils.exists(destMetastore, partitionSpec));
+    Partition dstPartition = destMetastore.getPartition(partitionSpec.getDbName(),
+        partitionSpec.getTableName(),
+        partitionSpec.getPartitionName());
+    assertTrue(directoryCopier.equalDirs(new Path(srcPartition.getSd().getLocation()),
+          new Path(dstPartition.getSd().getLocation())));
+  }
 
   @Test
   public void testHdfsCopy() throws Exception {
@@ -167,4 +200,53 @@ public class BatchReplicationTest extends MockClusterTest {
 
     assertTrue(directoryCopier.equalDirs(srcWarehouseRoot, destWarehouseRoot));
   }
+
+  @Test
+  public void testHdfsCopyWithChunks() throws Exception {
+    // Create a partitioned table with a partition in the source
+    HiveObjectSpec tableSpec = new HiveObjectSpec("test", "chunked_table");
+    ReplicationTestUtils.createPartitionedTable(conf,
+        srcMetastore,
+        tableSpec,
+        TableType.MANAGED_TABLE,
+        srcWarehouseRoot);
+    HiveObjectSpec partitionSpec = new HiveObjectSpec("test",
+        "chunked_table", "ds=1/hr=1");
+    ReplicationTestUtils.createPartition(conf, srcMetastore, partitionSpec);
+
+    // Copy every file in chunks. The chunk size has to be a multiple of the block size, so the
+    // small test files fit in a single chunk.
+    JobConf jobConf = new JobConf(conf);
+    jobConf.setLong(ReplicationJob.CHUNK_THRESHOLD_CONF, 1);
+    jobConf.setLong(ReplicationJob.CHUNK_SIZE_CONF,
+        destWarehouseRoot.getFileSystem(conf).getDefaultBlockSize(destWarehouseRoot));
+
+    String[] args = {"--" + ReplicationJob.SOURCE_DIRECTORY_ARG, srcWarehouseRoot.toString(),
+        "--" + ReplicationJob.DESTINATION_DIRECTORY_ARG, destWarehouseRoot.toString(),
+        "--" + ReplicationJob.LOG_DIRECTORY_ARG,
+        new Path(destCluster.getFsRoot(), "chunked_log").toString(),
+        "--" + ReplicationJob.TEMP_DIRECTORY_ARG, destCluster.getTmpDir().toString(),
+        "--" + ReplicationJob.OPERATIONS_ARG, "a,d,u"};
+
+    assertEquals(0, ToolRunner.run(jobConf, new ReplicationJob(), args));
+
+    assertTrue(directoryCopier.equalDirs(srcWarehouseRoot, destWarehouseRoot));
+  }
+
+  @Test
+  public void testChunkSizeMustBeMultipleOfBlockSize() throws Exception {
+    JobConf jobConf = new JobConf(conf);
+    jobConf.setLong(ReplicationJob.CHUNK_THRESHOLD_CONF, 1);
+    jobConf.setLong(ReplicationJob.CHUNK_SIZE_CONF,
+        destWarehouseRoot.getFileSystem(conf).getDefaultBlockSize(destWarehouseRoot) + 1);
+
+    String[] args = {"--" + ReplicationJob.SOURCE_DIRECTORY_ARG, srcWarehouseRoot.toString(),
+        "--" + ReplicationJob.DESTINATION_DIRECTORY_ARG, destWarehouseRoot.toString(),
+        "--" + ReplicationJob.LOG_DIRECTORY_ARG,
+        new Path(destCluster.getFsRoot(), "invalid_chunk_log").toString(),
+        "--" + ReplicationJob.TEMP_DIRECTORY_ARG, destCluster.getTmpDir().toString(),
+        "--" + ReplicationJob.OPERATIONS_ARG, "a,d,u"};
+
+    assertEquals(-1, ToolRunner.run(jobConf, new ReplicationJob(), args));
+  }
 }
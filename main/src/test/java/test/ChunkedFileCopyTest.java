@@ -0,0 +1,271 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.batch.BatchUtils;
+import com.airbnb.reair.batch.SimpleFileStatus;
+import com.airbnb.reair.batch.hdfs.FileChunk;
+import com.airbnb.reair.batch.hdfs.ReplicationJob;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+import org.apache.hadoop.util.Progressable;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ChunkedFileCopyTest {
+  private static final Log LOG = LogFactory.getLog(ChunkedFileCopyTest.class);
+
+  // Set this system property to run the copy benchmark
+  private static final String BENCHMARK_PROPERTY = "reair.benchmark";
+
+  private static final long SPARSE_FILE_SIZE = 4L * 1024 * 1024 * 1024;
+  private static final long CHUNK_THRESHOLD = 1024L * 1024 * 1024;
+  private static final long CHUNK_SIZE = 256L * 1024 * 1024;
+  private static final int NUMBER_OF_REDUCERS = 8;
+  // The most bytes that the busiest reducer can copy relative to the average reducer
+  private static final double MAX_BYTES_RATIO = 1.5;
+
+  private static final Progressable NO_PROGRESS = () -> { };
+
+  @Rule
+  public TemporaryFolder localTmp = new TemporaryFolder();
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path srcRoot;
+  private Path dstRoot;
+  private Path tmpRoot;
+
+  /**
+   * Sets up the configuration to use the raw local filesystem.
+   */
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration();
+    conf.setClass("fs.file.impl", RawLocalFileSystem.class, FileSystem.class);
+    Path root = new Path(localTmp.getRoot().toURI());
+    fs = root.getFileSystem(conf);
+    srcRoot = new Path(root, "src");
+    dstRoot = new Path(root, "dst");
+    tmpRoot = new Path(root, "tmp");
+  }
+
+  private Path createSparseFile(String name, long size) throws IOException {
+    File file = new File(localTmp.getRoot(), "src/" + name);
+    assertTrue(file.getParentFile().mkdirs());
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.setLength(size);
+    }
+    return new Path(srcRoot, name);
+  }
+
+  private Path createRandomFile(String name, int size) throws IOException {
+    File file = new File(localTmp.getRoot(), "src/" + name);
+    assertTrue(file.getParentFile().mkdirs());
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    Files.write(file.toPath(), data);
+    return new Path(srcRoot, name);
+  }
+
+  private SimpleFileStatus getSimpleFileStatus(Path file) throws IOException {
+    FileStatus status = fs.getFileStatus(file);
+    return new SimpleFileStatus(file, status.getLen(), status.getModificationTime());
+  }
+
+  /**
+   * Generates a line in the format of the stage 1 or stage 2 output.
+   */
+  private static String makeLine(String name, String action, SimpleFileStatus fileStatus) {
+    return name + "\t" + action + "\t" + fileStatus.getFullPath() + "\t"
+        + fileStatus.getFileSize() + "\t" + fileStatus.getModificationTime();
+  }
+
+  /**
+   * Copies the chunks of a file the same way that the sync reducers do.
+   *
+   * @return the errors from copying the chunks
+   */
+  private List<String> copyChunks(SimpleFileStatus fileStatus, Path dstFile, long chunkSize,
+      int threads) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (FileChunk chunk : FileChunk.getChunks(fileStatus.getFileSize(), chunkSize)) {
+        Path chunkPath = new Path(ReplicationJob.getChunkDirectory(tmpRoot, dstFile, fileStatus),
+            FileChunk.getChunkFileName(chunk.getIndex()));
+        results.add(executor.submit(() -> BatchUtils.doCopyFileChunkAction(conf, fileStatus,
+            fs, chunk.getOffset(), chunk.getLength(), fs, chunkPath, NO_PROGRESS,
+            "attempt_" + chunk.getIndex())));
+      }
+      List<String> errors = new ArrayList<>();
+      for (Future<String> result : results) {
+        if (result.get() != null) {
+          errors.add(result.get());
+        }
+      }
+      return errors;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static double getMaxToMeanRatio(long[] values) {
+    long max = 0;
+    long total = 0;
+    for (long value : values) {
+      max = Math.max(max, value);
+      total += value;
+    }
+    return max / ((double) total / values.length);
+  }
+
+  @Test
+  public void testChunksSpreadAcrossReducers() throws Exception {
+    SimpleFileStatus fileStatus =
+        getSimpleFileStatus(createSparseFile("large_file", SPARSE_FILE_SIZE));
+    String line = makeLine("large_file", "ADD", fileStatus);
+
+    HashPartitioner<LongWritable, Text> partitioner = new HashPartitioner<>();
+    long[] chunkedBytes = new long[NUMBER_OF_REDUCERS];
+    List<Pair<LongWritable, Text>> records =
+        ReplicationJob.HdfsSyncMapper.getShuffleRecords(line, CHUNK_THRESHOLD, CHUNK_SIZE);
+    assertEquals(SPARSE_FILE_SIZE / CHUNK_SIZE, records.size());
+    for (Pair<LongWritable, Text> record : records) {
+      String[] fields = record.getRight().toString().split("\t");
+      FileChunk chunk =
+          FileChunk.getChunk(SPARSE_FILE_SIZE, CHUNK_SIZE, Integer.valueOf(fields[5]));
+      chunkedBytes[partitioner.getPartition(record.getLeft(), record.getRight(),
+          NUMBER_OF_REDUCERS)] += chunk.getLength();
+    }
+
+    // Without chunks, a single reducer copies the whole file
+    List<Pair<LongWritable, Text>> unchunkedRecords =
+        ReplicationJob.HdfsSyncMapper.getShuffleRecords(line, 0, CHUNK_SIZE);
+    assertEquals(1, unchunkedRecords.size());
+    assertEquals(line, unchunkedRecords.get(0).getRight().toString());
+
+    double ratio = getMaxToMeanRatio(chunkedBytes);
+    LOG.info(String.format("Max / mean bytes per reducer: %.2f with chunks, %d without chunks",
+        ratio, NUMBER_OF_REDUCERS));
+    assertTrue(ratio < MAX_BYTES_RATIO);
+  }
+
+  @Test
+  public void testSmallFilesAreNotChunked() throws Exception {
+    SimpleFileStatus fileStatus = getSimpleFileStatus(createRandomFile("small_file", 1024));
+    String line = makeLine("small_file", "ADD", fileStatus);
+    List<Pair<LongWritable, Text>> records =
+        ReplicationJob.HdfsSyncMapper.getShuffleRecords(line, 1024, 256);
+    assertEquals(1, records.size());
+    assertEquals(line, records.get(0).getRight().toString());
+  }
+
+  @Test
+  public void testCopyAndStitchChunks() throws Exception {
+    int fileSize = 5 * 1024 * 1024 + 123;
+    long chunkSize = 1024 * 1024;
+    conf.setLong(ReplicationJob.CHUNK_SIZE_CONF, chunkSize);
+    Path srcFile = createRandomFile("dir/file", fileSize);
+    SimpleFileStatus fileStatus = getSimpleFileStatus(srcFile);
+    Path dstFile = new Path(dstRoot, "dir/file");
+
+    assertEquals(0, copyChunks(fileStatus, dstFile, chunkSize, 4).size());
+    Path chunkDir = ReplicationJob.getChunkDirectory(tmpRoot, dstFile, fileStatus);
+    assertEquals(6, fs.listStatus(chunkDir).length);
+
+    Text result = ReplicationJob.stitchChunks(conf,
+        makeLine("dir/file", "COPIED", fileStatus) + "\t0", dstRoot.toString(), tmpRoot,
+        NO_PROGRESS);
+    assertEquals(makeLine("dir/file", "COPIED", fileStatus), result.toString());
+    // Lines for the other chunks don't trigger a stitch
+    assertNull(ReplicationJob.stitchChunks(conf,
+        makeLine("dir/file", "COPIED", fileStatus) + "\t1", dstRoot.toString(), tmpRoot,
+        NO_PROGRESS));
+
+    assertFalse(fs.exists(chunkDir));
+    assertEquals(fileSize, fs.getFileStatus(dstFile).getLen());
+    assertEquals(fileStatus.getModificationTime(),
+        fs.getFileStatus(dstFile).getModificationTime());
+    byte[] expected = Files.readAllBytes(new File(srcFile.toUri()).toPath());
+    byte[] actual = new byte[fileSize];
+    try (FSDataInputStream inputStream = fs.open(dstFile)) {
+      inputStream.readFully(actual);
+    }
+    assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  public void testMissingChunkIsNotStitched() throws Exception {
+    int fileSize = 3 * 1024 * 1024;
+    long chunkSize = 1024 * 1024;
+    conf.setLong(ReplicationJob.CHUNK_SIZE_CONF, chunkSize);
+    SimpleFileStatus fileStatus = getSimpleFileStatus(createRandomFile("file", fileSize));
+    Path dstFile = new Path(dstRoot, "file");
+
+    assertEquals(0, copyChunks(fileStatus, dstFile, chunkSize, 1).size());
+    Path chunkDir = ReplicationJob.getChunkDirectory(tmpRoot, dstFile, fileStatus);
+    assertTrue(fs.delete(new Path(chunkDir, FileChunk.getChunkFileName(1)), false));
+
+    assertNotNull(BatchUtils.stitchFileChunks(conf, fileStatus, chunkDir, 3, dstFile, fs,
+        NO_PROGRESS));
+    assertFalse(fs.exists(dstFile));
+  }
+
+  @Test
+  public void benchmarkChunkedCopy() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    SimpleFileStatus fileStatus =
+        getSimpleFileStatus(createSparseFile("large_file", SPARSE_FILE_SIZE));
+
+    long startTime = System.currentTimeMillis();
+    assertNull(BatchUtils.doCopyFileAction(conf, fileStatus, fs,
+        new Path(dstRoot, "whole").toString(), fs, tmpRoot, NO_PROGRESS, false, "attempt"));
+    long wholeFileMillis = System.currentTimeMillis() - startTime;
+
+    conf.setLong(ReplicationJob.CHUNK_SIZE_CONF, CHUNK_SIZE);
+    Path dstFile = new Path(dstRoot, "chunked/large_file");
+    startTime = System.currentTimeMillis();
+    assertEquals(0, copyChunks(fileStatus, dstFile, CHUNK_SIZE, NUMBER_OF_REDUCERS).size());
+    long copyChunksMillis = System.currentTimeMillis() - startTime;
+    assertNull(BatchUtils.stitchFileChunks(conf, fileStatus,
+        ReplicationJob.getChunkDirectory(tmpRoot, dstFile, fileStatus),
+        FileChunk.getChunkCount(SPARSE_FILE_SIZE, CHUNK_SIZE), dstFile, fs, NO_PROGRESS));
+    long chunkedMillis = System.currentTimeMillis() - startTime;
+
+    LOG.info(String.format("Copied %d bytes: whole file %d ms, %d chunks with %d threads %d ms "
+        + "(%d ms before stitching)", SPARSE_FILE_SIZE, wholeFileMillis,
+        FileChunk.getChunkCount(SPARSE_FILE_SIZE, CHUNK_SIZE), NUMBER_OF_REDUCERS,
+        chunkedMillis, copyChunksMillis));
+  }
+}
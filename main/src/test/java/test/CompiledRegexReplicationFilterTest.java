@@ -0,0 +1,125 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.common.NamedPartition;
+import com.airbnb.reair.incremental.filter.CompiledRegexReplicationFilter;
+import com.airbnb.reair.incremental.filter.RegexReplicationFilter;
+import com.airbnb.reair.incremental.filter.ReplicationFilter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CompiledRegexReplicationFilterTest {
+
+  private static final String[] DB_NAMES =
+      {"db", "core_data", "search", "payments", "db_7", "adhoc"};
+  private static final String[] TABLE_NAMES = {"t1", "t2", "tmp_1", "scratch_1", "fact_staging",
+      "t1$", "a|b", "T1"};
+  private static final String[] PARTITION_NAMES = {"ds=1", "ds=2", "ds=1970-06-17",
+      "ds=2016-06-17/hr=00"};
+
+  private static Table makeTable(String dbName, String tableName) {
+    Table table = new Table();
+    table.setDbName(dbName);
+    table.setTableName(tableName);
+    return table;
+  }
+
+  private static ReplicationFilter makeFilter(
+      ReplicationFilter filter,
+      String whitelistRegex,
+      String blacklistRegex,
+      int cacheSize) {
+    Configuration conf = new Configuration();
+    if (whitelistRegex != null) {
+      conf.set(RegexReplicationFilter.WHITELIST_REGEX_KEY, whitelistRegex);
+    }
+    if (blacklistRegex != null) {
+      conf.set(RegexReplicationFilter.BLACKLIST_REGEX_KEY, blacklistRegex);
+    }
+    conf.setInt(CompiledRegexReplicationFilter.CACHE_SIZE_KEY, cacheSize);
+    filter.setConf(conf);
+    return filter;
+  }
+
+  /**
+   * Checks that the compiled filter accepts the same tables and partitions as the regex filter.
+   */
+  private static void checkSameDecisions(
+      String whitelistRegex,
+      String blacklistRegex,
+      int cacheSize) {
+    ReplicationFilter expectedFilter =
+        makeFilter(new RegexReplicationFilter(), whitelistRegex, blacklistRegex, cacheSize);
+    ReplicationFilter filter =
+        makeFilter(new CompiledRegexReplicationFilter(), whitelistRegex, blacklistRegex,
+            cacheSize);
+
+    // Check everything twice so that cached decisions are used as well
+    for (int i = 0; i < 2; i++) {
+      for (String dbName : DB_NAMES) {
+        for (String tableName : TABLE_NAMES) {
+          Table table = makeTable(dbName, tableName);
+          String message = String.format("whitelist: %s blacklist: %s table: %s.%s",
+              whitelistRegex, blacklistRegex, dbName, tableName);
+          assertEquals(message, expectedFilter.accept(table), filter.accept(table));
+
+          for (String partitionName : PARTITION_NAMES) {
+            NamedPartition partition = new NamedPartition(partitionName, null);
+            assertEquals(message + "/" + partitionName,
+                expectedFilter.accept(table, partition),
+                filter.accept(table, partition));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSameDecisionsAsRegexFilter() {
+    List<String> regexes = new ArrayList<>();
+    regexes.add(null);
+    regexes.add(".*");
+    regexes.add("^db\\.t1$|^db\\.t2$");
+    regexes.add("db\\.t1/.*|db\\.t2/ds=1|db\\.tmp_.*");
+    regexes.add("(core_data|search|payments|db_\\d+)\\..*");
+    regexes.add(".*\\.(tmp_.*|.*_staging)(/.*)?|.*/ds=19[0-9]{2}-.*|search\\.scratch_.*");
+    regexes.add("db\\.t1\\$|db\\.a\\|b|db\\.a[|]b");
+    regexes.add("db.t1|adhoc\\..*/ds=1");
+    regexes.add("(?i)db\\.t1.*|search\\..*");
+    regexes.add("^$|db\\.t\\d(/.*)?");
+
+    for (String whitelistRegex : regexes) {
+      for (String blacklistRegex : regexes) {
+        checkSameDecisions(whitelistRegex, blacklistRegex, 10000);
+        checkSameDecisions(whitelistRegex, blacklistRegex, 1);
+      }
+    }
+  }
+
+  @Test
+  public void testManyLiteralRules() {
+    StringBuilder whitelistRegex = new StringBuilder("db_7\\..*");
+    for (int i = 0; i < 1000; i++) {
+      whitelistRegex.append("|^db\\.table_").append(i).append("$");
+    }
+    ReplicationFilter filter = makeFilter(new CompiledRegexReplicationFilter(),
+        whitelistRegex.toString(), "db\\.table_5/ds=1", 10000);
+    NamedPartition partition1 = new NamedPartition("ds=1", null);
+    NamedPartition partition2 = new NamedPartition("ds=2", null);
+
+    assertTrue(filter.accept(makeTable("db", "table_999")));
+    assertTrue(filter.accept(makeTable("db_7", "table_1000"), partition1));
+    assertFalse(filter.accept(makeTable("db", "table_1000")));
+    // Literal rules match the table, but not the partitions
+    assertFalse(filter.accept(makeTable("db", "table_5"), partition2));
+    assertTrue(filter.accept(makeTable("db", "table_5")));
+  }
+}
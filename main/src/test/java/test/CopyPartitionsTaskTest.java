@@ -5,28 +5,40 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.airbnb.reair.common.DistCpException;
+import com.airbnb.reair.common.HiveMetastoreClient;
 import com.airbnb.reair.common.HiveMetastoreException;
 import com.airbnb.reair.common.HiveObjectSpec;
 import com.airbnb.reair.incremental.ReplicationUtils;
 import com.airbnb.reair.incremental.RunInfo;
+import com.airbnb.reair.incremental.configuration.Cluster;
 import com.airbnb.reair.incremental.configuration.ConfigurationException;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 import com.airbnb.reair.incremental.primitives.CopyPartitionsTask;
+import com.airbnb.reair.incremental.primitives.PartitionMetadataBatch;
 import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
 import com.airbnb.reair.utils.ReplicationTestUtils;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.metastore.TableType;
+import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
 import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.Table;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CopyPartitionsTaskTest extends MockClusterTest {
 
@@ -156,4 +168,120 @@ public class CopyPartitionsTaskTest extends MockClusterTest {
     assertFalse(ReplicationUtils.exists(destMetastore, partitionSpec5));
     assertEquals(18, status.getBytesCopied());
   }
+
+  /**
+   * Wraps a metastore client so that the number of calls made to it can be counted.
+   */
+  private static HiveMetastoreClient countCalls(
+      HiveMetastoreClient client,
+      AtomicInteger callCount) {
+    return (HiveMetastoreClient) Proxy.newProxyInstance(
+        HiveMetastoreClient.class.getClassLoader(),
+        new Class<?>[] {HiveMetastoreClient.class},
+        (proxy, method, args) -> {
+          callCount.incrementAndGet();
+          try {
+            return method.invoke(client, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+
+  @Test
+  public void testMetastoreCallsAreBatched()
+      throws ConfigurationException, IOException, HiveMetastoreException, DistCpException {
+    final int partitionCount = 120;
+    final int batchSize = 25;
+    final int batchCount = (partitionCount + batchSize - 1) / batchSize;
+
+    HiveObjectSpec tableSpec = new HiveObjectSpec("test_db", "test_table");
+    ReplicationTestUtils.createPartitionedTable(conf, srcMetastore, tableSpec,
+        TableType.MANAGED_TABLE, srcWarehouseRoot);
+
+    Map<HiveObjectSpec, Partition> specToPartition = new HashMap<>();
+    List<String> partitionNames = new ArrayList<>();
+    for (int i = 0; i < partitionCount; i++) {
+      String partitionName = String.format("ds=%d/hr=%d", i / 24, i % 24);
+      HiveObjectSpec partitionSpec = new HiveObjectSpec("test_db", "test_table", partitionName);
+      specToPartition.put(partitionSpec,
+          ReplicationTestUtils.createPartition(conf, srcMetastore, partitionSpec));
+      partitionNames.add(partitionName);
+    }
+    Optional<Path> commonDirectory =
+        CopyPartitionsTask.findCommonDirectory(tableSpec, specToPartition);
+
+    AtomicInteger srcCallCount = new AtomicInteger();
+    AtomicInteger destCallCount = new AtomicInteger();
+    Cluster countingSrcCluster = new MockCluster("src_cluster",
+        countCalls(srcMetastore, srcCallCount), srcCluster.getFsRoot(), srcCluster.getTmpDir());
+    Cluster countingDestCluster = new MockCluster("dest_cluster",
+        countCalls(destMetastore, destCallCount), destCluster.getFsRoot(),
+        destCluster.getTmpDir());
+
+    conf.setInt(ConfigurationKeys.METASTORE_PARTITION_BATCH_SIZE, batchSize);
+    try {
+      // The first copy creates the table and all the partitions on the destination
+      CopyPartitionsTask copyPartitionsTask = new CopyPartitionsTask(conf,
+          destinationObjectFactory, conflictHandler, countingSrcCluster, countingDestCluster,
+          tableSpec, partitionNames, commonDirectory, jobExecutor, directoryCopier);
+      RunInfo status = copyPartitionsTask.runTask();
+
+      assertEquals(RunInfo.RunStatus.SUCCESSFUL, status.getRunStatus());
+      for (HiveObjectSpec partitionSpec : specToPartition.keySet()) {
+        assertTrue(ReplicationUtils.exists(destMetastore, partitionSpec));
+      }
+      // Besides a few calls for copying the table, partitions should be fetched and created in
+      // batches. Fetching and creating them one at a time would take several calls per partition.
+      assertTrue("Source calls: " + srcCallCount, srcCallCount.get() <= 10 + batchCount);
+      assertTrue("Destination calls: " + destCallCount,
+          destCallCount.get() <= 10 + 2 * batchCount);
+
+      // Copying again should only need to fetch the table and partitions
+      srcCallCount.set(0);
+      destCallCount.set(0);
+      status = copyPartitionsTask.runTask();
+
+      assertEquals(RunInfo.RunStatus.SUCCESSFUL, status.getRunStatus());
+      assertEquals(0, status.getBytesCopied());
+      assertEquals(1 + batchCount, srcCallCount.get());
+      assertEquals(1 + batchCount, destCallCount.get());
+    } finally {
+      conf.unset(ConfigurationKeys.METASTORE_PARTITION_BATCH_SIZE);
+    }
+  }
+
+  private static Partition makePartition(String ds, String version) {
+    Partition partition = new Partition();
+    partition.setDbName("test_db");
+    partition.setTableName("test_table");
+    partition.setValues(Collections.singletonList(ds));
+    partition.setParameters(Collections.singletonMap("version", version));
+    return partition;
+  }
+
+  @Test
+  public void testBatchAddsPartitionsIndividuallyIfSomeExist() throws HiveMetastoreException {
+    MockHiveMetastoreClient metastore = new MockHiveMetastoreClient();
+    metastore.createDatabase(new Database("test_db", null, null, null));
+    Table table = new Table();
+    table.setDbName("test_db");
+    table.setTableName("test_table");
+    table.setPartitionKeys(Arrays.asList(new FieldSchema("ds", "string", null)));
+    metastore.createTable(table);
+
+    PartitionMetadataBatch metadataBatch = new PartitionMetadataBatch();
+    for (int i = 0; i < 4; i++) {
+      metadataBatch.addPartition(makePartition(Integer.toString(i), "new"));
+    }
+    // Created by something else after the batch was built
+    metastore.addPartition(makePartition("1", "old"));
+
+    // The chunk with the existing partition should still be committed
+    assertEquals(4, metadataBatch.commit(metastore, 2));
+    for (int i = 0; i < 4; i++) {
+      Partition partition = metastore.getPartition("test_db", "test_table", "ds=" + i);
+      assertEquals("new", partition.getParameters().get("version"));
+    }
+  }
 }
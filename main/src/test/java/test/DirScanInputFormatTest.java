@@ -0,0 +1,136 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.batch.hdfs.DirInputSplit;
+import com.airbnb.reair.batch.hdfs.DirScanInputFormat;
+import com.airbnb.reair.batch.hdfs.ListDirInputSplit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class DirScanInputFormatTest {
+  private static final Log LOG = LogFactory.getLog(DirScanInputFormatTest.class);
+
+  private static final int NUMBER_OF_MAPPERS = 5;
+  private static final long TARGET_FILES_PER_SPLIT = 1000;
+  // The most that the largest split can cost relative to the average split
+  private static final double MAX_COST_RATIO = 1.5;
+
+  @Rule
+  public TemporaryFolder localTmp = new TemporaryFolder();
+
+  private Configuration conf;
+  private Path root;
+
+  /**
+   * Sets up the configuration to use the raw local filesystem.
+   */
+  @Before
+  public void setUp() {
+    conf = new Configuration();
+    conf.setClass("fs.file.impl", RawLocalFileSystem.class, FileSystem.class);
+    root = new Path(localTmp.getRoot().toURI());
+  }
+
+  private int createFiles(String directoryPath, int fileCount) throws IOException {
+    File directory = new File(localTmp.getRoot(), directoryPath);
+    assertTrue(directory.mkdirs());
+    for (int i = 0; i < fileCount; i++) {
+      assertTrue(new File(directory, String.format("part-%05d", i)).createNewFile());
+    }
+    return fileCount;
+  }
+
+  /**
+   * Lists the files that the mapper would list for a directory split.
+   *
+   * @param fileRange if not null, only the files directly under the directory that are in the range
+   *                  of this split are listed
+   */
+  private static void listSplitFiles(FileSystem fs, Path directory, boolean recursive,
+      DirInputSplit fileRange, List<Path> files) throws IOException {
+    for (FileStatus status : fs.listStatus(directory)) {
+      if (status.isDirectory()) {
+        if (recursive) {
+          listSplitFiles(fs, status.getPath(), true, null, files);
+        }
+      } else if (fileRange == null || fileRange.includesFile(status.getPath().getName())) {
+        files.add(status.getPath());
+      }
+    }
+  }
+
+  @Test
+  public void testSkewedTreeSplitsEvenly() throws Exception {
+    int totalFiles = 0;
+    // Many small tables
+    for (int i = 0; i < 100; i++) {
+      totalFiles += createFiles(String.format("small/table_%d/ds=0", i), 10);
+    }
+    // A directory with a large number of files
+    totalFiles += createFiles("huge/ds=0", 8000);
+    // A table with many partitions that would be a single leaf directory
+    for (int i = 0; i < 50; i++) {
+      totalFiles += createFiles(String.format("wide/table/ds=%d", i), 60);
+    }
+
+    conf.setInt("mapreduce.job.maps", NUMBER_OF_MAPPERS);
+    conf.setInt(DirScanInputFormat.DIRECTORY_TRAVERSE_MAX_LEVEL, 0);
+    conf.setLong(DirScanInputFormat.TARGET_FILES_PER_SPLIT, TARGET_FILES_PER_SPLIT);
+    Job job = Job.getInstance(conf);
+    FileInputFormat.setInputPaths(job, root);
+
+    List<InputSplit> splits = new DirScanInputFormat().getSplits(job);
+    assertEquals(NUMBER_OF_MAPPERS, splits.size());
+
+    FileSystem fs = root.getFileSystem(conf);
+    Set<Path> listedFiles = new HashSet<>();
+    List<Integer> splitCosts = new ArrayList<>();
+    for (InputSplit split : splits) {
+      List<Path> files = new ArrayList<>();
+      for (InputSplit dirSplit : ((ListDirInputSplit) split).getSplits()) {
+        DirInputSplit dirInputSplit = (DirInputSplit) dirSplit;
+        listSplitFiles(fs, new Path(dirInputSplit.getFilePath()), dirInputSplit.isLeafLevel(),
+            dirInputSplit, files);
+      }
+      // Every file should be listed by exactly one split
+      for (Path file : files) {
+        assertTrue("Listed twice: " + file, listedFiles.add(file));
+      }
+      splitCosts.add(files.size());
+      LOG.info(String.format("Split with %d directories lists %d files (estimated %d)",
+          ((ListDirInputSplit) split).getSplits().size(), files.size(),
+          ((ListDirInputSplit) split).getFileCount()));
+    }
+    assertEquals(totalFiles, listedFiles.size());
+
+    int maxCost = 0;
+    for (int cost : splitCosts) {
+      maxCost = Math.max(maxCost, cost);
+    }
+    double meanCost = (double) totalFiles / splitCosts.size();
+    LOG.info(String.format("Max split cost: %d, mean split cost: %.1f", maxCost, meanCost));
+    assertTrue(maxCost / meanCost < MAX_COST_RATIO);
+  }
+}
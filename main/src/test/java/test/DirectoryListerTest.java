@@ -0,0 +1,225 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.common.DirectoryLister;
+import com.airbnb.reair.common.FsUtils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DirectoryListerTest {
+  private static final Log LOG = LogFactory.getLog(DirectoryListerTest.class);
+
+  // Set this system property to run the listing benchmark
+  private static final String BENCHMARK_PROPERTY = "reair.benchmark";
+  private static final String BENCHMARK_FILES_PROPERTY = "reair.benchmark.fs_list_files";
+  private static final int DEFAULT_BENCHMARK_FILES = 200000;
+  private static final int BENCHMARK_FILES_PER_DIRECTORY = 100;
+
+  private static final int[] PARALLELISM_LEVELS = {1, 8, 32};
+
+  @Rule
+  public TemporaryFolder localTmp = new TemporaryFolder();
+
+  private Configuration conf;
+  private Path root;
+
+  /**
+   * Sets up the configuration to use the raw local filesystem.
+   */
+  @Before
+  public void setUp() {
+    conf = new Configuration();
+    conf.setClass("fs.file.impl", RawLocalFileSystem.class, FileSystem.class);
+    conf.setBoolean("fs.file.impl.disable.cache", true);
+    root = new Path("file://" + localTmp.getRoot().getAbsolutePath());
+  }
+
+  /**
+   * Creates a directory tree where each directory has the given number of files and
+   * subdirectories. File i in a directory has a size of i bytes.
+   *
+   * @return the total size of the files that were created
+   */
+  private static long createTree(File directory, int depth, int filesPerDir, int dirsPerDir)
+      throws IOException {
+    long totalSize = 0;
+    for (int i = 0; i < filesPerDir; i++) {
+      try (OutputStream out = new FileOutputStream(new File(directory, "file_" + i))) {
+        out.write(new byte[i]);
+      }
+      totalSize += i;
+    }
+    if (depth > 0) {
+      for (int i = 0; i < dirsPerDir; i++) {
+        File subdirectory = new File(directory, "dir_" + i);
+        assertTrue(subdirectory.mkdir());
+        totalSize += createTree(subdirectory, depth - 1, filesPerDir, dirsPerDir);
+      }
+    }
+    return totalSize;
+  }
+
+  /**
+   * Lists the tree one directory at a time, for comparison.
+   */
+  private Set<Path> listSerially(Path path, Optional<PathFilter> filter) throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    Set<Path> paths = new HashSet<>();
+    Queue<Path> pathsToCheck = new LinkedList<>();
+    pathsToCheck.add(path);
+    while (pathsToCheck.size() > 0) {
+      Path pathToCheck = pathsToCheck.remove();
+      if (filter.isPresent() && !filter.get().accept(pathToCheck)) {
+        continue;
+      }
+      for (FileStatus status : fs.listStatus(pathToCheck)) {
+        if (status.isDirectory()) {
+          pathsToCheck.add(status.getPath());
+        } else {
+          paths.add(status.getPath());
+        }
+      }
+    }
+    return paths;
+  }
+
+  private static Set<Path> getPaths(Set<FileStatus> statuses) {
+    Set<Path> paths = new HashSet<>();
+    for (FileStatus status : statuses) {
+      paths.add(status.getPath());
+    }
+    return paths;
+  }
+
+  @Test
+  public void testListingMatchesSerialListing() throws Exception {
+    long totalSize = createTree(localTmp.getRoot(), 3, 5, 3);
+    Set<Path> expectedPaths = listSerially(root, Optional.empty());
+    assertEquals(5 * (1 + 3 + 9 + 27), expectedPaths.size());
+
+    for (int parallelism : PARALLELISM_LEVELS) {
+      DirectoryLister lister = new DirectoryLister(parallelism, true);
+      Set<FileStatus> statuses =
+          lister.getFileStatuses(conf, Arrays.asList(root), Optional.empty()).get(0);
+      assertEquals(expectedPaths, getPaths(statuses));
+      assertEquals(totalSize, lister.getSize(conf, root, Optional.empty()));
+    }
+  }
+
+  @Test
+  public void testListingMultipleRoots() throws Exception {
+    File srcDir = localTmp.newFolder("src");
+    File destDir = localTmp.newFolder("dest");
+    createTree(srcDir, 2, 4, 2);
+    createTree(destDir, 1, 3, 2);
+    Path src = new Path(root, "src");
+    Path dest = new Path(root, "dest");
+
+    List<Set<FileStatus>> statuses = new DirectoryLister(8, true)
+        .getFileStatuses(conf, Arrays.asList(src, dest), Optional.empty());
+    assertEquals(listSerially(src, Optional.empty()), getPaths(statuses.get(0)));
+    assertEquals(listSerially(dest, Optional.empty()), getPaths(statuses.get(1)));
+
+    assertTrue(FsUtils.equalDirs(conf, src, src));
+    assertFalse(FsUtils.equalDirs(conf, src, dest));
+    assertTrue(FsUtils.filesExistOnDestButNotSrc(conf, dest, src, Optional.empty()));
+    assertFalse(FsUtils.filesExistOnDestButNotSrc(conf, src, dest, Optional.empty()));
+  }
+
+  @Test
+  public void testFilterSkipsDirectories() throws Exception {
+    createTree(localTmp.getRoot(), 2, 3, 3);
+    Optional<PathFilter> filter = Optional.of(path -> !path.getName().equals("dir_1"));
+    Set<Path> expectedPaths = listSerially(root, filter);
+    assertEquals(3 * (1 + 2 + 4), expectedPaths.size());
+
+    Set<FileStatus> statuses = new DirectoryLister(8, true)
+        .getFileStatuses(conf, Arrays.asList(root), filter).get(0);
+    assertEquals(expectedPaths, getPaths(statuses));
+  }
+
+  @Test
+  public void testVisitorStopsListing() throws Exception {
+    createTree(localTmp.getRoot(), 3, 5, 3);
+
+    AtomicInteger visitCount = new AtomicInteger();
+    boolean completed = new DirectoryLister(1, true).list(conf, root, Optional.empty(),
+        status -> visitCount.incrementAndGet() < 3);
+    assertFalse(completed);
+    // With a single thread, the listing stops before the rest of the files are visited
+    assertTrue(visitCount.get() <= 5);
+  }
+
+  @Test
+  public void testExceedsSize() throws Exception {
+    long totalSize = createTree(localTmp.getRoot(), 2, 4, 2);
+
+    for (int parallelism : PARALLELISM_LEVELS) {
+      DirectoryLister lister = new DirectoryLister(parallelism, true);
+      assertTrue(lister.exceedsSize(conf, root, 0));
+      assertTrue(lister.exceedsSize(conf, root, totalSize - 1));
+      assertFalse(lister.exceedsSize(conf, root, totalSize));
+    }
+    assertEquals(totalSize, FsUtils.getSize(conf, root, Optional.empty()));
+    assertFalse(FsUtils.exceedsSize(conf, root, totalSize));
+  }
+
+  @Test
+  public void benchmarkListing() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    int fileCount = Integer.getInteger(BENCHMARK_FILES_PROPERTY, DEFAULT_BENCHMARK_FILES);
+
+    // A wide, two level tree similar to a partitioned table
+    int directoryCount = (fileCount + BENCHMARK_FILES_PER_DIRECTORY - 1)
+        / BENCHMARK_FILES_PER_DIRECTORY;
+    int createdFiles = 0;
+    for (int i = 0; i < directoryCount; i++) {
+      File directory = new File(localTmp.getRoot(), String.format("ds=%06d", i));
+      assertTrue(directory.mkdir());
+      for (int j = 0; j < BENCHMARK_FILES_PER_DIRECTORY && createdFiles < fileCount; j++) {
+        assertTrue(new File(directory, "part-" + j).createNewFile());
+        createdFiles++;
+      }
+    }
+    LOG.info(String.format("Created %d files in %d directories", createdFiles, directoryCount));
+
+    for (int parallelism : PARALLELISM_LEVELS) {
+      DirectoryLister lister = new DirectoryLister(parallelism, true);
+      long startTime = System.nanoTime();
+      int listedFiles =
+          lister.getFileStatuses(conf, Arrays.asList(root), Optional.empty()).get(0).size();
+      double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+      assertEquals(createdFiles, listedFiles);
+      LOG.info(String.format("Parallelism %d: listed %d files in %.2f s (%.0f files/s)",
+          parallelism, listedFiles, elapsedSeconds, listedFiles / elapsedSeconds));
+    }
+  }
+}
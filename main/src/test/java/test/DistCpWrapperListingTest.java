@@ -0,0 +1,135 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.common.DistCpWrapper;
+import com.airbnb.reair.common.DistCpWrapperOptions;
+import com.airbnb.reair.common.FsUtils;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+public class DistCpWrapperListingTest extends MockClusterTest {
+
+  private static final int DIRECTORY_COUNT = 10;
+  private static final int FILES_PER_DIRECTORY = 5;
+
+  /**
+   * A local filesystem that records the directories that are listed.
+   */
+  public static class CountingLocalFileSystem extends LocalFileSystem {
+    private static final List<Path> listedPaths = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public FileStatus[] listStatus(Path path) throws IOException {
+      listedPaths.add(path);
+      return super.listStatus(path);
+    }
+
+    static void reset() {
+      listedPaths.clear();
+    }
+
+    static int getListingCount(Path root) {
+      String rootPath = root.toUri().getPath();
+      int count = 0;
+      synchronized (listedPaths) {
+        for (Path path : listedPaths) {
+          if (path.toUri().getPath().startsWith(rootPath)) {
+            count++;
+          }
+        }
+      }
+      return count;
+    }
+  }
+
+  private static Configuration getCountingConf() {
+    Configuration countingConf = new Configuration(conf);
+    countingConf.setClass("fs.file.impl", CountingLocalFileSystem.class, FileSystem.class);
+    countingConf.setBoolean("fs.file.impl.disable.cache", true);
+    return countingConf;
+  }
+
+  /**
+   * Creates a directory tree with DIRECTORY_COUNT directories, including the root and an empty
+   * directory.
+   */
+  private Path createSrcDir() throws IOException {
+    Path srcDir = new Path(srcWarehouseRoot, "src_dir");
+    FileSystem fs = srcDir.getFileSystem(conf);
+    for (int i = 0; i < DIRECTORY_COUNT - 2; i++) {
+      Path subDir = new Path(srcDir, "ds=" + i);
+      for (int j = 0; j < FILES_PER_DIRECTORY; j++) {
+        try (FSDataOutputStream out = fs.create(new Path(subDir, "part-" + j))) {
+          out.write(new byte[100 + j]);
+        }
+      }
+    }
+    fs.mkdirs(new Path(srcDir, "empty_dir"));
+    return srcDir;
+  }
+
+  private DistCpWrapperOptions makeOptions(Path srcDir, Path destDir) {
+    return new DistCpWrapperOptions(
+        srcDir,
+        destDir,
+        new Path(destCluster.getTmpDir(), "distcp_tmp"),
+        new Path(destCluster.getTmpDir(), "distcp_logs"))
+        .setAtomic(true)
+        .setSyncModificationTimes(false)
+        .setLocalCopySizeThreshold(0);
+  }
+
+  @Test
+  public void testSourceListedOnce() throws Exception {
+    Path srcDir = createSrcDir();
+    Path destDir = new Path(destWarehouseRoot, "dest_dir");
+    DistCpWrapper distCpWrapper = new DistCpWrapper(getCountingConf());
+
+    // Before the source was snapshotted, a copy to a new destination listed the source twice, and a
+    // copy over an existing destination listed it three times.
+    CountingLocalFileSystem.reset();
+    distCpWrapper.copy(makeOptions(srcDir, destDir));
+    assertTrue(FsUtils.equalDirs(conf, srcDir, destDir));
+    assertEquals(DIRECTORY_COUNT, CountingLocalFileSystem.getListingCount(srcDir));
+
+    // Replace a file so that the destination needs to be copied again
+    FileSystem fs = srcDir.getFileSystem(conf);
+    try (FSDataOutputStream out = fs.create(new Path(srcDir, "ds=0/part-0"), true)) {
+      out.write(new byte[10]);
+    }
+    CountingLocalFileSystem.reset();
+    distCpWrapper.copy(makeOptions(srcDir, destDir));
+    assertTrue(FsUtils.equalDirs(conf, srcDir, destDir));
+    assertEquals(DIRECTORY_COUNT, CountingLocalFileSystem.getListingCount(srcDir));
+    // The copy is verified in the tmp directory, so the destination is only listed before the copy
+    assertEquals(DIRECTORY_COUNT, CountingLocalFileSystem.getListingCount(destDir));
+  }
+
+  @Test
+  public void testDistCpWithSnapshotListing() throws Exception {
+    Path srcDir = createSrcDir();
+    Path destDir = new Path(destWarehouseRoot, "dest_dir");
+
+    DistCpWrapperOptions options = makeOptions(srcDir, destDir).setParallelCopyThreads(0);
+    DistCpWrapper distCpWrapper = new DistCpWrapper(conf);
+    assertEquals(FsUtils.getSize(conf, srcDir, Optional.empty()),
+        distCpWrapper.copy(options));
+
+    assertTrue(FsUtils.equalDirs(conf, srcDir, destDir));
+    assertTrue(FsUtils.dirExists(conf, new Path(destDir, "empty_dir")));
+  }
+}
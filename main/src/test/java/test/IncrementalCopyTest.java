@@ -0,0 +1,112 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.common.DistCpWrapper;
+import com.airbnb.reair.common.DistCpWrapperOptions;
+import com.airbnb.reair.common.FsUtils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+public class IncrementalCopyTest extends MockClusterTest {
+
+  private static final Log LOG = LogFactory.getLog(IncrementalCopyTest.class);
+
+  private static final int FILE_COUNT = 200;
+  private static final int FILE_SIZE = 10 * 1024;
+
+  private static void createFile(Path path, int size, long seed) throws IOException {
+    byte[] data = new byte[size];
+    new Random(seed).nextBytes(data);
+    FileSystem fs = path.getFileSystem(conf);
+    try (FSDataOutputStream out = fs.create(path, true)) {
+      out.write(data);
+    }
+  }
+
+  private static byte[] readFile(Path path) throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    byte[] data = new byte[(int) fs.getFileStatus(path).getLen()];
+    try (FSDataInputStream in = fs.open(path)) {
+      in.readFully(data);
+    }
+    return data;
+  }
+
+  private static long getLocalBytesWritten() {
+    long bytesWritten = 0;
+    for (FileSystem.Statistics statistics : FileSystem.getAllStatistics()) {
+      if ("file".equals(statistics.getScheme())) {
+        bytesWritten += statistics.getBytesWritten();
+      }
+    }
+    return bytesWritten;
+  }
+
+  private DistCpWrapperOptions makeOptions(Path srcDir, Path destDir, boolean incremental) {
+    return new DistCpWrapperOptions(
+        srcDir,
+        destDir,
+        new Path(destCluster.getTmpDir(), "distcp_tmp"),
+        new Path(destCluster.getTmpDir(), "distcp_logs"))
+        .setAtomic(true)
+        .setSyncModificationTimes(false)
+        .setLocalCopySizeThreshold(0)
+        .setIncrementalCopy(incremental);
+  }
+
+  /**
+   * Copies the source directory and returns the number of bytes written to the local filesystem.
+   */
+  private long copy(DistCpWrapperOptions options) throws Exception {
+    long bytesWrittenBefore = getLocalBytesWritten();
+    new DistCpWrapper(conf).copy(options);
+    return getLocalBytesWritten() - bytesWrittenBefore;
+  }
+
+  @Test
+  public void testIncrementalCopy() throws Exception {
+    Path srcDir = new Path(srcWarehouseRoot, "src_dir");
+    for (int i = 0; i < FILE_COUNT; i++) {
+      createFile(new Path(srcDir, "ds=" + (i % 10) + "/part-" + i), FILE_SIZE, i);
+    }
+    Path fullCopyDir = new Path(destWarehouseRoot, "full_copy");
+    Path incrementalCopyDir = new Path(destWarehouseRoot, "incremental_copy");
+    copy(makeOptions(srcDir, fullCopyDir, false));
+    copy(makeOptions(srcDir, incrementalCopyDir, true));
+    assertTrue(FsUtils.equalDirs(conf, srcDir, incrementalCopyDir));
+
+    // Change about 1% of the files: replace one, add one, and remove one
+    createFile(new Path(srcDir, "ds=0/part-0"), FILE_SIZE + 1, 1000);
+    createFile(new Path(srcDir, "ds=10/part-200"), FILE_SIZE, 200);
+    FileSystem fs = srcDir.getFileSystem(conf);
+    fs.delete(new Path(srcDir, "ds=1/part-1"), false);
+
+    long fullCopyBytes = copy(makeOptions(srcDir, fullCopyDir, false));
+    long incrementalCopyBytes = copy(makeOptions(srcDir, incrementalCopyDir, true));
+    LOG.info(String.format("Full copy wrote %d bytes, incremental copy wrote %d bytes",
+        fullCopyBytes, incrementalCopyBytes));
+
+    assertTrue(FsUtils.equalDirs(conf, srcDir, fullCopyDir));
+    assertTrue(FsUtils.equalDirs(conf, srcDir, incrementalCopyDir));
+    assertArrayEquals(readFile(new Path(srcDir, "ds=0/part-0")),
+        readFile(new Path(incrementalCopyDir, "ds=0/part-0")));
+    assertFalse(fs.exists(new Path(incrementalCopyDir, "ds=1/part-1")));
+    assertTrue(incrementalCopyBytes * 10 < fullCopyBytes);
+
+    // Copying again shouldn't write anything
+    assertEquals(0, copy(makeOptions(srcDir, incrementalCopyDir, true)));
+  }
+}
@@ -0,0 +1,193 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+
+import com.airbnb.reair.multiprocessing.Job;
+import com.airbnb.reair.multiprocessing.JobDagManager;
+import com.airbnb.reair.multiprocessing.Lock;
+import com.airbnb.reair.multiprocessing.LockSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class JobDagManagerTest {
+  private static final Log LOG = LogFactory.getLog(JobDagManagerTest.class);
+
+  // Set this system property to run the timing based tests
+  private static final String BENCHMARK_PROPERTY = "reair.benchmark";
+
+  private static final String HOT_TABLE_LOCK = "test_db.hot_table";
+
+  // The per-job cost for the largest DAG should be within this factor of the smallest
+  private static final double MAX_PER_JOB_COST_RATIO = 10.0;
+
+  private static class TestJob extends Job {
+    private final String name;
+    private final LockSet lockSet;
+
+    TestJob(String name, LockSet lockSet) {
+      this.name = name;
+      this.lockSet = lockSet;
+    }
+
+    @Override
+    public int run() {
+      return 0;
+    }
+
+    @Override
+    public LockSet getRequiredLocks() {
+      return lockSet;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private static LockSet lockSet(Lock... locks) {
+    LockSet lockSet = new LockSet();
+    for (Lock lock : locks) {
+      lockSet.add(lock);
+    }
+    return lockSet;
+  }
+
+  private static Lock shared(String name) {
+    return new Lock(Lock.Type.SHARED, name);
+  }
+
+  private static Lock exclusive(String name) {
+    return new Lock(Lock.Type.EXCLUSIVE, name);
+  }
+
+  @Test
+  public void testSharedAndExclusiveOrdering() {
+    JobDagManager dagManager = new JobDagManager();
+
+    // Two readers of the table can run together, as can a writer of an unrelated table
+    Job reader1 = new TestJob("reader1", lockSet(shared("a")));
+    Job reader2 = new TestJob("reader2", lockSet(shared("a")));
+    Job otherWriter = new TestJob("otherWriter", lockSet(exclusive("b")));
+    assertTrue(dagManager.addJob(reader1));
+    assertTrue(dagManager.addJob(reader2));
+    assertTrue(dagManager.addJob(otherWriter));
+
+    // The writer has to wait for both readers, and the reader after the writer has to wait for
+    // the writer even though the lock is currently only held as shared
+    Job writer = new TestJob("writer", lockSet(exclusive("a")));
+    Job reader3 = new TestJob("reader3", lockSet(shared("a")));
+    Job both = new TestJob("both", lockSet(shared("a"), exclusive("b")));
+    assertFalse(dagManager.addJob(writer));
+    assertFalse(dagManager.addJob(reader3));
+    assertFalse(dagManager.addJob(both));
+    assertEquals(ImmutableSet.of(reader1, reader2), writer.getParentJobs());
+    assertEquals(ImmutableSet.of(writer), reader3.getParentJobs());
+    assertEquals(ImmutableSet.of(writer, otherWriter), both.getParentJobs());
+
+    assertEquals(Collections.emptySet(), dagManager.removeJob(reader1));
+    assertEquals(ImmutableSet.of(writer), dagManager.removeJob(reader2));
+    assertEquals(Collections.emptySet(), dagManager.removeJob(otherWriter));
+    assertEquals(ImmutableSet.of(reader3, both), dagManager.removeJob(writer));
+    assertEquals(Collections.emptySet(), dagManager.removeJob(reader3));
+    assertEquals(Collections.emptySet(), dagManager.removeJob(both));
+
+    // Once everything is done, the locks should be free again
+    assertTrue(dagManager.addJob(new TestJob("writer2", lockSet(exclusive("a"), exclusive("b")))));
+  }
+
+  @Test
+  public void testExclusiveChain() {
+    JobDagManager dagManager = new JobDagManager();
+    LockSet lockSet = lockSet(exclusive("a"));
+
+    List<Job> jobs = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      Job job = new TestJob("job" + i, lockSet);
+      assertEquals(i == 0, dagManager.addJob(job));
+      if (i > 0) {
+        assertEquals(ImmutableSet.of(jobs.get(i - 1)), job.getParentJobs());
+      }
+      jobs.add(job);
+    }
+
+    for (int i = 0; i < jobs.size(); i++) {
+      Set<Job> expected = i + 1 < jobs.size()
+          ? ImmutableSet.of(jobs.get(i + 1)) : Collections.emptySet();
+      assertEquals(expected, dagManager.removeJob(jobs.get(i)));
+    }
+  }
+
+  /**
+   * Queues up the given number of jobs behind an exclusive lock on a single table, then runs all
+   * of them to completion.
+   *
+   * @return the average time in nanoseconds spent adding and removing each job
+   */
+  private static double timeHotTableDag(int jobCount) {
+    JobDagManager dagManager = new JobDagManager();
+    // Jobs only reference their lock sets, so share them to keep the memory footprint down
+    LockSet sharedLockSet = lockSet(shared(HOT_TABLE_LOCK));
+    LockSet exclusiveLockSet = lockSet(exclusive(HOT_TABLE_LOCK));
+
+    long startTime = System.nanoTime();
+
+    // A table level operation holds the lock while partition jobs pile up behind it. Every 100th
+    // job is another table level operation.
+    Job blockingJob = new TestJob("blocker", exclusiveLockSet);
+    dagManager.addJob(blockingJob);
+    for (int i = 0; i < jobCount; i++) {
+      LockSet lockSet = i % 100 == 99 ? exclusiveLockSet : sharedLockSet;
+      dagManager.addJob(new TestJob("job" + i, lockSet));
+    }
+
+    // Run everything in the order that the DAG allows
+    List<Job> runnableJobs = new ArrayList<>();
+    runnableJobs.add(blockingJob);
+    int removedCount = 0;
+    while (!runnableJobs.isEmpty()) {
+      Job job = runnableJobs.remove(runnableJobs.size() - 1);
+      runnableJobs.addAll(dagManager.removeJob(job));
+      removedCount++;
+    }
+
+    long elapsedTime = System.nanoTime() - startTime;
+    assertEquals(jobCount + 1, removedCount);
+    return (double) elapsedTime / (jobCount + 1);
+  }
+
+  @Test
+  public void testPerJobCostIsFlat() {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    // Warm up the JIT so that the smaller runs aren't dominated by interpretation
+    timeHotTableDag(100000);
+
+    int[] jobCounts = {1000, 10000, 100000, 500000};
+    Set<Double> perJobCosts = new HashSet<>();
+    double minCost = Double.MAX_VALUE;
+    double maxCost = 0;
+    for (int jobCount : jobCounts) {
+      double perJobCost = timeHotTableDag(jobCount);
+      LOG.info(String.format("%d queued jobs: %.0f ns per job", jobCount, perJobCost));
+      perJobCosts.add(perJobCost);
+      minCost = Math.min(minCost, perJobCost);
+      maxCost = Math.max(maxCost, perJobCost);
+    }
+
+    assertTrue(String.format("Per-job costs %s are not flat", perJobCosts),
+        maxCost / minCost < MAX_PER_JOB_COST_RATIO);
+  }
+}
@@ -0,0 +1,231 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.batch.hive.JobResultInputFormat;
+import com.airbnb.reair.batch.hive.JobResultWritable;
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.incremental.primitives.TaskEstimate;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+public class JobResultFormatTest {
+  private static final Log LOG = LogFactory.getLog(JobResultFormatTest.class);
+
+  // Set this system property to run the encoding benchmark
+  private static final String BENCHMARK_PROPERTY = "reair.benchmark";
+  private static final String BENCHMARK_RECORDS_PROPERTY = "reair.benchmark.job_result_records";
+  private static final int DEFAULT_BENCHMARK_RECORDS = 10000000;
+
+  @Rule
+  public TemporaryFolder localTmp = new TemporaryFolder();
+
+  private Configuration conf;
+  private Path root;
+
+  /**
+   * Sets up the configuration to use the raw local filesystem.
+   */
+  @Before
+  public void setUp() {
+    conf = new Configuration();
+    conf.setClass("fs.file.impl", RawLocalFileSystem.class, FileSystem.class);
+    root = new Path(localTmp.getRoot().toURI());
+  }
+
+  /**
+   * Makes a record similar to the ones generated for a partitioned table in stage 1. Most records
+   * are partition copies, with the occasional check, drop, or table copy.
+   */
+  private static JobResultWritable makeJobResult(int index) {
+    String db = "db_" + (index % 100);
+    String table = "table_" + (index % 10000);
+    String partition = String.format("ds=2016-%02d-%02d/hr=%02d", index % 12 + 1, index % 28 + 1,
+        index % 24);
+    String location = String.format("/warehouse/%s.db/%s/%s", db, table, partition);
+    switch (index % 10) {
+      case 0:
+        return new JobResultWritable(
+            new TaskEstimate(TaskEstimate.TaskType.CHECK_PARTITION, false, false,
+                Optional.empty(), Optional.empty()),
+            new HiveObjectSpec(db, table, partition));
+      case 1:
+        return new JobResultWritable(
+            new TaskEstimate(TaskEstimate.TaskType.DROP_PARTITION, true, false,
+                Optional.empty(), Optional.empty()),
+            new HiveObjectSpec(db, table, partition));
+      case 2:
+        return new JobResultWritable(
+            new TaskEstimate(TaskEstimate.TaskType.COPY_PARTITIONED_TABLE, true, false,
+                Optional.empty(), Optional.empty()),
+            new HiveObjectSpec(db, table));
+      default:
+        return new JobResultWritable(
+            new TaskEstimate(TaskEstimate.TaskType.COPY_PARTITION, true, true,
+                Optional.of(new Path("hdfs://src-cluster" + location)),
+                Optional.of(new Path("hdfs://dest-cluster" + location))),
+            new HiveObjectSpec(db, table, partition));
+    }
+  }
+
+  private static String makeExtra(int index) {
+    return index % 1000 == 0 ? "exception in CHECK_PARTITION of mapper = attempt_0" : "";
+  }
+
+  /**
+   * Writes records in the text format that the stage 1 job writes with TextOutputFormat.
+   */
+  private void writeTextFile(Path file, int start, int count) throws IOException {
+    CompressionCodec codec = ReflectionUtils.newInstance(GzipCodec.class, conf);
+    try (OutputStream out = codec.createOutputStream(file.getFileSystem(conf).create(file))) {
+      for (int i = start; i < start + count; i++) {
+        String line = makeJobResult(i).toString() + "\t" + makeExtra(i) + "\n";
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  /**
+   * Writes records in the format that the stage 1 job writes with SequenceFileOutputFormat.
+   */
+  private void writeSequenceFile(Path file, int start, int count) throws IOException {
+    try (SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+        SequenceFile.Writer.file(file),
+        SequenceFile.Writer.keyClass(JobResultWritable.class),
+        SequenceFile.Writer.valueClass(Text.class),
+        SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK,
+            ReflectionUtils.newInstance(DefaultCodec.class, conf)))) {
+      for (int i = start; i < start + count; i++) {
+        writer.append(makeJobResult(i), new Text(makeExtra(i)));
+      }
+    }
+  }
+
+  /**
+   * Reads all the records under a directory using JobResultInputFormat.
+   *
+   * @return the records as lines in the text format, or null if collectLines is false
+   */
+  private List<String> readAll(Path dir, boolean collectLines) throws Exception {
+    Job job = Job.getInstance(conf);
+    FileInputFormat.setInputPaths(job, dir);
+    JobResultInputFormat inputFormat = new JobResultInputFormat();
+    List<String> lines = collectLines ? new ArrayList<>() : null;
+    for (InputSplit split : inputFormat.getSplits(job)) {
+      TaskAttemptContext context =
+          new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+      try (RecordReader<JobResultWritable, Text> reader =
+          inputFormat.createRecordReader(split, context)) {
+        reader.initialize(split, context);
+        while (reader.nextKeyValue()) {
+          JobResultWritable jobResult = reader.getCurrentKey();
+          if (collectLines) {
+            lines.add(jobResult.toString() + "\t" + reader.getCurrentValue());
+          } else if (jobResult.getSpec() == null) {
+            throw new AssertionError("Record without a spec");
+          }
+        }
+      }
+    }
+    return lines;
+  }
+
+  @Test
+  public void testReadsTextAndSequenceFiles() throws Exception {
+    Path dir = new Path(root, "step1output");
+    Path textFile = new Path(dir, "part-r-00000.gz");
+    Path sequenceFile = new Path(dir, "part-r-00001");
+    // A run that was started by an earlier version may have a mix of formats
+    writeTextFile(textFile, 0, 1000);
+    writeSequenceFile(sequenceFile, 1000, 1000);
+
+    assertFalse(JobResultInputFormat.isSequenceFile(conf, textFile));
+    assertTrue(JobResultInputFormat.isSequenceFile(conf, sequenceFile));
+
+    List<String> expectedLines = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      expectedLines.add(makeJobResult(i).toString() + "\t" + makeExtra(i));
+    }
+    List<String> lines = readAll(dir, true);
+    Collections.sort(expectedLines);
+    Collections.sort(lines);
+    assertEquals(expectedLines, lines);
+  }
+
+  @Test
+  public void testParseTextJobResult() {
+    JobResultWritable jobResult = makeJobResult(5);
+    assertEquals(jobResult.toString(),
+        JobResultInputFormat.parseTextJobResult(jobResult.toString() + "\t").getLeft().toString());
+    assertEquals("",
+        JobResultInputFormat.parseTextJobResult(jobResult.toString()).getRight().toString());
+    assertEquals("some\textra", JobResultInputFormat.parseTextJobResult(
+        jobResult.toString() + "\tsome\textra").getRight().toString());
+  }
+
+  @Test
+  public void benchmarkEncoding() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    int recordCount = Integer.getInteger(BENCHMARK_RECORDS_PROPERTY, DEFAULT_BENCHMARK_RECORDS);
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    FileSystem fs = root.getFileSystem(conf);
+
+    for (String format : new String[] {"text", "sequence_file"}) {
+      Path dir = new Path(root, format);
+      Path file = format.equals("text")
+          ? new Path(dir, "part-r-00000.gz") : new Path(dir, "part-r-00000");
+
+      long startCpuTime = threadBean.getCurrentThreadCpuTime();
+      if (format.equals("text")) {
+        writeTextFile(file, 0, recordCount);
+      } else {
+        writeSequenceFile(file, 0, recordCount);
+      }
+      double serializeSeconds = (threadBean.getCurrentThreadCpuTime() - startCpuTime) / 1e9;
+
+      startCpuTime = threadBean.getCurrentThreadCpuTime();
+      readAll(dir, false);
+      double parseSeconds = (threadBean.getCurrentThreadCpuTime() - startCpuTime) / 1e9;
+
+      LOG.info(String.format("Format %s: %d records, serialize CPU: %.2f s, parse CPU: %.2f s, "
+          + "output size: %d bytes (%.1f bytes/record)", format, recordCount, serializeSeconds,
+          parseSeconds, fs.getFileStatus(file).getLen(),
+          (double) fs.getFileStatus(file).getLen() / recordCount));
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.multiprocessing.FifoSchedulingPolicy;
+import com.airbnb.reair.multiprocessing.Job;
+import com.airbnb.reair.multiprocessing.JobSchedulingPolicy;
+import com.airbnb.reair.multiprocessing.Lock;
+import com.airbnb.reair.multiprocessing.LockSet;
+import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
+import com.airbnb.reair.multiprocessing.PriorityClassSchedulingPolicy;
+import com.airbnb.reair.multiprocessing.ShortestJobFirstSchedulingPolicy;
+import com.airbnb.reair.multiprocessing.WeightedFairSchedulingPolicy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+public class JobSchedulingPolicyTest {
+  private static final Log LOG = LogFactory.getLog(JobSchedulingPolicyTest.class);
+
+  private static final int NUM_WORKERS = 4;
+  private static final int BACKFILL_JOB_COUNT = 300;
+  private static final int SMALL_TABLE_COUNT = 10;
+  private static final int SMALL_TABLE_JOB_COUNT = 3;
+  private static final int METADATA_JOB_COUNT = 30;
+  private static final long COPY_DURATION_MS = 4;
+  private static final long METADATA_DURATION_MS = 1;
+
+  private static final String BACKFILL_TABLE = "test_db.backfill_table";
+
+  /**
+   * The kinds of jobs in the synthetic workload.
+   */
+  private enum JobClass {
+    // Copies of partitions in a table that's being backfilled
+    BACKFILL,
+    // Copies of partitions in other tables
+    SMALL_TABLE,
+    // Renames and drops
+    METADATA
+  }
+
+  /**
+   * A job that takes a fixed amount of time and records when it ran.
+   */
+  private static class SimulatedJob extends Job {
+    private final String name;
+    private final String table;
+    private final JobClass jobClass;
+    private final long durationMs;
+    private final LockSet lockSet;
+    private final List<String> runOrder;
+    private volatile long doneTime;
+
+    SimulatedJob(
+        String name,
+        String table,
+        JobClass jobClass,
+        long durationMs,
+        LockSet lockSet,
+        List<String> runOrder) {
+      this.name = name;
+      this.table = table;
+      this.jobClass = jobClass;
+      this.durationMs = durationMs;
+      this.lockSet = lockSet;
+      this.runOrder = runOrder;
+    }
+
+    @Override
+    public int run() {
+      runOrder.add(name);
+      try {
+        Thread.sleep(durationMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return -1;
+      }
+      doneTime = System.nanoTime();
+      return 0;
+    }
+
+    @Override
+    public LockSet getRequiredLocks() {
+      return lockSet;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private static LockSet lockSet(Lock... locks) {
+    LockSet lockSet = new LockSet();
+    for (Lock lock : locks) {
+      lockSet.add(lock);
+    }
+    return lockSet;
+  }
+
+  /**
+   * Makes a workload where a backfill of one table is queued ahead of a few jobs for other tables.
+   * The last job renames the backfilled table, so it has to wait for the whole backfill.
+   */
+  private static List<SimulatedJob> makeSkewedWorkload(List<String> runOrder) {
+    List<SimulatedJob> jobs = new ArrayList<>();
+    for (int i = 0; i < BACKFILL_JOB_COUNT; i++) {
+      String partition = BACKFILL_TABLE + "/ds=" + i;
+      jobs.add(new SimulatedJob("copy " + partition, BACKFILL_TABLE, JobClass.BACKFILL,
+          COPY_DURATION_MS,
+          lockSet(new Lock(Lock.Type.SHARED, BACKFILL_TABLE),
+              new Lock(Lock.Type.EXCLUSIVE, partition)),
+          runOrder));
+    }
+    for (int i = 0; i < METADATA_JOB_COUNT; i++) {
+      String table = "test_db.table_" + (i % SMALL_TABLE_COUNT);
+      if (i < SMALL_TABLE_COUNT * SMALL_TABLE_JOB_COUNT) {
+        String partition = table + "/ds=" + i;
+        jobs.add(new SimulatedJob("copy " + partition, table, JobClass.SMALL_TABLE,
+            COPY_DURATION_MS,
+            lockSet(new Lock(Lock.Type.SHARED, table), new Lock(Lock.Type.EXCLUSIVE, partition)),
+            runOrder));
+      }
+      String partition = table + "/hr=" + i;
+      jobs.add(new SimulatedJob("drop " + partition, table, JobClass.METADATA,
+          METADATA_DURATION_MS,
+          lockSet(new Lock(Lock.Type.SHARED, table), new Lock(Lock.Type.EXCLUSIVE, partition)),
+          runOrder));
+    }
+    jobs.add(new SimulatedJob("rename " + BACKFILL_TABLE, BACKFILL_TABLE, JobClass.METADATA,
+        METADATA_DURATION_MS, lockSet(new Lock(Lock.Type.EXCLUSIVE, BACKFILL_TABLE)), runOrder));
+    return jobs;
+  }
+
+  private static long percentile(List<Long> sortedValues, double fraction) {
+    int index = (int) Math.ceil(fraction * sortedValues.size()) - 1;
+    return sortedValues.get(Math.max(0, index));
+  }
+
+  /**
+   * Runs the skewed workload with the given policy and returns the sorted latencies in ms of the
+   * jobs in each class.
+   */
+  private static Map<JobClass, List<Long>> simulate(String policyName,
+      JobSchedulingPolicy policy) throws InterruptedException {
+    List<String> runOrder = Collections.synchronizedList(new ArrayList<>());
+    List<SimulatedJob> jobs = makeSkewedWorkload(runOrder);
+    ParallelJobExecutor executor = new ParallelJobExecutor("SimulationWorker", NUM_WORKERS,
+        policy);
+    // All the jobs are queued when the workers start, so the latency is measured from the start
+    for (SimulatedJob job : jobs) {
+      executor.add(job);
+    }
+    long startTime = System.nanoTime();
+    executor.start();
+    while (executor.getNotDoneJobCount() > 0) {
+      Thread.sleep(10);
+    }
+    executor.stop();
+
+    // Jobs that need the same locks should still run in the order that they were added
+    assertEquals(jobs.size(), runOrder.size());
+    SimulatedJob renameJob = jobs.get(jobs.size() - 1);
+    int renameIndex = runOrder.indexOf(renameJob.name);
+    for (SimulatedJob job : jobs) {
+      if (job.jobClass == JobClass.BACKFILL) {
+        assertTrue(runOrder.indexOf(job.name) < renameIndex);
+      }
+    }
+
+    Map<JobClass, List<Long>> latencies = new HashMap<>();
+    for (JobClass jobClass : JobClass.values()) {
+      latencies.put(jobClass, new ArrayList<>());
+    }
+    for (SimulatedJob job : jobs) {
+      latencies.get(job.jobClass).add((job.doneTime - startTime) / 1000000);
+    }
+    for (JobClass jobClass : JobClass.values()) {
+      List<Long> classLatencies = latencies.get(jobClass);
+      Collections.sort(classLatencies);
+      LOG.info(String.format("%s policy: %s jobs p50 latency: %d ms, p99 latency: %d ms",
+          policyName, jobClass, percentile(classLatencies, 0.5),
+          percentile(classLatencies, 0.99)));
+    }
+    return latencies;
+  }
+
+  private static SimulatedJob asSimulatedJob(Job job) {
+    return (SimulatedJob) job;
+  }
+
+  @Test
+  public void testPoliciesUnderSkewedWorkload() throws Exception {
+    Map<JobClass, List<Long>> fifoLatencies = simulate("fifo", new FifoSchedulingPolicy());
+    long fifoMetadataP50 = percentile(fifoLatencies.get(JobClass.METADATA), 0.5);
+    long fifoSmallTableP50 = percentile(fifoLatencies.get(JobClass.SMALL_TABLE), 0.5);
+
+    // Metadata jobs first. The rename of the backfilled table still has to wait for the backfill,
+    // so compare the drops using the median.
+    Map<JobClass, List<Long>> priorityLatencies = simulate("priority",
+        new PriorityClassSchedulingPolicy(
+            job -> asSimulatedJob(job).jobClass == JobClass.METADATA ? 0 : 1));
+    assertTrue(percentile(priorityLatencies.get(JobClass.METADATA), 0.5) < fifoMetadataP50);
+
+    // Fair sharing between tables lets the small tables go ahead of most of the backfill
+    Map<JobClass, List<Long>> fairLatencies = simulate("fair",
+        new WeightedFairSchedulingPolicy(job -> asSimulatedJob(job).table, table -> 1.0));
+    assertTrue(percentile(fairLatencies.get(JobClass.SMALL_TABLE), 0.99) < fifoSmallTableP50);
+
+    // Shortest estimated job first runs the short metadata jobs first
+    Map<JobClass, List<Long>> shortestFirstLatencies = simulate("shortest_first",
+        new ShortestJobFirstSchedulingPolicy(job -> asSimulatedJob(job).durationMs));
+    assertTrue(percentile(shortestFirstLatencies.get(JobClass.METADATA), 0.5) < fifoMetadataP50);
+  }
+
+  @Test(timeout = 10000)
+  public void testShortestFirstEstimatesCostsAsynchronously() throws Exception {
+    List<String> runOrder = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch estimatesAllowed = new CountDownLatch(1);
+    ShortestJobFirstSchedulingPolicy policy = new ShortestJobFirstSchedulingPolicy(job -> {
+        try {
+          estimatesAllowed.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return asSimulatedJob(job).durationMs;
+      });
+    ParallelJobExecutor executor = new ParallelJobExecutor("SimulationWorker", 1, policy);
+
+    // Queued from the longest to the shortest, for different tables so that all are ready
+    List<SimulatedJob> jobs = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      String table = "test_db.table_" + i;
+      jobs.add(new SimulatedJob("copy " + table, table, JobClass.SMALL_TABLE, 3 - i,
+          lockSet(new Lock(Lock.Type.EXCLUSIVE, table)), runOrder));
+    }
+    // Adding shouldn't wait for the estimates
+    for (SimulatedJob job : jobs) {
+      executor.add(job);
+    }
+
+    // The ready jobs should be moved once their estimates are available
+    estimatesAllowed.countDown();
+    while (policy.compare(jobs.get(2), jobs.get(1)) > 0
+        || policy.compare(jobs.get(1), jobs.get(0)) > 0) {
+      Thread.sleep(10);
+    }
+
+    executor.start();
+    while (executor.getNotDoneJobCount() > 0) {
+      Thread.sleep(10);
+    }
+    executor.stop();
+    assertEquals(jobs.get(2).name, runOrder.get(0));
+    assertEquals(jobs.get(1).name, runOrder.get(1));
+    assertEquals(jobs.get(0).name, runOrder.get(2));
+  }
+}
@@ -7,6 +7,7 @@ import com.airbnb.reair.common.HiveMetastoreException;
 import com.airbnb.reair.common.HiveObjectSpec;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hive.metastore.api.AlreadyExistsException;
 import org.apache.hadoop.hive.metastore.api.Database;
 import org.apache.hadoop.hive.metastore.api.FieldSchema;
 import org.apache.hadoop.hive.metastore.api.Partition;
@@ -91,7 +92,9 @@ public class MockHiveMetastoreClient implements HiveMetastoreClient {
         new HiveObjectSpec(tableSpec.getDbName(), tableSpec.getTableName(), partitionName);
 
     if (specToPartition.containsKey(partitionSpec)) {
-      throw new HiveMetastoreException("Partition already exists: " + partitionSpec);
+      // The Thrift client wraps the metastore's exception in the same way
+      throw new HiveMetastoreException(
+          new AlreadyExistsException("Partition already exists: " + partitionSpec));
     }
 
     specToPartition.put(partitionSpec, partition);
@@ -128,6 +131,47 @@ public class MockHiveMetastoreClient implements HiveMetastoreClient {
     specToPartition.put(partitionSpec, partition);
   }
 
+  @Override
+  public List<Partition> getPartitionsByNames(String dbName, String tableName,
+      List<String> partitionNames) throws HiveMetastoreException {
+    List<Partition> partitions = new ArrayList<>();
+    for (String partitionName : partitionNames) {
+      Partition partition = getPartition(dbName, tableName, partitionName);
+      if (partition != null) {
+        partitions.add(partition);
+      }
+    }
+    return partitions;
+  }
+
+  @Override
+  public void addPartitions(List<Partition> partitions) throws HiveMetastoreException {
+    // Like the metastore, don't add any of the partitions if one of them can't be added
+    for (Partition partition : partitions) {
+      HiveObjectSpec tableSpec =
+          new HiveObjectSpec(partition.getDbName(), partition.getTableName());
+      if (!specToTable.containsKey(tableSpec)) {
+        throw new HiveMetastoreException("Unknown table: " + tableSpec);
+      }
+      String partitionName = getPartitionName(specToTable.get(tableSpec), partition);
+      if (existsPartition(tableSpec.getDbName(), tableSpec.getTableName(), partitionName)) {
+        throw new HiveMetastoreException(
+            new AlreadyExistsException("Partition already exists: " + partitionName));
+      }
+    }
+    for (Partition partition : partitions) {
+      addPartition(partition);
+    }
+  }
+
+  @Override
+  public void alterPartitions(String dbName, String tableName, List<Partition> partitions)
+      throws HiveMetastoreException {
+    for (Partition partition : partitions) {
+      alterPartition(dbName, tableName, partition);
+    }
+  }
+
   @Override
   public void createDatabase(Database db) throws HiveMetastoreException {
     if (dbNameToDatabase.containsKey(db.getName())) {
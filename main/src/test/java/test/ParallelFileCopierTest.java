@@ -0,0 +1,209 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.common.DistCpWrapper;
+import com.airbnb.reair.common.DistCpWrapperOptions;
+import com.airbnb.reair.common.FsUtils;
+import com.airbnb.reair.common.ParallelFileCopier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+
+public class ParallelFileCopierTest extends MockClusterTest {
+
+  private static final Log LOG = LogFactory.getLog(ParallelFileCopierTest.class);
+
+  // Set this system property to run the copy benchmark
+  private static final String BENCHMARK_PROPERTY = "reair.benchmark";
+  private static final String BENCHMARK_SIZE_MB_PROPERTY = "reair.benchmark.copy_mb";
+  private static final int DEFAULT_BENCHMARK_SIZE_MB = 100;
+  private static final int BENCHMARK_FILE_COUNT = 20;
+
+  private static void createFile(Path path, int size, long seed) throws IOException {
+    byte[] data = new byte[size];
+    new Random(seed).nextBytes(data);
+    FileSystem fs = path.getFileSystem(conf);
+    try (FSDataOutputStream out = fs.create(path)) {
+      out.write(data);
+    }
+  }
+
+  private static byte[] readFile(Path path) throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    byte[] data = new byte[(int) fs.getFileStatus(path).getLen()];
+    try (FSDataInputStream in = fs.open(path)) {
+      in.readFully(data);
+    }
+    return data;
+  }
+
+  /**
+   * Creates a directory with the given number of files, split between two subdirectories.
+   */
+  private Path createSrcDir(int fileCount, int fileSize) throws IOException {
+    Path srcDir = new Path(srcWarehouseRoot, "src_dir");
+    for (int i = 0; i < fileCount; i++) {
+      Path subDir = new Path(srcDir, i % 2 == 0 ? "a" : "b/c");
+      createFile(new Path(subDir, "part-" + i), fileSize + i, i);
+    }
+    return srcDir;
+  }
+
+  private DistCpWrapperOptions makeOptions(Path srcDir, Path destDir) {
+    return new DistCpWrapperOptions(
+        srcDir,
+        destDir,
+        new Path(destCluster.getTmpDir(), "distcp_tmp"),
+        new Path(destCluster.getTmpDir(), "distcp_logs"))
+        .setAtomic(true)
+        .setSyncModificationTimes(false);
+  }
+
+  @Test
+  public void testCopy() throws Exception {
+    Path srcDir = createSrcDir(10, 1000);
+    Path destDir = new Path(destWarehouseRoot, "dest_dir");
+    Set<FileStatus> srcFiles = FsUtils.getFileStatusesRecursive(conf, srcDir, Optional.empty());
+
+    ParallelFileCopier copier = new ParallelFileCopier(conf, 4, 64, true);
+    long bytesCopied = copier.copy(srcDir, srcFiles, destDir, false);
+
+    assertEquals(FsUtils.getSize(conf, srcDir, Optional.empty()), bytesCopied);
+    assertTrue(FsUtils.equalDirs(conf, srcDir, destDir));
+    assertArrayEquals(readFile(new Path(srcDir, "b/c/part-3")),
+        readFile(new Path(destDir, "b/c/part-3")));
+  }
+
+  @Test
+  public void testSkipMatchingFiles() throws Exception {
+    Path srcDir = createSrcDir(2, 1000);
+    Path destDir = new Path(destWarehouseRoot, "dest_dir");
+    // Same size as the source file, but different data
+    createFile(new Path(destDir, "a/part-0"), 1000, 100);
+    Set<FileStatus> srcFiles = FsUtils.getFileStatusesRecursive(conf, srcDir, Optional.empty());
+
+    ParallelFileCopier copier = new ParallelFileCopier(conf, 4, 1024, false);
+    assertEquals(1001, copier.copy(srcDir, srcFiles, destDir, true));
+    assertFalse(Arrays.equals(readFile(new Path(srcDir, "a/part-0")),
+        readFile(new Path(destDir, "a/part-0"))));
+
+    assertEquals(2001, copier.copy(srcDir, srcFiles, destDir, false));
+    assertArrayEquals(readFile(new Path(srcDir, "a/part-0")),
+        readFile(new Path(destDir, "a/part-0")));
+  }
+
+  @Test
+  public void testAtomicCopyWithWrapper() throws Exception {
+    Path srcDir = createSrcDir(10, 1000);
+    Path destDir = new Path(destWarehouseRoot, "dest_dir");
+    // An existing destination should be replaced
+    createFile(new Path(destDir, "old_file"), 10, 0);
+
+    DistCpWrapperOptions options = makeOptions(srcDir, destDir)
+        .setLocalCopySizeThreshold(0)
+        .setParallelCopyVerifyChecksums(true);
+    DistCpWrapper distCpWrapper = new DistCpWrapper(conf);
+    assertEquals(FsUtils.getSize(conf, srcDir, Optional.empty()), distCpWrapper.copy(options));
+
+    assertTrue(FsUtils.equalDirs(conf, srcDir, destDir));
+    assertFalse(FsUtils.dirExists(conf, options.getDistCpTmpDir()));
+  }
+
+  @Test
+  public void testAttributesArePreserved() throws Exception {
+    Path srcDir = createSrcDir(4, 1000);
+    FileSystem fs = srcDir.getFileSystem(conf);
+    Path srcFile = new Path(srcDir, "a/part-0");
+    fs.setPermission(srcFile, new FsPermission((short) 0640));
+    fs.setPermission(new Path(srcDir, "b"), new FsPermission((short) 0750));
+    fs.setTimes(srcFile, 1000 * 1000, -1);
+    Path destDir = new Path(destWarehouseRoot, "dest_dir");
+
+    DistCpWrapperOptions options = makeOptions(srcDir, destDir)
+        .setLocalCopySizeThreshold(0)
+        .setSyncModificationTimes(true);
+    new DistCpWrapper(conf).copy(options);
+
+    for (String relativePath : Arrays.asList("a/part-0", "b/c/part-1", "b", "b/c")) {
+      FileStatus srcStatus = fs.getFileStatus(new Path(srcDir, relativePath));
+      FileStatus destStatus = fs.getFileStatus(new Path(destDir, relativePath));
+      assertEquals(srcStatus.getOwner(), destStatus.getOwner());
+      assertEquals(srcStatus.getGroup(), destStatus.getGroup());
+      assertEquals(srcStatus.getPermission(), destStatus.getPermission());
+      if (srcStatus.isFile()) {
+        assertEquals(srcStatus.getModificationTime(), destStatus.getModificationTime());
+        assertEquals(srcStatus.getReplication(), destStatus.getReplication());
+      }
+    }
+    assertEquals(new FsPermission((short) 0640),
+        fs.getFileStatus(new Path(destDir, "a/part-0")).getPermission());
+    assertEquals(new FsPermission((short) 0750),
+        fs.getFileStatus(new Path(destDir, "b")).getPermission());
+  }
+
+  @Test
+  public void testAttributesOfSkippedFilesAreUpdated() throws Exception {
+    Path srcDir = createSrcDir(2, 1000);
+    FileSystem fs = srcDir.getFileSystem(conf);
+    fs.setPermission(new Path(srcDir, "a/part-0"), new FsPermission((short) 0600));
+    Path destDir = new Path(destWarehouseRoot, "dest_dir");
+    createFile(new Path(destDir, "a/part-0"), 1000, 0);
+    fs.setPermission(new Path(destDir, "a/part-0"), new FsPermission((short) 0644));
+    Set<FileStatus> srcFiles = FsUtils.getFileStatusesRecursive(conf, srcDir, Optional.empty());
+
+    ParallelFileCopier copier = new ParallelFileCopier(conf, 4, 1024, false);
+    assertEquals(1001, copier.copy(srcDir, srcFiles, destDir, true));
+    assertEquals(new FsPermission((short) 0600),
+        fs.getFileStatus(new Path(destDir, "a/part-0")).getPermission());
+  }
+
+  private long timeCopy(DistCpWrapperOptions options) throws Exception {
+    FsUtils.deleteDirectory(conf, options.getDestDir());
+    long startTime = System.currentTimeMillis();
+    new DistCpWrapper(conf).copy(options);
+    long elapsedTime = System.currentTimeMillis() - startTime;
+    assertTrue(FsUtils.equalDirs(conf, options.getSrcDir(), options.getDestDir()));
+    return elapsedTime;
+  }
+
+  @Test
+  public void benchmarkCopyModes() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    long sizeMb = Integer.getInteger(BENCHMARK_SIZE_MB_PROPERTY, DEFAULT_BENCHMARK_SIZE_MB);
+
+    long fileSize = sizeMb * 1024 * 1024 / BENCHMARK_FILE_COUNT;
+    Path srcDir = createSrcDir(BENCHMARK_FILE_COUNT, (int) fileSize);
+    Path destDir = new Path(destWarehouseRoot, "dest_dir");
+
+    long shellTime = timeCopy(makeOptions(srcDir, destDir)
+        .setLocalCopySizeThreshold(Long.MAX_VALUE)
+        .setLocalCopyCountThreshold(Long.MAX_VALUE));
+    long parallelTime = timeCopy(makeOptions(srcDir, destDir)
+        .setLocalCopySizeThreshold(0)
+        .setParallelCopySizeThreshold(Long.MAX_VALUE));
+    long distCpTime = timeCopy(makeOptions(srcDir, destDir)
+        .setLocalCopySizeThreshold(0)
+        .setParallelCopyThreads(0));
+
+    LOG.info(String.format("Copy of %d MB in %d files: shell %d ms, parallel %d ms, DistCp %d ms",
+        sizeMb, BENCHMARK_FILE_COUNT, shellTime, parallelTime, distCpTime));
+  }
+}
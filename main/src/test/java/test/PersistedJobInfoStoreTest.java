@@ -1,7 +1,9 @@
 package test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.airbnb.reair.common.HiveObjectSpec;
 import com.airbnb.reair.db.DbConnectionFactory;
@@ -9,9 +11,11 @@ import com.airbnb.reair.db.EmbeddedMySqlDb;
 import com.airbnb.reair.db.StaticDbConnectionFactory;
 import com.airbnb.reair.incremental.ReplicationOperation;
 import com.airbnb.reair.incremental.ReplicationStatus;
+import com.airbnb.reair.incremental.ReplicationUtils;
 import com.airbnb.reair.incremental.StateUpdateException;
 import com.airbnb.reair.incremental.db.PersistedJobInfo;
 import com.airbnb.reair.incremental.db.PersistedJobInfoStore;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 import com.airbnb.reair.utils.ReplicationTestUtils;
 
 import org.apache.commons.logging.Log;
@@ -19,11 +23,16 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.junit.AfterClass;
+import org.junit.Assume;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
@@ -32,6 +41,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PersistedJobInfoStoreTest {
   private static final Log LOG = LogFactory.getLog(PersistedJobInfoStoreTest.class);
@@ -40,9 +50,47 @@ public class PersistedJobInfoStoreTest {
   private static final String MYSQL_TEST_DB_NAME = "replication_test";
   private static final String MYSQL_TEST_TABLE_NAME = "replication_jobs";
 
+  // Set this system property to run the write throughput benchmark
+  private static final String BENCHMARK_PROPERTY = "reair.benchmark";
+  private static final String BENCHMARK_JOBS_PROPERTY = "reair.benchmark.state_jobs";
+  private static final int DEFAULT_BENCHMARK_JOBS = 5000;
+  private static final int BENCHMARK_THREADS = 8;
+  private static final String BENCHMARK_RESTORE_JOBS_PROPERTY = "reair.benchmark.restore_jobs";
+  private static final int DEFAULT_BENCHMARK_RESTORE_JOBS = 500000;
+
   private static DbConnectionFactory dbConnectionFactory;
   private static PersistedJobInfoStore jobStore;
 
+  /**
+   * Connection factory that can be set up to fail when preparing statements.
+   */
+  private static class FailingDbConnectionFactory implements DbConnectionFactory {
+    private final AtomicInteger statementsUntilFailure = new AtomicInteger(Integer.MAX_VALUE);
+
+    void failAfter(int statementCount) {
+      statementsUntilFailure.set(statementCount);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      final Connection connection = dbConnectionFactory.getConnection();
+      return (Connection) Proxy.newProxyInstance(
+          FailingDbConnectionFactory.class.getClassLoader(),
+          new Class<?>[] {Connection.class},
+          (proxy, method, args) -> {
+            if (method.getName().equals("prepareStatement")
+                && statementsUntilFailure.decrementAndGet() < 0) {
+              throw new SQLException("Simulated failure");
+            }
+            try {
+              return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+          });
+    }
+  }
+
   /**
    * Setups up this class for testing.
    *
@@ -204,6 +252,317 @@ public class PersistedJobInfoStoreTest {
     jobStore.createMany(new ArrayList<>());
   }
 
+  private static Configuration getWriteBehindConf(long flushIntervalMs, int batchSize) {
+    Configuration conf = new Configuration();
+    conf.setBoolean(ConfigurationKeys.STATE_WRITE_BEHIND_ENABLED, true);
+    conf.setLong(ConfigurationKeys.STATE_WRITE_BEHIND_FLUSH_INTERVAL_MS, flushIntervalMs);
+    conf.setInt(ConfigurationKeys.STATE_WRITE_BEHIND_BATCH_SIZE, batchSize);
+    // Fail right away instead of sleeping between attempts
+    conf.setInt(ConfigurationKeys.DB_QUERY_RETRIES, 1);
+    return conf;
+  }
+
+  private static List<PersistedJobInfo> createJobs(int count) throws StateUpdateException {
+    List<PersistedJobInfo> jobs = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      jobs.add(PersistedJobInfo.createDeferred(
+          ReplicationOperation.COPY_PARTITION,
+          ReplicationStatus.PENDING,
+          Optional.empty(),
+          "src_cluster",
+          new HiveObjectSpec("test_db", "test_table", "ds=" + i),
+          new ArrayList<>(),
+          Optional.empty(),
+          Optional.empty(),
+          Optional.empty(),
+          new HashMap<>()));
+    }
+    jobStore.createMany(jobs);
+    return jobs;
+  }
+
+  /**
+   * Sets the status of the job, and records the status in the extras so that it's possible to
+   * check that rows are always written as a whole.
+   */
+  private static void changeStatus(PersistedJobInfoStore store, PersistedJobInfo job,
+      ReplicationStatus status) throws StateUpdateException {
+    job.getExtras().put("status_copy", status.name());
+    store.changeStatusAndPersist(status, job);
+  }
+
+  /**
+   * Reads the status of the job from the DB, and checks that the rest of the row is consistent.
+   */
+  private static ReplicationStatus getStatusFromDb(PersistedJobInfo job) throws Exception {
+    Connection connection = dbConnectionFactory.getConnection();
+    try (PreparedStatement ps = connection.prepareStatement(
+        "SELECT status, extras FROM " + MYSQL_TEST_TABLE_NAME + " WHERE id = ?")) {
+      ps.setLong(1, job.getId());
+      ResultSet rs = ps.executeQuery();
+      assertTrue(rs.next());
+      ReplicationStatus status = ReplicationStatus.valueOf(rs.getString("status"));
+      Map<String, String> extras = ReplicationUtils.convertToMap(rs.getString("extras"));
+      if (status != ReplicationStatus.PENDING) {
+        assertEquals(status.name(), extras.get("status_copy"));
+      } else {
+        assertNull(extras.get("status_copy"));
+      }
+      return status;
+    }
+  }
+
+  @Test
+  public void testWriteBehindCoalescesChanges() throws Exception {
+    // Long enough that only explicit flushes write to the DB
+    PersistedJobInfoStore store = new PersistedJobInfoStore(getWriteBehindConf(3600 * 1000, 10),
+        dbConnectionFactory, MYSQL_TEST_TABLE_NAME);
+    List<PersistedJobInfo> jobs = createJobs(3);
+
+    for (PersistedJobInfo job : jobs) {
+      changeStatus(store, job, ReplicationStatus.RUNNING);
+      changeStatus(store, job, ReplicationStatus.SUCCESSFUL);
+    }
+    assertEquals(3, store.getPendingJobCount());
+    for (PersistedJobInfo job : jobs) {
+      assertEquals(ReplicationStatus.PENDING, getStatusFromDb(job));
+    }
+
+    store.flush();
+    assertEquals(0, store.getPendingJobCount());
+    for (PersistedJobInfo job : jobs) {
+      assertEquals(ReplicationStatus.SUCCESSFUL, getStatusFromDb(job));
+    }
+    store.close();
+  }
+
+  @Test
+  public void testWriteBehindFlushesPeriodicallyAndOnClose() throws Exception {
+    PersistedJobInfoStore store = new PersistedJobInfoStore(getWriteBehindConf(100, 10),
+        dbConnectionFactory, MYSQL_TEST_TABLE_NAME);
+    List<PersistedJobInfo> jobs = createJobs(2);
+
+    changeStatus(store, jobs.get(0), ReplicationStatus.RUNNING);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (getStatusFromDb(jobs.get(0)) != ReplicationStatus.RUNNING) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(50);
+    }
+
+    changeStatus(store, jobs.get(1), ReplicationStatus.RUNNING);
+    store.close();
+    assertEquals(ReplicationStatus.RUNNING, getStatusFromDb(jobs.get(1)));
+
+    // Once closed, changes are written right away
+    changeStatus(store, jobs.get(1), ReplicationStatus.FAILED);
+    assertEquals(0, store.getPendingJobCount());
+    assertEquals(ReplicationStatus.FAILED, getStatusFromDb(jobs.get(1)));
+  }
+
+  @Test
+  public void testWriteBehindFlushInterruptedMidBatch() throws Exception {
+    FailingDbConnectionFactory failingConnectionFactory = new FailingDbConnectionFactory();
+    PersistedJobInfoStore store = new PersistedJobInfoStore(getWriteBehindConf(3600 * 1000, 2),
+        failingConnectionFactory, MYSQL_TEST_TABLE_NAME);
+    List<PersistedJobInfo> jobs = createJobs(5);
+    for (PersistedJobInfo job : jobs) {
+      changeStatus(store, job, ReplicationStatus.RUNNING);
+    }
+
+    // The first batch of 2 jobs is written, and the query for the second batch fails
+    failingConnectionFactory.failAfter(1);
+    try {
+      store.flush();
+      fail("Expected an exception");
+    } catch (StateUpdateException e) {
+      // Expected
+    }
+    assertEquals(ReplicationStatus.RUNNING, getStatusFromDb(jobs.get(0)));
+    assertEquals(ReplicationStatus.RUNNING, getStatusFromDb(jobs.get(1)));
+    for (PersistedJobInfo job : jobs.subList(2, 5)) {
+      assertEquals(ReplicationStatus.PENDING, getStatusFromDb(job));
+    }
+    assertEquals(3, store.getPendingJobCount());
+
+    // A change made after the failure should take precedence over the one that wasn't written
+    changeStatus(store, jobs.get(4), ReplicationStatus.SUCCESSFUL);
+    failingConnectionFactory.failAfter(Integer.MAX_VALUE);
+    store.flush();
+    assertEquals(0, store.getPendingJobCount());
+    for (PersistedJobInfo job : jobs.subList(0, 4)) {
+      assertEquals(ReplicationStatus.RUNNING, getStatusFromDb(job));
+    }
+    assertEquals(ReplicationStatus.SUCCESSFUL, getStatusFromDb(jobs.get(4)));
+    store.close();
+  }
+
+  /**
+   * Runs jobs through the RUNNING and SUCCESSFUL states from multiple threads.
+   *
+   * @return the number of state changes per second
+   */
+  private static double measureStateChangesPerSecond(PersistedJobInfoStore store,
+      List<PersistedJobInfo> jobs) throws Exception {
+    AtomicInteger nextJobIndex = new AtomicInteger();
+    List<Thread> threads = new ArrayList<>();
+    long startTime = System.nanoTime();
+    for (int i = 0; i < BENCHMARK_THREADS; i++) {
+      Thread thread = new Thread(() -> {
+        try {
+          int index;
+          while ((index = nextJobIndex.getAndIncrement()) < jobs.size()) {
+            store.changeStatusAndPersist(ReplicationStatus.RUNNING, jobs.get(index));
+            store.changeStatusAndPersist(ReplicationStatus.SUCCESSFUL, jobs.get(index));
+          }
+        } catch (StateUpdateException e) {
+          throw new RuntimeException(e);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    store.close();
+    double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+    return 2 * jobs.size() / elapsedSeconds;
+  }
+
+  @Test
+  public void benchmarkStateChanges() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    int jobCount = Integer.getInteger(BENCHMARK_JOBS_PROPERTY, DEFAULT_BENCHMARK_JOBS);
+
+    double syncRate = measureStateChangesPerSecond(
+        new PersistedJobInfoStore(new Configuration(), dbConnectionFactory,
+            MYSQL_TEST_TABLE_NAME),
+        createJobs(jobCount));
+    double writeBehindRate = measureStateChangesPerSecond(
+        new PersistedJobInfoStore(
+            getWriteBehindConf(PersistedJobInfoStore.DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL_MS,
+                PersistedJobInfoStore.DEFAULT_WRITE_BEHIND_BATCH_SIZE),
+            dbConnectionFactory, MYSQL_TEST_TABLE_NAME),
+        createJobs(jobCount));
+
+    LOG.info(String.format("Synchronous: %.0f state changes/s, write-behind: %.0f state "
+        + "changes/s (%.2fx)", syncRate, writeBehindRate, writeBehindRate / syncRate));
+  }
+
+  private static PersistedJobInfoStore createRestoreStore(String tableName, int pageSize,
+      int parseThreads) throws SQLException {
+    try (Connection connection = dbConnectionFactory.getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute(PersistedJobInfoStore.getCreateTableSql(tableName));
+    }
+    Configuration conf = new Configuration();
+    conf.setInt(ConfigurationKeys.STATE_RESTORE_PAGE_SIZE, pageSize);
+    conf.setInt(ConfigurationKeys.STATE_RESTORE_PARSE_THREADS, parseThreads);
+    return new PersistedJobInfoStore(conf, dbConnectionFactory, tableName);
+  }
+
+  private static List<PersistedJobInfo> createRestorableJobs(PersistedJobInfoStore store,
+      int count) throws StateUpdateException {
+    List<PersistedJobInfo> jobs = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Map<String, String> extras = new HashMap<>();
+      extras.put("index", Integer.toString(i));
+      jobs.add(PersistedJobInfo.createDeferred(
+          ReplicationOperation.COPY_PARTITIONS,
+          ReplicationStatus.PENDING,
+          Optional.of(new Path("file:///tmp/test_table")),
+          "src_cluster",
+          new HiveObjectSpec("test_db", "test_table"),
+          Arrays.asList("ds=" + i + "/hr=1", "ds=" + i + "/hr=2"),
+          Optional.of("1"),
+          Optional.empty(),
+          Optional.empty(),
+          extras));
+    }
+    store.createMany(jobs);
+    return jobs;
+  }
+
+  @Test
+  public void testForEachRunnableInDb() throws Exception {
+    PersistedJobInfoStore store = createRestoreStore("restore_jobs", 7, 3);
+    List<PersistedJobInfo> jobs = createRestorableJobs(store, 50);
+    List<PersistedJobInfo> expectedJobs = new ArrayList<>();
+    for (int i = 0; i < jobs.size(); i++) {
+      if (i % 5 == 0) {
+        store.changeStatusAndPersist(ReplicationStatus.SUCCESSFUL, jobs.get(i));
+      } else {
+        expectedJobs.add(jobs.get(i));
+      }
+    }
+    assertEquals(expectedJobs, store.getRunnableFromDb());
+
+    // The jobs should arrive in order, and it should be possible to persist changes to them while
+    // the rest are read.
+    List<PersistedJobInfo> restoredJobs = new ArrayList<>();
+    long restoredJobCount = store.forEachRunnableInDb(job -> {
+        restoredJobs.add(job);
+        store.changeStatusAndPersist(ReplicationStatus.RUNNING, job);
+      });
+    assertEquals(expectedJobs.size(), restoredJobCount);
+    for (PersistedJobInfo job : expectedJobs) {
+      job.setStatus(ReplicationStatus.RUNNING);
+    }
+    assertEquals(expectedJobs, restoredJobs);
+    assertEquals(expectedJobs, store.getRunnableFromDb());
+  }
+
+  @Test
+  public void testForEachRunnableInDbWithConsumerError() throws Exception {
+    PersistedJobInfoStore store = createRestoreStore("restore_error_jobs", 4, 2);
+    createRestorableJobs(store, 20);
+    AtomicInteger consumedJobs = new AtomicInteger();
+    try {
+      store.forEachRunnableInDb(job -> {
+          if (consumedJobs.incrementAndGet() == 10) {
+            throw new StateUpdateException("Simulated failure");
+          }
+        });
+      fail("Expected an exception");
+    } catch (StateUpdateException e) {
+      // Expected
+    }
+    assertEquals(10, consumedJobs.get());
+  }
+
+  @Test
+  public void benchmarkRestore() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    int jobCount =
+        Integer.getInteger(BENCHMARK_RESTORE_JOBS_PROPERTY, DEFAULT_BENCHMARK_RESTORE_JOBS);
+    PersistedJobInfoStore store = createRestoreStore("restore_benchmark_jobs",
+        PersistedJobInfoStore.DEFAULT_RESTORE_PAGE_SIZE,
+        PersistedJobInfoStore.DEFAULT_RESTORE_PARSE_THREADS);
+    for (int created = 0; created < jobCount; created += 1000) {
+      createRestorableJobs(store, Math.min(1000, jobCount - created));
+    }
+
+    long startTime = System.nanoTime();
+    int readJobCount = store.getRunnableFromDb().size();
+    long getRunnableMs = (System.nanoTime() - startTime) / 1000000;
+    assertEquals(jobCount, readJobCount);
+
+    long[] firstJobTime = new long[1];
+    startTime = System.nanoTime();
+    long restoredJobCount = store.forEachRunnableInDb(job -> {
+        if (firstJobTime[0] == 0) {
+          firstJobTime[0] = System.nanoTime();
+        }
+      });
+    long forEachMs = (System.nanoTime() - startTime) / 1000000;
+    long firstJobMs = (firstJobTime[0] - startTime) / 1000000;
+    assertEquals(jobCount, restoredJobCount);
+
+    LOG.info(String.format("Restoring %d jobs: getRunnableFromDb() took %d ms, "
+        + "forEachRunnableInDb() took %d ms with the first job after %d ms", jobCount,
+        getRunnableMs, forEachMs, firstJobMs));
+  }
+
   @AfterClass
   public static void tearDownClass() {
     embeddedMySqlDb.stopDb();
@@ -0,0 +1,365 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.airbnb.reair.db.DbKeyValueStore;
+import com.airbnb.reair.db.EmbeddedMySqlDb;
+import com.airbnb.reair.db.PooledDbConnectionFactory;
+import com.airbnb.reair.db.StaticDbConnectionFactory;
+import com.airbnb.reair.utils.ReplicationTestUtils;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+
+public class PooledDbConnectionFactoryTest {
+
+  private static final String MYSQL_TEST_DB_NAME = "pool_test";
+  private static final String MYSQL_TEST_TABLE_NAME = "pool_test_table";
+
+  private static EmbeddedMySqlDb embeddedMySqlDb;
+
+  /**
+   * Starts the embedded DB and creates a table to write to.
+   *
+   * @throws SQLException if there's an error querying the embedded DB
+   */
+  @BeforeClass
+  public static void setupClass() throws SQLException {
+    embeddedMySqlDb = new EmbeddedMySqlDb();
+    embeddedMySqlDb.startDb();
+
+    try (Connection connection = new StaticDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb),
+        embeddedMySqlDb.getUsername(),
+        embeddedMySqlDb.getPassword()).getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute("CREATE DATABASE " + MYSQL_TEST_DB_NAME);
+      connection.setCatalog(MYSQL_TEST_DB_NAME);
+      statement.execute(String.format("CREATE TABLE %s (id bigint NOT NULL) ENGINE=InnoDB",
+          MYSQL_TEST_TABLE_NAME));
+      statement.execute(DbKeyValueStore.getCreateTableSql("key_value"));
+    }
+  }
+
+  private static PooledDbConnectionFactory createPool(int maxConnections,
+      long validationIdleTimeMs, long leakDetectionThresholdMs) {
+    return new PooledDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb, MYSQL_TEST_DB_NAME),
+        embeddedMySqlDb.getUsername(),
+        embeddedMySqlDb.getPassword(),
+        maxConnections,
+        PooledDbConnectionFactory.DEFAULT_MAX_IDLE_TIME_MS,
+        validationIdleTimeMs,
+        // Short timeout so that tests for a full pool don't wait long
+        500,
+        leakDetectionThresholdMs,
+        PooledDbConnectionFactory.DEFAULT_STATEMENT_CACHE_SIZE);
+  }
+
+  private static long getConnectionId(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT CONNECTION_ID()")) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+
+  private static long getRowCount(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + MYSQL_TEST_TABLE_NAME)) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+
+  @Test
+  public void testConnectionsAreReused() throws SQLException {
+    PooledDbConnectionFactory pool = createPool(2, 10 * 1000, 0);
+    long connectionId;
+    try (Connection connection = pool.getConnection()) {
+      connectionId = getConnectionId(connection);
+      assertEquals(1, pool.getActiveConnectionCount());
+    }
+    assertEquals(0, pool.getActiveConnectionCount());
+    assertEquals(1, pool.getIdleConnectionCount());
+
+    try (Connection connection = pool.getConnection()) {
+      assertEquals(connectionId, getConnectionId(connection));
+    }
+    pool.close();
+  }
+
+  @Test
+  public void testPoolIsBounded() throws Exception {
+    PooledDbConnectionFactory pool = createPool(2, 10 * 1000, 0);
+    Connection connection1 = pool.getConnection();
+    Connection connection2 = pool.getConnection();
+    assertNotEquals(getConnectionId(connection1), getConnectionId(connection2));
+    try {
+      pool.getConnection();
+      fail("Expected the pool to be exhausted");
+    } catch (SQLException e) {
+      // Expected
+    }
+
+    // A thread that is waiting for a connection gets the one that's returned
+    CountDownLatch borrowed = new CountDownLatch(1);
+    Thread waiter = new Thread(() -> {
+      try (Connection connection = pool.getConnection()) {
+        borrowed.countDown();
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    waiter.start();
+    connection1.close();
+    waiter.join();
+    assertEquals(0, borrowed.getCount());
+    connection2.close();
+    assertEquals(2, pool.getIdleConnectionCount());
+    pool.close();
+  }
+
+  @Test
+  public void testReturnedConnectionCantBeUsed() throws SQLException {
+    PooledDbConnectionFactory pool = createPool(1, 10 * 1000, 0);
+    Connection connection = pool.getConnection();
+    connection.close();
+    assertTrue(connection.isClosed());
+    // Closing again doesn't return the connection twice
+    connection.close();
+    assertEquals(1, pool.getIdleConnectionCount());
+    try {
+      connection.createStatement();
+      fail("Expected an exception for a returned connection");
+    } catch (SQLException e) {
+      // Expected
+    }
+
+    // The next borrower is unaffected
+    try (Connection nextConnection = pool.getConnection()) {
+      assertFalse(nextConnection.isClosed());
+      getConnectionId(nextConnection);
+    }
+    pool.close();
+  }
+
+  @Test
+  public void testUncommittedChangesAreRolledBack() throws SQLException {
+    PooledDbConnectionFactory pool = createPool(1, 10 * 1000, 0);
+    try (Connection connection = pool.getConnection()) {
+      connection.setAutoCommit(false);
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("INSERT INTO " + MYSQL_TEST_TABLE_NAME + " VALUES (1)");
+      }
+    }
+
+    try (Connection connection = pool.getConnection()) {
+      assertTrue(connection.getAutoCommit());
+      assertEquals(0, getRowCount(connection));
+    }
+    pool.close();
+  }
+
+  @Test
+  public void testStatementCache() throws SQLException {
+    PooledDbConnectionFactory pool = createPool(1, 10 * 1000, 0);
+    String query = "SELECT ? + 1";
+    for (int i = 0; i < 3; i++) {
+      try (Connection connection = pool.getConnection();
+          PreparedStatement ps = connection.prepareStatement(query)) {
+        ps.setInt(1, i);
+        ResultSet rs = ps.executeQuery();
+        assertTrue(rs.next());
+        assertEquals(i + 1, rs.getInt(1));
+      }
+    }
+    assertEquals(1, pool.getStatementCacheMisses());
+    assertEquals(2, pool.getStatementCacheHits());
+
+    // Preparing the same query while the cached statement is in use gives a separate statement
+    try (Connection connection = pool.getConnection();
+        PreparedStatement ps1 = connection.prepareStatement(query);
+        PreparedStatement ps2 = connection.prepareStatement(query)) {
+      ps1.setInt(1, 10);
+      ps2.setInt(1, 20);
+      ResultSet rs1 = ps1.executeQuery();
+      ResultSet rs2 = ps2.executeQuery();
+      assertTrue(rs1.next());
+      assertTrue(rs2.next());
+      assertEquals(11, rs1.getInt(1));
+      assertEquals(21, rs2.getInt(1));
+    }
+    assertEquals(3, pool.getStatementCacheHits());
+    assertEquals(2, pool.getStatementCacheMisses());
+    pool.close();
+  }
+
+  @Test
+  public void testBrokenConnectionIsReplaced() throws SQLException {
+    // Validate every connection that is borrowed
+    PooledDbConnectionFactory pool = createPool(1, 0, 0);
+    long connectionId;
+    try (Connection connection = pool.getConnection()) {
+      connectionId = getConnectionId(connection);
+    }
+
+    try (Connection connection = new StaticDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb),
+        embeddedMySqlDb.getUsername(),
+        embeddedMySqlDb.getPassword()).getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute("KILL " + connectionId);
+    }
+
+    try (Connection connection = pool.getConnection()) {
+      assertNotEquals(connectionId, getConnectionId(connection));
+    }
+    pool.close();
+  }
+
+  private static void killConnection(long connectionId) throws SQLException {
+    StaticDbConnectionFactory factory = new StaticDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb),
+        embeddedMySqlDb.getUsername(),
+        embeddedMySqlDb.getPassword());
+    try (Connection connection = factory.getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute("KILL " + connectionId);
+    } finally {
+      factory.close();
+    }
+  }
+
+  @Test
+  public void testStatementErrorMarksConnectionBroken() throws SQLException {
+    // With the default validation interval, the connection isn't checked when it's borrowed again
+    PooledDbConnectionFactory pool = createPool(1,
+        PooledDbConnectionFactory.DEFAULT_VALIDATION_IDLE_TIME_MS, 0);
+    String countSql = "SELECT COUNT(*) FROM " + MYSQL_TEST_TABLE_NAME;
+
+    // Once with a cached prepared statement, and once with a plain statement
+    for (boolean prepared : new boolean[] {true, false}) {
+      long connectionId;
+      try (Connection connection = pool.getConnection()) {
+        connectionId = getConnectionId(connection);
+        // Put the statement in the cache
+        connection.prepareStatement(countSql).close();
+      }
+      killConnection(connectionId);
+
+      try (Connection connection = pool.getConnection()) {
+        try (Statement statement = prepared
+            ? connection.prepareStatement(countSql) : connection.createStatement()) {
+          if (prepared) {
+            ((PreparedStatement) statement).executeQuery();
+          } else {
+            statement.executeQuery(countSql);
+          }
+          fail("Statement on a killed connection should have failed");
+        } catch (SQLException e) {
+          assertTrue(e.getSQLState().startsWith("08"));
+        }
+      }
+
+      try (Connection connection = pool.getConnection()) {
+        assertNotEquals(connectionId, getConnectionId(connection));
+      }
+    }
+    pool.close();
+  }
+
+  @Test
+  public void testLeakDetection() throws Exception {
+    PooledDbConnectionFactory pool = createPool(2, 10 * 1000, 100);
+    try (Connection connection = pool.getConnection()) {
+      getConnectionId(connection);
+    }
+    Thread.sleep(500);
+    assertEquals(0, pool.getLeakCount());
+
+    Connection leakedConnection = pool.getConnection();
+    long startTime = System.currentTimeMillis();
+    while (pool.getLeakCount() == 0 && System.currentTimeMillis() - startTime < 10 * 1000) {
+      Thread.sleep(50);
+    }
+    assertEquals(1, pool.getLeakCount());
+    leakedConnection.close();
+    assertEquals(0, pool.getActiveConnectionCount());
+    pool.close();
+  }
+
+  @Test
+  public void testConcurrentKeyValueStoreUse() throws Exception {
+    PooledDbConnectionFactory pool = createPool(4, 10 * 1000, 0);
+    DbKeyValueStore kvStore = new DbKeyValueStore(pool, "key_value");
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> errors = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      final String key = "key_" + i;
+      Thread thread = new Thread(() -> {
+        try {
+          for (int j = 0; j < 50; j++) {
+            kvStore.set(key, Integer.toString(j));
+            assertEquals(Optional.of(Integer.toString(j)), kvStore.get(key));
+          }
+        } catch (Throwable e) {
+          synchronized (errors) {
+            errors.add(e);
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(new ArrayList<Throwable>(), errors);
+    assertEquals(0, pool.getActiveConnectionCount());
+    assertTrue(pool.getIdleConnectionCount() <= 4);
+    pool.close();
+  }
+
+  @Test
+  public void testStaticConnectionStaysOpen() throws SQLException {
+    StaticDbConnectionFactory factory = new StaticDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb, MYSQL_TEST_DB_NAME),
+        embeddedMySqlDb.getUsername(),
+        embeddedMySqlDb.getPassword());
+    long connectionId;
+    try (Connection connection = factory.getConnection()) {
+      connectionId = getConnectionId(connection);
+    }
+    // Closing a connection from the factory doesn't close the shared connection
+    Connection connection = factory.getConnection();
+    assertEquals(connectionId, getConnectionId(connection));
+
+    factory.close();
+    assertTrue(connection.isClosed());
+    try (Connection newConnection = factory.getConnection()) {
+      assertNotEquals(connectionId, getConnectionId(newConnection));
+    }
+    factory.close();
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    embeddedMySqlDb.stopDb();
+  }
+}
@@ -0,0 +1,273 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.airbnb.reair.common.HiveMetastoreException;
+import com.airbnb.reair.common.PooledHiveMetastoreClient;
+
+import com.facebook.fb303.fb_status;
+import org.apache.hadoop.hive.metastore.api.NoSuchObjectException;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.hadoop.hive.metastore.api.ThriftHiveMetastore;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.transport.TServerSocket;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PooledHiveMetastoreClientTest {
+
+  private static final String DB_NAME = "test_db";
+  private static final String TABLE_NAME = "test_table";
+  private static final String MISSING_TABLE_NAME = "missing_table";
+  private static final String BROKEN_TABLE_NAME = "broken_table";
+
+  /**
+   * Server socket that counts the number of connections that have been accepted.
+   */
+  private static class CountingServerSocket extends TServerSocket {
+    private final AtomicInteger acceptCount = new AtomicInteger();
+
+    CountingServerSocket() throws TTransportException {
+      super(0);
+    }
+
+    @Override
+    protected TSocket acceptImpl() throws TTransportException {
+      TSocket socket = super.acceptImpl();
+      acceptCount.incrementAndGet();
+      return socket;
+    }
+
+    int getAcceptCount() {
+      return acceptCount.get();
+    }
+
+    int getPort() {
+      return getServerSocket().getLocalPort();
+    }
+  }
+
+  private CountingServerSocket serverSocket;
+  private TServer server;
+  private Thread serverThread;
+
+  private final AtomicInteger concurrentCalls = new AtomicInteger();
+  private final AtomicInteger maxConcurrentCalls = new AtomicInteger();
+  private volatile long callTimeMs = 0;
+
+  /**
+   * Starts a metastore Thrift server backed by a mock handler.
+   *
+   * @throws Exception if there's an error setting up the server
+   */
+  @Before
+  public void setUp() throws Exception {
+    Table table = new Table();
+    table.setDbName(DB_NAME);
+    table.setTableName(TABLE_NAME);
+
+    ThriftHiveMetastore.Iface handler = mock(ThriftHiveMetastore.Iface.class);
+    when(handler.getStatus()).thenReturn(fb_status.ALIVE);
+    when(handler.get_table(DB_NAME, TABLE_NAME)).thenAnswer(invocation -> {
+        int calls = concurrentCalls.incrementAndGet();
+        synchronized (maxConcurrentCalls) {
+          maxConcurrentCalls.set(Math.max(maxConcurrentCalls.get(), calls));
+        }
+        try {
+          if (callTimeMs > 0) {
+            Thread.sleep(callTimeMs);
+          }
+          return table;
+        } finally {
+          concurrentCalls.decrementAndGet();
+        }
+      });
+    when(handler.get_table(DB_NAME, MISSING_TABLE_NAME))
+        .thenThrow(new NoSuchObjectException("No such table"));
+    // An undeclared exception makes the server drop the connection
+    when(handler.get_table(DB_NAME, BROKEN_TABLE_NAME))
+        .thenThrow(new RuntimeException("Simulated server failure"));
+    when(handler.get_all_tables(anyString())).thenReturn(new ArrayList<>());
+
+    serverSocket = new CountingServerSocket();
+    server = new TThreadPoolServer(new TThreadPoolServer.Args(serverSocket)
+        .processor(new ThriftHiveMetastore.Processor<>(handler)));
+    serverThread = new Thread(server::serve, "MetastoreTestServer");
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop();
+    serverThread.join(10000);
+  }
+
+  private PooledHiveMetastoreClient makeClient(int maxConnections, long maxIdleTimeMs) {
+    return new PooledHiveMetastoreClient("localhost", serverSocket.getPort(), maxConnections,
+        maxIdleTimeMs, PooledHiveMetastoreClient.DEFAULT_VALIDATION_IDLE_TIME_MS,
+        PooledHiveMetastoreClient.DEFAULT_CONNECT_TIMEOUT_MS,
+        PooledHiveMetastoreClient.DEFAULT_SOCKET_TIMEOUT_MS,
+        PooledHiveMetastoreClient.DEFAULT_BORROW_TIMEOUT_MS);
+  }
+
+  @Test
+  public void testConnectionsAreBoundedAndReused() throws Exception {
+    final int maxConnections = 4;
+    final int threadCount = 32;
+    final int callsPerThread = 10;
+    callTimeMs = 10;
+
+    final PooledHiveMetastoreClient client =
+        makeClient(maxConnections, PooledHiveMetastoreClient.DEFAULT_MAX_IDLE_TIME_MS);
+    final AtomicInteger successCount = new AtomicInteger();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread = new Thread(() -> {
+        try {
+          for (int j = 0; j < callsPerThread; j++) {
+            if (client.getTable(DB_NAME, TABLE_NAME) != null) {
+              successCount.incrementAndGet();
+            }
+          }
+        } catch (HiveMetastoreException e) {
+          throw new RuntimeException(e);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(threadCount * callsPerThread, successCount.get());
+    assertTrue(serverSocket.getAcceptCount() <= maxConnections);
+    assertTrue(maxConcurrentCalls.get() <= maxConnections);
+    assertEquals(0, client.getActiveConnectionCount());
+    assertEquals(serverSocket.getAcceptCount(), client.getIdleConnectionCount());
+
+    PooledHiveMetastoreClient.CallStats stats = client.getCallStats().get("get_table");
+    assertEquals(threadCount * callsPerThread, stats.getCount());
+    assertEquals(0, stats.getFailureCount());
+    assertTrue(stats.getMaxTimeMs() >= callTimeMs);
+
+    client.close();
+    assertEquals(0, client.getIdleConnectionCount());
+  }
+
+  @Test
+  public void testApplicationErrorsKeepConnection() throws Exception {
+    PooledHiveMetastoreClient client =
+        makeClient(1, PooledHiveMetastoreClient.DEFAULT_MAX_IDLE_TIME_MS);
+
+    assertNull(client.getTable(DB_NAME, MISSING_TABLE_NAME));
+    assertEquals(0, client.getAllTables(DB_NAME).size());
+    assertEquals(1, serverSocket.getAcceptCount());
+    client.close();
+  }
+
+  @Test
+  public void testBrokenConnectionIsReplaced() throws Exception {
+    PooledHiveMetastoreClient client =
+        makeClient(1, PooledHiveMetastoreClient.DEFAULT_MAX_IDLE_TIME_MS);
+
+    assertEquals(TABLE_NAME, client.getTable(DB_NAME, TABLE_NAME).getTableName());
+    try {
+      client.getTable(DB_NAME, BROKEN_TABLE_NAME);
+      fail("Expected an exception");
+    } catch (HiveMetastoreException e) {
+      // Expected
+    }
+    assertEquals(0, client.getIdleConnectionCount());
+    assertEquals(0, client.getActiveConnectionCount());
+
+    // The next call should work on a new connection
+    assertEquals(TABLE_NAME, client.getTable(DB_NAME, TABLE_NAME).getTableName());
+    assertEquals(2, serverSocket.getAcceptCount());
+    assertEquals(1, client.getCallStats().get("get_table").getFailureCount());
+    client.close();
+  }
+
+  @Test
+  public void testConnectionInUseIsClosedAfterClose() throws Exception {
+    PooledHiveMetastoreClient client =
+        makeClient(1, PooledHiveMetastoreClient.DEFAULT_MAX_IDLE_TIME_MS);
+    callTimeMs = 500;
+
+    Thread thread = new Thread(() -> {
+      try {
+        client.getTable(DB_NAME, TABLE_NAME);
+      } catch (HiveMetastoreException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    thread.start();
+    while (concurrentCalls.get() == 0) {
+      Thread.sleep(10);
+    }
+    client.close();
+    thread.join();
+
+    // The connection that was in use isn't kept, but the client can still be used
+    assertEquals(0, client.getIdleConnectionCount());
+    callTimeMs = 0;
+    assertEquals(TABLE_NAME, client.getTable(DB_NAME, TABLE_NAME).getTableName());
+    assertEquals(2, serverSocket.getAcceptCount());
+    assertEquals(1, client.getIdleConnectionCount());
+    client.close();
+  }
+
+  @Test
+  public void testIdleConnectionsAreEvicted() throws Exception {
+    PooledHiveMetastoreClient client = makeClient(2, 100);
+
+    client.getTable(DB_NAME, TABLE_NAME);
+    assertEquals(1, client.getIdleConnectionCount());
+    Thread.sleep(300);
+    client.getTable(DB_NAME, TABLE_NAME);
+    assertEquals(2, serverSocket.getAcceptCount());
+    assertEquals(1, client.getIdleConnectionCount());
+    client.close();
+  }
+
+  @Test
+  public void testConnectFailureReleasesConnection() throws Exception {
+    // Find a port that nothing is listening on
+    int unusedPort;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      unusedPort = socket.getLocalPort();
+    }
+
+    PooledHiveMetastoreClient client = new PooledHiveMetastoreClient("localhost", unusedPort, 1,
+        PooledHiveMetastoreClient.DEFAULT_MAX_IDLE_TIME_MS,
+        PooledHiveMetastoreClient.DEFAULT_VALIDATION_IDLE_TIME_MS, 1000,
+        PooledHiveMetastoreClient.DEFAULT_SOCKET_TIMEOUT_MS, 1000);
+    for (int i = 0; i < 2; i++) {
+      try {
+        client.getTable(DB_NAME, TABLE_NAME);
+        fail("Expected an exception");
+      } catch (HiveMetastoreException e) {
+        // Expected. Failing to connect shouldn't use up the only connection in the pool, so the
+        // second attempt should also try to connect rather than time out.
+        assertTrue(e.getCause() instanceof TTransportException);
+      }
+    }
+    assertEquals(0, client.getActiveConnectionCount());
+  }
+}
@@ -0,0 +1,225 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.db.DbConnectionFactory;
+import com.airbnb.reair.db.EmbeddedMySqlDb;
+import com.airbnb.reair.db.StaticDbConnectionFactory;
+import com.airbnb.reair.hive.hooks.AuditLogHookUtils;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntry;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntryException;
+import com.airbnb.reair.incremental.auditlog.AuditLogReader;
+import com.airbnb.reair.incremental.auditlog.PrefetchingAuditLogReader;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
+import com.airbnb.reair.utils.ReplicationTestUtils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+public class PrefetchingAuditLogReaderTest {
+  private static final Log LOG = LogFactory.getLog(PrefetchingAuditLogReaderTest.class);
+
+  private static final String AUDIT_LOG_DB_NAME = "audit_log_db";
+  private static final String AUDIT_LOG_TABLE_NAME = "audit_log";
+  private static final String AUDIT_LOG_OBJECTS_TABLE_NAME = "audit_objects";
+  private static final String AUDIT_LOG_MAP_RED_STATS_TABLE_NAME = "mapred_stats";
+
+  private static final int TEST_ENTRY_COUNT = 5000;
+
+  // Set this system property to run the throughput benchmark
+  private static final String BENCHMARK_PROPERTY = "reair.benchmark";
+  private static final String BENCHMARK_ROWS_PROPERTY = "reair.benchmark.audit_log_rows";
+  private static final int DEFAULT_BENCHMARK_ROWS = 1000000;
+  // Number of entries that the benchmark consumer processes at once, and the time it spends doing
+  // so, to approximate job creation in the replication server.
+  private static final int BENCHMARK_PROCESSING_BATCH_SIZE = 32;
+  private static final long BENCHMARK_PROCESSING_TIME_MS = 2;
+
+  private static EmbeddedMySqlDb embeddedMySqlDb;
+  private static DbConnectionFactory dbConnectionFactory;
+  private static long nextId = 1;
+
+  /**
+   * Sets up this class for testing by starting the embedded DB and creating the audit log tables.
+   *
+   * @throws SQLException if there's an error querying the embedded DB
+   */
+  @BeforeClass
+  public static void setupClass() throws SQLException {
+    embeddedMySqlDb = new EmbeddedMySqlDb();
+    embeddedMySqlDb.startDb();
+
+    AuditLogHookUtils.setupAuditLogTables(
+        new StaticDbConnectionFactory(
+            ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb),
+            embeddedMySqlDb.getUsername(),
+            embeddedMySqlDb.getPassword()),
+        AUDIT_LOG_DB_NAME,
+        AUDIT_LOG_TABLE_NAME,
+        AUDIT_LOG_OBJECTS_TABLE_NAME,
+        AUDIT_LOG_MAP_RED_STATS_TABLE_NAME);
+
+    dbConnectionFactory = new StaticDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb, AUDIT_LOG_DB_NAME),
+        embeddedMySqlDb.getUsername(),
+        embeddedMySqlDb.getPassword());
+  }
+
+  private static synchronized long insertEntries(int count) throws SQLException {
+    long firstId = nextId;
+    SyntheticAuditLog.insertEntries(dbConnectionFactory, AUDIT_LOG_TABLE_NAME,
+        AUDIT_LOG_OBJECTS_TABLE_NAME, firstId, count);
+    nextId += count;
+    return firstId;
+  }
+
+  private static Configuration getPrefetchConf(int highWatermark, int lowWatermark) {
+    Configuration conf = new Configuration();
+    conf.setInt(ConfigurationKeys.AUDIT_LOG_PREFETCH_HIGH_WATERMARK, highWatermark);
+    conf.setInt(ConfigurationKeys.AUDIT_LOG_PREFETCH_LOW_WATERMARK, lowWatermark);
+    conf.setLong(ConfigurationKeys.AUDIT_LOG_PREFETCH_POLL_INTERVAL_MS, 100);
+    return conf;
+  }
+
+  private static List<AuditLogEntry> readAll(AuditLogReader reader, int batchSize)
+      throws AuditLogEntryException, SQLException {
+    List<AuditLogEntry> entries = new ArrayList<>();
+    while (true) {
+      List<AuditLogEntry> batch = reader.resilientNext(batchSize);
+      if (batch.isEmpty()) {
+        return entries;
+      }
+      entries.addAll(batch);
+    }
+  }
+
+  @Test
+  public void testReadsSameEntriesAsAuditLogReader() throws Exception {
+    long firstId = insertEntries(TEST_ENTRY_COUNT);
+
+    AuditLogReader reader = new AuditLogReader(new Configuration(), dbConnectionFactory,
+        AUDIT_LOG_TABLE_NAME, AUDIT_LOG_OBJECTS_TABLE_NAME, AUDIT_LOG_MAP_RED_STATS_TABLE_NAME,
+        firstId - 1);
+    // Use small watermarks so that the fetch thread stops and resumes many times
+    PrefetchingAuditLogReader prefetchingReader = new PrefetchingAuditLogReader(
+        getPrefetchConf(300, 100), dbConnectionFactory, AUDIT_LOG_TABLE_NAME,
+        AUDIT_LOG_OBJECTS_TABLE_NAME, AUDIT_LOG_MAP_RED_STATS_TABLE_NAME, firstId - 1);
+
+    try {
+      List<AuditLogEntry> expectedEntries = readAll(reader, 32);
+      List<AuditLogEntry> actualEntries = readAll(prefetchingReader, 32);
+
+      assertEquals(TEST_ENTRY_COUNT, expectedEntries.size());
+      assertEquals(expectedEntries.size(), actualEntries.size());
+      for (int i = 0; i < expectedEntries.size(); i++) {
+        AuditLogEntry expected = expectedEntries.get(i);
+        AuditLogEntry actual = actualEntries.get(i);
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getCommandType(), actual.getCommandType());
+        assertEquals(expected.getCommand(), actual.getCommand());
+        assertEquals(expected.getOutputTables(), actual.getOutputTables());
+      }
+      assertTrue(prefetchingReader.getBufferedEntryCount() <= 300);
+
+      // Entries written after the reader caught up should be picked up on a later poll
+      long laterId = insertEntries(1);
+      Optional<AuditLogEntry> laterEntry = Optional.empty();
+      for (int i = 0; i < 50 && !laterEntry.isPresent(); i++) {
+        laterEntry = prefetchingReader.next();
+        if (!laterEntry.isPresent()) {
+          Thread.sleep(100);
+        }
+      }
+      assertEquals(Optional.of(laterId), laterEntry.map(AuditLogEntry::getId));
+    } finally {
+      prefetchingReader.close();
+    }
+  }
+
+  @Test
+  public void testSetReadAfterIdDiscardsPrefetchedEntries() throws Exception {
+    long firstId = insertEntries(1000);
+
+    PrefetchingAuditLogReader prefetchingReader = new PrefetchingAuditLogReader(
+        getPrefetchConf(600, 200), dbConnectionFactory, AUDIT_LOG_TABLE_NAME,
+        AUDIT_LOG_OBJECTS_TABLE_NAME, AUDIT_LOG_MAP_RED_STATS_TABLE_NAME, firstId - 1);
+
+    try {
+      assertEquals(firstId, prefetchingReader.next().get().getId());
+      // Move the read position back and forth while the fetch thread has entries buffered
+      prefetchingReader.setReadAfterId(firstId + 499);
+      assertEquals(firstId + 500, prefetchingReader.next().get().getId());
+      prefetchingReader.setReadAfterId(firstId + 9);
+      List<AuditLogEntry> entries = prefetchingReader.resilientNext(5);
+      assertEquals(firstId + 10, entries.get(0).getId());
+      for (int i = 1; i < entries.size(); i++) {
+        assertEquals(entries.get(i - 1).getId() + 1, entries.get(i).getId());
+      }
+    } finally {
+      prefetchingReader.close();
+    }
+  }
+
+  private static double measureEntriesPerSecond(AuditLogReader reader, int expectedEntries)
+      throws AuditLogEntryException, SQLException, InterruptedException {
+    long startTime = System.nanoTime();
+    int entriesRead = 0;
+    while (entriesRead < expectedEntries) {
+      List<AuditLogEntry> batch = reader.resilientNext(BENCHMARK_PROCESSING_BATCH_SIZE);
+      if (batch.isEmpty()) {
+        break;
+      }
+      entriesRead += batch.size();
+      // Simulate the time spent creating and persisting jobs for the entries
+      Thread.sleep(BENCHMARK_PROCESSING_TIME_MS);
+    }
+    double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+    assertEquals(expectedEntries, entriesRead);
+    return entriesRead / elapsedSeconds;
+  }
+
+  @Test
+  public void benchmarkThroughput() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    int rows = Integer.getInteger(BENCHMARK_ROWS_PROPERTY, DEFAULT_BENCHMARK_ROWS);
+
+    long firstId = insertEntries(rows);
+    LOG.info(String.format("Inserted %d synthetic audit log rows", rows));
+
+    AuditLogReader reader = new AuditLogReader(new Configuration(), dbConnectionFactory,
+        AUDIT_LOG_TABLE_NAME, AUDIT_LOG_OBJECTS_TABLE_NAME, AUDIT_LOG_MAP_RED_STATS_TABLE_NAME,
+        firstId - 1);
+    double syncRate = measureEntriesPerSecond(reader, rows);
+
+    PrefetchingAuditLogReader prefetchingReader = new PrefetchingAuditLogReader(
+        getPrefetchConf(PrefetchingAuditLogReader.DEFAULT_HIGH_WATERMARK,
+            PrefetchingAuditLogReader.DEFAULT_LOW_WATERMARK),
+        dbConnectionFactory, AUDIT_LOG_TABLE_NAME, AUDIT_LOG_OBJECTS_TABLE_NAME,
+        AUDIT_LOG_MAP_RED_STATS_TABLE_NAME, firstId - 1);
+    double prefetchRate;
+    try {
+      prefetchRate = measureEntriesPerSecond(prefetchingReader, rows);
+    } finally {
+      prefetchingReader.close();
+    }
+
+    LOG.info(String.format("AuditLogReader: %.0f entries/s, PrefetchingAuditLogReader: "
+        + "%.0f entries/s (%.2fx)", syncRate, prefetchRate, prefetchRate / syncRate));
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    embeddedMySqlDb.stopDb();
+  }
+}
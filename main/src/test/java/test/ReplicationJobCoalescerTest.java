@@ -0,0 +1,254 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.common.NamedPartition;
+import com.airbnb.reair.db.DbConnectionFactory;
+import com.airbnb.reair.db.EmbeddedMySqlDb;
+import com.airbnb.reair.db.StaticDbConnectionFactory;
+import com.airbnb.reair.incremental.OnStateChangeHandler;
+import com.airbnb.reair.incremental.ReplicationJob;
+import com.airbnb.reair.incremental.ReplicationJobCoalescer;
+import com.airbnb.reair.incremental.ReplicationJobFactory;
+import com.airbnb.reair.incremental.ReplicationStatus;
+import com.airbnb.reair.incremental.RunInfo;
+import com.airbnb.reair.incremental.StateUpdateException;
+import com.airbnb.reair.incremental.db.PersistedJobInfo;
+import com.airbnb.reair.incremental.db.PersistedJobInfoStore;
+import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
+import com.airbnb.reair.utils.ReplicationTestUtils;
+
+import org.apache.hadoop.hive.metastore.TableType;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReplicationJobCoalescerTest extends MockClusterTest {
+
+  private static final String MYSQL_TEST_DB_NAME = "replication_test";
+  private static final String MYSQL_TEST_TABLE_NAME = "replication_jobs";
+
+  private static final int COPY_JOB_COUNT = 10;
+
+  private static EmbeddedMySqlDb embeddedMySqlDb;
+  private static PersistedJobInfoStore jobInfoStore;
+
+  /**
+   * Handler that persists the status of the jobs and counts the number of jobs that ran.
+   */
+  private static class CountingStateChangeHandler implements OnStateChangeHandler {
+    private final AtomicInteger startedJobs = new AtomicInteger(0);
+    private Optional<ReplicationJobCoalescer> jobCoalescer = Optional.empty();
+
+    @Override
+    public void onStart(ReplicationJob replicationJob) throws StateUpdateException {
+      startedJobs.incrementAndGet();
+      if (jobCoalescer.isPresent()) {
+        jobCoalescer.get().remove(replicationJob);
+      }
+      jobInfoStore.changeStatusAndPersist(ReplicationStatus.RUNNING,
+          replicationJob.getPersistedJobInfo());
+    }
+
+    @Override
+    public void onComplete(RunInfo runInfo, ReplicationJob replicationJob)
+        throws StateUpdateException {
+      ReplicationStatus status = runInfo.getRunStatus() == RunInfo.RunStatus.SUCCESSFUL
+          ? ReplicationStatus.SUCCESSFUL : ReplicationStatus.FAILED;
+      jobInfoStore.changeStatusAndPersist(status, replicationJob.getPersistedJobInfo());
+    }
+  }
+
+  /**
+   * Sets up this class for testing.
+   *
+   * @throws IOException if there's an error accessing the local filesystem
+   * @throws SQLException if there's an error querying the DB
+   */
+  @BeforeClass
+  public static void setupClass() throws IOException, SQLException {
+    MockClusterTest.setupClass();
+    embeddedMySqlDb = new EmbeddedMySqlDb();
+    embeddedMySqlDb.startDb();
+
+    DbConnectionFactory dbConnectionFactory = new StaticDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb),
+        embeddedMySqlDb.getUsername(),
+        embeddedMySqlDb.getPassword());
+    try (Connection connection = dbConnectionFactory.getConnection();
+         Statement statement = connection.createStatement()) {
+      statement.execute("CREATE DATABASE " + MYSQL_TEST_DB_NAME);
+      connection.setCatalog(MYSQL_TEST_DB_NAME);
+      statement.execute(PersistedJobInfoStore.getCreateTableSql(MYSQL_TEST_TABLE_NAME));
+    }
+
+    jobInfoStore = new PersistedJobInfoStore(
+        conf,
+        new StaticDbConnectionFactory(
+            ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb, MYSQL_TEST_DB_NAME),
+            embeddedMySqlDb.getUsername(),
+            embeddedMySqlDb.getPassword()),
+        MYSQL_TEST_TABLE_NAME);
+  }
+
+  private ReplicationJobFactory makeJobFactory(OnStateChangeHandler onStateChangeHandler) {
+    return new ReplicationJobFactory(
+        conf,
+        srcCluster,
+        destCluster,
+        jobInfoStore,
+        destinationObjectFactory,
+        onStateChangeHandler,
+        conflictHandler,
+        new ParallelJobExecutor(1),
+        directoryCopier);
+  }
+
+  /**
+   * Creates and persists jobs that copy the same partition, as would happen when a partition is
+   * overwritten several times while the jobs are queued.
+   */
+  private List<ReplicationJob> createCopyJobs(
+      ReplicationJobFactory jobFactory,
+      NamedPartition partition) throws StateUpdateException {
+    List<ReplicationJob> jobs = new ArrayList<>();
+    List<PersistedJobInfo> jobInfos = new ArrayList<>();
+    for (int i = 0; i < COPY_JOB_COUNT; i++) {
+      ReplicationJob job = jobFactory.createJobForCopyPartition(i, System.currentTimeMillis(),
+          partition);
+      jobs.add(job);
+      jobInfos.add(job.getPersistedJobInfo());
+    }
+    jobInfoStore.createMany(jobInfos);
+    return jobs;
+  }
+
+  /**
+   * Runs the jobs and returns the number of jobs that were started.
+   */
+  private int runJobs(
+      List<ReplicationJob> jobs,
+      CountingStateChangeHandler handler,
+      Optional<ReplicationJobCoalescer> jobCoalescer) throws Exception {
+    handler.jobCoalescer = jobCoalescer;
+    ParallelJobExecutor jobExecutor = new ParallelJobExecutor(2);
+    // Queue all the jobs before starting, so that none of them run before the later ones arrive
+    for (ReplicationJob job : jobs) {
+      if (jobCoalescer.isPresent()) {
+        jobCoalescer.get().add(job);
+      }
+      jobExecutor.add(job);
+    }
+    jobExecutor.start();
+    while (jobExecutor.getNotDoneJobCount() > 0) {
+      Thread.sleep(100);
+    }
+    jobExecutor.stop();
+    return handler.startedJobs.get();
+  }
+
+  @Test
+  public void testSupersededCopiesAreSkipped() throws Exception {
+    HiveObjectSpec tableSpec = new HiveObjectSpec("test_db", "test_table");
+    ReplicationTestUtils.createPartitionedTable(conf, srcMetastore, tableSpec,
+        TableType.MANAGED_TABLE, srcWarehouseRoot);
+    HiveObjectSpec partitionSpec = new HiveObjectSpec("test_db", "test_table", "ds=1/hr=1");
+    Partition srcPartition =
+        ReplicationTestUtils.createPartition(conf, srcMetastore, partitionSpec);
+    NamedPartition namedPartition = new NamedPartition("ds=1/hr=1", srcPartition);
+
+    // Without coalescing, every job copies the partition
+    CountingStateChangeHandler handler = new CountingStateChangeHandler();
+    List<ReplicationJob> jobs = createCopyJobs(makeJobFactory(handler), namedPartition);
+    assertEquals(COPY_JOB_COUNT, runJobs(jobs, handler, Optional.empty()));
+    Partition uncoalescedDestPartition = destMetastore.getPartition("test_db", "test_table",
+        "ds=1/hr=1");
+    assertNotNull(uncoalescedDestPartition);
+
+    // With coalescing, only the newest job copies the partition
+    destMetastore.dropPartition("test_db", "test_table", "ds=1/hr=1", true);
+    ReplicationJobCoalescer jobCoalescer = new ReplicationJobCoalescer(jobInfoStore);
+    handler = new CountingStateChangeHandler();
+    jobs = createCopyJobs(makeJobFactory(handler), namedPartition);
+    assertEquals(1, runJobs(jobs, handler, Optional.of(jobCoalescer)));
+    assertEquals(0, jobCoalescer.getTrackedTableCount());
+
+    ReplicationJob newestJob = jobs.get(COPY_JOB_COUNT - 1);
+    assertFalse(newestJob.isSuperseded());
+    assertEquals(ReplicationStatus.SUCCESSFUL, newestJob.getPersistedJobInfo().getStatus());
+    for (ReplicationJob job : jobs.subList(0, COPY_JOB_COUNT - 1)) {
+      assertTrue(job.isSuperseded());
+      PersistedJobInfo jobInfo = job.getPersistedJobInfo();
+      assertEquals(ReplicationStatus.ABORTED, jobInfo.getStatus());
+      assertEquals(Long.toString(newestJob.getId()),
+          jobInfo.getExtras().get(PersistedJobInfo.SUPERSEDED_BY_KEY));
+    }
+    // Superseded jobs shouldn't be run again after a restart
+    assertTrue(jobInfoStore.getRunnableFromDb().isEmpty());
+
+    // The destination ends up in the same state as without coalescing
+    Partition coalescedDestPartition = destMetastore.getPartition("test_db", "test_table",
+        "ds=1/hr=1");
+    assertEquals(uncoalescedDestPartition.getSd().getLocation(),
+        coalescedDestPartition.getSd().getLocation());
+    assertEquals(uncoalescedDestPartition.getValues(), coalescedDestPartition.getValues());
+  }
+
+  @Test
+  public void testDropIsABarrier() throws Exception {
+    HiveObjectSpec tableSpec = new HiveObjectSpec("test_db", "test_table");
+    ReplicationTestUtils.createPartitionedTable(conf, srcMetastore, tableSpec,
+        TableType.MANAGED_TABLE, srcWarehouseRoot);
+    HiveObjectSpec partitionSpec = new HiveObjectSpec("test_db", "test_table", "ds=1/hr=1");
+    NamedPartition namedPartition = new NamedPartition("ds=1/hr=1",
+        ReplicationTestUtils.createPartition(conf, srcMetastore, partitionSpec));
+
+    ReplicationJobFactory jobFactory = makeJobFactory(new CountingStateChangeHandler());
+    List<ReplicationJob> jobs = new ArrayList<>();
+    jobs.add(jobFactory.createJobForCopyPartition(1, 0, namedPartition));
+    jobs.add(jobFactory.createJobForDropPartition(2, 0, namedPartition));
+    jobs.add(jobFactory.createJobForCopyPartition(3, 0, namedPartition));
+    jobs.add(jobFactory.createJobForCopyPartition(4, 0, namedPartition));
+    jobs.add(jobFactory.createJobForCopyPartition(5, 0, namedPartition));
+    List<PersistedJobInfo> jobInfos = new ArrayList<>();
+    for (ReplicationJob job : jobs) {
+      jobInfos.add(job.getPersistedJobInfo());
+    }
+    jobInfoStore.createMany(jobInfos);
+
+    ReplicationJobCoalescer jobCoalescer = new ReplicationJobCoalescer(jobInfoStore);
+    assertTrue(jobCoalescer.add(jobs.get(0)).isEmpty());
+    assertTrue(jobCoalescer.add(jobs.get(1)).isEmpty());
+    // The copy after the drop can't replace the copy before the drop
+    assertTrue(jobCoalescer.add(jobs.get(2)).isEmpty());
+    List<ReplicationJob> supersededJobs = jobCoalescer.add(jobs.get(3));
+    assertEquals(1, supersededJobs.size());
+    assertEquals(jobs.get(2), supersededJobs.get(0));
+    assertFalse(jobs.get(0).isSuperseded());
+
+    // A job that started running can't be superseded
+    jobCoalescer.remove(jobs.get(3));
+    assertTrue(jobCoalescer.add(jobs.get(4)).isEmpty());
+    assertFalse(jobs.get(3).isSuperseded());
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    MockClusterTest.tearDownClass();
+    embeddedMySqlDb.stopDb();
+  }
+}
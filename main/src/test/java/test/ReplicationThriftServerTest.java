@@ -0,0 +1,204 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
+import com.airbnb.reair.incremental.deploy.ReplicationLauncher;
+import com.airbnb.reair.incremental.thrift.TReplicationService;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ReplicationThriftServerTest {
+  private static final Log LOG = LogFactory.getLog(ReplicationThriftServerTest.class);
+
+  private static final int CLIENT_COUNT = 200;
+  private static final int SLOW_CLIENT_COUNT = 2;
+  private static final long SLOW_CALL_MS = 3000;
+  private static final long MAX_P99_LATENCY_MS = 1000;
+  private static final int CLIENT_TIMEOUT_MS = 30000;
+  private static final long LAG = 1234;
+
+  private TReplicationService.Iface handler;
+  private TServer server;
+  private Thread serverThread;
+  private int port;
+  private Socket stalledClient;
+
+  /**
+   * Sets up a handler where getLag() is fast and getActiveJobs() is slow.
+   *
+   * @throws Exception if there's an error setting up the handler
+   */
+  @Before
+  public void setUp() throws Exception {
+    handler = mock(TReplicationService.Iface.class);
+    when(handler.getLag()).thenReturn(LAG);
+    when(handler.getActiveJobs(anyLong(), anyInt())).thenAnswer(invocation -> {
+        Thread.sleep(SLOW_CALL_MS);
+        return new ArrayList<>();
+      });
+  }
+
+  /**
+   * Stops the server and the stalled client.
+   *
+   * @throws Exception if there's an error stopping the server
+   */
+  @After
+  public void tearDown() throws Exception {
+    if (stalledClient != null) {
+      stalledClient.close();
+    }
+    if (server != null) {
+      server.stop();
+      serverThread.join(10000);
+    }
+  }
+
+  private void startServer(boolean framed) throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+
+    Configuration conf = new Configuration();
+    conf.setBoolean(ConfigurationKeys.THRIFT_SERVER_FRAMED, framed);
+    conf.setInt(ConfigurationKeys.THRIFT_SERVER_CLIENT_TIMEOUT_MS, CLIENT_TIMEOUT_MS);
+    server = ReplicationLauncher.createThriftServer(conf,
+        new TReplicationService.Processor<>(handler), port);
+    serverThread = new Thread(server::serve, "ReplicationThriftTestServer");
+    serverThread.setDaemon(true);
+    serverThread.start();
+    while (!server.isServing()) {
+      Thread.sleep(10);
+    }
+  }
+
+  private TTransport openTransport(boolean framed) throws Exception {
+    TTransport transport = new TSocket("localhost", port, CLIENT_TIMEOUT_MS);
+    if (framed) {
+      transport = new TFramedTransport(transport);
+    }
+    transport.open();
+    return transport;
+  }
+
+  /**
+   * Connects a client that sends the start of a request and then stops sending data.
+   */
+  private void startStalledClient() throws Exception {
+    stalledClient = new Socket("localhost", port);
+    OutputStream out = stalledClient.getOutputStream();
+    // For framed transport, this is the size of a frame that never arrives. For unframed transport,
+    // it's the start of a message header.
+    out.write(new byte[] {0, 0, 1, 0, 1, 2});
+    out.flush();
+  }
+
+  /**
+   * Runs concurrent getLag() calls while a client is stalled and slow calls are in progress.
+   *
+   * @return the sorted latencies of the getLag() calls in milliseconds
+   */
+  private List<Long> runClients(boolean framed) throws Exception {
+    startStalledClient();
+
+    ExecutorService executor = Executors.newFixedThreadPool(CLIENT_COUNT + SLOW_CLIENT_COUNT);
+    try {
+      for (int i = 0; i < SLOW_CLIENT_COUNT; i++) {
+        executor.submit(() -> {
+            TTransport transport = openTransport(framed);
+            try {
+              new TReplicationService.Client(new TBinaryProtocol(transport))
+                  .getActiveJobs(-1, 100);
+            } finally {
+              transport.close();
+            }
+            return null;
+          });
+      }
+
+      // Clients connect first so that only the call is timed
+      CountDownLatch connectedLatch = new CountDownLatch(CLIENT_COUNT);
+      CountDownLatch startLatch = new CountDownLatch(1);
+      List<Future<Long>> futures = new ArrayList<>();
+      for (int i = 0; i < CLIENT_COUNT; i++) {
+        futures.add(executor.submit(() -> {
+            TTransport transport = openTransport(framed);
+            try {
+              TReplicationService.Client client =
+                  new TReplicationService.Client(new TBinaryProtocol(transport));
+              connectedLatch.countDown();
+              startLatch.await();
+              long startTime = System.nanoTime();
+              assertEquals(LAG, client.getLag());
+              return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            } finally {
+              transport.close();
+            }
+          }));
+      }
+
+      assertTrue(connectedLatch.await(CLIENT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+      startLatch.countDown();
+
+      List<Long> latencies = new ArrayList<>();
+      for (Future<Long> future : futures) {
+        latencies.add(future.get());
+      }
+      Collections.sort(latencies);
+      return latencies;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void checkLatencies(boolean framed) throws Exception {
+    startServer(framed);
+    List<Long> latencies = runClients(framed);
+
+    long p50 = latencies.get(latencies.size() / 2);
+    long p99 = latencies.get((int) Math.ceil(latencies.size() * 0.99) - 1);
+    LOG.info(String.format("%s transport with %d clients: p50 %d ms, p99 %d ms, max %d ms",
+        framed ? "Framed" : "Unframed", latencies.size(), p50, p99,
+        latencies.get(latencies.size() - 1)));
+    assertEquals(CLIENT_COUNT, latencies.size());
+    assertTrue("p99 latency was " + p99 + " ms", p99 < MAX_P99_LATENCY_MS);
+  }
+
+  @Test
+  public void testFramedServerLatency() throws Exception {
+    checkLatencies(true);
+  }
+
+  @Test
+  public void testUnframedServerLatency() throws Exception {
+    checkLatencies(false);
+  }
+}
@@ -0,0 +1,225 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.db.DbConnectionFactory;
+import com.airbnb.reair.db.EmbeddedMySqlDb;
+import com.airbnb.reair.db.StaticDbConnectionFactory;
+import com.airbnb.reair.hive.hooks.AuditLogHookUtils;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntry;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntryException;
+import com.airbnb.reair.incremental.auditlog.AuditLogReader;
+import com.airbnb.reair.incremental.auditlog.ShardedAuditLogReader;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
+import com.airbnb.reair.utils.ReplicationTestUtils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ShardedAuditLogReaderTest {
+  private static final Log LOG = LogFactory.getLog(ShardedAuditLogReaderTest.class);
+
+  private static final String AUDIT_LOG_DB_NAME = "audit_log_db";
+  private static final String AUDIT_LOG_TABLE_NAME = "audit_log";
+  private static final String AUDIT_LOG_OBJECTS_TABLE_NAME = "audit_objects";
+  private static final String AUDIT_LOG_MAP_RED_STATS_TABLE_NAME = "mapred_stats";
+
+  private static final int TEST_ENTRY_COUNT = 5000;
+  private static final int SHARD_CONNECTIONS = 4;
+
+  // Set this system property to run the catch-up benchmark
+  private static final String BENCHMARK_PROPERTY = "reair.benchmark";
+  private static final String BENCHMARK_ROWS_PROPERTY = "reair.benchmark.audit_log_backlog_rows";
+  private static final int DEFAULT_BENCHMARK_ROWS = 2000000;
+  private static final int BENCHMARK_BATCH_SIZE = 128;
+
+  private static EmbeddedMySqlDb embeddedMySqlDb;
+  private static DbConnectionFactory dbConnectionFactory;
+  private static long nextId = 1;
+
+  /**
+   * Sets up this class for testing by starting the embedded DB and creating the audit log tables.
+   *
+   * @throws SQLException if there's an error querying the embedded DB
+   */
+  @BeforeClass
+  public static void setupClass() throws SQLException {
+    embeddedMySqlDb = new EmbeddedMySqlDb();
+    embeddedMySqlDb.startDb();
+
+    AuditLogHookUtils.setupAuditLogTables(
+        new StaticDbConnectionFactory(
+            ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb),
+            embeddedMySqlDb.getUsername(),
+            embeddedMySqlDb.getPassword()),
+        AUDIT_LOG_DB_NAME,
+        AUDIT_LOG_TABLE_NAME,
+        AUDIT_LOG_OBJECTS_TABLE_NAME,
+        AUDIT_LOG_MAP_RED_STATS_TABLE_NAME);
+
+    dbConnectionFactory = makeConnectionFactory();
+  }
+
+  private static DbConnectionFactory makeConnectionFactory() {
+    return new StaticDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb, AUDIT_LOG_DB_NAME),
+        embeddedMySqlDb.getUsername(),
+        embeddedMySqlDb.getPassword());
+  }
+
+  private static synchronized long insertEntries(int count) throws SQLException {
+    long firstId = nextId;
+    SyntheticAuditLog.insertEntries(dbConnectionFactory, AUDIT_LOG_TABLE_NAME,
+        AUDIT_LOG_OBJECTS_TABLE_NAME, firstId, count);
+    nextId += count;
+    return firstId;
+  }
+
+  private static ShardedAuditLogReader makeShardedReader(Configuration conf, long readAfterId)
+      throws SQLException {
+    List<DbConnectionFactory> shardConnectionFactories = new ArrayList<>();
+    for (int i = 0; i < SHARD_CONNECTIONS; i++) {
+      shardConnectionFactories.add(makeConnectionFactory());
+    }
+    return new ShardedAuditLogReader(conf, dbConnectionFactory, shardConnectionFactories,
+        AUDIT_LOG_TABLE_NAME, AUDIT_LOG_OBJECTS_TABLE_NAME, AUDIT_LOG_MAP_RED_STATS_TABLE_NAME,
+        readAfterId);
+  }
+
+  private static List<AuditLogEntry> readAll(AuditLogReader reader, int batchSize)
+      throws AuditLogEntryException, SQLException {
+    List<AuditLogEntry> entries = new ArrayList<>();
+    while (true) {
+      List<AuditLogEntry> batch = reader.resilientNext(batchSize);
+      if (batch.isEmpty()) {
+        return entries;
+      }
+      entries.addAll(batch);
+    }
+  }
+
+  @Test
+  public void testReadsSameEntriesAsAuditLogReader() throws Exception {
+    long firstId = insertEntries(TEST_ENTRY_COUNT);
+
+    AuditLogReader reader = new AuditLogReader(new Configuration(), dbConnectionFactory,
+        AUDIT_LOG_TABLE_NAME, AUDIT_LOG_OBJECTS_TABLE_NAME, AUDIT_LOG_MAP_RED_STATS_TABLE_NAME,
+        firstId - 1);
+    // Use a small target size so that the backlog is split into many shards of varying size
+    Configuration conf = new Configuration();
+    conf.setLong(ConfigurationKeys.AUDIT_LOG_SHARDED_CATCH_UP_THRESHOLD, 1000);
+    conf.setLong(ConfigurationKeys.AUDIT_LOG_FETCH_TARGET_BYTES, 50 * 1024);
+    ShardedAuditLogReader shardedReader = makeShardedReader(conf, firstId - 1);
+
+    try {
+      List<AuditLogEntry> expectedEntries = readAll(reader, 32);
+      List<AuditLogEntry> actualEntries = readAll(shardedReader, 32);
+
+      assertEquals(TEST_ENTRY_COUNT, expectedEntries.size());
+      assertEquals(expectedEntries.size(), actualEntries.size());
+      for (int i = 0; i < expectedEntries.size(); i++) {
+        AuditLogEntry expected = expectedEntries.get(i);
+        AuditLogEntry actual = actualEntries.get(i);
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getCommandType(), actual.getCommandType());
+        assertEquals(expected.getCommand(), actual.getCommand());
+        assertEquals(expected.getOutputTables(), actual.getOutputTables());
+      }
+
+      // Entries written after the reader caught up are read sequentially
+      long laterId = insertEntries(10);
+      List<AuditLogEntry> laterEntries = readAll(shardedReader, 32);
+      assertEquals(10, laterEntries.size());
+      assertEquals(laterId, laterEntries.get(0).getId());
+    } finally {
+      shardedReader.close();
+    }
+  }
+
+  @Test
+  public void testSetReadAfterIdDiscardsShards() throws Exception {
+    long firstId = insertEntries(3000);
+
+    Configuration conf = new Configuration();
+    conf.setLong(ConfigurationKeys.AUDIT_LOG_SHARDED_CATCH_UP_THRESHOLD, 100);
+    ShardedAuditLogReader shardedReader = makeShardedReader(conf, firstId - 1);
+
+    try {
+      assertEquals(firstId, shardedReader.next().get().getId());
+      // Move the read position back and forth while shards are being read
+      shardedReader.setReadAfterId(firstId + 1999);
+      assertEquals(firstId + 2000, shardedReader.next().get().getId());
+      shardedReader.setReadAfterId(firstId + 9);
+      List<AuditLogEntry> entries = shardedReader.resilientNext(500);
+      assertEquals(500, entries.size());
+      for (int i = 0; i < entries.size(); i++) {
+        assertEquals(firstId + 10 + i, entries.get(i).getId());
+      }
+    } finally {
+      shardedReader.close();
+    }
+  }
+
+  private static double measureEntriesPerSecond(AuditLogReader reader, int expectedEntries)
+      throws AuditLogEntryException, SQLException {
+    long startTime = System.nanoTime();
+    int entriesRead = 0;
+    long lastId = -1;
+    while (entriesRead < expectedEntries) {
+      List<AuditLogEntry> batch = reader.resilientNext(BENCHMARK_BATCH_SIZE);
+      if (batch.isEmpty()) {
+        break;
+      }
+      for (AuditLogEntry entry : batch) {
+        // Entries should be returned in strict ID order
+        assertTrue(entry.getId() > lastId);
+        lastId = entry.getId();
+      }
+      entriesRead += batch.size();
+    }
+    double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+    assertEquals(expectedEntries, entriesRead);
+    return entriesRead / elapsedSeconds;
+  }
+
+  @Test
+  public void benchmarkCatchUp() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    int rows = Integer.getInteger(BENCHMARK_ROWS_PROPERTY, DEFAULT_BENCHMARK_ROWS);
+
+    long firstId = insertEntries(rows);
+    LOG.info(String.format("Inserted a backlog of %d synthetic audit log rows", rows));
+
+    AuditLogReader reader = new AuditLogReader(new Configuration(), dbConnectionFactory,
+        AUDIT_LOG_TABLE_NAME, AUDIT_LOG_OBJECTS_TABLE_NAME, AUDIT_LOG_MAP_RED_STATS_TABLE_NAME,
+        firstId - 1);
+    double sequentialRate = measureEntriesPerSecond(reader, rows);
+
+    ShardedAuditLogReader shardedReader = makeShardedReader(new Configuration(), firstId - 1);
+    double shardedRate;
+    try {
+      shardedRate = measureEntriesPerSecond(shardedReader, rows);
+    } finally {
+      shardedReader.close();
+    }
+
+    LOG.info(String.format("AuditLogReader: %.0f entries/s, ShardedAuditLogReader with %d "
+        + "connections: %.0f entries/s (%.2fx)", sequentialRate, SHARD_CONNECTIONS, shardedRate,
+        shardedRate / sequentialRate));
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    embeddedMySqlDb.stopDb();
+  }
+}
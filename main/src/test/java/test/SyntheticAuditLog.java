@@ -0,0 +1,124 @@
+package test;
+
+import com.airbnb.reair.db.DbConnectionFactory;
+import com.airbnb.reair.hive.hooks.HiveOperation;
+
+import org.apache.hadoop.hive.metastore.TableType;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.metastore.api.SerDeInfo;
+import org.apache.hadoop.hive.metastore.api.StorageDescriptor;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TJSONProtocol;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Writes synthetic entries directly into the audit log tables, for tests that need a large number
+ * of entries without going through the hooks.
+ */
+public class SyntheticAuditLog {
+
+  // Number of rows to insert with a single statement
+  private static final int INSERT_BATCH_SIZE = 1000;
+
+  /**
+   * Insert entries for queries that each write a single table.
+   *
+   * @param dbConnectionFactory factory for connections to the DB containing the audit log
+   * @param auditLogTableName name of the audit log table
+   * @param objectsTableName name of the audit log objects table
+   * @param firstId the ID of the first entry to insert. Subsequent entries have consecutive IDs.
+   * @param count the number of entries to insert
+   *
+   * @throws SQLException if there's an error inserting into the DB
+   */
+  public static void insertEntries(
+      DbConnectionFactory dbConnectionFactory,
+      String auditLogTableName,
+      String objectsTableName,
+      long firstId,
+      int count) throws SQLException {
+    Connection connection = dbConnectionFactory.getConnection();
+
+    for (int batchStart = 0; batchStart < count; batchStart += INSERT_BATCH_SIZE) {
+      int batchSize = Math.min(INSERT_BATCH_SIZE, count - batchStart);
+
+      StringBuilder auditLogSql = new StringBuilder(String.format(
+          "INSERT INTO %s (id, query_id, command_type, command) VALUES ", auditLogTableName));
+      StringBuilder objectsSql = new StringBuilder(String.format(
+          "INSERT INTO %s (audit_log_id, category, type, name, serialized_object) VALUES ",
+          objectsTableName));
+      for (int i = 0; i < batchSize; i++) {
+        auditLogSql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+        objectsSql.append(i == 0 ? "(?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?)");
+      }
+
+      PreparedStatement auditLogPs = connection.prepareStatement(auditLogSql.toString());
+      PreparedStatement objectsPs = connection.prepareStatement(objectsSql.toString());
+      int auditLogIndex = 1;
+      int objectsIndex = 1;
+      for (int i = 0; i < batchSize; i++) {
+        long id = firstId + batchStart + i;
+        String tableName = getTableName(id);
+
+        auditLogPs.setLong(auditLogIndex++, id);
+        auditLogPs.setString(auditLogIndex++, "query_" + id);
+        auditLogPs.setString(auditLogIndex++, HiveOperation.QUERY.name());
+        auditLogPs.setString(auditLogIndex++, "INSERT OVERWRITE TABLE " + tableName);
+
+        objectsPs.setLong(objectsIndex++, id);
+        objectsPs.setString(objectsIndex++, "OUTPUT");
+        objectsPs.setString(objectsIndex++, "TABLE");
+        objectsPs.setString(objectsIndex++, tableName);
+        objectsPs.setString(objectsIndex++, serializeTable(tableName));
+      }
+      auditLogPs.executeUpdate();
+      objectsPs.executeUpdate();
+      auditLogPs.close();
+      objectsPs.close();
+    }
+  }
+
+  /**
+   * Returns the name of the table that the synthetic entry with the given ID writes to.
+   *
+   * @param id the audit log ID
+   * @return the name of the table in db.table format
+   */
+  public static String getTableName(long id) {
+    return "synthetic_db.table_" + (id % 1000);
+  }
+
+  private static String serializeTable(String fullTableName) {
+    String[] parts = fullTableName.split("\\.");
+    Table table = new Table();
+    table.setDbName(parts[0]);
+    table.setTableName(parts[1]);
+    table.setTableType(TableType.MANAGED_TABLE.name());
+    table.setParameters(new HashMap<>());
+
+    List<FieldSchema> columns = new ArrayList<>();
+    columns.add(new FieldSchema("key", "string", "some comment"));
+    columns.add(new FieldSchema("value", "string", "some comment"));
+
+    StorageDescriptor sd = new StorageDescriptor();
+    sd.setCols(columns);
+    sd.setLocation("hdfs://warehouse/" + parts[0] + "/" + parts[1]);
+    sd.setSerdeInfo(new SerDeInfo());
+    table.setSd(sd);
+
+    try {
+      TSerializer serializer = new TSerializer(new TJSONProtocol.Factory());
+      return serializer.toString(table, "UTF-8");
+    } catch (TException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
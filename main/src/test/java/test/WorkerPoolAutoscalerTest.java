@@ -0,0 +1,140 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import com.airbnb.reair.incremental.ReplicationJobRegistry;
+import com.airbnb.reair.incremental.StatsTracker;
+import com.airbnb.reair.incremental.WorkerPoolAutoscaler;
+import com.airbnb.reair.multiprocessing.Job;
+import com.airbnb.reair.multiprocessing.Lock;
+import com.airbnb.reair.multiprocessing.LockSet;
+import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
+
+import com.timgroup.statsd.NoOpStatsDClient;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WorkerPoolAutoscalerTest {
+  private static final Log LOG = LogFactory.getLog(WorkerPoolAutoscalerTest.class);
+
+  private static final int MIN_WORKERS = 1;
+  private static final int MAX_WORKERS = 8;
+  private static final long JOB_DURATION_MS = 20;
+  private static final long TARGET_QUEUE_WAIT_MS = 50;
+  private static final long EVALUATION_INTERVAL_MS = 20;
+  // Give up on a phase after this many evaluations
+  private static final int MAX_EVALUATIONS = 500;
+
+  /**
+   * A job that sleeps for a while and fails if it's interrupted.
+   */
+  private static class SleepingJob extends Job {
+    private static final AtomicInteger nextId = new AtomicInteger(0);
+
+    private final LockSet lockSet = new LockSet();
+    private final AtomicInteger completedJobs;
+
+    SleepingJob(AtomicInteger completedJobs) {
+      this.completedJobs = completedJobs;
+      lockSet.add(new Lock(Lock.Type.EXCLUSIVE, "job_" + nextId.incrementAndGet()));
+    }
+
+    @Override
+    public int run() {
+      try {
+        Thread.sleep(JOB_DURATION_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return -1;
+      }
+      completedJobs.incrementAndGet();
+      return 0;
+    }
+
+    @Override
+    public LockSet getRequiredLocks() {
+      return lockSet;
+    }
+  }
+
+  private static void addJobs(ParallelJobExecutor executor, AtomicInteger completedJobs,
+      int count) {
+    for (int i = 0; i < count; i++) {
+      executor.add(new SleepingJob(completedJobs));
+    }
+  }
+
+  /**
+   * Evaluates the load until the pool reaches the expected size.
+   *
+   * @return the number of evaluations that it took
+   */
+  private static int evaluateUntil(WorkerPoolAutoscaler autoscaler, int expectedWorkers)
+      throws InterruptedException {
+    for (int i = 1; i <= MAX_EVALUATIONS; i++) {
+      if (autoscaler.evaluate() == expectedWorkers) {
+        return i;
+      }
+      Thread.sleep(EVALUATION_INTERVAL_MS);
+    }
+    throw new AssertionError("Pool didn't converge to " + expectedWorkers + " workers");
+  }
+
+  @Test
+  public void testPoolConvergesUnderLoadPhases() throws Exception {
+    ParallelJobExecutor executor = new ParallelJobExecutor("AutoscaledWorker", MIN_WORKERS);
+    StatsTracker statsTracker = new StatsTracker(
+        new ReplicationJobRegistry(new Configuration(), new NoOpStatsDClient()));
+    WorkerPoolAutoscaler autoscaler = new WorkerPoolAutoscaler(executor, statsTracker,
+        MIN_WORKERS, MAX_WORKERS, TARGET_QUEUE_WAIT_MS, Long.MAX_VALUE, 2, 5);
+    AtomicInteger completedJobs = new AtomicInteger(0);
+    executor.start();
+
+    try {
+      // Burst: a backlog that a single worker would take 20s to run
+      addJobs(executor, completedJobs, 1000);
+      int evaluations = evaluateUntil(autoscaler, MAX_WORKERS);
+      LOG.info(String.format("Grew to %d workers after %d evaluations", MAX_WORKERS,
+          evaluations));
+      // The pool shouldn't shrink while there is a backlog
+      for (int i = 0; i < 10; i++) {
+        assertEquals(MAX_WORKERS, autoscaler.evaluate());
+        Thread.sleep(EVALUATION_INTERVAL_MS);
+      }
+
+      // Quiet: the backlog drains and the pool shrinks back to the minimum
+      evaluations = evaluateUntil(autoscaler, MIN_WORKERS);
+      LOG.info(String.format("Shrank to %d workers after %d evaluations", MIN_WORKERS,
+          evaluations));
+      while (executor.getNotDoneJobCount() > 0) {
+        Thread.sleep(EVALUATION_INTERVAL_MS);
+      }
+
+      // A trickle of jobs that one worker can keep up with shouldn't grow the pool
+      for (int i = 0; i < 20; i++) {
+        addJobs(executor, completedJobs, 1);
+        Thread.sleep(2 * JOB_DURATION_MS);
+        assertEquals(MIN_WORKERS, autoscaler.evaluate());
+      }
+
+      // A second burst grows the pool again
+      addJobs(executor, completedJobs, 1000);
+      evaluateUntil(autoscaler, MAX_WORKERS);
+      while (executor.getNotDoneJobCount() > 0) {
+        autoscaler.evaluate();
+        Thread.sleep(EVALUATION_INTERVAL_MS);
+      }
+      evaluateUntil(autoscaler, MIN_WORKERS);
+    } finally {
+      executor.stop();
+    }
+
+    // Retired workers finished their jobs instead of being interrupted
+    assertEquals(2020, completedJobs.get());
+    assertEquals(0, executor.getRunningJobCount());
+  }
+}
@@ -9,7 +9,7 @@ package com.airbnb.reair.incremental.thrift;
 
 
 public enum TReplicationStatus implements org.apache.thrift.TEnum {
-  PENDING(0), RUNNING(1), SUCCESSFUL(2), FAILED(3), NOT_COMPLETABLE(4);
+  PENDING(0), RUNNING(1), SUCCESSFUL(2), FAILED(3), NOT_COMPLETABLE(4), ABORTED(5);
 
   private final int value;
 
@@ -41,6 +41,8 @@ public enum TReplicationStatus implements org.apache.thrift.TEnum {
         return FAILED;
       case 4:
         return NOT_COMPLETABLE;
+      case 5:
+        return ABORTED;
       default:
         return null;
     }
@@ -17,6 +17,7 @@ enum TReplicationStatus {
   SUCCESSFUL,
   FAILED,
   NOT_COMPLETABLE,
+  ABORTED,
 }
 
 struct TReplicationJob {
@@ -0,0 +1,313 @@
+package com.airbnb.reair.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lists the files under a directory tree by listing directories in parallel. Each directory is
+ * listed by a fork-join task that forks a task for each subdirectory, so the number of concurrent
+ * listing calls to the filesystem is bounded by the parallelism level.
+ *
+ * <p>Files are passed to a {@link Visitor} as they are found, and the visitor can stop the listing
+ * early. Like the serial traversal that this replaces, the optional path filter is applied to
+ * directories before they are listed - files are not filtered.
+ */
+public class DirectoryLister {
+
+  private static final Log LOG = LogFactory.getLog(DirectoryLister.class);
+
+  // Number of directories to list concurrently
+  public static final String PARALLELISM_KEY = "airbnb.reair.fs.list.parallelism";
+  // Whether to list directories on HDFS using listLocatedStatus(), which streams large directories
+  // in batches instead of returning them in a single response.
+  public static final String USE_LOCATED_STATUS_KEY = "airbnb.reair.fs.list.located_status";
+
+  public static final int DEFAULT_PARALLELISM = 8;
+
+  // Pools are shared between listers with the same parallelism so that listing a small directory
+  // doesn't require starting new threads. The threads in the pools are daemon threads.
+  private static final Map<Integer, ForkJoinPool> pools = new ConcurrentHashMap<>();
+
+  private final int parallelism;
+  private final boolean useLocatedStatus;
+
+  /**
+   * Receives the files found while listing.
+   */
+  public interface Visitor {
+    /**
+     * Called for each file that is found. This may be called concurrently from multiple threads.
+     *
+     * @param fileStatus the status of the file
+     * @return false if the listing should be stopped
+     */
+    boolean visit(FileStatus fileStatus);
+
+    /**
+     * Called for each subdirectory that is listed. This may be called concurrently from multiple
+     * threads.
+     *
+     * @param directoryStatus the status of the directory
+     */
+    default void visitDirectory(FileStatus directoryStatus) {}
+  }
+
+  /**
+   * Constructor for a lister that reads the parallelism level and the listing method from the
+   * configuration.
+   *
+   * @param conf configuration object
+   */
+  public DirectoryLister(Configuration conf) {
+    this(conf.getInt(PARALLELISM_KEY, DEFAULT_PARALLELISM),
+        conf.getBoolean(USE_LOCATED_STATUS_KEY, true));
+  }
+
+  /**
+   * Constructor for a lister with the specified settings.
+   *
+   * @param parallelism the maximum number of directories to list concurrently
+   * @param useLocatedStatus whether to use listLocatedStatus() for filesystems that list
+   *                         directories in batches with it (i.e. HDFS)
+   */
+  public DirectoryLister(int parallelism, boolean useLocatedStatus) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+    }
+    this.parallelism = parallelism;
+    this.useLocatedStatus = useLocatedStatus;
+  }
+
+  private static ForkJoinPool getPool(int parallelism) {
+    return pools.computeIfAbsent(parallelism, ForkJoinPool::new);
+  }
+
+  /**
+   * State shared by all the tasks of one listing.
+   */
+  private static class Listing {
+    private final Optional<PathFilter> filter;
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    private Listing(Optional<PathFilter> filter) {
+      this.filter = filter;
+    }
+  }
+
+  /**
+   * Lists a single directory and forks tasks to list its subdirectories.
+   */
+  private class ListTask extends RecursiveAction {
+    private final Listing listing;
+    private final Visitor visitor;
+    private final FileSystem fs;
+    private final Path directory;
+
+    private ListTask(Listing listing, Visitor visitor, FileSystem fs, Path directory) {
+      this.listing = listing;
+      this.visitor = visitor;
+      this.fs = fs;
+      this.directory = directory;
+    }
+
+    @Override
+    protected void compute() {
+      if (listing.stopped.get()) {
+        return;
+      }
+      if (listing.filter.isPresent() && !listing.filter.get().accept(directory)) {
+        LOG.warn("Skipping check of directory: " + directory);
+        return;
+      }
+
+      List<ListTask> subtasks = new ArrayList<>();
+      try {
+        if (useLocatedStatus(fs)) {
+          RemoteIterator<LocatedFileStatus> iterator = fs.listLocatedStatus(directory);
+          while (iterator.hasNext() && !listing.stopped.get()) {
+            handleStatus(iterator.next(), subtasks);
+          }
+        } else {
+          for (FileStatus status : fs.listStatus(directory)) {
+            if (listing.stopped.get()) {
+              break;
+            }
+            handleStatus(status, subtasks);
+          }
+        }
+      } catch (IOException e) {
+        listing.stopped.set(true);
+        throw new UncheckedIOException(e);
+      }
+
+      invokeAll(subtasks);
+    }
+
+    private void handleStatus(FileStatus status, List<ListTask> subtasks) {
+      if (status.isDirectory()) {
+        if (!listing.filter.isPresent() || listing.filter.get().accept(status.getPath())) {
+          visitor.visitDirectory(status);
+        }
+        subtasks.add(new ListTask(listing, visitor, fs, status.getPath()));
+      } else if (!visitor.visit(status)) {
+        listing.stopped.set(true);
+      }
+    }
+  }
+
+  private boolean useLocatedStatus(FileSystem fs) {
+    // Other filesystems either don't batch, or (like s3n) have had issues with block locations.
+    return useLocatedStatus && "hdfs".equals(fs.getUri().getScheme());
+  }
+
+  /**
+   * List the files under the given paths, including subdirectories. The paths are listed
+   * together, so listing the source and destination of a copy with one call is faster than listing
+   * them one after the other.
+   *
+   * @param conf configuration object used to get the filesystems for the paths
+   * @param roots the paths to list. These can be on different filesystems.
+   * @param visitors the visitor to receive the files under the corresponding path
+   * @param filter directories rejected by this filter are not listed
+   * @return true if all the files were visited, or false if a visitor stopped the listing
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   */
+  public boolean list(
+      Configuration conf,
+      List<Path> roots,
+      List<Visitor> visitors,
+      Optional<PathFilter> filter) throws IOException {
+    if (roots.size() != visitors.size()) {
+      throw new IllegalArgumentException("Each path needs a visitor");
+    }
+    Listing listing = new Listing(filter);
+    List<ListTask> tasks = new ArrayList<>();
+    for (int i = 0; i < roots.size(); i++) {
+      Path root = roots.get(i);
+      tasks.add(new ListTask(listing, visitors.get(i), root.getFileSystem(conf), root));
+    }
+
+    try {
+      getPool(parallelism).invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return !listing.stopped.get();
+  }
+
+  /**
+   * List the files under the given path, including subdirectories.
+   *
+   * @param conf configuration object
+   * @param root the path to list
+   * @param filter directories rejected by this filter are not listed
+   * @param visitor receives the files that are found
+   * @return true if all the files were visited, or false if the visitor stopped the listing
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   */
+  public boolean list(
+      Configuration conf,
+      Path root,
+      Optional<PathFilter> filter,
+      Visitor visitor) throws IOException {
+    return list(conf, Collections.singletonList(root), Collections.singletonList(visitor), filter);
+  }
+
+  /**
+   * Get the file statuses of all the files under the given paths, including subdirectories.
+   *
+   * @param conf configuration object
+   * @param roots the paths to list
+   * @param filter directories rejected by this filter are not listed
+   * @return the statuses of the files under each path, in the same order as the paths
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   */
+  public List<Set<FileStatus>> getFileStatuses(
+      Configuration conf,
+      List<Path> roots,
+      Optional<PathFilter> filter) throws IOException {
+    List<Set<FileStatus>> concurrentResults = new ArrayList<>();
+    List<Visitor> visitors = new ArrayList<>();
+    for (int i = 0; i < roots.size(); i++) {
+      Set<FileStatus> fileStatuses = Collections.newSetFromMap(new ConcurrentHashMap<>());
+      concurrentResults.add(fileStatuses);
+      visitors.add(fileStatuses::add);
+    }
+
+    list(conf, roots, visitors, filter);
+
+    List<Set<FileStatus>> results = new ArrayList<>();
+    for (Set<FileStatus> fileStatuses : concurrentResults) {
+      results.add(new HashSet<>(fileStatuses));
+    }
+    return results;
+  }
+
+  /**
+   * Get the total size of the files under the given path.
+   *
+   * @param conf configuration object
+   * @param root the path to get the size of
+   * @param filter directories rejected by this filter are not included
+   * @return the total size in bytes, including subdirectories
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   */
+  public long getSize(Configuration conf, Path root, Optional<PathFilter> filter)
+      throws IOException {
+    AtomicLong totalSize = new AtomicLong();
+    list(conf, root, filter, status -> {
+        totalSize.addAndGet(status.getLen());
+        return true;
+      });
+    return totalSize.get();
+  }
+
+  /**
+   * Check if the total size of the files under the given path exceeds a threshold. The listing is
+   * stopped as soon as the threshold is exceeded.
+   *
+   * @param conf configuration object
+   * @param root the path to check
+   * @param maxSize the size threshold in bytes
+   * @return whether the total size exceeds the threshold
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   */
+  public boolean exceedsSize(Configuration conf, Path root, long maxSize) throws IOException {
+    AtomicLong totalSize = new AtomicLong();
+    boolean completed = list(conf, root, Optional.empty(),
+        status -> totalSize.addAndGet(status.getLen()) <= maxSize);
+    return !completed;
+  }
+}
@@ -0,0 +1,265 @@
+package com.airbnb.reair.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The files and directories under a directory at the time that it was listed. A snapshot lets a
+ * copy list the source directory once and use the results for deciding whether and how to copy,
+ * for the copy itself, and for verifying the copy.
+ */
+public class DirectorySnapshot {
+
+  private static final Log LOG = LogFactory.getLog(DirectorySnapshot.class);
+
+  private final Path root;
+  private final FileStatus rootStatus;
+  // Map from the path relative to the root (e.g. a/b.txt) to the status of the file
+  private final SortedMap<String, FileStatus> files;
+  // Map from the path relative to the root to the status of the subdirectory
+  private final SortedMap<String, FileStatus> directories;
+  private final long totalSize;
+
+  private DirectorySnapshot(
+      Path root,
+      FileStatus rootStatus,
+      Collection<FileStatus> fileStatuses,
+      Collection<FileStatus> directoryStatuses) {
+    this.root = root;
+    this.rootStatus = rootStatus;
+
+    SortedMap<String, FileStatus> files = new TreeMap<>();
+    long totalSize = 0;
+    for (FileStatus status : fileStatuses) {
+      files.put(FsUtils.getRelativePath(root, status.getPath()), status);
+      totalSize += status.getLen();
+    }
+    SortedMap<String, FileStatus> directories = new TreeMap<>();
+    for (FileStatus status : directoryStatuses) {
+      directories.put(FsUtils.getRelativePath(root, status.getPath()), status);
+    }
+    this.files = Collections.unmodifiableSortedMap(files);
+    this.directories = Collections.unmodifiableSortedMap(directories);
+    this.totalSize = totalSize;
+  }
+
+  /**
+   * List the given directory.
+   *
+   * @param conf configuration object
+   * @param root the directory to list
+   * @param filter directories rejected by this filter are not listed
+   * @return a snapshot of the directory
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   */
+  public static DirectorySnapshot create(
+      Configuration conf,
+      Path root,
+      Optional<PathFilter> filter) throws IOException {
+    return create(conf, Collections.singletonList(root), filter).get(0);
+  }
+
+  /**
+   * List the given directories concurrently.
+   *
+   * @param conf configuration object
+   * @param roots the directories to list. These can be on different filesystems.
+   * @param filter directories rejected by this filter are not listed
+   * @return snapshots of the directories, in the same order as the paths
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   */
+  public static List<DirectorySnapshot> create(
+      Configuration conf,
+      List<Path> roots,
+      Optional<PathFilter> filter) throws IOException {
+    List<Map<Path, FileStatus>> fileStatuses = new ArrayList<>();
+    List<Map<Path, FileStatus>> directoryStatuses = new ArrayList<>();
+    List<DirectoryLister.Visitor> visitors = new ArrayList<>();
+    for (int i = 0; i < roots.size(); i++) {
+      Map<Path, FileStatus> rootFileStatuses = new ConcurrentHashMap<>();
+      Map<Path, FileStatus> rootDirectoryStatuses = new ConcurrentHashMap<>();
+      fileStatuses.add(rootFileStatuses);
+      directoryStatuses.add(rootDirectoryStatuses);
+      visitors.add(new DirectoryLister.Visitor() {
+        @Override
+        public boolean visit(FileStatus fileStatus) {
+          rootFileStatuses.put(fileStatus.getPath(), fileStatus);
+          return true;
+        }
+
+        @Override
+        public void visitDirectory(FileStatus directoryStatus) {
+          rootDirectoryStatuses.put(directoryStatus.getPath(), directoryStatus);
+        }
+      });
+    }
+
+    new DirectoryLister(conf).list(conf, roots, visitors, filter);
+
+    List<DirectorySnapshot> snapshots = new ArrayList<>();
+    for (int i = 0; i < roots.size(); i++) {
+      Path root = roots.get(i);
+      snapshots.add(new DirectorySnapshot(
+          root,
+          root.getFileSystem(conf).getFileStatus(root),
+          fileStatuses.get(i).values(),
+          directoryStatuses.get(i).values()));
+    }
+    return snapshots;
+  }
+
+  public Path getRoot() {
+    return root;
+  }
+
+  public FileStatus getRootStatus() {
+    return rootStatus;
+  }
+
+  /**
+   * Returns the files in the snapshot.
+   *
+   * @return a map from the path relative to the root (e.g. a/b.txt) to the status of the file
+   */
+  public SortedMap<String, FileStatus> getFiles() {
+    return files;
+  }
+
+  /**
+   * Returns the subdirectories in the snapshot.
+   *
+   * @return a map from the path relative to the root (e.g. a/b) to the status of the directory
+   */
+  public SortedMap<String, FileStatus> getDirectories() {
+    return directories;
+  }
+
+  public Collection<FileStatus> getFileStatuses() {
+    return files.values();
+  }
+
+  public int getFileCount() {
+    return files.size();
+  }
+
+  public long getTotalSize() {
+    return totalSize;
+  }
+
+  /**
+   * Returns the sizes of the files in the snapshot.
+   *
+   * @return a list with the size of each file, in the order of the relative paths
+   */
+  public List<Long> getFileSizes() {
+    List<Long> fileSizes = new ArrayList<>();
+    for (FileStatus status : files.values()) {
+      fileSizes.add(status.getLen());
+    }
+    return fileSizes;
+  }
+
+  /**
+   * Returns a snapshot with the same root and directories as this one, but without the given
+   * files.
+   *
+   * @param excludedFiles paths relative to the root of the files to exclude
+   * @return the snapshot without the files
+   */
+  public DirectorySnapshot withoutFiles(Collection<String> excludedFiles) {
+    Set<String> excludedFileSet = new HashSet<>(excludedFiles);
+    List<FileStatus> remainingFiles = new ArrayList<>();
+    for (Map.Entry<String, FileStatus> entry : files.entrySet()) {
+      if (!excludedFileSet.contains(entry.getKey())) {
+        remainingFiles.add(entry.getValue());
+      }
+    }
+    return new DirectorySnapshot(root, rootStatus, remainingFiles, directories.values());
+  }
+
+  /**
+   * Checks to see if the other snapshot has files with the same relative paths and sizes (and
+   * modification times, if applicable) as this one.
+   *
+   * @param other the snapshot to compare with
+   * @param compareModificationTimes whether to compare modification times
+   * @return true if the snapshots have the same files
+   */
+  public boolean sameFiles(DirectorySnapshot other, boolean compareModificationTimes) {
+    // Size check is sort of redundant, but is a quick one to show.
+    LOG.debug("Size of " + root + " is " + totalSize);
+    LOG.debug("Size of " + other.root + " is " + other.totalSize);
+
+    if (totalSize != other.totalSize) {
+      LOG.debug(String.format("Size of %s and %s do not match!", root, other.root));
+      return false;
+    }
+
+    if (files.size() != other.files.size()) {
+      LOG.warn(String.format("Number of files in %s (%d) and %s (%d) " + "do not match!", root,
+          files.size(), other.root, other.files.size()));
+      return false;
+    }
+
+    for (Map.Entry<String, FileStatus> entry : files.entrySet()) {
+      String file = entry.getKey();
+      FileStatus status = entry.getValue();
+      FileStatus otherStatus = other.files.get(file);
+      if (otherStatus == null) {
+        LOG.warn(String.format("%s missing from %s!", file, other.root));
+        return false;
+      }
+      if (status.getLen() != otherStatus.getLen()) {
+        LOG.warn(String.format("Size mismatch between %s (%d) in %s " + "and %s (%d) in %s", file,
+            status.getLen(), root, file, otherStatus.getLen(), other.root));
+        return false;
+      }
+      if (compareModificationTimes
+          && status.getModificationTime() != otherStatus.getModificationTime()) {
+        LOG.warn(String.format(
+            "Modification time mismatch between " + "%s (%d) in %s and %s (%d) in %s", file,
+            status.getModificationTime(), root, file, otherStatus.getModificationTime(),
+            other.root));
+        return false;
+      }
+    }
+
+    LOG.debug(String.format("%s and %s are the same", root, other.root));
+    return true;
+  }
+
+  /**
+   * Checks to see if this snapshot has files with relative paths that are not in the other one.
+   *
+   * @param other the snapshot to compare with
+   * @return true if there are any files in this snapshot that are not in the other snapshot
+   */
+  public boolean hasFilesNotIn(DirectorySnapshot other) {
+    for (String file : files.keySet()) {
+      if (!other.files.containsKey(file)) {
+        LOG.warn(String.format("%s exists on %s but not in %s", file, root, other.root));
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -4,6 +4,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FsShell;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.tools.DistCp;
@@ -13,8 +14,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 
 /**
  * This is a wrapper around DistCp that adds a few options and makes it easier to use.
@@ -56,8 +57,22 @@ public class DistCpWrapper {
     boolean atomic = options.getAtomic();
     boolean canDeleteDest = options.getCanDeleteDest();
 
-    if (destDirExists
-        && FsUtils.equalDirs(conf, srcDir, destDir, Optional.empty(), syncModificationTimes)) {
+    // The source is listed once, and the snapshot is used for the rest of the copy. If the
+    // destination exists, it's listed at the same time.
+    DirectorySnapshot srcSnapshot;
+    Optional<DirectorySnapshot> destSnapshot;
+    if (destDirExists) {
+      List<DirectorySnapshot> snapshots =
+          DirectorySnapshot.create(conf, Arrays.asList(srcDir, destDir), Optional.empty());
+      srcSnapshot = snapshots.get(0);
+      destSnapshot = Optional.of(snapshots.get(1));
+    } else {
+      srcSnapshot = DirectorySnapshot.create(conf, srcDir, Optional.empty());
+      destSnapshot = Optional.empty();
+    }
+
+    if (destSnapshot.isPresent() && srcSnapshot.sameFiles(destSnapshot.get(),
+        syncModificationTimes)) {
       LOG.debug("Source and destination paths are already equal!");
       return 0;
     }
@@ -70,8 +85,8 @@ public class DistCpWrapper {
     // that functionality is not yet built out. Instead, this deletes the
     // destination directory and does a fresh copy.
     if (!atomic) {
-      useDistcpUpdate = destDirExists
-          && !FsUtils.filesExistOnDestButNotSrc(conf, srcDir, destDir, Optional.empty());
+      useDistcpUpdate = destSnapshot.isPresent()
+          && !destSnapshot.get().hasFilesNotIn(srcSnapshot);
       if (useDistcpUpdate) {
         LOG.debug("Doing a distcp update from " + srcDir + " to " + destDir);
       }
@@ -99,23 +114,29 @@ public class DistCpWrapper {
 
     LOG.debug(String.format("Copying %s to %s", srcDir, distcpDestDir));
 
-
-    Set<FileStatus> fileStatuses =
-        FsUtils.getFileStatusesRecursive(conf, srcDir, Optional.empty());
-    List<Long> fileSizes = new ArrayList<>();
-
-    long srcSize = 0;
-    for (FileStatus status : fileStatuses) {
-      srcSize += status.getLen();
-      fileSizes.add(status.getLen());
+    // For an incremental copy, files that haven't changed are moved from the existing destination
+    // instead of being copied.
+    List<String> unchangedFiles = new ArrayList<>();
+    if (atomic && options.getIncrementalCopy() && destSnapshot.isPresent()
+        && FsUtils.sameFs(distCpTmpDir, destDir)) {
+      unchangedFiles = getUnchangedFiles(srcSnapshot, destSnapshot.get(), syncModificationTimes,
+          options.getIncrementalCopyCompareChecksums());
+      LOG.debug(String.format("%s of %s files in %s are unchanged in %s", unchangedFiles.size(),
+          srcSnapshot.getFileCount(), srcDir, destDir));
     }
+    DirectorySnapshot filesToCopy = srcSnapshot.withoutFiles(unchangedFiles);
+    boolean copyingAllFiles = unchangedFiles.isEmpty();
+
+    long srcSize = filesToCopy.getTotalSize();
+    int fileCount = filesToCopy.getFileCount();
     LOG.debug(String.format(
-        "%s has %s files with a total size of %s bytes",
-        srcDir, fileStatuses.size(), srcSize));
+        "%s has %s files to copy with a total size of %s bytes",
+        srcDir, fileCount, srcSize));
 
-    // Use shell to copy for small files
-    if (srcSize < options.getLocalCopySizeThreshold()
-        && fileStatuses.size() < options.getLocalCopyCountThreshold()) {
+    // Use shell to copy for small files. The shell can only copy the whole directory.
+    if (copyingAllFiles
+        && srcSize < options.getLocalCopySizeThreshold()
+        && fileCount < options.getLocalCopyCountThreshold()) {
       String[] mkdirArgs = {"-mkdir", "-p", distcpDestDir.getParent().toString()};
       String[] copyArgs = {"-cp", srcDir.toString(), distcpDestDir.toString()};
 
@@ -130,9 +151,34 @@ public class DistCpWrapper {
       } finally {
         shell.close();
       }
+    } else if (options.getParallelCopyThreads() > 0
+        && srcSize < options.getParallelCopySizeThreshold()
+        && fileCount < options.getParallelCopyCountThreshold()) {
+      // Copy mid-sized directories in this process to avoid the overhead of a DistCp job
+      LOG.debug(String.format("Copying with %s threads from %s to %s",
+          options.getParallelCopyThreads(), srcDir, distcpDestDir));
+      ParallelFileCopier copier = new ParallelFileCopier(
+          conf,
+          options.getParallelCopyThreads(),
+          ParallelFileCopier.DEFAULT_BUFFER_SIZE,
+          options.getParallelCopyVerifyChecksums());
+      FileSystem destFs = distcpDestDir.getFileSystem(conf);
+      destFs.mkdirs(distcpDestDir);
+      for (String directory : filesToCopy.getDirectories().keySet()) {
+        destFs.mkdirs(new Path(distcpDestDir, directory));
+      }
+      copier.copy(srcDir, filesToCopy.getFileStatuses(), distcpDestDir, useDistcpUpdate);
+      // Like DistCp's -p option, the attributes of the directories are preserved too. This is done
+      // after the files are copied in case the permissions don't allow writing to a directory.
+      for (Map.Entry<String, FileStatus> directory : filesToCopy.getDirectories().entrySet()) {
+        ParallelFileCopier.preserveAttributes(destFs, directory.getValue(),
+            new Path(distcpDestDir, directory.getKey()));
+      }
+      ParallelFileCopier.preserveAttributes(destFs,
+          srcDir.getFileSystem(conf).getFileStatus(srcDir), distcpDestDir);
 
-      if (syncModificationTimes) {
-        FsUtils.syncModificationTimes(conf, srcDir, distcpDestDir, Optional.empty());
+      if (Thread.currentThread().isInterrupted()) {
+        throw new DistCpException("Thread interrupted");
       }
     } else {
 
@@ -150,7 +196,7 @@ public class DistCpWrapper {
       List<String> distcpArgs = new ArrayList<>();
       distcpArgs.add("-m");
       long mappers = Math.max(1, srcSize / options.getBytesPerMapper());
-      mappers = Math.max(mappers, fileStatuses.size() / options.getFilesPerMapper());
+      mappers = Math.max(mappers, fileCount / options.getFilesPerMapper());
       distcpArgs.add(Long.toString(mappers));
       distcpArgs.add("-log");
       distcpArgs.add(distCpLogDir.toString());
@@ -167,14 +213,34 @@ public class DistCpWrapper {
       // For distcp v1, do something like
       // DistCp distCp = new DistCp(conf);
 
-      // For distcp v2
+      // For distcp v2. DistCp builds its copy listing from the snapshot instead of listing the
+      // source again.
+      Configuration distCpConf = new Configuration(conf);
+      String snapshotId = SnapshotCopyListing.register(distCpConf, filesToCopy);
       DistCp distCp = new DistCp();
-      distCp.setConf(conf);
+      distCp.setConf(distCpConf);
 
-      long distCpTimeout = options.getDistcpTimeout(fileSizes, mappers);
+      long distCpTimeout = options.getDistcpTimeout(filesToCopy.getFileSizes(), mappers);
 
-      int ret = runDistCp(distCp, distcpArgs, distCpTimeout,
-          options.getDistCpPollInterval());
+      int ret;
+      try {
+        if (options.getDistCpJobPermits().isPresent()) {
+          // The timeout starts once the job is allowed to run
+          options.getDistCpJobPermits().get().acquire();
+        }
+        try {
+          ret = runDistCp(distCp, distcpArgs, distCpTimeout, options.getDistCpPollInterval());
+        } finally {
+          if (options.getDistCpJobPermits().isPresent()) {
+            options.getDistCpJobPermits().get().release();
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DistCpException(e);
+      } finally {
+        SnapshotCopyListing.unregister(snapshotId);
+      }
 
       if (Thread.currentThread().isInterrupted()) {
         throw new DistCpException("Thread interrupted");
@@ -186,10 +252,12 @@ public class DistCpWrapper {
     }
 
     if (syncModificationTimes) {
-      FsUtils.syncModificationTimes(conf, srcDir, distcpDestDir, Optional.empty());
+      FsUtils.syncModificationTimes(conf, filesToCopy, distcpDestDir);
     }
 
-    if (!FsUtils.equalDirs(conf, srcDir, distcpDestDir, Optional.empty(), syncModificationTimes)) {
+    // Only the copy needs to be listed, since the source was listed before the copy
+    if (!FsUtils.equalDirs(conf, filesToCopy, distcpDestDir, Optional.empty(),
+        syncModificationTimes)) {
       LOG.error("Source and destination sizes don't match!");
       if (atomic) {
         LOG.debug("Since it's an atomic copy, deleting " + distcpDestDir);
@@ -200,6 +268,14 @@ public class DistCpWrapper {
       LOG.debug("Size of source and destinations match");
     }
 
+    if (!unchangedFiles.isEmpty()) {
+      // This is done after the copy is verified, so that the destination is only incomplete
+      // between the first move and the swap below.
+      LOG.debug(String.format("Moving %s unchanged files from %s to %s", unchangedFiles.size(),
+          destDir, distcpDestDir));
+      moveUnchangedFiles(destDir.getFileSystem(conf), unchangedFiles, destDir, distcpDestDir);
+    }
+
     if (atomic) {
       // Size is good, clear out the final destination directory and
       // replace with the copied version.
@@ -219,6 +295,77 @@ public class DistCpWrapper {
     return srcSize;
   }
 
+  /**
+   * Move the unchanged files from the destination directory into the directory with the copy. If
+   * a move fails, the files that were already moved are moved back, so that the destination
+   * directory isn't left missing files.
+   *
+   * @throws IOException if a file can't be moved
+   */
+  private static void moveUnchangedFiles(
+      FileSystem destFs,
+      List<String> unchangedFiles,
+      Path destDir,
+      Path distcpDestDir) throws IOException {
+    List<String> movedFiles = new ArrayList<>();
+    try {
+      for (String file : unchangedFiles) {
+        if (!destFs.rename(new Path(destDir, file), new Path(distcpDestDir, file))) {
+          throw new IOException(String.format("Unable to move %s from %s to %s", file, destDir,
+              distcpDestDir));
+        }
+        movedFiles.add(file);
+      }
+    } catch (IOException e) {
+      LOG.error(String.format("Moving %s files that were already moved back to %s",
+          movedFiles.size(), destDir));
+      for (String file : movedFiles) {
+        try {
+          if (!destFs.rename(new Path(distcpDestDir, file), new Path(destDir, file))) {
+            LOG.error(String.format("Unable to move %s back from %s to %s", file,
+                distcpDestDir, destDir));
+          }
+        } catch (IOException restoreException) {
+          LOG.error(String.format("Unable to move %s back from %s to %s", file, distcpDestDir,
+              destDir), restoreException);
+        }
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Get the files in the destination that are the same as in the source. Files are considered the
+   * same if they have the same size (and modification time or checksum, if applicable).
+   *
+   * @return the paths of the unchanged files, relative to the root
+   */
+  private List<String> getUnchangedFiles(
+      DirectorySnapshot srcSnapshot,
+      DirectorySnapshot destSnapshot,
+      boolean compareModificationTimes,
+      boolean compareChecksums) throws IOException {
+    List<String> unchangedFiles = new ArrayList<>();
+    for (Map.Entry<String, FileStatus> entry : srcSnapshot.getFiles().entrySet()) {
+      FileStatus srcStatus = entry.getValue();
+      FileStatus destStatus = destSnapshot.getFiles().get(entry.getKey());
+      if (destStatus == null || destStatus.getLen() != srcStatus.getLen()) {
+        continue;
+      }
+      if (compareModificationTimes
+          && destStatus.getModificationTime() != srcStatus.getModificationTime()) {
+        continue;
+      }
+      if (compareChecksums
+          && !FsUtils.checksumsMatch(conf, srcStatus.getPath(), destStatus.getPath())
+              .orElse(true)) {
+        continue;
+      }
+      unchangedFiles.add(entry.getKey());
+    }
+    return unchangedFiles;
+  }
+
   /**
    * Run distcp in a separate thread, but kill the thread if runtime exceeds timeout.
    *
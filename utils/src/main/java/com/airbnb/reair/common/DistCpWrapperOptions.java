@@ -6,7 +6,9 @@ import org.apache.hadoop.fs.Path;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.PriorityQueue;
+import java.util.concurrent.Semaphore;
 
 /**
  * A class to encapsulate various options required for running DistCp.
@@ -40,6 +42,24 @@ public class DistCpWrapperOptions {
   // this many files, use a local -cp command to copy the files.
   private long localCopyCountThreshold = (long) 100;
   private long localCopySizeThreshold = (long) 256e6;
+  // If the input data is too large for a local -cp command, but smaller than this many bytes and
+  // fewer than this many files, copy the files with a pool of threads in this process instead of
+  // running a DistCp job.
+  private long parallelCopySizeThreshold = (long) 5e9;
+  private long parallelCopyCountThreshold = 1000;
+  // Number of files to copy at once when copying in this process. If 0, use DistCp instead.
+  private int parallelCopyThreads = ParallelFileCopier.DEFAULT_THREADS;
+  // When copying in this process, whether to check the checksum of each copied file
+  private boolean parallelCopyVerifyChecksums = false;
+  // For atomic copies over an existing directory, copy only the files that are new or changed,
+  // and move the unchanged files from the existing directory into the tmp directory
+  private boolean incrementalCopy = false;
+  // When copying incrementally, whether to compare checksums to find changed files, in addition to
+  // sizes and modification times
+  private boolean incrementalCopyCompareChecksums = false;
+  // If set, a permit is held while a DistCp job runs, so that copies sharing the semaphore don't
+  // run more than a fixed number of DistCp jobs at once
+  private Optional<Semaphore> distCpJobPermits = Optional.empty();
   // Poll for the progress of DistCp every N ms
   private long distCpPollInterval = 2500;
   // Use a variable amount of time for distcp job timeout, depending on filesize
@@ -98,6 +118,48 @@ public class DistCpWrapperOptions {
     return this;
   }
 
+  public DistCpWrapperOptions setLocalCopyCountThreshold(long localCopyCountThreshold) {
+    this.localCopyCountThreshold = localCopyCountThreshold;
+    return this;
+  }
+
+  public DistCpWrapperOptions setParallelCopySizeThreshold(long parallelCopySizeThreshold) {
+    this.parallelCopySizeThreshold = parallelCopySizeThreshold;
+    return this;
+  }
+
+  public DistCpWrapperOptions setParallelCopyCountThreshold(long parallelCopyCountThreshold) {
+    this.parallelCopyCountThreshold = parallelCopyCountThreshold;
+    return this;
+  }
+
+  public DistCpWrapperOptions setParallelCopyThreads(int parallelCopyThreads) {
+    this.parallelCopyThreads = parallelCopyThreads;
+    return this;
+  }
+
+  public DistCpWrapperOptions setParallelCopyVerifyChecksums(
+      boolean parallelCopyVerifyChecksums) {
+    this.parallelCopyVerifyChecksums = parallelCopyVerifyChecksums;
+    return this;
+  }
+
+  public DistCpWrapperOptions setIncrementalCopy(boolean incrementalCopy) {
+    this.incrementalCopy = incrementalCopy;
+    return this;
+  }
+
+  public DistCpWrapperOptions setIncrementalCopyCompareChecksums(
+      boolean incrementalCopyCompareChecksums) {
+    this.incrementalCopyCompareChecksums = incrementalCopyCompareChecksums;
+    return this;
+  }
+
+  public DistCpWrapperOptions setDistCpJobPermits(Semaphore distCpJobPermits) {
+    this.distCpJobPermits = Optional.of(distCpJobPermits);
+    return this;
+  }
+
   public DistCpWrapperOptions setDistcpDynamicJobTimeoutEnabled(
       boolean distcpDynamicJobTimeoutEnabled) {
     this.distcpDynamicJobTimeoutEnabled = distcpDynamicJobTimeoutEnabled;
@@ -166,6 +228,34 @@ public class DistCpWrapperOptions {
     return localCopyCountThreshold;
   }
 
+  public long getParallelCopySizeThreshold() {
+    return parallelCopySizeThreshold;
+  }
+
+  public long getParallelCopyCountThreshold() {
+    return parallelCopyCountThreshold;
+  }
+
+  public int getParallelCopyThreads() {
+    return parallelCopyThreads;
+  }
+
+  public boolean getParallelCopyVerifyChecksums() {
+    return parallelCopyVerifyChecksums;
+  }
+
+  public boolean getIncrementalCopy() {
+    return incrementalCopy;
+  }
+
+  public boolean getIncrementalCopyCompareChecksums() {
+    return incrementalCopyCompareChecksums;
+  }
+
+  public Optional<Semaphore> getDistCpJobPermits() {
+    return distCpJobPermits;
+  }
+
   public long getDistCpPollInterval() {
     return distCpPollInterval;
   }
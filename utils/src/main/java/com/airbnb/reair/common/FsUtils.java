@@ -14,12 +14,11 @@ import org.apache.hadoop.fs.Trash;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Queue;
 import java.util.Set;
 
 /**
@@ -46,36 +45,12 @@ public class FsUtils {
    */
   public static long getSize(Configuration conf, Path path, Optional<PathFilter> filter)
       throws IOException {
-    long totalSize = 0;
-
-    FileSystem fs = FileSystem.get(path.toUri(), conf);
-
-    Queue<Path> pathsToCheck = new LinkedList<>();
-    pathsToCheck.add(path);
-
-    // Traverse the directory tree and find all the paths
-    // Use this instead of listFiles() as there seems to be more errors
-    // related to block locations when using with s3n
-    while (pathsToCheck.size() > 0) {
-      Path pathToCheck = pathsToCheck.remove();
-      if (filter.isPresent() && !filter.get().accept(pathToCheck)) {
-        LOG.warn("Skipping check of directory: " + pathToCheck);
-        continue;
-      }
-      FileStatus[] statuses = fs.listStatus(pathToCheck);
-      for (FileStatus status : statuses) {
-        if (status.isDirectory()) {
-          pathsToCheck.add(status.getPath());
-        } else {
-          totalSize += status.getLen();
-        }
-      }
-    }
-    return totalSize;
+    return new DirectoryLister(conf).getSize(conf, path, filter);
   }
 
   /**
-   * Check if a directory exceeds the specified size.
+   * Check if a directory exceeds the specified size. The directory is not listed further once the
+   * size is known to be exceeded.
    *
    * @param conf configuration object
    * @param path the path to check the size of
@@ -86,30 +61,7 @@ public class FsUtils {
    */
   public static boolean exceedsSize(Configuration conf, Path path, long maxSize)
       throws IOException {
-    long totalSize = 0;
-    FileSystem fs = FileSystem.get(path.toUri(), conf);
-
-    Queue<Path> pathsToCheck = new LinkedList<>();
-    pathsToCheck.add(path);
-
-    // Traverse the directory tree and find all the paths
-    // Use this instead of listFiles() as there seems to be more errors
-    // related to block locations when using with s3n
-    while (pathsToCheck.size() > 0) {
-      Path pathToCheck = pathsToCheck.remove();
-      FileStatus[] statuses = fs.listStatus(pathToCheck);
-      for (FileStatus status : statuses) {
-        if (status.isDirectory()) {
-          pathsToCheck.add(status.getPath());
-        } else {
-          totalSize += status.getLen();
-          if (totalSize > maxSize) {
-            return true;
-          }
-        }
-      }
-    }
-    return false;
+    return new DirectoryLister(conf).exceedsSize(conf, path, maxSize);
   }
 
   /**
@@ -125,66 +77,9 @@ public class FsUtils {
       Configuration conf,
       Path path,
       Optional<PathFilter> filter) throws IOException {
-    FileSystem fs = FileSystem.get(path.toUri(), conf);
-    Set<FileStatus> fileStatuses = new HashSet<>();
-
-    Queue<Path> pathsToCheck = new LinkedList<>();
-    pathsToCheck.add(path);
-
-    // Traverse the directory tree and find all the paths
-    // Use this instead of listFiles() as there seems to be more errors
-    // related to block locations when using with s3n
-    while (pathsToCheck.size() > 0) {
-      Path pathToCheck = pathsToCheck.remove();
-      if (filter.isPresent() && !filter.get().accept(pathToCheck)) {
-        LOG.warn("Skipping check of directory: " + pathToCheck);
-        continue;
-      }
-      FileStatus[] statuses = fs.listStatus(pathToCheck);
-      for (FileStatus status : statuses) {
-        if (status.isDirectory()) {
-          pathsToCheck.add(status.getPath());
-        } else {
-          fileStatuses.add(status);
-        }
-      }
-    }
-    return fileStatuses;
-  }
-
-  /**
-   * Get the sizes of the files under the specified path.
-   *
-   * @param root the path to check
-   * @param statuses a set of statuses for all the files in the root directory
-   * @return a map from the path to a file relative to the root (e.g. a/b.txt) to the associated
-   *         file size
-   */
-  private static Map<String, Long> getRelPathToSizes(Path root, Set<FileStatus> statuses)
-      throws ArgumentException {
-    Map<String, Long> pathToStatus = new HashMap<>();
-    for (FileStatus status : statuses) {
-      pathToStatus.put(getRelativePath(root, status.getPath()), status.getLen());
-    }
-    return pathToStatus;
-  }
-
-  /**
-   * Get the modified times of the files under the specified path.
-   *
-   * @param root the path to check
-   * @param statuses a set of statuses for all the files in the root directory
-   * @return a map from the path to a file relative to the root (e.g. a/b.txt) to the associated
-   *         modification time
-   */
-  private static Map<String, Long> getRelativePathToModificationTime(Path root,
-                                                                     Set<FileStatus> statuses)
-      throws ArgumentException {
-    Map<String, Long> pathToStatus = new HashMap<>();
-    for (FileStatus status : statuses) {
-      pathToStatus.put(getRelativePath(root, status.getPath()), status.getModificationTime());
-    }
-    return pathToStatus;
+    return new DirectoryLister(conf)
+        .getFileStatuses(conf, Collections.singletonList(path), filter)
+        .get(0);
   }
 
   /**
@@ -217,20 +112,6 @@ public class FsUtils {
     return child.toString().substring(prefix.length());
   }
 
-  /**
-   * Get the total size of the paths.
-   *
-   * @param relPathToSize a map from the relative path to a file to the file size
-   * @return the total size of the files described in the map
-   */
-  private static long totalSize(Map<String, Long> relPathToSize) {
-    long total = 0;
-    for (Long l : relPathToSize.values()) {
-      total += l;
-    }
-    return total;
-  }
-
   /**
    * Checks to see if filenames exist on a destination directory that don't exist in the source
    * directory. Mainly used for checking if a distcp -update can work.
@@ -245,26 +126,10 @@ public class FsUtils {
    */
   public static boolean filesExistOnDestButNotSrc(Configuration conf, Path src, Path dest,
       Optional<PathFilter> filter) throws IOException {
-    Set<FileStatus> srcFileStatuses = getFileStatusesRecursive(conf, src, filter);
-    Set<FileStatus> destFileStatuses = getFileStatusesRecursive(conf, dest, filter);
-
-    Map<String, Long> srcFileSizes = null;
-    Map<String, Long> destFileSizes = null;
-
-    try {
-      srcFileSizes = getRelPathToSizes(src, srcFileStatuses);
-      destFileSizes = getRelPathToSizes(dest, destFileStatuses);
-    } catch (ArgumentException e) {
-      throw new IOException("Invalid file statuses!", e);
-    }
-
-    for (String file : destFileSizes.keySet()) {
-      if (!srcFileSizes.containsKey(file)) {
-        LOG.warn(String.format("%s exists on %s but not in %s", file, dest, src));
-        return true;
-      }
-    }
-    return false;
+    // List the source and the destination concurrently
+    List<DirectorySnapshot> snapshots =
+        DirectorySnapshot.create(conf, Arrays.asList(src, dest), filter);
+    return snapshots.get(1).hasFilesNotIn(snapshots.get(0));
   }
 
   public static boolean equalDirs(Configuration conf, Path src, Path dest) throws IOException {
@@ -311,73 +176,31 @@ public class FsUtils {
       return false;
     }
 
-    Set<FileStatus> srcFileStatuses = getFileStatusesRecursive(conf, src, filter);
-    Set<FileStatus> destFileStatuses = getFileStatusesRecursive(conf, dest, filter);
-
-    Map<String, Long> srcFileSizes = null;
-    Map<String, Long> destFileSizes = null;
-
-    try {
-      srcFileSizes = getRelPathToSizes(src, srcFileStatuses);
-      destFileSizes = getRelPathToSizes(dest, destFileStatuses);
-    } catch (ArgumentException e) {
-      throw new IOException("Invalid file statuses!", e);
-    }
-
-    long srcSize = totalSize(srcFileSizes);
-    long destSize = totalSize(destFileSizes);
-
-    // Size check is sort of redundant, but is a quick one to show.
-    LOG.debug("Size of " + src + " is " + srcSize);
-    LOG.debug("Size of " + dest + " is " + destSize);
-
-    if (srcSize != destSize) {
-      LOG.debug(String.format("Size of %s and %s do not match!", src, dest));
-      return false;
-    }
+    // List the source and the destination concurrently
+    List<DirectorySnapshot> snapshots =
+        DirectorySnapshot.create(conf, Arrays.asList(src, dest), filter);
+    return snapshots.get(0).sameFiles(snapshots.get(1), compareModificationTimes);
+  }
 
-    if (srcFileSizes.size() != destFileSizes.size()) {
-      LOG.warn(String.format("Number of files in %s (%d) and %s (%d) " + "do not match!", src,
-          srcFileSizes.size(), dest, destFileSizes.size()));
+  /**
+   * Checks to see if a directory has the same files as a previously listed directory. Only the
+   * destination directory is listed.
+   *
+   * @param conf configuration object
+   * @param src snapshot of the source directory
+   * @param dest destination directory
+   * @param filter filter for excluding some files from comparison
+   * @param compareModificationTimes whether to compare modification times.
+   * @return true if the destination has the same files as the snapshot
+   *
+   * @throws IOException if there is an error accessing the filesystem
+   */
+  public static boolean equalDirs(Configuration conf, DirectorySnapshot src, Path dest,
+      Optional<PathFilter> filter, boolean compareModificationTimes) throws IOException {
+    if (!dest.getFileSystem(conf).exists(dest)) {
       return false;
     }
-
-    for (String file : srcFileSizes.keySet()) {
-      if (!destFileSizes.containsKey(file)) {
-        LOG.warn(String.format("%s missing from %s!", file, dest));
-        return false;
-      }
-      if (!srcFileSizes.get(file).equals(destFileSizes.get(file))) {
-        LOG.warn(String.format("Size mismatch between %s (%d) in %s " + "and %s (%d) in %s", file,
-            srcFileSizes.get(file), src, file, destFileSizes.get(file), dest));
-        return false;
-      }
-    }
-
-    if (compareModificationTimes) {
-      Map<String, Long> srcFileModificationTimes = null;
-      Map<String, Long> destFileModificationTimes = null;
-
-      try {
-        srcFileModificationTimes = getRelativePathToModificationTime(src, srcFileStatuses);
-        destFileModificationTimes = getRelativePathToModificationTime(dest, destFileStatuses);
-      } catch (ArgumentException e) {
-        throw new IOException("Invalid file statuses!", e);
-      }
-
-      for (String file : srcFileModificationTimes.keySet()) {
-        if (!srcFileModificationTimes.get(file).equals(destFileModificationTimes.get(file))) {
-          LOG.warn(String.format(
-              "Modification time mismatch between " + "%s (%d) in %s and %s (%d) in %s", file,
-              srcFileModificationTimes.get(file), src, file, destFileModificationTimes.get(file),
-              dest));
-          return false;
-        }
-      }
-    }
-
-    LOG.debug(String.format("%s and %s are the same", src, dest));
-    return true;
+    return src.sameFiles(DirectorySnapshot.create(conf, dest, filter), compareModificationTimes);
   }
 
   /**
@@ -393,20 +216,25 @@ public class FsUtils {
    */
   public static void syncModificationTimes(Configuration conf, Path src, Path dest,
       Optional<PathFilter> filter) throws IOException {
-    Set<FileStatus> srcFileStatuses = getFileStatusesRecursive(conf, src, filter);
-
-    Map<String, Long> srcFileModificationTimes = null;
-
-    try {
-      srcFileModificationTimes = getRelativePathToModificationTime(src, srcFileStatuses);
-    } catch (ArgumentException e) {
-      throw new IOException("Invalid file statuses!", e);
-    }
+    syncModificationTimes(conf, DirectorySnapshot.create(conf, src, filter), dest);
+  }
 
+  /**
+   * Set the file modification times for the files on the destination to be the same as the
+   * modification times for the files in a previously listed directory.
+   *
+   * @param conf configuration object
+   * @param src snapshot of the source directory
+   * @param dest destination directory
+   *
+   * @throws IOException if there's an error
+   */
+  public static void syncModificationTimes(Configuration conf, DirectorySnapshot src, Path dest)
+      throws IOException {
     FileSystem destFs = dest.getFileSystem(conf);
 
-    for (String file : srcFileModificationTimes.keySet()) {
-      destFs.setTimes(new Path(dest, file), srcFileModificationTimes.get(file), -1);
+    for (Map.Entry<String, FileStatus> entry : src.getFiles().entrySet()) {
+      destFs.setTimes(new Path(dest, entry.getKey()), entry.getValue().getModificationTime(), -1);
     }
   }
 
@@ -25,6 +25,24 @@ public interface HiveMetastoreClient {
   void alterPartition(String dbName, String tableName, Partition partition)
       throws HiveMetastoreException;
 
+  /**
+   * Fetch multiple partitions of a table with a single call. Partitions that don't exist are
+   * omitted from the result, and the result is not necessarily in the same order as the names.
+   */
+  List<Partition> getPartitionsByNames(String dbName, String tableName,
+      List<String> partitionNames) throws HiveMetastoreException;
+
+  /**
+   * Add multiple partitions of the same table with a single call.
+   */
+  void addPartitions(List<Partition> partitions) throws HiveMetastoreException;
+
+  /**
+   * Alter multiple partitions of a table with a single call.
+   */
+  void alterPartitions(String dbName, String tableName, List<Partition> partitions)
+      throws HiveMetastoreException;
+
   void alterTable(
       String dbName,
       String tableName,
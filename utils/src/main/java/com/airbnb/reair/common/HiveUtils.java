@@ -1,6 +1,9 @@
 package com.airbnb.reair.common;
 
+import org.apache.hadoop.hive.common.FileUtils;
 import org.apache.hadoop.hive.metastore.TableType;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.metastore.api.Partition;
 import org.apache.hadoop.hive.metastore.api.Table;
 
 import java.util.ArrayList;
@@ -56,4 +59,20 @@ public class HiveUtils {
     }
     return values;
   }
+
+  /**
+   * Get the name of a partition (e.g. 'ds=1/hr=2') from the partition keys of the table and the
+   * values of the partition, escaping special characters in the same way as the metastore.
+   *
+   * @param table the table that the partition belongs to
+   * @param partition the partition to get the name for
+   * @return the name of the partition
+   */
+  public static String getPartitionName(Table table, Partition partition) {
+    List<String> partitionKeys = new ArrayList<>();
+    for (FieldSchema field : table.getPartitionKeys()) {
+      partitionKeys.add(field.getName());
+    }
+    return FileUtils.makePartName(partitionKeys, partition.getValues());
+  }
 }
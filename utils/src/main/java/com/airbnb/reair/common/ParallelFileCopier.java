@@ -0,0 +1,261 @@
+package com.airbnb.reair.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Copies files between filesystems from within the current process, using a pool of threads that
+ * each copy one file at a time. This avoids the overhead of submitting a DistCp job for copies that
+ * are too large to copy with a single thread, but small enough to copy from a single host.
+ *
+ * <p>Like DistCp with -prugpb, the replication, owner, group, permissions, and block size of the
+ * source files are preserved.
+ */
+public class ParallelFileCopier {
+
+  private static final Log LOG = LogFactory.getLog(ParallelFileCopier.class);
+
+  public static final int DEFAULT_THREADS = 8;
+  public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  // Pools are shared between copiers with the same number of threads, so the number of files
+  // copied at once is bounded even if there are multiple copies in progress. The threads in the
+  // pools are daemon threads.
+  private static final Map<Integer, ExecutorService> pools = new ConcurrentHashMap<>();
+
+  // The copy buffer for each pool thread, reused for all the files that the thread copies
+  private static final ThreadLocal<byte[]> buffers = new ThreadLocal<>();
+
+  private final Configuration conf;
+  private final int threads;
+  private final int bufferSize;
+  private final boolean verifyChecksums;
+
+  /**
+   * Constructor for the copier.
+   *
+   * @param conf configuration object
+   * @param threads the maximum number of files to copy concurrently
+   * @param bufferSize the number of bytes to read and write at a time
+   * @param verifyChecksums whether to check that the checksum of each copied file matches the
+   *                        source file
+   */
+  public ParallelFileCopier(
+      Configuration conf,
+      int threads,
+      int bufferSize,
+      boolean verifyChecksums) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Invalid number of threads: " + threads);
+    }
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+    }
+    this.conf = conf;
+    this.threads = threads;
+    this.bufferSize = bufferSize;
+    this.verifyChecksums = verifyChecksums;
+  }
+
+  private static ExecutorService getPool(int threads) {
+    return pools.computeIfAbsent(threads, n -> {
+        AtomicInteger threadCount = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(n, runnable -> {
+            Thread thread = new Thread(runnable,
+                "ParallelFileCopier-" + n + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+      });
+  }
+
+  private byte[] getBuffer() {
+    byte[] buffer = buffers.get();
+    if (buffer == null || buffer.length != bufferSize) {
+      buffer = new byte[bufferSize];
+      buffers.set(buffer);
+    }
+    return buffer;
+  }
+
+  /**
+   * Copies files from the source directory to the same relative paths under the destination
+   * directory. Existing files in the destination are overwritten.
+   *
+   * @param srcDir the source directory
+   * @param srcFiles the files under the source directory to copy
+   * @param destDir the destination directory
+   * @param skipMatchingFiles if set, files that exist in the destination with the same size as the
+   *                          source are not copied, like DistCp's -update option. The attributes of
+   *                          the skipped files are still updated.
+   * @return the number of bytes copied
+   *
+   * @throws IOException if there's an error copying any of the files
+   */
+  public long copy(
+      Path srcDir,
+      Collection<FileStatus> srcFiles,
+      Path destDir,
+      boolean skipMatchingFiles) throws IOException {
+    FileSystem srcFs = srcDir.getFileSystem(conf);
+    FileSystem destFs = destDir.getFileSystem(conf);
+    destFs.mkdirs(destDir);
+
+    ExecutorService pool = getPool(threads);
+    List<Future<Long>> futures = new ArrayList<>();
+    for (FileStatus srcFile : srcFiles) {
+      Path destFile = new Path(destDir, FsUtils.getRelativePath(srcDir, srcFile.getPath()));
+      futures.add(pool.submit(
+          () -> copyFile(srcFs, srcFile, destFs, destFile, skipMatchingFiles)));
+    }
+
+    long bytesCopied = 0;
+    try {
+      for (Future<Long> future : futures) {
+        bytesCopied += future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while copying to " + destDir, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Error copying to " + destDir, e.getCause());
+    } finally {
+      // If there was an error, don't copy the remaining files
+      for (Future<Long> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return bytesCopied;
+  }
+
+  private long copyFile(
+      FileSystem srcFs,
+      FileStatus srcFile,
+      FileSystem destFs,
+      Path destFile,
+      boolean skipMatchingFiles) throws IOException {
+    if (skipMatchingFiles) {
+      try {
+        if (destFs.getFileStatus(destFile).getLen() == srcFile.getLen()) {
+          LOG.debug("Skipping copy of " + srcFile.getPath() + " since the sizes match");
+          preserveAttributes(destFs, srcFile, destFile);
+          return 0;
+        }
+      } catch (FileNotFoundException e) {
+        // Copy the file
+      }
+    }
+
+    LOG.debug(String.format("Copying %s to %s", srcFile.getPath(), destFile));
+    byte[] buffer = getBuffer();
+    CRC32 crc = new CRC32();
+    long bytesCopied = 0;
+    try (FSDataInputStream in = srcFs.open(srcFile.getPath(), bufferSize);
+        FSDataOutputStream out = destFs.create(destFile, true, bufferSize,
+            srcFile.getReplication(), srcFile.getBlockSize())) {
+      int bytesRead;
+      while ((bytesRead = in.read(buffer)) >= 0) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new IOException("Interrupted while copying " + srcFile.getPath());
+        }
+        out.write(buffer, 0, bytesRead);
+        crc.update(buffer, 0, bytesRead);
+        bytesCopied += bytesRead;
+      }
+    }
+
+    if (bytesCopied != srcFile.getLen()) {
+      throw new IOException(String.format("Copied %d bytes from %s, but expected %d bytes",
+          bytesCopied, srcFile.getPath(), srcFile.getLen()));
+    }
+    if (verifyChecksums) {
+      verifyChecksum(srcFile.getPath(), destFs, destFile, crc.getValue());
+    }
+    preserveAttributes(destFs, srcFile, destFile);
+    return bytesCopied;
+  }
+
+  /**
+   * Sets the owner, group, and permissions of the destination to match the source, and the
+   * replication for files. Attributes that already match are not set, so that copying as a user
+   * that can't change the owner works when the owner doesn't need to change.
+   *
+   * @param destFs the filesystem of the destination
+   * @param srcStatus the status of the source file or directory
+   * @param destPath the destination file or directory
+   *
+   * @throws IOException if there's an error setting the attributes
+   */
+  public static void preserveAttributes(
+      FileSystem destFs,
+      FileStatus srcStatus,
+      Path destPath) throws IOException {
+    FileStatus destStatus = destFs.getFileStatus(destPath);
+    if (!srcStatus.getOwner().equals(destStatus.getOwner())
+        || !srcStatus.getGroup().equals(destStatus.getGroup())) {
+      destFs.setOwner(destPath, srcStatus.getOwner(), srcStatus.getGroup());
+    }
+    if (!srcStatus.getPermission().equals(destStatus.getPermission())) {
+      destFs.setPermission(destPath, srcStatus.getPermission());
+    }
+    if (srcStatus.isFile() && srcStatus.getReplication() != destStatus.getReplication()) {
+      destFs.setReplication(destPath, srcStatus.getReplication());
+    }
+  }
+
+  /**
+   * Checks the copied file using the filesystem checksums. If the filesystems don't support
+   * checksums, the copied file is read back and compared to the checksum of the data that was
+   * written.
+   */
+  private void verifyChecksum(
+      Path srcFile,
+      FileSystem destFs,
+      Path destFile,
+      long expectedCrc) throws IOException {
+    Optional<Boolean> checksumsMatch = FsUtils.checksumsMatch(conf, srcFile, destFile);
+    if (checksumsMatch.isPresent()) {
+      if (!checksumsMatch.get()) {
+        throw new IOException("Checksums don't match for " + srcFile + " and " + destFile);
+      }
+      return;
+    }
+
+    byte[] buffer = getBuffer();
+    CRC32 crc = new CRC32();
+    try (InputStream in = destFs.open(destFile, bufferSize)) {
+      int bytesRead;
+      while ((bytesRead = in.read(buffer)) >= 0) {
+        crc.update(buffer, 0, bytesRead);
+      }
+    }
+    if (crc.getValue() != expectedCrc) {
+      throw new IOException("Data read from " + destFile + " doesn't match " + srcFile);
+    }
+  }
+}
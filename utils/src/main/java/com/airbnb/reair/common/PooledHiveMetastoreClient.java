@@ -0,0 +1,571 @@
+package com.airbnb.reair.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.metastore.api.MetaException;
+import org.apache.hadoop.hive.metastore.api.NoSuchObjectException;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.hadoop.hive.metastore.api.ThriftHiveMetastore;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransportException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A HiveMetastoreClient that can be shared between threads. Calls are made on connections
+ * borrowed from a bounded pool, so the number of sockets to the metastore stays fixed no matter
+ * how many threads use the client. Connections are opened lazily, validated when borrowed if they
+ * have been idle for a while, and closed if they have been idle for too long. The time spent in
+ * each type of call is tracked and can be retrieved with {@link #getCallStats()}.
+ */
+public class PooledHiveMetastoreClient implements HiveMetastoreClient {
+
+  private static final Log LOG = LogFactory.getLog(PooledHiveMetastoreClient.class);
+
+  public static final long DEFAULT_MAX_IDLE_TIME_MS = 5 * 60 * 1000;
+  public static final long DEFAULT_VALIDATION_IDLE_TIME_MS = 10 * 1000;
+  public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10 * 1000;
+  public static final int DEFAULT_SOCKET_TIMEOUT_MS = 600 * 1000;
+  public static final long DEFAULT_BORROW_TIMEOUT_MS = 10 * 60 * 1000;
+
+  private final String host;
+  private final int port;
+  private final int maxConnections;
+  private final long maxIdleTimeMs;
+  private final long validationIdleTimeMs;
+  private final int connectTimeoutMs;
+  private final int socketTimeoutMs;
+  private final long borrowTimeoutMs;
+
+  // Limits the number of connections that are in use or idle
+  private final Semaphore connectionPermits;
+  // Most recently used connections are at the head. Guarded by this.
+  private final Deque<PooledConnection> idleConnections = new ArrayDeque<>();
+  // Incremented by close(), so that connections opened before then aren't reused. Guarded by this.
+  private long generation = 0;
+
+  private final Map<String, CallStats> callStats = new ConcurrentHashMap<>();
+
+  private static class PooledConnection {
+    private final TSocket transport;
+    private final ThriftHiveMetastore.Client client;
+    private final long generation;
+    private long lastUsedTime;
+
+    private PooledConnection(TSocket transport, long generation) {
+      this.transport = transport;
+      this.generation = generation;
+      this.client = new ThriftHiveMetastore.Client(new TBinaryProtocol(transport));
+      this.lastUsedTime = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * A call to the metastore that is made with a pooled connection.
+   *
+   * @param <T> the type of the value returned by the call
+   */
+  private interface MetastoreCall<T> {
+    T call(ThriftHiveMetastore.Client client) throws TException;
+  }
+
+  /**
+   * Latency statistics for one type of call.
+   */
+  public static class CallStats {
+    private long count = 0;
+    private long failureCount = 0;
+    private long totalTimeNs = 0;
+    private long maxTimeNs = 0;
+
+    private synchronized void record(long timeNs, boolean failed) {
+      count++;
+      if (failed) {
+        failureCount++;
+      }
+      totalTimeNs += timeNs;
+      maxTimeNs = Math.max(maxTimeNs, timeNs);
+    }
+
+    public synchronized long getCount() {
+      return count;
+    }
+
+    public synchronized long getFailureCount() {
+      return failureCount;
+    }
+
+    public synchronized long getTotalTimeMs() {
+      return TimeUnit.NANOSECONDS.toMillis(totalTimeNs);
+    }
+
+    public synchronized long getMaxTimeMs() {
+      return TimeUnit.NANOSECONDS.toMillis(maxTimeNs);
+    }
+
+    public synchronized double getAverageTimeMs() {
+      return count == 0 ? 0 : totalTimeNs / 1e6 / count;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return String.format("<count: %d failures: %d avg: %.1f ms max: %d ms>",
+          count, failureCount, getAverageTimeMs(), getMaxTimeMs());
+    }
+  }
+
+  /**
+   * Constructor for a pool with default timeouts.
+   *
+   * @param host the host running the metastore Thrift server
+   * @param port the port of the metastore Thrift server
+   * @param maxConnections the maximum number of connections to have open at once
+   */
+  public PooledHiveMetastoreClient(String host, int port, int maxConnections) {
+    this(host, port, maxConnections, DEFAULT_MAX_IDLE_TIME_MS, DEFAULT_VALIDATION_IDLE_TIME_MS,
+        DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_SOCKET_TIMEOUT_MS, DEFAULT_BORROW_TIMEOUT_MS);
+  }
+
+  /**
+   * Constructor for a pool with the specified limits.
+   *
+   * @param host the host running the metastore Thrift server
+   * @param port the port of the metastore Thrift server
+   * @param maxConnections the maximum number of connections to have open at once
+   * @param maxIdleTimeMs close connections that haven't been used for this long
+   * @param validationIdleTimeMs when borrowing a connection that hasn't been used for this long,
+   *                             check that it still works before using it
+   * @param connectTimeoutMs timeout for opening a new connection
+   * @param socketTimeoutMs timeout for reading the response of a call
+   * @param borrowTimeoutMs when all connections are in use, wait this long for one to be returned
+   */
+  public PooledHiveMetastoreClient(
+      String host,
+      int port,
+      int maxConnections,
+      long maxIdleTimeMs,
+      long validationIdleTimeMs,
+      int connectTimeoutMs,
+      int socketTimeoutMs,
+      long borrowTimeoutMs) {
+    if (maxConnections <= 0) {
+      throw new IllegalArgumentException("Invalid maximum number of connections: "
+          + maxConnections);
+    }
+    this.host = host;
+    this.port = port;
+    this.maxConnections = maxConnections;
+    this.maxIdleTimeMs = maxIdleTimeMs;
+    this.validationIdleTimeMs = validationIdleTimeMs;
+    this.connectTimeoutMs = connectTimeoutMs;
+    this.socketTimeoutMs = socketTimeoutMs;
+    this.borrowTimeoutMs = borrowTimeoutMs;
+    this.connectionPermits = new Semaphore(maxConnections, true);
+  }
+
+  private PooledConnection connect() throws HiveMetastoreException {
+    long connectionGeneration;
+    synchronized (this) {
+      connectionGeneration = generation;
+    }
+    LOG.info("Connecting to ThriftHiveMetastore " + host + ":" + port);
+    TSocket transport = new TSocket(host, port, connectTimeoutMs);
+    try {
+      transport.open();
+    } catch (TTransportException e) {
+      transport.close();
+      throw new HiveMetastoreException(e);
+    }
+    // The timeout passed to the constructor is used for connecting, so switch to the timeout for
+    // calls once the connection has been established.
+    transport.setTimeout(socketTimeoutMs);
+    return new PooledConnection(transport, connectionGeneration);
+  }
+
+  private boolean isValid(PooledConnection connection) {
+    if (!connection.transport.isOpen()) {
+      return false;
+    }
+    try {
+      connection.client.getStatus();
+      return true;
+    } catch (TException e) {
+      LOG.warn("Discarding connection to " + host + ":" + port + " that failed validation", e);
+      return false;
+    }
+  }
+
+  /**
+   * Close idle connections that haven't been used in a while. Should be called while holding the
+   * monitor for this object.
+   */
+  private void evictIdleConnections(long now) {
+    // The least recently used connections are at the tail
+    Iterator<PooledConnection> iterator = idleConnections.descendingIterator();
+    while (iterator.hasNext()) {
+      PooledConnection connection = iterator.next();
+      if (now - connection.lastUsedTime < maxIdleTimeMs) {
+        break;
+      }
+      LOG.debug("Closing idle connection to " + host + ":" + port);
+      connection.transport.close();
+      iterator.remove();
+    }
+  }
+
+  private PooledConnection borrowConnection() throws HiveMetastoreException {
+    try {
+      if (!connectionPermits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+        throw new HiveMetastoreException(String.format(
+            "Timed out after %d ms waiting for one of %d connections to %s:%d",
+            borrowTimeoutMs, maxConnections, host, port));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HiveMetastoreException("Interrupted while waiting for a connection");
+    }
+
+    try {
+      while (true) {
+        PooledConnection connection;
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+          evictIdleConnections(now);
+          connection = idleConnections.pollFirst();
+        }
+
+        if (connection == null) {
+          return connect();
+        }
+
+        if (now - connection.lastUsedTime < validationIdleTimeMs || isValid(connection)) {
+          return connection;
+        }
+        connection.transport.close();
+      }
+    } catch (HiveMetastoreException | RuntimeException e) {
+      connectionPermits.release();
+      throw e;
+    }
+  }
+
+  private void returnConnection(PooledConnection connection, boolean broken) {
+    boolean reusable = !broken;
+    if (reusable) {
+      long now = System.currentTimeMillis();
+      connection.lastUsedTime = now;
+      synchronized (this) {
+        // Connections that were in use when the client was closed aren't kept
+        reusable = connection.generation == generation;
+        if (reusable) {
+          idleConnections.addFirst(connection);
+          evictIdleConnections(now);
+        }
+      }
+    }
+    if (!reusable) {
+      connection.transport.close();
+    }
+    connectionPermits.release();
+  }
+
+  /**
+   * Returns whether the connection should be discarded after a call threw the given exception.
+   * Exceptions declared by the metastore API (e.g. MetaException) are sent as a normal response
+   * and leave the connection usable.
+   */
+  private static boolean isConnectionError(TException exception) {
+    return exception instanceof TTransportException
+        || exception instanceof TProtocolException
+        || exception instanceof TApplicationException;
+  }
+
+  private <T> T execute(String callName, MetastoreCall<T> call)
+      throws HiveMetastoreException {
+    PooledConnection connection = borrowConnection();
+    boolean broken = false;
+    boolean failed = false;
+    long startTime = System.nanoTime();
+    try {
+      return call.call(connection.client);
+    } catch (TException e) {
+      failed = true;
+      broken = isConnectionError(e);
+      throw new HiveMetastoreException(e);
+    } catch (RuntimeException e) {
+      failed = true;
+      broken = true;
+      throw e;
+    } finally {
+      long elapsedTime = System.nanoTime() - startTime;
+      returnConnection(connection, broken);
+      CallStats stats = callStats.get(callName);
+      if (stats == null) {
+        callStats.putIfAbsent(callName, new CallStats());
+        stats = callStats.get(callName);
+      }
+      stats.record(elapsedTime, failed);
+    }
+  }
+
+  /**
+   * Returns latency statistics for the calls made through this client.
+   *
+   * @return a map from the name of the call to the statistics for that call
+   */
+  public Map<String, CallStats> getCallStats() {
+    return Collections.unmodifiableMap(new TreeMap<>(callStats));
+  }
+
+  /**
+   * Returns the number of connections that are open, but not in use.
+   *
+   * @return the number of idle connections
+   */
+  public synchronized int getIdleConnectionCount() {
+    return idleConnections.size();
+  }
+
+  /**
+   * Returns the number of connections that are currently being used for calls.
+   *
+   * @return the number of connections in use
+   */
+  public int getActiveConnectionCount() {
+    return maxConnections - connectionPermits.availablePermits();
+  }
+
+  @Override
+  public Partition addPartition(Partition partition) throws HiveMetastoreException {
+    return execute("add_partition", client -> client.add_partition(partition));
+  }
+
+  @Override
+  public Table getTable(String dbName, String tableName) throws HiveMetastoreException {
+    return execute("get_table", client -> {
+        try {
+          return client.get_table(dbName, tableName);
+        } catch (NoSuchObjectException e) {
+          return null;
+        }
+      });
+  }
+
+  @Override
+  public Partition getPartition(String dbName, String tableName, String partitionName)
+      throws HiveMetastoreException {
+    return execute("get_partition_by_name", client -> {
+        try {
+          return client.get_partition_by_name(dbName, tableName, partitionName);
+        } catch (NoSuchObjectException e) {
+          return null;
+        } catch (MetaException e) {
+          // See ThriftHiveMetastoreClient.getPartition() - thrown when the partition name doesn't
+          // match the partition keys of the table.
+          if ("Invalid partition key & values".equals(e.getMessage())) {
+            return null;
+          } else {
+            throw e;
+          }
+        }
+      });
+  }
+
+  @Override
+  public List<String> getPartitionNames(String dbName, String tableName)
+      throws HiveMetastoreException {
+    return execute("get_partition_names",
+        client -> client.get_partition_names(dbName, tableName, (short) -1));
+  }
+
+  @Override
+  public void alterPartition(String dbName, String tableName, Partition partition)
+      throws HiveMetastoreException {
+    execute("alter_partition", client -> {
+        client.alter_partition(dbName, tableName, partition);
+        return null;
+      });
+  }
+
+  @Override
+  public List<Partition> getPartitionsByNames(String dbName, String tableName,
+      List<String> partitionNames) throws HiveMetastoreException {
+    return execute("get_partitions_by_names", client -> {
+        try {
+          return client.get_partitions_by_names(dbName, tableName, partitionNames);
+        } catch (NoSuchObjectException e) {
+          return new ArrayList<>();
+        }
+      });
+  }
+
+  @Override
+  public void addPartitions(List<Partition> partitions) throws HiveMetastoreException {
+    execute("add_partitions", client -> client.add_partitions(partitions));
+  }
+
+  @Override
+  public void alterPartitions(String dbName, String tableName, List<Partition> partitions)
+      throws HiveMetastoreException {
+    execute("alter_partitions", client -> {
+        client.alter_partitions(dbName, tableName, partitions);
+        return null;
+      });
+  }
+
+  @Override
+  public void alterTable(String dbName, String tableName, Table table)
+      throws HiveMetastoreException {
+    execute("alter_table", client -> {
+        client.alter_table(dbName, tableName, table);
+        return null;
+      });
+  }
+
+  @Override
+  public boolean isPartitioned(String dbName, String tableName) throws HiveMetastoreException {
+    Table table = getTable(dbName, tableName);
+    return table != null && table.getPartitionKeys().size() > 0;
+  }
+
+  @Override
+  public boolean existsPartition(String dbName, String tableName, String partitionName)
+      throws HiveMetastoreException {
+    return getPartition(dbName, tableName, partitionName) != null;
+  }
+
+  @Override
+  public boolean existsTable(String dbName, String tableName) throws HiveMetastoreException {
+    return getTable(dbName, tableName) != null;
+  }
+
+  @Override
+  public void createTable(Table table) throws HiveMetastoreException {
+    execute("create_table", client -> {
+        client.create_table(table);
+        return null;
+      });
+  }
+
+  @Override
+  public void dropTable(String dbName, String tableName, boolean deleteData)
+      throws HiveMetastoreException {
+    execute("drop_table", client -> {
+        client.drop_table(dbName, tableName, deleteData);
+        return null;
+      });
+  }
+
+  @Override
+  public void dropPartition(String dbName, String tableName, String partitionName,
+      boolean deleteData) throws HiveMetastoreException {
+    execute("drop_partition_by_name", client -> {
+        client.drop_partition_by_name(dbName, tableName, partitionName, deleteData);
+        return null;
+      });
+  }
+
+  @Override
+  public Map<String, String> partitionNameToMap(String partitionName)
+      throws HiveMetastoreException {
+    return execute("partition_name_to_spec",
+        client -> client.partition_name_to_spec(partitionName));
+  }
+
+  @Override
+  public void createDatabase(Database db) throws HiveMetastoreException {
+    execute("create_database", client -> {
+        client.create_database(db);
+        return null;
+      });
+  }
+
+  @Override
+  public Database getDatabase(String dbName) throws HiveMetastoreException {
+    return execute("get_database", client -> {
+        try {
+          return client.get_database(dbName);
+        } catch (NoSuchObjectException e) {
+          return null;
+        }
+      });
+  }
+
+  @Override
+  public boolean existsDb(String dbName) throws HiveMetastoreException {
+    return getDatabase(dbName) != null;
+  }
+
+  @Override
+  public List<String> getTables(String dbName, String tableName) throws HiveMetastoreException {
+    return execute("get_tables", client -> client.get_tables(dbName, tableName));
+  }
+
+  @Override
+  public Partition exchangePartition(
+      Map<String, String> partitionSpecs,
+      String sourceDb,
+      String sourceTable,
+      String destDb,
+      String destinationTableName)
+      throws HiveMetastoreException {
+    return execute("exchange_partition", client -> client.exchange_partition(partitionSpecs,
+        sourceDb, sourceTable, destDb, destinationTableName));
+  }
+
+  @Override
+  public void renamePartition(
+      String db,
+      String table,
+      List<String> partitionValues,
+      Partition partition)
+      throws HiveMetastoreException {
+    execute("rename_partition", client -> {
+        client.rename_partition(db, table, partitionValues, partition);
+        return null;
+      });
+  }
+
+  @Override
+  public List<String> getAllDatabases() throws HiveMetastoreException {
+    return execute("get_all_databases", client -> client.get_all_databases());
+  }
+
+  @Override
+  public List<String> getAllTables(String dbName) throws HiveMetastoreException {
+    return execute("get_all_tables", client -> client.get_all_tables(dbName));
+  }
+
+  /**
+   * Close all idle connections. Connections that are in use are closed when they are returned.
+   * Like ThriftHiveMetastoreClient, the client can still be used afterwards and will open new
+   * connections as needed.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      generation++;
+      for (PooledConnection connection : idleConnections) {
+        connection.transport.close();
+      }
+      idleConnections.clear();
+    }
+    LOG.debug("Call stats for " + host + ":" + port + ": " + getCallStats());
+  }
+}
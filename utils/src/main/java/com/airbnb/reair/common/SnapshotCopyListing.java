@@ -0,0 +1,118 @@
+package com.airbnb.reair.common;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.Credentials;
+import org.apache.hadoop.tools.CopyListing;
+import org.apache.hadoop.tools.CopyListingFileStatus;
+import org.apache.hadoop.tools.DistCpConstants;
+import org.apache.hadoop.tools.DistCpOptions;
+import org.apache.hadoop.tools.util.DistCpUtils;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A DistCp copy listing that is written from a {@link DirectorySnapshot} of the source directory,
+ * so that DistCp doesn't list the source directory again. DistCp creates the listing by
+ * reflection, so the snapshot is registered under an ID that is passed through the configuration.
+ */
+public class SnapshotCopyListing extends CopyListing {
+
+  // The ID of the registered snapshot to write the listing from
+  public static final String SNAPSHOT_ID_KEY = "airbnb.reair.distcp.snapshot_id";
+
+  private static final Map<String, DirectorySnapshot> snapshots = new ConcurrentHashMap<>();
+
+  private long bytesToCopy = 0;
+  private long numberOfPaths = 0;
+
+  public SnapshotCopyListing(Configuration conf, Credentials credentials) {
+    super(conf, credentials);
+  }
+
+  /**
+   * Configure DistCp to use the given snapshot for the copy listing. The snapshot should be
+   * unregistered once DistCp is done.
+   *
+   * @param conf the configuration that will be used for running DistCp
+   * @param snapshot the snapshot of the source directory
+   * @return the ID of the registered snapshot
+   */
+  public static String register(Configuration conf, DirectorySnapshot snapshot) {
+    String snapshotId = UUID.randomUUID().toString();
+    snapshots.put(snapshotId, snapshot);
+    conf.set(SNAPSHOT_ID_KEY, snapshotId);
+    conf.setClass(DistCpConstants.CONF_LABEL_COPY_LISTING_CLASS, SnapshotCopyListing.class,
+        CopyListing.class);
+    return snapshotId;
+  }
+
+  public static void unregister(String snapshotId) {
+    snapshots.remove(snapshotId);
+  }
+
+  @Override
+  protected void validatePaths(DistCpOptions options) throws IOException {
+    if (options.getSourcePaths() == null || options.getSourcePaths().size() != 1) {
+      throw new IOException("Expected a single source path, but got: "
+          + options.getSourcePaths());
+    }
+  }
+
+  @Override
+  protected void doBuildListing(Path pathToListFile, DistCpOptions options) throws IOException {
+    String snapshotId = getConf().get(SNAPSHOT_ID_KEY);
+    DirectorySnapshot snapshot = snapshotId == null ? null : snapshots.get(snapshotId);
+    if (snapshot == null) {
+      throw new IOException("No snapshot registered for ID " + snapshotId);
+    }
+    Path root = snapshot.getRoot();
+
+    FileSystem fs = pathToListFile.getFileSystem(getConf());
+    if (fs.exists(pathToListFile)) {
+      fs.delete(pathToListFile, false);
+    }
+    try (SequenceFile.Writer writer = SequenceFile.createWriter(getConf(),
+        SequenceFile.Writer.file(pathToListFile),
+        SequenceFile.Writer.keyClass(Text.class),
+        SequenceFile.Writer.valueClass(CopyListingFileStatus.class),
+        SequenceFile.Writer.compression(SequenceFile.CompressionType.NONE))) {
+      // Like DistCp's own listing, the root is included so that its attributes are preserved,
+      // except when updating an existing directory.
+      if (!options.shouldSyncFolder() && !options.shouldOverwrite()) {
+        append(writer, root, snapshot.getRootStatus());
+      }
+      for (FileStatus status : snapshot.getDirectories().values()) {
+        append(writer, root, status);
+      }
+      for (FileStatus status : snapshot.getFileStatuses()) {
+        append(writer, root, status);
+        bytesToCopy += status.getLen();
+      }
+    }
+  }
+
+  private void append(SequenceFile.Writer writer, Path root, FileStatus status)
+      throws IOException {
+    writer.append(new Text(DistCpUtils.getRelativePath(root, status.getPath())),
+        new CopyListingFileStatus(status));
+    numberOfPaths++;
+  }
+
+  @Override
+  protected long getBytesToCopy() {
+    return bytesToCopy;
+  }
+
+  @Override
+  protected long getNumberOfPaths() {
+    return numberOfPaths;
+  }
+}
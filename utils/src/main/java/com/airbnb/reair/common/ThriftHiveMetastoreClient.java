@@ -14,6 +14,7 @@ import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -182,6 +183,71 @@ public class ThriftHiveMetastoreClient implements HiveMetastoreClient {
     }
   }
 
+  /**
+   * Fetch multiple partitions of a table with a single call.
+   *
+   * @param dbName the name of the database
+   * @param tableName the name of the table
+   * @param partitionNames the names of the partitions to fetch
+   * @return the partitions that exist, in no particular order
+   *
+   * @throws HiveMetastoreException if there's an error fetching the partitions
+   */
+  public synchronized List<Partition> getPartitionsByNames(
+      String dbName,
+      String tableName,
+      List<String> partitionNames) throws HiveMetastoreException {
+    try {
+      connectIfNeeded();
+      return client.get_partitions_by_names(dbName, tableName, partitionNames);
+    } catch (NoSuchObjectException e) {
+      return new ArrayList<>();
+    } catch (TException e) {
+      close();
+      throw new HiveMetastoreException(e);
+    }
+  }
+
+  /**
+   * Add multiple partitions of the same table with a single call.
+   *
+   * @param partitions the partitions to add
+   *
+   * @throws HiveMetastoreException if there's an error adding the partitions
+   */
+  public synchronized void addPartitions(List<Partition> partitions)
+      throws HiveMetastoreException {
+    try {
+      connectIfNeeded();
+      client.add_partitions(partitions);
+    } catch (TException e) {
+      close();
+      throw new HiveMetastoreException(e);
+    }
+  }
+
+  /**
+   * Alter multiple partitions of a table with a single call.
+   *
+   * @param dbName the name of the database
+   * @param tableName the name of the table
+   * @param partitions the new partition objects
+   *
+   * @throws HiveMetastoreException if there's an error altering the partitions
+   */
+  public synchronized void alterPartitions(
+      String dbName,
+      String tableName,
+      List<Partition> partitions) throws HiveMetastoreException {
+    try {
+      connectIfNeeded();
+      client.alter_partitions(dbName, tableName, partitions);
+    } catch (TException e) {
+      close();
+      throw new HiveMetastoreException(e);
+    }
+  }
+
   /**
    * TODO.
    *
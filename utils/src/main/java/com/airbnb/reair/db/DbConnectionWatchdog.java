@@ -39,9 +39,8 @@ public class DbConnectionWatchdog extends Thread {
     lastSuccessfulConnectionTime = System.currentTimeMillis();
 
     while (true) {
-      try {
-        Connection connection = dbConnectionFactory.getConnection();
-        PreparedStatement ps = connection.prepareStatement("SELECT 1");
+      try (Connection connection = dbConnectionFactory.getConnection();
+          PreparedStatement ps = connection.prepareStatement(TEST_QUERY)) {
         ps.execute();
         LOG.debug("Successfully executed " + TEST_QUERY);
         lastSuccessfulConnectionTime = System.currentTimeMillis();
@@ -60,11 +60,10 @@ public class DbKeyValueStore {
    * @throws SQLException if there's an error querying the DB
    */
   public Optional<String> get(String key) throws SQLException {
-    Connection connection = dbConnectionFactory.getConnection();
     String query =
         String.format("SELECT value_string FROM %s " + "WHERE key_string = ? LIMIT 1", dbTableName);
-    PreparedStatement ps = connection.prepareStatement(query);
-    try {
+    try (Connection connection = dbConnectionFactory.getConnection();
+        PreparedStatement ps = connection.prepareStatement(query)) {
       ps.setString(1, key);
       ResultSet rs = ps.executeQuery();
       if (rs.next()) {
@@ -72,9 +71,6 @@ public class DbKeyValueStore {
       } else {
         return Optional.empty();
       }
-    } finally {
-      ps.close();
-      ps = null;
     }
   }
 
@@ -103,19 +99,15 @@ public class DbKeyValueStore {
    */
   public void set(String key, String value) throws SQLException {
     LOG.debug("Setting " + key + " to " + value);
-    Connection connection = dbConnectionFactory.getConnection();
     String query = String.format("INSERT INTO %s (key_string, value_string) "
         + "VALUE (?, ?) ON DUPLICATE KEY UPDATE value_string = ?", dbTableName);
 
-    PreparedStatement ps = connection.prepareStatement(query);
-    try {
+    try (Connection connection = dbConnectionFactory.getConnection();
+        PreparedStatement ps = connection.prepareStatement(query)) {
       ps.setString(1, key);
       ps.setString(2, value);
       ps.setString(3, value);
       ps.executeUpdate();
-    } finally {
-      ps.close();
-      ps = null;
     }
   }
 }
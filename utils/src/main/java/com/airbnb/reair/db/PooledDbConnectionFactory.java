@@ -0,0 +1,696 @@
+package com.airbnb.reair.db;
+
+import com.airbnb.reair.utils.RetryableTask;
+import com.airbnb.reair.utils.RetryingTaskRunner;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A factory that hands out connections from a bounded pool, so that threads using the same DB
+ * don't have to take turns on a single connection like with {@link StaticDbConnectionFactory}.
+ * Callers must close the connections that they get, which returns them to the pool.
+ *
+ * <p>Connections are opened lazily, validated when borrowed only if they have been idle for a
+ * while, and closed if they have been idle for too long. Prepared statements are cached per
+ * connection, so closing a statement from {@link Connection#prepareStatement(String)} keeps it
+ * around for the next caller that prepares the same SQL. If a leak detection threshold is set, the
+ * stack trace of the borrower is captured and logged for connections that aren't returned in
+ * time.
+ */
+public class PooledDbConnectionFactory implements DbConnectionFactory, Closeable {
+
+  private static final Log LOG = LogFactory.getLog(PooledDbConnectionFactory.class);
+
+  public static final long DEFAULT_MAX_IDLE_TIME_MS = 5 * 60 * 1000;
+  public static final long DEFAULT_VALIDATION_IDLE_TIME_MS = 10 * 1000;
+  public static final long DEFAULT_BORROW_TIMEOUT_MS = 60 * 1000;
+  public static final long DEFAULT_LEAK_DETECTION_THRESHOLD_MS = 0;
+  public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+
+  private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+  private static final long MIN_LEAK_CHECK_INTERVAL_MS = 100;
+
+  private final String jdbcUrl;
+  private final String username;
+  private final String password;
+  private final int maxConnections;
+  private final long maxIdleTimeMs;
+  private final long validationIdleTimeMs;
+  private final long borrowTimeoutMs;
+  private final long leakDetectionThresholdMs;
+  private final int statementCacheSize;
+  private final RetryingTaskRunner retryingTaskRunner = new RetryingTaskRunner();
+
+  // Limits the number of connections that are in use or idle
+  private final Semaphore connectionPermits;
+  // Most recently used connections are at the head. Guarded by this.
+  private final Deque<PooledConnection> idleConnections = new ArrayDeque<>();
+  // Guarded by this
+  private boolean closed = false;
+
+  private final Set<PooledConnection> borrowedConnections = ConcurrentHashMap.newKeySet();
+  private final ScheduledExecutorService leakDetector;
+
+  private final AtomicLong statementCacheHits = new AtomicLong();
+  private final AtomicLong statementCacheMisses = new AtomicLong();
+  private final AtomicLong leakCount = new AtomicLong();
+
+  /**
+   * A physical connection to the DB along with the statements cached for it.
+   */
+  private class PooledConnection {
+    private final Connection connection;
+    // Most recently used statements are at the end. Only used by the borrower.
+    private final LinkedHashMap<String, CachedStatement> statementCache;
+    // Statements that aren't cached, closed when the connection is returned
+    private final List<Statement> openStatements = new ArrayList<>();
+    private long lastUsedTime;
+    private boolean broken = false;
+
+    // Set when the connection is borrowed and read by the leak detector
+    private volatile long borrowTime;
+    private volatile Throwable borrowStack;
+    private volatile boolean leakReported;
+
+    private PooledConnection(Connection connection) {
+      this.connection = connection;
+      this.lastUsedTime = System.currentTimeMillis();
+      this.statementCache = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+          if (size() <= statementCacheSize) {
+            return false;
+          }
+          eldest.getValue().evicted = true;
+          if (eldest.getValue().inUse) {
+            // Closed by the borrower, or when the connection is returned
+            openStatements.add(eldest.getValue().statement);
+          } else {
+            closeQuietly(eldest.getValue().statement);
+          }
+          return true;
+        }
+      };
+    }
+
+    private PreparedStatement prepareStatement(String sql, int autoGeneratedKeys,
+        Connection handle) throws SQLException {
+      if (statementCacheSize <= 0) {
+        return track(connection.prepareStatement(sql, autoGeneratedKeys), handle);
+      }
+      String key = autoGeneratedKeys + ":" + sql;
+      CachedStatement cachedStatement = statementCache.get(key);
+      if (cachedStatement != null && cachedStatement.inUse) {
+        // The same SQL is prepared again before the first statement was closed
+        statementCacheMisses.incrementAndGet();
+        return track(connection.prepareStatement(sql, autoGeneratedKeys), handle);
+      }
+      if (cachedStatement == null) {
+        statementCacheMisses.incrementAndGet();
+        cachedStatement = new CachedStatement(this,
+            connection.prepareStatement(sql, autoGeneratedKeys), handle);
+        statementCache.put(key, cachedStatement);
+      } else {
+        statementCacheHits.incrementAndGet();
+        cachedStatement.connectionHandle = handle;
+      }
+      cachedStatement.inUse = true;
+      return cachedStatement.newHandle();
+    }
+
+    /**
+     * Keep track of a statement that isn't cached, so that it's closed when the connection is
+     * returned. The borrower gets a wrapper that checks the errors from the statement.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Statement> T track(T statement, Connection handle) {
+      openStatements.add(statement);
+      Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+          : statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+      return (T) Proxy.newProxyInstance(
+          type.getClassLoader(),
+          new Class<?>[] {type},
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "getConnection":
+                return handle;
+              case "equals":
+                return proxy == args[0];
+              case "hashCode":
+                return System.identityHashCode(proxy);
+              case "toString":
+                return "Tracked " + statement;
+              default:
+                return invokeStatement(statement, method, args);
+            }
+          });
+    }
+
+    /**
+     * Call a method of a statement that was created from this connection. A dead connection
+     * usually fails when a statement is executed, so connection errors mark the connection as
+     * broken in the same way as errors from the connection itself.
+     */
+    private Object invokeStatement(Statement statement, Method method, Object[] args)
+        throws Throwable {
+      try {
+        return invokeDelegate(statement, method, args);
+      } catch (SQLException e) {
+        if (isConnectionError(e)) {
+          broken = true;
+        }
+        throw e;
+      }
+    }
+
+    /**
+     * Reset the state left behind by the borrower so that the connection can be reused.
+     */
+    private void reset() throws SQLException {
+      for (Statement statement : openStatements) {
+        statement.close();
+      }
+      openStatements.clear();
+      Iterator<CachedStatement> iterator = statementCache.values().iterator();
+      while (iterator.hasNext()) {
+        CachedStatement cachedStatement = iterator.next();
+        if (cachedStatement.inUse) {
+          // The borrower didn't close it, so the state of the statement is unknown
+          cachedStatement.evicted = true;
+          cachedStatement.statement.close();
+          iterator.remove();
+        }
+      }
+      if (!connection.getAutoCommit()) {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+      connection.clearWarnings();
+    }
+
+    private void closeConnection() {
+      for (CachedStatement cachedStatement : statementCache.values()) {
+        closeQuietly(cachedStatement.statement);
+      }
+      statementCache.clear();
+      for (Statement statement : openStatements) {
+        closeQuietly(statement);
+      }
+      openStatements.clear();
+      closeQuietly(connection);
+    }
+  }
+
+  /**
+   * A prepared statement that is kept open after the borrower closes it.
+   */
+  private static class CachedStatement {
+    private final PooledConnection pooledConnection;
+    private final PreparedStatement statement;
+    private Connection connectionHandle;
+    private boolean inUse = false;
+    private boolean evicted = false;
+
+    private CachedStatement(PooledConnection pooledConnection, PreparedStatement statement,
+        Connection connectionHandle) {
+      this.pooledConnection = pooledConnection;
+      this.statement = statement;
+      this.connectionHandle = connectionHandle;
+    }
+
+    /**
+     * Returns a statement that can be used until it's closed. Closing it makes the cached
+     * statement available again instead of closing it.
+     */
+    private PreparedStatement newHandle() {
+      InvocationHandler handler = new InvocationHandler() {
+        private boolean handleClosed = false;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          switch (method.getName()) {
+            case "close":
+              if (!handleClosed) {
+                handleClosed = true;
+                release();
+              }
+              return null;
+            case "isClosed":
+              return handleClosed || statement.isClosed();
+            case "getConnection":
+              return connectionHandle;
+            case "equals":
+              return proxy == args[0];
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "toString":
+              return "Cached " + statement;
+            default:
+              if (handleClosed) {
+                throw new SQLException("Statement has been closed");
+              }
+              return pooledConnection.invokeStatement(statement, method, args);
+          }
+        }
+      };
+      return (PreparedStatement) Proxy.newProxyInstance(
+          PreparedStatement.class.getClassLoader(),
+          new Class<?>[] {PreparedStatement.class},
+          handler);
+    }
+
+    private void release() throws SQLException {
+      if (evicted) {
+        statement.close();
+      } else {
+        statement.clearParameters();
+        statement.clearBatch();
+        // Executing the statement again would close it, but release the result set promptly
+        if (statement.getResultSet() != null) {
+          statement.getResultSet().close();
+        }
+      }
+      inUse = false;
+    }
+  }
+
+  /**
+   * The connection given to a borrower. Closing it returns the underlying connection to the pool,
+   * and any use after that fails instead of interfering with the next borrower.
+   */
+  private class ConnectionHandle implements InvocationHandler {
+    private PooledConnection pooledConnection;
+
+    private ConnectionHandle(PooledConnection pooledConnection) {
+      this.pooledConnection = pooledConnection;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          if (pooledConnection != null) {
+            PooledConnection returnedConnection = pooledConnection;
+            pooledConnection = null;
+            returnConnection(returnedConnection);
+          }
+          return null;
+        case "isClosed":
+          return pooledConnection == null || pooledConnection.connection.isClosed();
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "Pooled connection to " + jdbcUrl;
+        default:
+          break;
+      }
+
+      if (pooledConnection == null) {
+        throw new SQLException("Connection has already been returned to the pool");
+      }
+      try {
+        if (method.getName().equals("prepareStatement")
+            && (args.length == 1
+                || (args.length == 2 && method.getParameterTypes()[1] == int.class))) {
+          return pooledConnection.prepareStatement(
+              (String) args[0],
+              args.length == 1 ? Statement.NO_GENERATED_KEYS : (Integer) args[1],
+              (Connection) proxy);
+        }
+        Object result = invokeDelegate(pooledConnection.connection, method, args);
+        if (result instanceof Statement) {
+          return pooledConnection.track((Statement) result, (Connection) proxy);
+        }
+        return result;
+      } catch (SQLException e) {
+        if (isConnectionError(e)) {
+          pooledConnection.broken = true;
+        }
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Constructor for a pool with default timeouts, statement cache size, and without leak
+   * detection.
+   *
+   * @param jdbcUrl the JDBC connection URL
+   * @param username the username
+   * @param password the password associated with the username
+   * @param maxConnections the maximum number of connections to have open at once
+   */
+  public PooledDbConnectionFactory(
+      String jdbcUrl,
+      String username,
+      String password,
+      int maxConnections) {
+    this(jdbcUrl, username, password, maxConnections, DEFAULT_MAX_IDLE_TIME_MS,
+        DEFAULT_VALIDATION_IDLE_TIME_MS, DEFAULT_BORROW_TIMEOUT_MS,
+        DEFAULT_LEAK_DETECTION_THRESHOLD_MS, DEFAULT_STATEMENT_CACHE_SIZE);
+  }
+
+  /**
+   * Constructor for a pool with the specified limits.
+   *
+   * @param jdbcUrl the JDBC connection URL
+   * @param username the username
+   * @param password the password associated with the username
+   * @param maxConnections the maximum number of connections to have open at once
+   * @param maxIdleTimeMs close connections that haven't been used for this long
+   * @param validationIdleTimeMs when borrowing a connection that hasn't been used for this long,
+   *                             check that it still works before using it
+   * @param borrowTimeoutMs when all connections are in use, wait this long for one to be returned
+   * @param leakDetectionThresholdMs log the stack trace of the borrower when a connection hasn't
+   *                                 been returned after this long. 0 to disable.
+   * @param statementCacheSize the maximum number of prepared statements to cache per connection.
+   *                           0 to disable.
+   */
+  public PooledDbConnectionFactory(
+      String jdbcUrl,
+      String username,
+      String password,
+      int maxConnections,
+      long maxIdleTimeMs,
+      long validationIdleTimeMs,
+      long borrowTimeoutMs,
+      long leakDetectionThresholdMs,
+      int statementCacheSize) {
+    if (maxConnections <= 0) {
+      throw new IllegalArgumentException("Invalid maximum number of connections: "
+          + maxConnections);
+    }
+    this.jdbcUrl = jdbcUrl;
+    this.username = username;
+    this.password = password;
+    this.maxConnections = maxConnections;
+    this.maxIdleTimeMs = maxIdleTimeMs;
+    this.validationIdleTimeMs = validationIdleTimeMs;
+    this.borrowTimeoutMs = borrowTimeoutMs;
+    this.leakDetectionThresholdMs = leakDetectionThresholdMs;
+    this.statementCacheSize = statementCacheSize;
+    this.connectionPermits = new Semaphore(maxConnections, true);
+
+    if (leakDetectionThresholdMs > 0) {
+      leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "PooledDbConnectionFactory-leak-detector");
+          thread.setDaemon(true);
+          return thread;
+        });
+      long checkIntervalMs = Math.max(MIN_LEAK_CHECK_INTERVAL_MS, leakDetectionThresholdMs / 2);
+      leakDetector.scheduleWithFixedDelay(this::reportLeaks, checkIntervalMs, checkIntervalMs,
+          TimeUnit.MILLISECONDS);
+    } else {
+      leakDetector = null;
+    }
+
+    try {
+      Class.forName("com.mysql.jdbc.Driver").newInstance();
+    } catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
+      LOG.error(e);
+    }
+  }
+
+  private static Object invokeDelegate(Object delegate, Method method, Object[] args)
+      throws Throwable {
+    try {
+      return method.invoke(delegate, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Returns whether the exception indicates that the connection can't be used anymore. SQL states
+   * in class 08 are connection exceptions.
+   */
+  private static boolean isConnectionError(SQLException exception) {
+    return exception.getSQLState() != null && exception.getSQLState().startsWith("08");
+  }
+
+  private static void closeQuietly(AutoCloseable closeable) {
+    try {
+      closeable.close();
+    } catch (Exception e) {
+      LOG.debug("Error closing " + closeable, e);
+    }
+  }
+
+  private PooledConnection connect() throws SQLException {
+    final Connection[] connection = new Connection[1];
+    try {
+      retryingTaskRunner.runWithRetries(new RetryableTask() {
+        @Override
+        public void run() throws Exception {
+          LOG.debug("Connecting to " + jdbcUrl);
+          connection[0] = DriverManager.getConnection(jdbcUrl, username, password);
+        }
+      });
+    } catch (SQLException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new SQLException("Error connecting to " + jdbcUrl, e);
+    }
+    return new PooledConnection(connection[0]);
+  }
+
+  private boolean isValid(PooledConnection connection) {
+    try {
+      return connection.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+    } catch (SQLException e) {
+      LOG.warn("Error validating connection to " + jdbcUrl, e);
+      return false;
+    }
+  }
+
+  /**
+   * Close idle connections that haven't been used in a while. Should be called while holding the
+   * monitor for this object.
+   */
+  private void evictIdleConnections(long now) {
+    // The least recently used connections are at the tail
+    Iterator<PooledConnection> iterator = idleConnections.descendingIterator();
+    while (iterator.hasNext()) {
+      PooledConnection connection = iterator.next();
+      if (now - connection.lastUsedTime < maxIdleTimeMs) {
+        break;
+      }
+      LOG.debug("Closing idle connection to " + jdbcUrl);
+      connection.closeConnection();
+      iterator.remove();
+    }
+  }
+
+  private PooledConnection borrowConnection() throws SQLException {
+    try {
+      if (!connectionPermits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+        throw new SQLException(String.format(
+            "Timed out after %d ms waiting for one of %d connections to %s",
+            borrowTimeoutMs, maxConnections, jdbcUrl));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a connection");
+    }
+
+    try {
+      while (true) {
+        PooledConnection connection;
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+          if (closed) {
+            throw new SQLException("Connection pool for " + jdbcUrl + " has been closed");
+          }
+          evictIdleConnections(now);
+          connection = idleConnections.pollFirst();
+        }
+
+        if (connection == null) {
+          return connect();
+        }
+
+        if (now - connection.lastUsedTime < validationIdleTimeMs || isValid(connection)) {
+          return connection;
+        }
+        LOG.warn("Discarding connection to " + jdbcUrl + " that failed validation");
+        connection.closeConnection();
+      }
+    } catch (SQLException | RuntimeException e) {
+      connectionPermits.release();
+      throw e;
+    }
+  }
+
+  private void returnConnection(PooledConnection connection) {
+    borrowedConnections.remove(connection);
+    if (connection.leakReported) {
+      LOG.info(String.format("Connection to %s that was reported as leaked was returned after "
+          + "%d ms", jdbcUrl, System.currentTimeMillis() - connection.borrowTime));
+    }
+    connection.borrowStack = null;
+
+    boolean reusable = !connection.broken;
+    if (reusable) {
+      try {
+        connection.reset();
+      } catch (SQLException e) {
+        LOG.warn("Discarding connection to " + jdbcUrl + " that couldn't be reset", e);
+        reusable = false;
+      }
+    }
+
+    if (reusable) {
+      long now = System.currentTimeMillis();
+      connection.lastUsedTime = now;
+      synchronized (this) {
+        if (closed) {
+          reusable = false;
+        } else {
+          idleConnections.addFirst(connection);
+          evictIdleConnections(now);
+        }
+      }
+    }
+    if (!reusable) {
+      connection.closeConnection();
+    }
+    connectionPermits.release();
+  }
+
+  /**
+   * Log the borrowers of connections that have been out for longer than the leak detection
+   * threshold. Each borrow is reported once.
+   */
+  private void reportLeaks() {
+    long now = System.currentTimeMillis();
+    for (PooledConnection connection : borrowedConnections) {
+      Throwable borrowStack = connection.borrowStack;
+      long borrowedTime = now - connection.borrowTime;
+      if (borrowStack == null || connection.leakReported
+          || borrowedTime < leakDetectionThresholdMs) {
+        continue;
+      }
+      connection.leakReported = true;
+      leakCount.incrementAndGet();
+      LOG.warn(String.format("Connection to %s has not been returned after %d ms. It may have "
+          + "been leaked by the borrower:", jdbcUrl, borrowedTime), borrowStack);
+    }
+  }
+
+  /**
+   * Borrow a connection from the pool, opening one if none are idle and the pool isn't full.
+   * Closing the returned connection returns it to the pool.
+   *
+   * @return a connection that can be used until it's closed
+   *
+   * @throws SQLException if no connection could be obtained within the borrow timeout, or if
+   *                      there's an error connecting to the DB
+   */
+  @Override
+  public Connection getConnection() throws SQLException {
+    PooledConnection connection = borrowConnection();
+    connection.borrowTime = System.currentTimeMillis();
+    connection.leakReported = false;
+    if (leakDetectionThresholdMs > 0) {
+      connection.borrowStack = new Throwable("Connection borrowed by thread "
+          + Thread.currentThread().getName());
+      borrowedConnections.add(connection);
+    }
+    return (Connection) Proxy.newProxyInstance(
+        Connection.class.getClassLoader(),
+        new Class<?>[] {Connection.class},
+        new ConnectionHandle(connection));
+  }
+
+  /**
+   * Returns the number of connections that are open, but not in use.
+   *
+   * @return the number of idle connections
+   */
+  public synchronized int getIdleConnectionCount() {
+    return idleConnections.size();
+  }
+
+  /**
+   * Returns the number of connections that are currently borrowed.
+   *
+   * @return the number of connections in use
+   */
+  public int getActiveConnectionCount() {
+    return maxConnections - connectionPermits.availablePermits();
+  }
+
+  /**
+   * Returns the number of prepared statements that were served from the statement cache.
+   *
+   * @return the number of cache hits
+   */
+  public long getStatementCacheHits() {
+    return statementCacheHits.get();
+  }
+
+  /**
+   * Returns the number of prepared statements that had to be prepared on the connection.
+   *
+   * @return the number of cache misses
+   */
+  public long getStatementCacheMisses() {
+    return statementCacheMisses.get();
+  }
+
+  /**
+   * Returns the number of borrows that exceeded the leak detection threshold.
+   *
+   * @return the number of connections reported as leaked
+   */
+  public long getLeakCount() {
+    return leakCount.get();
+  }
+
+  /**
+   * Close all idle connections and stop handing out new ones. Connections that are in use are
+   * closed when they are returned.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      for (PooledConnection connection : idleConnections) {
+        connection.closeConnection();
+      }
+      idleConnections.clear();
+    }
+    if (leakDetector != null) {
+      leakDetector.shutdownNow();
+    }
+  }
+}
@@ -6,15 +6,22 @@ import com.airbnb.reair.utils.RetryingTaskRunner;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 
 /**
  * A factory that creates connections to a DB based on connection information supplied in the
- * constructor.
+ * constructor. All callers share a single connection, which stays open until the factory is
+ * closed. Closing a connection from this factory has no effect on the shared connection, so callers
+ * can close their connections when they're done with them like with other factories, and one
+ * thread can't close the connection while another thread is using it. For concurrent callers, see
+ * {@link PooledDbConnectionFactory}.
  */
-public class StaticDbConnectionFactory implements DbConnectionFactory {
+public class StaticDbConnectionFactory implements DbConnectionFactory, Closeable {
 
   private static final Log LOG = LogFactory.getLog(StaticDbConnectionFactory.class);
 
@@ -22,7 +29,8 @@ public class StaticDbConnectionFactory implements DbConnectionFactory {
   private String username;
   private String password;
 
-  private Connection connection;
+  // Guarded by this
+  private Connection sharedConnection;
   private RetryingTaskRunner retryingTaskRunner;
 
   /**
@@ -51,16 +59,59 @@ public class StaticDbConnectionFactory implements DbConnectionFactory {
 
   @Override
   public Connection getConnection() throws SQLException {
-    retryingTaskRunner.runUntilSuccessful(new RetryableTask() {
-      @Override
-      public void run() throws Exception {
-        if (connection == null || !connection.isValid(5)) {
-          LOG.debug("Connecting to " + jdbcUrl);
-          connection = DriverManager.getConnection(jdbcUrl, username, password);
+    final Connection connection;
+    synchronized (this) {
+      retryingTaskRunner.runUntilSuccessful(new RetryableTask() {
+        @Override
+        public void run() throws Exception {
+          if (sharedConnection == null || !sharedConnection.isValid(5)) {
+            LOG.debug("Connecting to " + jdbcUrl);
+            sharedConnection = DriverManager.getConnection(jdbcUrl, username, password);
+          }
         }
-      }
-    });
-    return connection;
+      });
+      connection = sharedConnection;
+    }
+
+    final boolean[] handleClosed = new boolean[1];
+    return (Connection) Proxy.newProxyInstance(
+        Connection.class.getClassLoader(),
+        new Class<?>[] {Connection.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "close":
+              // The shared connection stays open for the other callers
+              handleClosed[0] = true;
+              return null;
+            case "isClosed":
+              return handleClosed[0] || connection.isClosed();
+            case "equals":
+              return proxy == args[0];
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            default:
+              try {
+                return method.invoke(connection, args);
+              } catch (InvocationTargetException e) {
+                throw e.getCause();
+              }
+          }
+        });
+  }
 
+  /**
+   * Close the shared connection. A new one is opened if a connection is requested after this.
+   */
+  @Override
+  public synchronized void close() {
+    if (sharedConnection == null) {
+      return;
+    }
+    try {
+      sharedConnection.close();
+    } catch (SQLException e) {
+      LOG.warn("Error closing connection to " + jdbcUrl, e);
+    }
+    sharedConnection = null;
   }
 }
@@ -0,0 +1,12 @@
+package com.airbnb.reair.multiprocessing;
+
+/**
+ * Runs jobs in the order that they become ready to run.
+ */
+public class FifoSchedulingPolicy extends JobSchedulingPolicy {
+
+  @Override
+  protected double getRank(Job job) {
+    return 0;
+  }
+}
@@ -3,10 +3,9 @@ package com.airbnb.reair.multiprocessing;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -23,46 +22,96 @@ public class JobDagManager {
 
   private static final Log LOG = LogFactory.getLog(JobDagManager.class);
 
-  // Maps from a lock to the jobs holding the lock
-  Map<String, HashSet<Job>> sharedLocksHeld = new HashMap<>();
+  /**
+   * Tracks the jobs that need a given lock, in the order that they were submitted, along with
+   * which of those jobs currently hold it. The jobs that later submissions need to depend on are
+   * kept separately so that adding or removing a job doesn't require a scan of the queue.
+   */
+  private static class LockQueue {
+    // All the jobs needing the lock (including the holders), in the order that they were added
+    private final LinkedHashSet<Job> jobsNeedingLock = new LinkedHashSet<>();
+    // Number of jobs in jobsNeedingLock that need the lock exclusively
+    private int exclusiveJobCount = 0;
+    // The most recently added job that needs the lock exclusively
+    private Job lastExclusiveJob = null;
+    // Jobs that need the lock as a shared lock and were added after lastExclusiveJob
+    private LinkedHashSet<Job> sharedJobsAfterLastExclusive = new LinkedHashSet<>();
+
+    private Job exclusiveHolder = null;
+    private final Set<Job> sharedHolders = new HashSet<>();
+
+    void add(Job job, Lock.Type type) {
+      if (!jobsNeedingLock.add(job)) {
+        return;
+      }
+      if (type == Lock.Type.EXCLUSIVE) {
+        exclusiveJobCount++;
+        lastExclusiveJob = job;
+        sharedJobsAfterLastExclusive = new LinkedHashSet<>();
+      } else {
+        sharedJobsAfterLastExclusive.add(job);
+      }
+    }
+
+    boolean remove(Job job, Lock.Type type) {
+      if (!jobsNeedingLock.remove(job)) {
+        return false;
+      }
+      if (type == Lock.Type.EXCLUSIVE) {
+        exclusiveJobCount--;
+        if (lastExclusiveJob == job) {
+          lastExclusiveJob = null;
+        }
+      } else {
+        sharedJobsAfterLastExclusive.remove(job);
+      }
+      return true;
+    }
 
-  Map<String, Job> exclusiveLocksHeld = new HashMap<>();
+    Job head() {
+      return jobsNeedingLock.isEmpty() ? null : jobsNeedingLock.iterator().next();
+    }
+
+    boolean isUnused() {
+      return jobsNeedingLock.isEmpty() && exclusiveHolder == null && sharedHolders.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+      return jobsNeedingLock.toString();
+    }
+  }
 
-  // A map of a lock to the jobs needing the resource, in the order that they
-  // were submitted.
-  Map<String, ArrayList<Job>> lockToJobsNeedingLock = new HashMap<>();
+  // A map of a lock to the jobs needing and holding the lock
+  private Map<String, LockQueue> lockQueues = new HashMap<>();
 
   Set<Job> jobsWithAllRequiredLocks = new HashSet<>();
 
+  private LockQueue getLockQueue(String lock) {
+    LockQueue queue = lockQueues.get(lock);
+    if (queue == null) {
+      queue = new LockQueue();
+      lockQueues.put(lock, queue);
+    }
+    return queue;
+  }
+
   private boolean canGetAllLocks(Job job) {
     LockSet lockSet = job.getRequiredLocks();
 
     for (String exclusiveLock : lockSet.getExclusiveLocks()) {
-      if (exclusiveLocksHeld.containsKey(exclusiveLock)) {
+      LockQueue queue = lockQueues.get(exclusiveLock);
+      // Any job needing the lock, whether it's holding it or waiting for it, comes first
+      if (queue != null && (queue.exclusiveHolder != null || !queue.jobsNeedingLock.isEmpty())) {
         return false;
       }
-      if (lockToJobsNeedingLock.containsKey(exclusiveLock)) {
-        for (Job j : lockToJobsNeedingLock.get(exclusiveLock)) {
-          if (j.getRequiredLocks().contains(exclusiveLock)) {
-            return false;
-          }
-        }
-      }
     }
 
     for (String sharedLock : lockSet.getSharedLocks()) {
-      if (exclusiveLocksHeld.containsKey(sharedLock)) {
+      LockQueue queue = lockQueues.get(sharedLock);
+      if (queue != null && (queue.exclusiveHolder != null || queue.exclusiveJobCount > 0)) {
         return false;
       }
-
-      if (lockToJobsNeedingLock.containsKey(sharedLock)) {
-        for (Job j : lockToJobsNeedingLock.get(sharedLock)) {
-          if (j.getRequiredLocks().getExclusiveLocks().contains(sharedLock)) {
-            return false;
-          }
-
-        }
-      }
     }
 
     return true;
@@ -76,12 +125,7 @@ public class JobDagManager {
    * @param job the job that has the lock requirement
    */
   private void addLockToJobsNeedingLock(String lock, Job job) {
-    ArrayList<Job> jobs = lockToJobsNeedingLock.get(lock);
-    if (jobs == null) {
-      jobs = new ArrayList<>();
-      lockToJobsNeedingLock.put(lock, jobs);
-    }
-    jobs.add(job);
+    getLockQueue(lock).add(job, job.getRequiredLocks().getType(lock));
   }
 
   /**
@@ -94,37 +138,36 @@ public class JobDagManager {
    *                       lock. This is used as a sanity check only.
    */
   private void removeLockToJobsNeedingLock(String lock, Job job, boolean shouldBeAtHead) {
-    ArrayList<Job> jobs = lockToJobsNeedingLock.get(lock);
-    if (shouldBeAtHead && jobs.get(0) != job) {
+    LockQueue queue = lockQueues.get(lock);
+    if (shouldBeAtHead && queue.head() != job) {
       throw new RuntimeException("Tried to remove " + job + " but it "
-          + "wasn't at the head of the list for lock " + lock + "! List is: " + jobs);
+          + "wasn't at the head of the list for lock " + lock + "! List is: " + queue);
     }
-    boolean removed = jobs.remove(job);
+    boolean removed = queue.remove(job, job.getRequiredLocks().getType(lock));
     if (!removed) {
-      throw new RuntimeException("Didn't remove job " + job + " from list " + jobs);
+      throw new RuntimeException("Didn't remove job " + job + " from list " + queue);
+    }
+    if (queue.isUnused()) {
+      lockQueues.remove(lock);
     }
   }
 
   private void grantExclusiveLock(String lock, Job job) {
-    if (exclusiveLocksHeld.containsKey(lock)) {
+    LockQueue queue = getLockQueue(lock);
+    if (queue.exclusiveHolder != null) {
       throw new RuntimeException("Tried to give exclusive lock to " + job + " when it was held by "
-          + exclusiveLocksHeld.get(lock));
+          + queue.exclusiveHolder);
     }
-    exclusiveLocksHeld.put(lock, job);
+    queue.exclusiveHolder = job;
   }
 
   private void grantSharedLock(String lock, Job job) {
-    if (exclusiveLocksHeld.containsKey(lock)) {
+    LockQueue queue = getLockQueue(lock);
+    if (queue.exclusiveHolder != null) {
       throw new RuntimeException("Tried to give shared lock " + lock + " to " + job
-          + " when an exclusive lock was held by " + exclusiveLocksHeld.get(lock));
-    }
-
-    HashSet<Job> jobsHoldingSharedLock = sharedLocksHeld.get(lock);
-    if (jobsHoldingSharedLock == null) {
-      jobsHoldingSharedLock = new HashSet<>();
-      sharedLocksHeld.put(lock, jobsHoldingSharedLock);
+          + " when an exclusive lock was held by " + queue.exclusiveHolder);
     }
-    jobsHoldingSharedLock.add(job);
+    queue.sharedHolders.add(job);
   }
 
   /**
@@ -161,44 +204,24 @@ public class JobDagManager {
     // jobs to require the same shared lock, or the job that last required
     // the exclusive lock.
     for (String exclusiveLockToGet : lockSet.getExclusiveLocks()) {
-      // LOG.debug("Lock " + lockToGet + " is needed by " +
-      // lockToJobsNeedingLock.get(lockToGet));
-      if (!lockToJobsNeedingLock.containsKey(exclusiveLockToGet)) {
+      LockQueue queue = lockQueues.get(exclusiveLockToGet);
+      if (queue == null) {
         // No need to do anything if no job is waiting for it
         continue;
       }
-
-      List<Job> jobs = lockToJobsNeedingLock.get(exclusiveLockToGet);
-      for (int i = jobs.size() - 1; i >= 0; i--) {
-        Job otherJob = jobs.get(i);
-        // The job that needs the same named lock could need it as
-        // a shared lock or an exclusive lock
-        Lock.Type requiredLockType = otherJob.getRequiredLocks().getType(exclusiveLockToGet);
-        if (requiredLockType == Lock.Type.EXCLUSIVE) {
-          parents.add(otherJob);
-          break;
-        } else if (requiredLockType == Lock.Type.SHARED) {
-          parents.add(otherJob);
-          // Don't break as it should depend on all the jobs needing
-          // the same shared lock
-        }
+      // It should depend on all the jobs needing the same shared lock since the last job that
+      // needed the exclusive lock
+      parents.addAll(queue.sharedJobsAfterLastExclusive);
+      if (queue.lastExclusiveJob != null) {
+        parents.add(queue.lastExclusiveJob);
       }
-
     }
 
     for (String lockToGet : lockSet.getSharedLocks()) {
-      if (!lockToJobsNeedingLock.containsKey(lockToGet)) {
-        continue;
-      }
-      List<Job> jobs = lockToJobsNeedingLock.get(lockToGet);
-      for (int i = jobs.size() - 1; i >= 0; i--) {
-        Job otherJob = jobs.get(i);
-        Lock.Type requiredLockType = otherJob.getRequiredLocks().getType(lockToGet);
-        // A shared lock doesn't depend on other shared locks
-        if (requiredLockType == Lock.Type.EXCLUSIVE) {
-          parents.add(otherJob);
-          break;
-        }
+      LockQueue queue = lockQueues.get(lockToGet);
+      // A shared lock doesn't depend on other shared locks
+      if (queue != null && queue.lastExclusiveJob != null) {
+        parents.add(queue.lastExclusiveJob);
       }
     }
 
@@ -225,42 +248,21 @@ public class JobDagManager {
     return false;
   }
 
-  private boolean hasExclusiveLock(String exclusiveLock, Job job) {
-    return exclusiveLocksHeld.containsKey(exclusiveLock)
-        && exclusiveLocksHeld.get(exclusiveLock) == job;
-  }
-
-  private boolean hasSharedLock(String sharedLock, Job job) {
-    return sharedLocksHeld.containsKey(sharedLock) && sharedLocksHeld.get(sharedLock).contains(job);
-  }
-
   private void removeExclusiveLock(String exclusiveLock, Job job) {
-    if (!hasExclusiveLock(exclusiveLock, job)) {
+    LockQueue queue = lockQueues.get(exclusiveLock);
+    if (queue == null || queue.exclusiveHolder != job) {
       throw new RuntimeException("Job " + job + " was supposed to " + "have exclusive lock "
           + exclusiveLock + " but it didn't!");
     }
-    Job removedJob = exclusiveLocksHeld.remove(exclusiveLock);
-    if (removedJob != job) {
-      throw new RuntimeException("Shouldn't happen!");
-    }
+    queue.exclusiveHolder = null;
   }
 
   private void removeSharedLock(String sharedLock, Job job) {
-    if (!hasSharedLock(sharedLock, job)) {
+    LockQueue queue = lockQueues.get(sharedLock);
+    if (queue == null || !queue.sharedHolders.remove(job)) {
       throw new RuntimeException("Job " + job + " was supposed to " + "have shared lock "
           + sharedLock + " but it didn't!");
     }
-    Set<Job> jobsWithSharedLock = sharedLocksHeld.get(sharedLock);
-    boolean removed = jobsWithSharedLock.remove(job);
-    if (!removed) {
-      throw new RuntimeException("Shouldn't happen!");
-    }
-    if (jobsWithSharedLock.size() == 0) {
-      Set<Job> removedSet = sharedLocksHeld.remove(sharedLock);
-      if (removedSet != jobsWithSharedLock) {
-        throw new RuntimeException("Shouldn't happen!");
-      }
-    }
   }
 
   /**
@@ -269,7 +271,7 @@ public class JobDagManager {
    * @return A set of jobs that can now run since the specified job was removed.
    */
   public synchronized Set<Job> removeJob(Job job) {
-    if (!jobsWithAllRequiredLocks.contains(job)) {
+    if (!jobsWithAllRequiredLocks.remove(job)) {
       throw new RuntimeException("Trying to remove job without " + "having all the locks");
     }
 
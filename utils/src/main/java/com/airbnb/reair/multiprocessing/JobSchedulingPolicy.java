@@ -0,0 +1,115 @@
+package com.airbnb.reair.multiprocessing;
+
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decides the order in which a ParallelJobExecutor runs the jobs that are ready to run. A job is
+ * ready once the jobs that hold the locks that it needs are done, so a policy only reorders jobs
+ * that don't conflict with each other and the lock ordering from the JobDagManager is preserved.
+ *
+ * <p>When a job becomes ready, the policy assigns it a rank, and ready jobs are run in order of
+ * increasing rank. Jobs with the same rank run in the order that they became ready.
+ *
+ * <p>A policy instance should only be used with a single executor. The executor calls
+ * {@link #getRank(Job)} and {@link #onDone(Job, double)} while holding its lock, so implementations
+ * don't need to synchronize state that is only accessed from those methods.
+ */
+public abstract class JobSchedulingPolicy implements Comparator<Job> {
+
+  /**
+   * The position of a ready job in the run order.
+   */
+  private static class RunOrderKey {
+    private final double rank;
+    private final long sequenceNumber;
+
+    RunOrderKey(double rank, long sequenceNumber) {
+      this.rank = rank;
+      this.sequenceNumber = sequenceNumber;
+    }
+  }
+
+  // Read by the workers when they take jobs from the queue
+  private final ConcurrentMap<Job, RunOrderKey> runOrderKeys = new ConcurrentHashMap<>();
+  private long nextSequenceNumber = 0;
+  // The executor that uses this policy
+  private volatile ParallelJobExecutor executor;
+
+  final void attach(ParallelJobExecutor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Called when a job is submitted to the executor, before the executor's lock is acquired. This
+   * runs in the thread that submits the job, so it shouldn't block. Slow work like estimating the
+   * cost of the job should be done asynchronously, followed by a call to
+   * {@link #rankChanged(Job)}.
+   *
+   * @param job the submitted job
+   */
+  protected void onSubmit(Job job) {}
+
+  /**
+   * Get the rank of a job that just became ready to run. Jobs with lower ranks run first.
+   *
+   * @param job the job that is ready to run
+   * @return the rank of the job
+   */
+  protected abstract double getRank(Job job);
+
+  /**
+   * Called when a job finishes running.
+   *
+   * @param job the job that finished
+   * @param rank the rank that was given to the job
+   */
+  protected void onDone(Job job, double rank) {}
+
+  /**
+   * Should be called when the rank of a job may have changed, e.g. when an estimate that the rank
+   * is based on becomes available. If the job is waiting to run, it's moved to the position for
+   * its new rank. May be called from any thread.
+   *
+   * @param job the job to rank again
+   */
+  protected final void rankChanged(Job job) {
+    ParallelJobExecutor currentExecutor = executor;
+    if (currentExecutor != null) {
+      currentExecutor.rerank(job);
+    }
+  }
+
+  final void jobReady(Job job) {
+    // A job that was interrupted and queued again keeps its place
+    if (!runOrderKeys.containsKey(job)) {
+      runOrderKeys.put(job, new RunOrderKey(getRank(job), nextSequenceNumber++));
+    }
+  }
+
+  final void updateRank(Job job) {
+    RunOrderKey key = runOrderKeys.get(job);
+    if (key != null) {
+      runOrderKeys.put(job, new RunOrderKey(getRank(job), key.sequenceNumber));
+    }
+  }
+
+  final void jobDone(Job job) {
+    RunOrderKey key = runOrderKeys.remove(job);
+    if (key != null) {
+      onDone(job, key.rank);
+    }
+  }
+
+  @Override
+  public final int compare(Job job1, Job job2) {
+    RunOrderKey key1 = runOrderKeys.get(job1);
+    RunOrderKey key2 = runOrderKeys.get(job2);
+    int rankComparison = Double.compare(key1.rank, key2.rank);
+    if (rankComparison != 0) {
+      return rankComparison;
+    }
+    return Long.compare(key1.sequenceNumber, key2.sequenceNumber);
+  }
+}
@@ -4,9 +4,13 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -20,8 +24,19 @@ public class ParallelJobExecutor {
 
   private BlockingQueue<Job> jobsToRun;
   private JobDagManager dagManager;
+  private JobSchedulingPolicy schedulingPolicy;
   private int numWorkers = 0;
   private Set<Worker> workers = new HashSet<>();
+  // Workers that were asked to exit after finishing their current job
+  private Set<Worker> retiringWorkers = new HashSet<>();
+  private boolean started = false;
+
+  // Weight given to the latest job when updating the average time that jobs wait to run
+  private static final double QUEUE_WAIT_SMOOTHING_FACTOR = 0.2;
+  // When each job in the ready queue became ready, in ms
+  private final ConcurrentMap<Job, Long> readyTimes = new ConcurrentHashMap<>();
+  private final AtomicInteger runningJobCount = new AtomicInteger(0);
+  private double averageQueueWaitMs = 0;
 
   // Vars for counting the number of jobs
   // Lock to hold when incrementing either count
@@ -39,9 +54,7 @@ public class ParallelJobExecutor {
    * @param numWorkers the number of threads (i.e. workers) to create
    */
   public ParallelJobExecutor(int numWorkers) {
-    dagManager = new JobDagManager();
-    jobsToRun = new LinkedBlockingQueue<Job>();
-    this.numWorkers = numWorkers;
+    this("Worker", numWorkers);
   }
 
   /**
@@ -52,26 +65,87 @@ public class ParallelJobExecutor {
    * @param numWorkers the number of threads (i.e. workers) to create
    */
   public ParallelJobExecutor(String workerName, int numWorkers) {
+    this(workerName, numWorkers, new FifoSchedulingPolicy());
+  }
+
+  /**
+   * Constructor for a job executor that run jobs in multiple threads, using the given policy to
+   * order the jobs that are ready to run.
+   *
+   * @param workerName a prefix use for the worker thread name
+   * @param numWorkers the number of threads (i.e. workers) to create
+   * @param schedulingPolicy the policy that decides which ready job runs next
+   */
+  public ParallelJobExecutor(
+      String workerName,
+      int numWorkers,
+      JobSchedulingPolicy schedulingPolicy) {
     this.workerName = workerName;
+    this.schedulingPolicy = schedulingPolicy;
     dagManager = new JobDagManager();
-    jobsToRun = new LinkedBlockingQueue<Job>();
+    jobsToRun = new PriorityBlockingQueue<Job>(11, schedulingPolicy);
     this.numWorkers = numWorkers;
+    schedulingPolicy.attach(this);
   }
 
   /**
    * Add the given job to run. It will attempt to acquire the locks needed by the job, but if not
    * possible, it will wait until the jobs that hold the required locks give them up. With this
-   * requirement in mind, jobs will be executed in the order that they are added.
+   * requirement in mind, jobs that need the same locks will be executed in the order that they are
+   * added. Jobs that are ready to run are ordered by the scheduling policy.
    *
    * @param job the job that should be run
    */
-  public synchronized void add(Job job) {
-    boolean canRunImmediately = dagManager.addJob(job);
-    if (canRunImmediately) {
-      LOG.debug("Job " + job + " is ready to run.");
+  public void add(Job job) {
+    schedulingPolicy.onSubmit(job);
+    synchronized (this) {
+      boolean canRunImmediately = dagManager.addJob(job);
+      if (canRunImmediately) {
+        LOG.debug("Job " + job + " is ready to run.");
+        queueReadyJob(job);
+      }
+      incrementSubmittedJobCount();
+    }
+  }
+
+  private void queueReadyJob(Job job) {
+    schedulingPolicy.jobReady(job);
+    readyTimes.put(job, System.currentTimeMillis());
+    jobsToRun.add(job);
+  }
+
+  /**
+   * Moves a job that is waiting in the ready queue to the position for its current rank. Does
+   * nothing if the job isn't in the queue.
+   *
+   * @param job the job that the scheduling policy ranks differently
+   */
+  synchronized void rerank(Job job) {
+    // The key of a job can't change while it's in the queue
+    if (jobsToRun.remove(job)) {
+      schedulingPolicy.updateRank(job);
       jobsToRun.add(job);
     }
-    incrementSubmittedJobCount();
+  }
+
+  /**
+   * Should be called by the workers when they take a job from the queue to run it.
+   *
+   * @param job the job that is starting
+   */
+  void notifyStarted(Job job) {
+    runningJobCount.incrementAndGet();
+    Long readyTime = readyTimes.remove(job);
+    if (readyTime != null) {
+      long waitMs = System.currentTimeMillis() - readyTime;
+      countLock.lock();
+      try {
+        averageQueueWaitMs = QUEUE_WAIT_SMOOTHING_FACTOR * waitMs
+            + (1 - QUEUE_WAIT_SMOOTHING_FACTOR) * averageQueueWaitMs;
+      } finally {
+        countLock.unlock();
+      }
+    }
   }
 
 
@@ -83,10 +157,12 @@ public class ParallelJobExecutor {
    */
   public synchronized void notifyDone(Job doneJob) {
     LOG.debug("Done notification received for " + doneJob);
+    runningJobCount.decrementAndGet();
     Set<Job> newReadyJobs = dagManager.removeJob(doneJob);
+    schedulingPolicy.jobDone(doneJob);
     for (Job jobToRun : newReadyJobs) {
       LOG.debug("Job " + jobToRun + " is ready to run.");
-      jobsToRun.add(jobToRun);
+      queueReadyJob(jobToRun);
     }
     incrementDoneJobCount();
 
@@ -138,6 +214,83 @@ public class ParallelJobExecutor {
     }
   }
 
+  /**
+   * Get the number of jobs that are ready to run, but are waiting for a worker.
+   *
+   * @return the number of ready jobs
+   */
+  public int getReadyJobCount() {
+    return jobsToRun.size();
+  }
+
+  /**
+   * Get the number of jobs that workers are running.
+   *
+   * @return the number of running jobs
+   */
+  public int getRunningJobCount() {
+    return runningJobCount.get();
+  }
+
+  /**
+   * Get the moving average of the time that recently started jobs spent waiting for a worker
+   * after they became ready to run.
+   *
+   * @return the average wait time in ms
+   */
+  public double getAverageQueueWaitMs() {
+    countLock.lock();
+    try {
+      return averageQueueWaitMs;
+    } finally {
+      countLock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of workers that the executor is configured to run.
+   *
+   * @return the number of workers
+   */
+  public synchronized int getNumWorkers() {
+    return numWorkers;
+  }
+
+  /**
+   * Change the number of workers. If the executor is running, workers are started, or asked to
+   * exit once they finish the job that they are running. Running jobs are not interrupted.
+   *
+   * @param numWorkers the number of workers to run
+   */
+  public synchronized void setNumWorkers(int numWorkers) {
+    if (numWorkers < 1) {
+      throw new IllegalArgumentException("Invalid number of workers: " + numWorkers);
+    }
+    this.numWorkers = numWorkers;
+    if (!started) {
+      return;
+    }
+
+    retiringWorkers.removeIf(w -> !w.isAlive());
+    while (workers.size() < numWorkers) {
+      Worker worker = new Worker<Job>(workerName, jobsToRun, this);
+      workers.add(worker);
+      worker.start();
+    }
+    // Prefer retiring idle workers, so that they exit right away
+    for (int pass = 0; pass < 2 && workers.size() > numWorkers; pass++) {
+      Iterator<Worker> iterator = workers.iterator();
+      while (iterator.hasNext() && workers.size() > numWorkers) {
+        Worker worker = iterator.next();
+        if (pass == 1 || worker.getJob() == null) {
+          worker.retire();
+          iterator.remove();
+          retiringWorkers.add(worker);
+        }
+      }
+    }
+  }
+
   /**
    * Wait for the number of finished jobs to equal to the number of submitted jobs.
    */
@@ -166,13 +319,9 @@ public class ParallelJobExecutor {
     }
 
     for (Worker w : workers) {
-      try {
-        Thread.sleep(100);
-      } catch (Exception e) {
-        LOG.error(e);
-      }
       w.start();
     }
+    started = true;
   }
 
   /**
@@ -181,6 +330,10 @@ public class ParallelJobExecutor {
    * @throws InterruptedException if interrupted while waiting for threads to finish
    */
   public synchronized void stop() throws InterruptedException {
+    // Workers that are retiring could still be running a job
+    workers.addAll(retiringWorkers);
+    retiringWorkers.clear();
+
     for (Worker w : workers) {
       w.interrupt();
     }
@@ -194,8 +347,10 @@ public class ParallelJobExecutor {
     for (Worker w : workers) {
       if (w.getJob() != null) {
         jobsToRun.add(w.getJob());
+        runningJobCount.decrementAndGet();
       }
     }
     workers.clear();
+    started = false;
   }
 }
@@ -0,0 +1,29 @@
+package com.airbnb.reair.multiprocessing;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Runs jobs in strict priority classes. A ready job in a lower numbered class always runs before a
+ * ready job in a higher numbered class, and jobs in the same class run in the order that they
+ * became ready. Jobs in higher numbered classes can be starved if there are always jobs in lower
+ * numbered classes, so this works best when the lower numbered classes are for short jobs.
+ */
+public class PriorityClassSchedulingPolicy extends JobSchedulingPolicy {
+
+  private final ToIntFunction<Job> priorityClassFunction;
+
+  /**
+   * Constructor.
+   *
+   * @param priorityClassFunction returns the priority class of a job, with lower values having
+   *                              higher priority
+   */
+  public PriorityClassSchedulingPolicy(ToIntFunction<Job> priorityClassFunction) {
+    this.priorityClassFunction = priorityClassFunction;
+  }
+
+  @Override
+  protected double getRank(Job job) {
+    return priorityClassFunction.applyAsInt(job);
+  }
+}
@@ -0,0 +1,90 @@
+package com.airbnb.reair.multiprocessing;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+/**
+ * Runs the ready job with the lowest estimated cost first. The cost of a job is estimated in a
+ * separate pool of threads when the job is submitted, so the estimate can be expensive to compute
+ * without holding up the thread that submits jobs or the workers. A job that becomes ready before
+ * its estimate is available is ranked after the estimated jobs, and moves to its place once the
+ * estimate arrives. Costly jobs can be starved if cheaper jobs keep arriving.
+ */
+public class ShortestJobFirstSchedulingPolicy extends JobSchedulingPolicy {
+
+  private static final Log LOG = LogFactory.getLog(ShortestJobFirstSchedulingPolicy.class);
+
+  // Placeholder for the cost of a job that is still being estimated
+  private static final Long PENDING_COST = -1L;
+
+  private final ToLongFunction<Job> costFunction;
+  private final ExecutorService estimatePool;
+  // Costs of the submitted jobs that haven't finished
+  private final Map<Job, Long> estimatedCosts = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor for a policy that estimates costs in a single thread.
+   *
+   * @param costFunction returns the estimated cost of a job, e.g. the number of bytes to copy
+   */
+  public ShortestJobFirstSchedulingPolicy(ToLongFunction<Job> costFunction) {
+    this(costFunction, 1);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param costFunction returns the estimated cost of a job, e.g. the number of bytes to copy
+   * @param numEstimateThreads the number of threads to estimate costs with
+   */
+  public ShortestJobFirstSchedulingPolicy(
+      ToLongFunction<Job> costFunction,
+      int numEstimateThreads) {
+    this.costFunction = costFunction;
+    AtomicInteger threadCount = new AtomicInteger(0);
+    this.estimatePool = Executors.newFixedThreadPool(numEstimateThreads, runnable -> {
+        Thread thread = new Thread(runnable,
+            "CostEstimator-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+  }
+
+  @Override
+  protected void onSubmit(Job job) {
+    estimatedCosts.put(job, PENDING_COST);
+    estimatePool.execute(() -> estimate(job));
+  }
+
+  private void estimate(Job job) {
+    long cost;
+    try {
+      cost = costFunction.applyAsLong(job);
+    } catch (RuntimeException e) {
+      LOG.error("Unable to estimate the cost of " + job, e);
+      return;
+    }
+    // The job may have finished while it was being estimated
+    if (estimatedCosts.replace(job, PENDING_COST, cost)) {
+      rankChanged(job);
+    }
+  }
+
+  @Override
+  protected double getRank(Job job) {
+    Long cost = estimatedCosts.get(job);
+    return cost == null || cost.equals(PENDING_COST) ? Double.MAX_VALUE : cost;
+  }
+
+  @Override
+  protected void onDone(Job job, double rank) {
+    estimatedCosts.remove(job);
+  }
+}
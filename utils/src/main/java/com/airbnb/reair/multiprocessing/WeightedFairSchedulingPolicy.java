@@ -0,0 +1,93 @@
+package com.airbnb.reair.multiprocessing;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Shares the workers between groups of jobs (e.g. the jobs for each database or table) in
+ * proportion to the weight of each group, so that a group with a large number of jobs doesn't
+ * hold up the jobs of the other groups.
+ *
+ * <p>This uses start-time fair queuing. Each group has a virtual clock that advances by the cost
+ * of a job divided by the weight of the group whenever one of its jobs becomes ready. A ready job
+ * is ranked by the later of the group's clock and the executor's virtual time, which follows the
+ * rank of the jobs that have finished. A group that was idle therefore starts at the current
+ * virtual time instead of getting credit for the time that it was idle.
+ */
+public class WeightedFairSchedulingPolicy extends JobSchedulingPolicy {
+
+  private final Function<Job, String> groupFunction;
+  private final ToDoubleFunction<String> weightFunction;
+  private final ToDoubleFunction<Job> costFunction;
+
+  private double virtualTime = 0;
+
+  /**
+   * The virtual clock of a group of jobs.
+   */
+  private static class GroupState {
+    private double finishTime = 0;
+    // Number of jobs in the group that are ready or running
+    private int activeJobCount = 0;
+  }
+
+  private final Map<String, GroupState> groupStates = new HashMap<>();
+
+  /**
+   * Constructor for a policy where each job has the same cost.
+   *
+   * @param groupFunction returns the name of the group that a job belongs to
+   * @param weightFunction returns the weight of a group given its name
+   */
+  public WeightedFairSchedulingPolicy(
+      Function<Job, String> groupFunction,
+      ToDoubleFunction<String> weightFunction) {
+    this(groupFunction, weightFunction, job -> 1.0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param groupFunction returns the name of the group that a job belongs to
+   * @param weightFunction returns the weight of a group given its name
+   * @param costFunction returns the estimated cost of a job
+   */
+  public WeightedFairSchedulingPolicy(
+      Function<Job, String> groupFunction,
+      ToDoubleFunction<String> weightFunction,
+      ToDoubleFunction<Job> costFunction) {
+    this.groupFunction = groupFunction;
+    this.weightFunction = weightFunction;
+    this.costFunction = costFunction;
+  }
+
+  @Override
+  protected double getRank(Job job) {
+    String group = groupFunction.apply(job);
+    GroupState groupState = groupStates.get(group);
+    if (groupState == null) {
+      groupState = new GroupState();
+      groupStates.put(group, groupState);
+    }
+    double weight = weightFunction.applyAsDouble(group);
+    if (weight <= 0) {
+      throw new IllegalArgumentException("Weight must be positive for group " + group);
+    }
+    double startTime = Math.max(virtualTime, groupState.finishTime);
+    groupState.finishTime = startTime + costFunction.applyAsDouble(job) / weight;
+    groupState.activeJobCount++;
+    return startTime;
+  }
+
+  @Override
+  protected void onDone(Job job, double rank) {
+    virtualTime = Math.max(virtualTime, rank);
+    String group = groupFunction.apply(job);
+    GroupState groupState = groupStates.get(group);
+    if (groupState != null && --groupState.activeJobCount == 0) {
+      groupStates.remove(group);
+    }
+  }
+}
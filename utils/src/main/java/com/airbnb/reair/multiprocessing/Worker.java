@@ -18,7 +18,12 @@ public class Worker<T extends Job> extends Thread {
   private int workerId;
   private BlockingQueue<T> inputQueue;
   private ParallelJobExecutor parallelJobExecutor;
-  private Job job = null;
+  // Read by the executor when it stops or scales the workers
+  private volatile Job job = null;
+  private volatile boolean retireRequested = false;
+  // Lock to hold when requesting retirement or changing whether the worker is waiting for a job
+  private final Object retireLock = new Object();
+  private boolean waitingForJob = false;
 
   /**
    * Constructor for a worker that gets and runs jobs from the input queue.
@@ -58,8 +63,12 @@ public class Worker<T extends Job> extends Thread {
     try {
       while (true) {
         if (job == null) {
-          LOG.debug("Waiting for a job");
-          job = inputQueue.take();
+          job = takeJob();
+          if (job == null) {
+            LOG.debug("Retiring");
+            return;
+          }
+          parallelJobExecutor.notifyStarted(job);
         } else {
           LOG.debug("Using existing job");
         }
@@ -78,7 +87,60 @@ public class Worker<T extends Job> extends Thread {
     } // Any other exception should cause the process to exit via uncaught exception handler
   }
 
+  /**
+   * Wait for the next job from the input queue.
+   *
+   * @return the next job, or null if the worker should retire
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private T takeJob() throws InterruptedException {
+    synchronized (retireLock) {
+      if (retireRequested) {
+        return null;
+      }
+      waitingForJob = true;
+    }
+    LOG.debug("Waiting for a job");
+    T nextJob = null;
+    try {
+      nextJob = inputQueue.take();
+    } catch (InterruptedException e) {
+      // Waiting workers are interrupted when they're asked to retire
+      if (!retireRequested) {
+        throw e;
+      }
+    } finally {
+      synchronized (retireLock) {
+        waitingForJob = false;
+      }
+    }
+    if (nextJob != null && retireRequested && Thread.interrupted()) {
+      // The job was taken just before the interrupt, so leave it for another worker
+      inputQueue.add(nextJob);
+      return null;
+    }
+    return nextJob;
+  }
+
   public Job getJob() {
     return job;
   }
+
+  /**
+   * Ask this worker to exit once it's done with the job that it's running, if any. The running
+   * job is not interrupted, but a worker that is waiting for a job exits right away.
+   */
+  public void retire() {
+    synchronized (retireLock) {
+      retireRequested = true;
+      if (waitingForJob) {
+        interrupt();
+      }
+    }
+  }
+
+  public boolean isRetireRequested() {
+    return retireRequested;
+  }
 }
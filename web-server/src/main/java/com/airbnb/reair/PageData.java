@@ -6,6 +6,7 @@ import com.airbnb.reair.incremental.thrift.TReplicationService;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 
@@ -18,13 +19,22 @@ public class PageData {
 
   private String host;
   private int port;
+  private boolean framed;
   private List<TReplicationJob> activeJobs = null;
   private List<TReplicationJob> retiredJobs = null;
   private long lag;
 
-  public PageData(String host, int port) {
+  /**
+   * Constructor.
+   *
+   * @param host the host of the Thrift server
+   * @param port the port of the Thrift server
+   * @param framed whether the Thrift server uses framed transport
+   */
+  public PageData(String host, int port, boolean framed) {
     this.host = host;
     this.port = port;
+    this.framed = framed;
   }
 
   /**
@@ -36,6 +46,9 @@ public class PageData {
     TTransport transport;
 
     transport = new TSocket(host, port);
+    if (framed) {
+      transport = new TFramedTransport(transport);
+    }
     transport.open();
 
     try {
@@ -41,6 +41,9 @@ public class WebServer {
     options.addOption(OptionBuilder.withLongOpt("http-port")
         .withDescription("Port for the HTTP service").hasArg().withArgName("PORT").create());
 
+    options.addOption(OptionBuilder.withLongOpt("thrift-unframed")
+        .withDescription("Use unframed transport for the thrift service").create());
+
 
     CommandLineParser parser = new BasicParser();
     CommandLine cl = parser.parse(options, argv);
@@ -48,6 +51,7 @@ public class WebServer {
     String thriftHost = "localhost";
     int thriftPort = 9996;
     int httpPort = 8080;
+    boolean thriftFramed = true;
 
     if (cl.hasOption("thrift-host")) {
       thriftHost = cl.getOptionValue("thrift-host");
@@ -64,15 +68,21 @@ public class WebServer {
       LOG.info("httpPort=" + httpPort);
     }
 
+    if (cl.hasOption("thrift-unframed")) {
+      thriftFramed = false;
+      LOG.info("thriftFramed=" + thriftFramed);
+    }
+
     port(httpPort);
 
     final String finalThriftHost = thriftHost;
     final int finalThriftPort = thriftPort;
+    final boolean finalThriftFramed = thriftFramed;
 
     LOG.info(String.format("Connecting to thrift://%s:%s and " + "serving HTTP on %s",
         finalThriftHost, finalThriftPort, httpPort));
     get("/jobs", (request, response) -> {
-      PageData pd = new PageData(finalThriftHost, finalThriftPort);
+      PageData pd = new PageData(finalThriftHost, finalThriftPort, finalThriftFramed);
 
       boolean dataFetchSuccessful = false;
       try {